@@ -0,0 +1,26 @@
+package tech.ailef.jpromptmanager.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler enabled, so that allocation rates
+ * are reported along with throughput and latency percentiles. Accepts the 
+ * same command line options as the standard JMH runner, e.g.:
+ * 
+ * java -jar target/benchmarks.jar PromptExecution -f 1 -wi 3 -i 5
+ */
+public class BenchmarkMain {
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+			.parent(new CommandLineOptions(args))
+			.addProfiler(GCProfiler.class)
+			.jvmArgsAppend("-Dlog4j2.configurationFile=log4j2-benchmarks.properties")
+			.build();
+		
+		new Runner(options).run();
+	}
+}
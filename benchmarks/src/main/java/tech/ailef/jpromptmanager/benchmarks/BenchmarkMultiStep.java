@@ -0,0 +1,10 @@
+package tech.ailef.jpromptmanager.benchmarks;
+
+import tech.ailef.jpromptmanager.prompts.MultiStepStringPrompt;
+
+/**
+ * Prompt class mapped to the `BenchmarkMultiStep` prompt in the benchmarks `prompts.xml`.
+ */
+public class BenchmarkMultiStep extends MultiStepStringPrompt {
+
+}
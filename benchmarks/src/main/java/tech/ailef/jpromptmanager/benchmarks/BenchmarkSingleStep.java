@@ -0,0 +1,10 @@
+package tech.ailef.jpromptmanager.benchmarks;
+
+import tech.ailef.jpromptmanager.prompts.SingleStepStringPrompt;
+
+/**
+ * Prompt class mapped to the `BenchmarkSingleStep` prompt in the benchmarks `prompts.xml`.
+ */
+public class BenchmarkSingleStep extends SingleStepStringPrompt {
+
+}
@@ -0,0 +1,33 @@
+package tech.ailef.jpromptmanager.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import tech.ailef.jpromptmanager.completion.LLMConnector;
+
+/**
+ * A connector that answers immediately with a fixed response, so that
+ * benchmarks only measure the overhead of JPromptManager.
+ */
+public class FakeLLMConnector implements LLMConnector {
+	private final String response;
+	
+	public FakeLLMConnector(String response) {
+		this.response = response;
+	}
+
+	@Override
+	public String complete(String prompt, Map<String, String> params) {
+		return response;
+	}
+
+	@Override
+	public Map<String, String> getDefaultParams() {
+		Map<String, String> params = new HashMap<>();
+		params.put("model", "fake-model");
+		params.put("temperature", "0");
+		params.put("topP", "1");
+		params.put("maxTokens", "256");
+		return params;
+	}
+}
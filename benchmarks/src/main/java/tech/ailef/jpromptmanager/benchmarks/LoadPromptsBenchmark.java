@@ -0,0 +1,71 @@
+package tech.ailef.jpromptmanager.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tech.ailef.jpromptmanager.JPromptManager;
+
+/**
+ * Measures the time to load a prompts file with a growing number of prompts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.properties")
+@State(Scope.Benchmark)
+public class LoadPromptsBenchmark {
+	@Param({ "10", "100", "1000" })
+	public int prompts;
+	
+	private Path promptFile;
+	
+	private FakeLLMConnector connector;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		connector = new FakeLLMConnector("response");
+		
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<prompts>\n");
+		for (int i = 0; i < prompts; i++) {
+			xml.append("\t<prompt type=\"Prompt").append(i).append("\">\n");
+			for (int j = 0; j < 3; j++) {
+				xml.append("\t\t<step name=\"step").append(j).append("\" temperature=\"0\">\n")
+					.append("\t\t\tWrite a tagline for a [[${shopType}]] shop in [[${country}]], variant ").append(j).append(".\n")
+					.append("\t\t\tKeep it short and funny.\n")
+					.append("\t\t</step>\n");
+			}
+			xml.append("\t</prompt>\n");
+		}
+		xml.append("</prompts>\n");
+		
+		promptFile = Files.createTempFile("jpromptmanager-benchmark", ".xml");
+		Files.writeString(promptFile, xml);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(promptFile);
+	}
+	
+	@Benchmark
+	public JPromptManager loadPrompts() {
+		return new JPromptManager(connector, promptFile);
+	}
+}
@@ -0,0 +1,84 @@
+package tech.ailef.jpromptmanager.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thymeleaf.context.IContext;
+
+import tech.ailef.jpromptmanager.JPromptManager;
+import tech.ailef.jpromptmanager.PromptContextBuilder;
+
+/**
+ * Measures the end-to-end overhead of completing prompts (template rendering, 
+ * prompt assembly, step chaining) against a connector with no latency.
+ * Latency percentiles are reported by the SampleTime mode.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.properties")
+@State(Scope.Benchmark)
+public class PromptExecutionBenchmark {
+	private JPromptManager jPrompt;
+	
+	private IContext shopContext;
+	
+	private IContext largeContext;
+	
+	@Setup
+	public void setup() {
+		jPrompt = new JPromptManager(new FakeLLMConnector("A short response from the LLM, about twenty tokens long, used by all the steps."));
+		
+		shopContext = new PromptContextBuilder().set("shopType", "car repair").set("country", "France").build();
+		
+		StringBuilder document = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			document.append("Line ").append(i).append(" of a long document about the history of the shop & its owners.\n");
+		}
+		largeContext = new PromptContextBuilder()
+			.set("shopType", "car repair")
+			.set("country", "France")
+			.set("topic", "vintage cars")
+			.set("document", document.toString())
+			.build();
+	}
+	
+	@Benchmark
+	public String singleStep() {
+		return jPrompt.complete(BenchmarkSingleStep.class, shopContext);
+	}
+	
+	@Benchmark
+	public Map<String, String> multiStep() {
+		return jPrompt.complete(BenchmarkMultiStep.class, shopContext);
+	}
+	
+	@Benchmark
+	public Map<String, String> largeContext() {
+		return jPrompt.complete(BenchmarkLargeContext.class, largeContext);
+	}
+	
+	@Benchmark
+	@Threads(8)
+	public Map<String, String> multiStepConcurrent() {
+		return jPrompt.complete(BenchmarkMultiStep.class, shopContext);
+	}
+	
+	@Benchmark
+	@Threads(8)
+	public Map<String, String> multiStepAsyncConcurrent() {
+		return jPrompt.completeAsync(BenchmarkMultiStep.class, shopContext).join();
+	}
+}
@@ -0,0 +1,67 @@
+package tech.ailef.jpromptmanager.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.thymeleaf.context.IContext;
+
+import tech.ailef.jpromptmanager.PromptContextBuilder;
+import tech.ailef.jpromptmanager.templating.CompiledTemplate;
+
+/**
+ * Compares rendering a step template with the lightweight interpolator, 
+ * with the cached Thymeleaf engine, and with a fresh (uncached) engine.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.properties")
+@State(Scope.Benchmark)
+public class TemplateRenderingBenchmark {
+	private static final String TEMPLATE = 
+		"Create a JSON object representing a [[${shopType}]] shop in [[${country}]].\n"
+		+ "Use the following template:\n"
+		+ "{\n\"name\" : \"the name of the shop\",\n\"tagline\" : \"a funny tagline the shop\"\n}";
+	
+	private CompiledTemplate interpolated;
+	
+	private CompiledTemplate thymeleaf;
+	
+	private org.thymeleaf.TemplateEngine uncachedEngine;
+	
+	private IContext context;
+	
+	@Setup
+	public void setup() {
+		interpolated = CompiledTemplate.compile(TEMPLATE);
+		// The unescaped inline expression forces the full engine
+		thymeleaf = CompiledTemplate.compile(TEMPLATE + "\n[(${country})]");
+		uncachedEngine = new org.thymeleaf.TemplateEngine();
+		context = new PromptContextBuilder().set("shopType", "car repair").set("country", "France").build();
+	}
+	
+	@Benchmark
+	public String interpolated() {
+		return interpolated.render(context);
+	}
+	
+	@Benchmark
+	public String thymeleafCached() {
+		return thymeleaf.render(context);
+	}
+	
+	@Benchmark
+	public String thymeleafUncached() {
+		return uncachedEngine.process(TEMPLATE, context);
+	}
+}
@@ -0,0 +1,68 @@
+package tech.ailef.jpromptmanager.completion;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+
+/**
+ * Measures how long the ChatGPT connector takes to turn the history of a 
+ * multi-step prompt into the chat messages of a request, both from the 
+ * conversation built by the pipeline and from the legacy string format. 
+ * Lives in the connector package to access the package-private request builder.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.properties")
+@State(Scope.Benchmark)
+public class ChatRequestBuildingBenchmark {
+	@Param({ "1", "5", "20" })
+	public int steps;
+	
+	private OpenAIChatGPTConnector connector;
+	
+	private Conversation conversation;
+	
+	private String prompt;
+	
+	private Map<String, String> params;
+	
+	@Setup
+	public void setup() {
+		// No request is ever sent, so the key doesn't need to be valid
+		connector = new OpenAIChatGPTConnector("benchmark-key", 0, "gpt-3.5-turbo");
+		params = connector.getDefaultParams();
+		
+		conversation = Conversation.empty();
+		for (int i = 0; i < steps; i++) {
+			conversation = conversation
+				.append(Message.Role.USER, "Instructions for step " + i + ", asking the model to write something.")
+				.append(Message.Role.ASSISTANT, "The answer of the model to step " + i + ", a few sentences long. ".repeat(5));
+		}
+		prompt = conversation.toPrompt();
+	}
+	
+	@Benchmark
+	public ChatCompletionRequest fromConversation() {
+		return connector.buildRequest(conversation, params);
+	}
+	
+	@Benchmark
+	public ChatCompletionRequest fromString() {
+		return connector.buildRequest(Conversation.parse(prompt), params);
+	}
+}
@@ -1,26 +1,27 @@
 package tech.ailef.jpromptmanager;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
-import org.dom4j.Document;
-import org.dom4j.DocumentException;
-import org.dom4j.Element;
-import org.dom4j.Node;
-import org.dom4j.io.SAXReader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.thymeleaf.context.IContext;
 
 import com.theokanning.openai.OpenAiHttpException;
 
+import tech.ailef.jpromptmanager.batch.BatchExecutor;
+import tech.ailef.jpromptmanager.batch.BatchItem;
+import tech.ailef.jpromptmanager.batch.BatchResult;
+import tech.ailef.jpromptmanager.catalog.LazyPromptCatalog;
+import tech.ailef.jpromptmanager.catalog.PromptCatalog;
 import tech.ailef.jpromptmanager.completion.LLMConnector;
 import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
 import tech.ailef.jpromptmanager.prompts.Prompt;
@@ -29,70 +30,107 @@ import tech.ailef.jpromptmanager.prompts.Prompt;
  * 
  *
  */
-public class JPromptManager {
+public class JPromptManager implements AutoCloseable {
+	private static final Logger logger = LogManager.getLogger(JPromptManager.class);
+	
 	/**
 	 * The underlying connector that is able to make requests to the desired LLM
 	 */
-	private LLMConnector llmConnector;
+	private final LLMConnector llmConnector;
+	
+	/**
+	 * The current snapshot of the prompts loaded from the prompts file. It's replaced
+	 * as a whole on reload, so lookups don't need any locking.
+	 */
+	private volatile PromptRegistry registry;
+	
+	/**
+	 * The file or directory the prompts are loaded from, null if loaded from the classpath
+	 */
+	private final Path promptFile;
 	
 	/**
-	 * The prompts as loaded from the XML file
+	 * Watches the prompts file when hot reload is enabled
 	 */
-	private Map<String, PromptTemplate> prompts = new HashMap<>();
+	private final PromptFileWatcher watcher;
 	
 	/**
 	 * Configuration objects
 	 */
-	private JPromptManagerOptions options;
+	private final JPromptManagerOptions options;
 
 	/**
 	 * Initializes a JPromptManager instance with the provided connector.
-	 * This constructor tries to load the prompts from a `prompts.xml` file
-	 * in the classpath, and fails if not present.
+	 * This constructor tries to load the prompts from a `prompts.catalog` file
+	 * (see {@link PromptCatalog}) or, if missing, from a `prompts.xml` file
+	 * in the classpath, and fails if neither is present.
 	 * @param llmConnector	an instance of a LLM connector
 	 */
 	public JPromptManager(LLMConnector llmConnector) {
-		this.llmConnector = llmConnector;
-		this.options = new JPromptManagerOptions();
-		loadPrompts(getClass().getClassLoader().getResourceAsStream("prompts.xml"));
+		this(llmConnector, new JPromptManagerOptions());
 	}
 	
 	public JPromptManager(LLMConnector llmConnector, JPromptManagerOptions options) {
 		this.llmConnector = llmConnector;
 		this.options = options;
-		loadPrompts(getClass().getClassLoader().getResourceAsStream("prompts.xml"));
+		this.promptFile = null;
+		this.watcher = null;
+		
+		ClassLoader classLoader = getClass().getClassLoader();
+		InputStream stream = classLoader.getResourceAsStream("prompts.catalog");
+		if (stream == null)
+			stream = classLoader.getResourceAsStream("prompts.xml");
+		if (stream == null)
+			throw new JPromptManagerException("No prompts.catalog or prompts.xml file found in the classpath");
+		
+		try (InputStream in = stream) {
+			loadPrompts(in.readAllBytes());
+		} catch (IOException e) {
+			throw new JPromptManagerException("Unable to read prompts file from the classpath", e);
+		}
 	}
 	
 	/**
 	 * Initializes a JPromptManager instance with the provided connector and prompts file.
 	 * @param llmConnector	an instance of a LLM connector
-	 * @param promptFile	the XML file to load prompts from
+	 * @param promptFile	the XML file or catalog to load prompts from
 	 */
 	public JPromptManager(LLMConnector llmConnector, Path promptFile) {
-		this.llmConnector = llmConnector;
-		this.options = new JPromptManagerOptions();
-		try {
-			loadPrompts(new FileInputStream(promptFile.toFile()));
-		} catch (FileNotFoundException e) {
-			throw new JPromptManagerException("Unable to file prompts file " + promptFile, e);
-		}
+		this(llmConnector, promptFile, new JPromptManagerOptions());
 	}
 	
 	/**
 	 * Initializes a JPromptManager instance with the provided connector and prompts file.
+	 * If the path is a directory, all the prompts files it contains are indexed and
+	 * each prompt is only parsed when first used (see {@link LazyPromptCatalog}).
+	 * If hot reload is enabled in the options, the file is watched for changes and
+	 * reloaded in the background until {@link #close()} is called.
 	 * @param llmConnector	an instance of a LLM connector
-	 * @param promptFile	the XML file to load prompts from
+	 * @param promptFile	the XML file, catalog or directory to load prompts from
 	 * @param options	configuration object for JPromptManager
 	 */
 	public JPromptManager(LLMConnector llmConnector, Path promptFile, JPromptManagerOptions options) {
+		this.llmConnector = llmConnector;
 		this.options = options;
+		this.promptFile = promptFile;
+		reload();
+		this.watcher = options.isHotReload() ? new PromptFileWatcher(promptFile, this::reloadInBackground) : null;
+	}
+
+	/**
+	 * Initializes a JPromptManager instance with the prompts files in the classpath
+	 * that match the given glob pattern, e.g. `prompts/**.xml`. Prompts are indexed
+	 * at startup and only parsed when first used (see {@link LazyPromptCatalog}).
+	 * @param llmConnector	an instance of a LLM connector
+	 * @param classpathPattern	the pattern of the resources to load prompts from
+	 * @param options	configuration object for JPromptManager
+	 */
+	public JPromptManager(LLMConnector llmConnector, String classpathPattern, JPromptManagerOptions options) {
 		this.llmConnector = llmConnector;
 		this.options = options;
-		try {
-			loadPrompts(new FileInputStream(promptFile.toFile()));
-		} catch (FileNotFoundException e) {
-			throw new JPromptManagerException("Unable to file prompts file " + promptFile, e);
-		}
+		this.promptFile = null;
+		this.watcher = null;
+		loadCatalog(LazyPromptCatalog.fromClasspath(getClass().getClassLoader(), classpathPattern, options.getPromptCacheSize()));
 	}
 
 	/**
@@ -118,6 +156,93 @@ public class JPromptManager {
 		return llmConnector.complete(prompt, context, this);
 	}
 	
+	/**
+	 * Completes the given prompt with the given context, streaming the response to each 
+	 * step to the listener while it's generated. The final output is returned as with
+	 * {@link #complete(Class, IContext)}. If the connector doesn't support streaming,
+	 * the response to each step is passed to the listener as a single chunk.
+	 * 
+	 * @param <T>	the output type of this prompt
+	 * @param prompt	the class of the prompt to complete
+	 * @param context	a Map containing the variables to replace in the template
+	 * @param listener	the listener for the output of each step
+	 * @return	an object of type T as specified by the prompt class implementation
+	 */
+	public <T> T completeStreaming(Class<? extends Prompt<T>> prompt, IContext context, StreamListener listener) {
+		return llmConnector.complete(prompt, context, this, listener);
+	}
+	
+	/**
+	 * Completes the given prompt asynchronously, using the executor
+	 * configured in {@link JPromptManagerOptions}.
+	 * @param <T>	the output type of this prompt
+	 * @param prompt	the class of the prompt to complete
+	 * @return	a future that completes with an object of type T as specified by the prompt class implementation
+	 */
+	public <T> CompletableFuture<T> completeAsync(Class<? extends Prompt<T>> prompt) {
+		return llmConnector.completeAsync(prompt, this);
+	}
+	
+	/**
+	 * Completes the given prompt asynchronously with the given context (i.e. variables
+	 * to be replaced by the templating engine), using the executor configured
+	 * in {@link JPromptManagerOptions}.
+	 * 
+	 * @param <T>	the output type of this prompt
+	 * @param prompt	the class of the prompt to complete
+	 * @param context	a Map containing the variables to replace in the template
+	 * @return	a future that completes with an object of type T as specified by the prompt class implementation
+	 */
+	public <T> CompletableFuture<T> completeAsync(Class<? extends Prompt<T>> prompt, IContext context) {
+		return llmConnector.completeAsync(prompt, context, this);
+	}
+	
+	/**
+	 * Completes the given prompt once for each of the provided contexts, keeping at most
+	 * {@link JPromptManagerOptions#getBatchConcurrency()} completions in flight at the same time.
+	 * Failures on individual contexts don't abort the batch, and are reported in the result.
+	 * 
+	 * @param <T>	the output type of this prompt
+	 * @param prompt	the class of the prompt to complete
+	 * @param contexts	the contexts to complete the prompt with
+	 * @return	the results of the batch, in the same order as the contexts
+	 */
+	public <T> BatchResult<T> completeAll(Class<? extends Prompt<T>> prompt, List<IContext> contexts) {
+		return completeAll(prompt, contexts, options.getBatchConcurrency());
+	}
+	
+	/**
+	 * Completes the given prompt once for each of the provided contexts, keeping at most
+	 * `maxConcurrency` completions in flight at the same time. Failures on individual
+	 * contexts don't abort the batch, and are reported in the result.
+	 * 
+	 * @param <T>	the output type of this prompt
+	 * @param prompt	the class of the prompt to complete
+	 * @param contexts	the contexts to complete the prompt with
+	 * @param maxConcurrency	the maximum number of concurrent completions
+	 * @return	the results of the batch, in the same order as the contexts
+	 */
+	public <T> BatchResult<T> completeAll(Class<? extends Prompt<T>> prompt, List<IContext> contexts, int maxConcurrency) {
+		return new BatchExecutor<>(this, prompt, maxConcurrency).completeAll(contexts);
+	}
+	
+	/**
+	 * Completes the given prompt once for each context in the stream, passing each
+	 * result to the consumer as soon as it's available, so not necessarily in the same order 
+	 * as the stream. The stream is consumed lazily, keeping at most `maxConcurrency`
+	 * completions in flight at the same time. The consumer is never called concurrently
+	 * and this method returns once all the contexts have been completed.
+	 * 
+	 * @param <T>	the output type of this prompt
+	 * @param prompt	the class of the prompt to complete
+	 * @param contexts	the contexts to complete the prompt with
+	 * @param maxConcurrency	the maximum number of concurrent completions
+	 * @param consumer	the consumer of the results
+	 */
+	public <T> void completeAll(Class<? extends Prompt<T>> prompt, Stream<IContext> contexts, 
+			int maxConcurrency, Consumer<BatchItem<T>> consumer) {
+		new BatchExecutor<>(this, prompt, maxConcurrency).completeAll(contexts.iterator(), consumer);
+	}
 	
 	/**
 	 * Returns the {@link PromptTemplate} with the given name, null if missing.
@@ -125,78 +250,93 @@ public class JPromptManager {
 	 * @return
 	 */
 	public PromptTemplate getPromptTemplate(String name) {
-		return prompts.get(name);
+		return registry.get(name);
 	}
-
+	
 	/**
-	 * Loads prompts from an XML file. This step will perform some basic data validation
-	 * and can throw a {@link JPromptManagerException} if some of these checks fail.
-	 * @param fileStream
+	 * Returns the current snapshot of the loaded prompts
+	 * @return	the prompt registry
 	 */
-	private void loadPrompts(InputStream fileStream) throws JPromptManagerException {
-		SAXReader reader = new SAXReader();
+	public PromptRegistry getPromptRegistry() {
+		return registry;
+	}
+	
+	/**
+	 * Loads the prompts file again and replaces the current prompts with its content. 
+	 * If the file is invalid, an exception is thrown and the current prompts are kept.
+	 * Completions that are already running are not affected.
+	 * @throws JPromptManagerException	if the prompts were not loaded from a file, or the file is invalid
+	 */
+	public void reload() {
+		if (promptFile == null)
+			throw new JPromptManagerException("Prompts loaded from the classpath can't be reloaded");
+		
+		if (Files.isDirectory(promptFile)) {
+			loadCatalog(LazyPromptCatalog.fromDirectory(promptFile, options.getPromptCacheSize()));
+			return;
+		}
 		
+		byte[] content;
 		try {
-			Document document = reader.read(fileStream);
-			
-			List<Node> prompts = document.selectNodes("/prompts/prompt");
-			
-			prompts.forEach(p -> {
-				Element promptElement = (Element)p;
-				
-				String promptClass = promptElement.attributeValue("type");
-				if (promptClass == null)
-					throw new JPromptManagerException("Found prompt object with missing `type` attribute: " + promptElement.asXML());
-				
-				List<PromptStep> steps = new ArrayList<>();
-				
-				List<Node> stepNodes = p.selectNodes("step");
-				stepNodes.forEach(step -> {
-					// Remove leading spaces caused by indentation in XML file
-					// Also removing <step> tags that are included when using asXML()
-					// which is needed to avoid having thymeleaf tags not present
-					String normalizedText = Arrays.stream(
-						step.asXML().split("\\n")).map(l -> l.trim())
-							.filter(l -> !l.startsWith("<step") && !l.startsWith("</step"))
-							.collect(Collectors.joining("\n")
-					);
-					
-					Element stepElement = (Element)step;
-					
-					Map<String, String> stepParams = new HashMap<>();
-					stepElement.attributes().forEach(attribute -> {
-						String attrName = attribute.getName();
-						String attrValue = attribute.getValue();
-						stepParams.put(attrName, attrValue);
-					});
-					
-					PromptStep newStep = new PromptStep(normalizedText);
-					newStep.setParams(stepParams);
-					
-					String stepName = stepElement.attributeValue("name", null);
-					if (stepName == null)
-						throw new JPromptManagerException("Found step object with missing `name` attribute; found: " + stepElement.asXML());
-					
-					newStep.setName(stepName);
-					
-					steps.add(newStep);
-				});
-				
-				
-				Set<String> distinctNames = 
-					steps.stream().map(PromptStep::getName).collect(Collectors.toSet());
-				if (steps.size() != distinctNames.size()) {
-					throw new JPromptManagerException("All prompt steps must have unique names: invalid prompt `" + promptClass);
-				}
-				
-				this.prompts.put(promptClass, new PromptTemplate(steps));
-			});
-		} catch (DocumentException e) {
-			throw new JPromptManagerException(e);
+			content = Files.readAllBytes(promptFile);
+		} catch (IOException e) {
+			throw new JPromptManagerException("Unable to read prompts file " + promptFile, e);
 		}
+		loadPrompts(content);
+	}
+	
+	private void reloadInBackground() {
+		try {
+			reload();
+			logger.info("Reloaded " + registry.size() + " prompts from " + promptFile + " (version " + registry.getVersion() + ")");
+		} catch (JPromptManagerException e) {
+			logger.error("Invalid prompts file " + promptFile + ", keeping version " + registry.getVersion(), e);
+		}
+	}
+	
+	/**
+	 * Stops watching the prompts file, if hot reload is enabled
+	 */
+	@Override
+	public void close() {
+		if (watcher != null)
+			watcher.close();
+	}
+
+	/**
+	 * Loads prompts from an XML file or a catalog and publishes them as a new snapshot. 
+	 * The content is fully parsed and validated first, so a {@link JPromptManagerException} 
+	 * leaves the current prompts in place.
+	 * @param content	the content of the prompts file
+	 */
+	private synchronized void loadPrompts(byte[] content) throws JPromptManagerException {
+		Map<String, PromptTemplate> prompts = PromptCatalog.isCatalog(content)
+				? PromptCatalog.read(content)
+				: PromptXmlParser.parse(new ByteArrayInputStream(content));
+		this.registry = new PromptRegistry(prompts, nextVersion());
+	}
+	
+	/**
+	 * Publishes the prompts of a lazy catalog as a new snapshot
+	 * @param catalog	the indexed catalog
+	 */
+	private synchronized void loadCatalog(LazyPromptCatalog catalog) {
+		this.registry = new PromptRegistry(catalog, nextVersion());
+	}
+	
+	private long nextVersion() {
+		return registry == null ? 1 : registry.getVersion() + 1;
 	}
 	
 	public JPromptManagerOptions getOptions() {
 		return options;
 	}
+	
+	/**
+	 * Returns the connector used to complete the prompts
+	 * @return	the LLM connector
+	 */
+	public LLMConnector getConnector() {
+		return llmConnector;
+	}
 }
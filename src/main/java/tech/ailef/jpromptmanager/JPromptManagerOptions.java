@@ -1,14 +1,298 @@
 package tech.ailef.jpromptmanager;
 
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import tech.ailef.jpromptmanager.completion.HttpTransport;
+import tech.ailef.jpromptmanager.completion.JdkHttpTransport;
+import tech.ailef.jpromptmanager.metrics.CompletionListener;
+import tech.ailef.jpromptmanager.prompts.OutputValidator;
+
 public class JPromptManagerOptions {
 	private boolean printPrompts = false;
+
+	/**
+	 * The executor used to run asynchronous completions. If not set,
+	 * a shared default executor is used (see {@link #getExecutor()}).
+	 */
+	private Executor executor;
+	
+	/**
+	 * The maximum number of completions in flight at the same time
+	 * when running batch completions
+	 */
+	private int batchConcurrency = 16;
+	
+	/**
+	 * The listeners that receive metrics about completed prompts and steps
+	 */
+	private final List<CompletionListener> listeners = new ArrayList<>();
+	
+	/**
+	 * Whether to watch the prompts file and reload it when it changes
+	 */
+	private boolean hotReload = false;
+	
+	/**
+	 * The maximum number of parsed prompts kept in memory when
+	 * prompts are loaded lazily from a directory or classpath pattern
+	 */
+	private int promptCacheSize = 1024;
+	
+	/**
+	 * The HTTP transport shared by the connectors, built on first use 
+	 * from the settings below if not set explicitly
+	 */
+	private HttpTransport httpTransport;
+	
+	/**
+	 * The maximum number of HTTP requests in flight on the transport
+	 */
+	private int httpMaxConcurrentRequests = JdkHttpTransport.DEFAULT_MAX_CONCURRENT_REQUESTS;
 	
+	/**
+	 * The time allowed to open a connection
+	 */
+	private Duration httpConnectTimeout = JdkHttpTransport.DEFAULT_CONNECT_TIMEOUT;
+	
+	/**
+	 * The preferred HTTP version
+	 */
+	private HttpClient.Version httpVersion = HttpClient.Version.HTTP_2;
+	
+	/**
+	 * The validators that steps can refer to by name in their `validate` attribute
+	 */
+	private final Map<String, OutputValidator> validators = new ConcurrentHashMap<>();
+
 	public JPromptManagerOptions withPrintPrompts(boolean printPrompts) {
 		this.printPrompts = printPrompts;
 		return this;
 	}
+
+	/**
+	 * Sets the executor used to run asynchronous completions
+	 * @param executor	the executor to use for async completions
+	 * @return	this options object
+	 */
+	public JPromptManagerOptions withExecutor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of completions in flight at the same time
+	 * when running batch completions, default 16
+	 * @param batchConcurrency	the maximum number of concurrent completions in a batch
+	 * @return	this options object
+	 */
+	public JPromptManagerOptions withBatchConcurrency(int batchConcurrency) {
+		if (batchConcurrency <= 0)
+			throw new IllegalArgumentException("batchConcurrency must be positive, got " + batchConcurrency);
+		this.batchConcurrency = batchConcurrency;
+		return this;
+	}
+
+	/**
+	 * Adds a listener that receives metrics about each completed prompt and step
+	 * @param listener	the listener to add
+	 * @return	this options object
+	 */
+	public JPromptManagerOptions withListener(CompletionListener listener) {
+		if (listener == null)
+			throw new NullPointerException("listener cannot be null");
+		this.listeners.add(listener);
+		return this;
+	}
+
+	/**
+	 * Enables watching the prompts file for changes, so that prompts can be 
+	 * edited without restarting the application. Only applies when prompts
+	 * are loaded from a file. Invalid files are logged and ignored.
+	 * @param hotReload	whether to reload the prompts file when it changes
+	 * @return	this options object
+	 */
+	public JPromptManagerOptions withHotReload(boolean hotReload) {
+		this.hotReload = hotReload;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of parsed prompts kept in memory when prompts are
+	 * loaded lazily from a directory or classpath pattern, default 1024. 
+	 * The least recently used prompts are evicted and parsed again when needed.
+	 * @param promptCacheSize	the maximum number of cached prompts
+	 * @return	this options object
+	 */
+	public JPromptManagerOptions withPromptCacheSize(int promptCacheSize) {
+		if (promptCacheSize <= 0)
+			throw new IllegalArgumentException("promptCacheSize must be positive, got " + promptCacheSize);
+		this.promptCacheSize = promptCacheSize;
+		return this;
+	}
+
+	/**
+	 * Sets the HTTP transport returned by {@link #getHttpTransport()}, replacing the
+	 * default one. The HTTP settings of these options are ignored.
+	 * @param httpTransport	the transport
+	 * @return	this options object
+	 */
+	public JPromptManagerOptions withHttpTransport(HttpTransport httpTransport) {
+		this.httpTransport = httpTransport;
+		return this;
+	}
 	
+	/**
+	 * Sets the maximum number of HTTP requests in flight on the transport, default 64.
+	 * Further requests wait for one of them to complete.
+	 * @param httpMaxConcurrentRequests	the maximum number of concurrent requests
+	 * @return	this options object
+	 */
+	public JPromptManagerOptions withHttpMaxConcurrentRequests(int httpMaxConcurrentRequests) {
+		if (httpMaxConcurrentRequests <= 0)
+			throw new IllegalArgumentException("httpMaxConcurrentRequests must be positive, got " + httpMaxConcurrentRequests);
+		this.httpMaxConcurrentRequests = httpMaxConcurrentRequests;
+		return this;
+	}
+	
+	/**
+	 * Sets the time allowed to open a connection, default 10 seconds
+	 * @param httpConnectTimeout	the connect timeout
+	 * @return	this options object
+	 */
+	public JPromptManagerOptions withHttpConnectTimeout(Duration httpConnectTimeout) {
+		this.httpConnectTimeout = httpConnectTimeout;
+		return this;
+	}
+	
+	/**
+	 * Sets the preferred HTTP version, default HTTP/2 (with fallback to HTTP/1.1)
+	 * @param httpVersion	the HTTP version
+	 * @return	this options object
+	 */
+	public JPromptManagerOptions withHttpVersion(HttpClient.Version httpVersion) {
+		this.httpVersion = httpVersion;
+		return this;
+	}
+
+	/**
+	 * Registers a validator that steps can use with `validate="name"`, e.g. 
+	 * a JSON validator for a given type or a custom predicate (see {@link OutputValidator})
+	 * @param name	the name of the validator
+	 * @param validator	the validator
+	 * @return	this options object
+	 */
+	public JPromptManagerOptions withValidator(String name, OutputValidator validator) {
+		if (validator == null)
+			throw new NullPointerException("validator cannot be null");
+		this.validators.put(name, validator);
+		return this;
+	}
+
 	public boolean isPrintPrompts() {
 		return printPrompts;
 	}
+
+	public boolean isHotReload() {
+		return hotReload;
+	}
+
+	/**
+	 * Returns the HTTP transport to share between connectors, e.g. 
+	 * `new OpenAIChatGPTConnector(apiKey, options.getHttpTransport(), ...)`. 
+	 * If not set, it's built on first call from the HTTP settings of these options.
+	 * @return	the HTTP transport
+	 */
+	public synchronized HttpTransport getHttpTransport() {
+		if (httpTransport == null)
+			httpTransport = new JdkHttpTransport(httpMaxConcurrentRequests, httpConnectTimeout, httpVersion);
+		return httpTransport;
+	}
+	
+	public int getHttpMaxConcurrentRequests() {
+		return httpMaxConcurrentRequests;
+	}
+	
+	public Duration getHttpConnectTimeout() {
+		return httpConnectTimeout;
+	}
+	
+	public HttpClient.Version getHttpVersion() {
+		return httpVersion;
+	}
+	
+	public int getPromptCacheSize() {
+		return promptCacheSize;
+	}
+	
+	public int getBatchConcurrency() {
+		return batchConcurrency;
+	}
+	
+	/**
+	 * Returns the validator registered with the given name
+	 * @param name	the name of the validator
+	 * @return	the validator, or null if none is registered with the name
+	 */
+	public OutputValidator getValidator(String name) {
+		return validators.get(name);
+	}
+	
+	/**
+	 * Returns the (unmodifiable) list of registered listeners
+	 * @return	the completion listeners
+	 */
+	public List<CompletionListener> getListeners() {
+		return Collections.unmodifiableList(listeners);
+	}
+
+	/**
+	 * Returns the executor used to run asynchronous completions. If no executor
+	 * has been set explicitly, a shared default is returned: on JDK 21+ this
+	 * executor starts a new virtual thread for each task, while on older JDKs it
+	 * falls back to a cached pool of daemon threads.
+	 * @return	the executor for async completions
+	 */
+	public Executor getExecutor() {
+		return executor != null ? executor : getDefaultExecutor();
+	}
+	
+	/**
+	 * Returns the shared executor used when none is set explicitly (see {@link #getExecutor()}),
+	 * e.g. for components built before the options are available
+	 * @return	the default executor for async completions
+	 */
+	public static Executor getDefaultExecutor() {
+		return DefaultExecutorHolder.EXECUTOR;
+	}
+
+	/**
+	 * Lazily initialized holder for the default executor, so that no threads
+	 * are created unless async completions are actually used.
+	 */
+	private static class DefaultExecutorHolder {
+		private static final ExecutorService EXECUTOR = createDefaultExecutor();
+
+		private static ExecutorService createDefaultExecutor() {
+			// Virtual threads are only available from JDK 21, so we look them up
+			// reflectively to keep compatibility with the compilation target
+			try {
+				return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException | SecurityException e) {
+				return Executors.newCachedThreadPool(r -> {
+					Thread t = new Thread(r, "jpromptmanager-async");
+					t.setDaemon(true);
+					return t;
+				});
+			}
+		}
+	}
 }
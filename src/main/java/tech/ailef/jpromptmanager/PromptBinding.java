@@ -0,0 +1,181 @@
+package tech.ailef.jpromptmanager;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.prompts.Prompt;
+
+/**
+ * The resolved information needed to run a prompt class: how to create its 
+ * instances and the name of its template. Bindings are computed once per class
+ * and cached, so completing a prompt doesn't use reflection.
+ * 
+ * By default, instances are created with the public no-args constructor. A
+ * factory can be registered with {@link #register(Class, Supplier)} instead,
+ * e.g. for prompts that need constructor arguments.
+ *
+ * @param <T>	the output type of the prompt
+ */
+public final class PromptBinding<T> {
+	private static final Map<Class<?>, Supplier<?>> registeredFactories = new ConcurrentHashMap<>();
+	
+	private static final ClassValue<PromptBinding<?>> bindings = new ClassValue<>() {
+		@Override
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		protected PromptBinding<?> computeValue(Class<?> type) {
+			return new PromptBinding(type);
+		}
+	};
+	
+	private final Class<? extends Prompt<T>> promptClass;
+	
+	private final Supplier<? extends Prompt<T>> factory;
+	
+	private final String name;
+	
+	/**
+	 * The last template resolved for this class, with the registry it was found in
+	 */
+	private volatile ResolvedTemplate resolved;
+	
+	private static final class ResolvedTemplate {
+		private final PromptRegistry registry;
+		
+		private final PromptTemplate template;
+		
+		private ResolvedTemplate(PromptRegistry registry, PromptTemplate template) {
+			this.registry = registry;
+			this.template = template;
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private PromptBinding(Class<? extends Prompt<T>> promptClass) {
+		this.promptClass = promptClass;
+		
+		Supplier<?> registered = registeredFactories.get(promptClass);
+		this.factory = registered != null ? (Supplier<? extends Prompt<T>>)registered : constructorFactory(promptClass);
+		this.name = resolveName();
+	}
+	
+	/**
+	 * Returns the binding of the given prompt class
+	 * @param <T>	the output type of the prompt
+	 * @param promptClass	the class of the prompt
+	 * @return	the binding, computed on first use
+	 * @throws JPromptManagerException	if the class can't be instantiated
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> PromptBinding<T> of(Class<? extends Prompt<T>> promptClass) {
+		return (PromptBinding<T>)bindings.get(promptClass);
+	}
+	
+	/**
+	 * Registers the factory used to create the instances of a prompt class,
+	 * instead of its no-args constructor. The factory must return a new instance
+	 * each time it's called.
+	 * @param <P>	the prompt class
+	 * @param promptClass	the class of the prompt
+	 * @param factory	the factory for instances of the class
+	 */
+	public static <P extends Prompt<?>> void register(Class<P> promptClass, Supplier<? extends P> factory) {
+		registeredFactories.put(promptClass, factory);
+		// Recompute the binding if it was already used
+		bindings.remove(promptClass);
+	}
+	
+	/**
+	 * Creates a new instance of the prompt
+	 * @return	a new prompt instance
+	 * @throws JPromptManagerException	if the factory fails
+	 */
+	public Prompt<T> newInstance() {
+		Prompt<T> prompt;
+		try {
+			prompt = factory.get();
+		} catch (JPromptManagerException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw new JPromptManagerException("Error when creating an instance of " + promptClass.getName(), e);
+		}
+		
+		if (prompt == null)
+			throw new JPromptManagerException("The factory of " + promptClass.getName() + " returned null");
+		return prompt;
+	}
+	
+	/**
+	 * Returns the template of this prompt from the given registry. The result is
+	 * cached until the registry is replaced (e.g. when prompts are reloaded).
+	 * @param registry	the registry of the {@link JPromptManager} running the prompt
+	 * @return	the template
+	 * @throws JPromptManagerException	if the registry has no template for this prompt
+	 */
+	public PromptTemplate getTemplate(PromptRegistry registry) {
+		ResolvedTemplate current = resolved;
+		if (current != null && current.registry == registry)
+			return current.template;
+		
+		PromptTemplate template = registry.get(name);
+		if (template == null)
+			throw new JPromptManagerException("Unable to find prompt template for " + name);
+		
+		resolved = new ResolvedTemplate(registry, template);
+		return template;
+	}
+	
+	/**
+	 * Returns the name of the prompt, i.e. the type of its template
+	 * @return	the prompt name
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	public Class<? extends Prompt<T>> getPromptClass() {
+		return promptClass;
+	}
+	
+	/**
+	 * Returns the value of {@link Prompt#getName()}: the simple name of the class unless
+	 * it's overridden, in which case an instance is needed to call it
+	 */
+	private String resolveName() {
+		try {
+			if (promptClass.getMethod("getName").getDeclaringClass() == Prompt.class)
+				return promptClass.getSimpleName();
+		} catch (NoSuchMethodException e) {
+			// Not possible, declared by Prompt
+		}
+		return newInstance().getName();
+	}
+	
+	private static <T> Supplier<? extends Prompt<T>> constructorFactory(Class<? extends Prompt<T>> promptClass) {
+		MethodHandle constructor;
+		try {
+			constructor = MethodHandles.publicLookup()
+				.findConstructor(promptClass, MethodType.methodType(void.class))
+				.asType(MethodType.methodType(Prompt.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new JPromptManagerException("Error when calling no-args constructor for class " + promptClass.getName()
+					+ ": make it public or register a factory with PromptBinding.register()", e);
+		}
+		
+		return () -> {
+			try {
+				@SuppressWarnings("unchecked")
+				Prompt<T> prompt = (Prompt<T>)constructor.invokeExact();
+				return prompt;
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new JPromptManagerException("Error when calling no-args constructor for class " + promptClass.getName(), e);
+			}
+		};
+	}
+}
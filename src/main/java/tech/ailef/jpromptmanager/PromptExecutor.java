@@ -0,0 +1,405 @@
+package tech.ailef.jpromptmanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.thymeleaf.context.IContext;
+
+import tech.ailef.jpromptmanager.completion.ChunkHandler;
+import tech.ailef.jpromptmanager.completion.Conversation;
+import tech.ailef.jpromptmanager.completion.LLMConnector;
+import tech.ailef.jpromptmanager.completion.LLMRequest;
+import tech.ailef.jpromptmanager.completion.LLMResponse;
+import tech.ailef.jpromptmanager.completion.Message;
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.exceptions.LLMRequestException;
+import tech.ailef.jpromptmanager.metrics.CompletionListener;
+import tech.ailef.jpromptmanager.metrics.PromptMetrics;
+import tech.ailef.jpromptmanager.metrics.StepMetrics;
+import tech.ailef.jpromptmanager.prompts.Prompt;
+import tech.ailef.jpromptmanager.tokenizer.Tokenizer;
+
+/**
+ * Executes prompts against a {@link LLMConnector}: it takes care of performing template
+ * variable substitution, chaining the different steps correctly and reporting
+ * metrics about each step to the {@link CompletionListener}s registered in the options.
+ *
+ * This is the implementation behind the default prompt completion methods of
+ * {@link LLMConnector}; it's stateless and can be used from multiple threads.
+ */
+public class PromptExecutor {
+	private static final Logger logger = LogManager.getLogger(PromptExecutor.class);
+
+	private final LLMConnector connector;
+
+	private final JPromptManager jPrompt;
+
+	public PromptExecutor(LLMConnector connector, JPromptManager jPrompt) {
+		this.connector = connector;
+		this.jPrompt = jPrompt;
+	}
+
+	/**
+	 * Completes the given prompt, blocking until all the steps have been executed.
+	 * @param <T>	the type of the final object returned by running this prompt
+	 * @param promptClass	the class of the prompt
+	 * @param context	the variables for the templating engine
+	 * @param listener	the listener for the output of each step, or null to disable streaming
+	 * @return on object of type T as specified in the prompt class
+	 */
+	public <T> T complete(Class<? extends Prompt<T>> promptClass, IContext context, StreamListener listener) {
+		long start = System.nanoTime();
+		PromptBinding<T> binding = PromptBinding.of(promptClass);
+		PromptTemplate promptTemplate = binding.getTemplate(jPrompt.getPromptRegistry());
+		Prompt<T> prompt = binding.newInstance();
+		
+		if (!promptTemplate.isSequential())
+			return join(completeGraph(prompt, promptTemplate, context, listener, start));
+		
+		List<StepMetrics> stepMetrics = new ArrayList<>();
+		try {
+			Conversation conversation = Conversation.empty();
+
+			for (int i = 0; i < promptTemplate.getSteps().size(); i++) {
+				PromptStepTemplate stepTemplate = promptTemplate.getSteps().get(i);
+
+				long renderStart = System.nanoTime();
+				String processedPrompt = renderStep(stepTemplate, context);
+				long renderNanos = System.nanoTime() - renderStart;
+				conversation = conversation.append(Message.Role.USER, processedPrompt);
+
+				Map<String, String> requestParams = prepareRequest(prompt, promptTemplate, i, conversation);
+
+				ChunkHandler handler = chunkHandler(prompt, stepTemplate, listener);
+				StepGuard guard = StepGuard.forStep(stepTemplate, jPrompt.getOptions(), handler);
+				LLMRequest request = new LLMRequest(conversation, requestParams, guard != null ? guard.getChunkHandler() : handler);
+
+				long requestStart = System.nanoTime();
+				LLMResponse response;
+				try {
+					response = connector.execute(request);
+				} catch (RuntimeException e) {
+					stepMetrics.add(stepFinished(prompt, stepTemplate, i, renderNanos, requestStart, null, e));
+					throw e;
+				}
+				stepMetrics.add(stepFinished(prompt, stepTemplate, i, renderNanos, requestStart, response, null));
+
+				String output = guard != null ? guard.finish(response.getText()) : response.getText();
+				conversation = conversation.append(Message.Role.ASSISTANT, output);
+				PromptStep step = new PromptStep(stepTemplate, processedPrompt, output);
+				prompt.addStep(step);
+
+				if (listener != null)
+					listener.onStepComplete(step);
+			}
+
+			T output = prompt.getOutput();
+			promptFinished(prompt, start, stepMetrics, null);
+			return output;
+		} catch (RuntimeException e) {
+			promptFinished(prompt, start, stepMetrics, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Completes the given prompt asynchronously. Steps are chained so that each one
+	 * is submitted when the steps it depends on complete, without blocking any thread 
+	 * while waiting for the LLM responses.
+	 * @param <T>	the type of the final object returned by running this prompt
+	 * @param promptClass	the class of the prompt
+	 * @param context	the variables for the templating engine
+	 * @return	a future that completes with an object of type T as specified in the prompt class
+	 */
+	public <T> CompletableFuture<T> completeAsync(Class<? extends Prompt<T>> promptClass, IContext context) {
+		long start = System.nanoTime();
+		Prompt<T> prompt;
+		PromptTemplate promptTemplate;
+		try {
+			PromptBinding<T> binding = PromptBinding.of(promptClass);
+			promptTemplate = binding.getTemplate(jPrompt.getPromptRegistry());
+			prompt = binding.newInstance();
+		} catch (JPromptManagerException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+
+		if (!promptTemplate.isSequential())
+			return completeGraph(prompt, promptTemplate, context, null, start);
+
+		Executor executor = jPrompt.getOptions().getExecutor();
+		AtomicReference<Conversation> conversation = new AtomicReference<>(Conversation.empty());
+		// Steps run one after the other, so accesses to this list are ordered by the chain
+		List<StepMetrics> stepMetrics = new ArrayList<>();
+
+		CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+		for (int i = 0; i < promptTemplate.getSteps().size(); i++) {
+			int stepIndex = i;
+			PromptStepTemplate stepTemplate = promptTemplate.getSteps().get(i);
+
+			chain = chain.thenCompose(v -> {
+				long renderStart = System.nanoTime();
+				String processedPrompt = renderStep(stepTemplate, context);
+				long renderNanos = System.nanoTime() - renderStart;
+				Conversation current = conversation.get().append(Message.Role.USER, processedPrompt);
+
+				Map<String, String> requestParams =
+					prepareRequest(prompt, promptTemplate, stepIndex, current);
+
+				ChunkHandler handler = chunkHandler(prompt, stepTemplate, null);
+				StepGuard guard = StepGuard.forStep(stepTemplate, jPrompt.getOptions(), handler);
+
+				long requestStart = System.nanoTime();
+				return connector.executeAsync(
+						new LLMRequest(current, requestParams, guard != null ? guard.getChunkHandler() : handler), executor)
+					.whenComplete((response, e) -> {
+						stepMetrics.add(
+							stepFinished(prompt, stepTemplate, stepIndex, renderNanos, requestStart, response, unwrap(e))
+						);
+					})
+					.thenAccept(response -> {
+						String output = guard != null ? guard.finish(response.getText()) : response.getText();
+						conversation.set(current.append(Message.Role.ASSISTANT, output));
+						prompt.addStep(new PromptStep(stepTemplate, processedPrompt, output));
+					});
+			});
+		}
+
+		return chain.thenApply(v -> prompt.getOutput()).whenComplete((output, e) -> {
+			promptFinished(prompt, start, stepMetrics, unwrap(e));
+		});
+	}
+
+	/**
+	 * Executes the steps of a prompt that declares dependencies among its steps: each 
+	 * step is submitted as soon as all its dependencies have completed, with the history
+	 * of those dependencies only. Steps are added to the prompt in declaration order once
+	 * all of them have completed, while the returned future fails as soon as any step fails,
+	 * cancelling the steps that are still pending or in flight.
+	 */
+	private <T> CompletableFuture<T> completeGraph(Prompt<T> prompt, PromptTemplate promptTemplate, IContext context, 
+			StreamListener listener, long start) {
+		Executor executor = jPrompt.getOptions().getExecutor();
+		int size = promptTemplate.getSteps().size();
+		
+		// Each step writes its own slot before its future completes, and only reads the 
+		// slots of its dependencies after their futures have completed
+		String[] processedPrompts = new String[size];
+		String[] responses = new String[size];
+		List<StepMetrics> stepMetrics = Collections.synchronizedList(new ArrayList<>());
+		List<CompletableFuture<LLMResponse>> requests = Collections.synchronizedList(new ArrayList<>());
+		
+		CompletableFuture<T> result = new CompletableFuture<>();
+		List<CompletableFuture<Void>> futures = new ArrayList<>(size);
+		
+		for (int i = 0; i < size; i++) {
+			int stepIndex = i;
+			PromptStepTemplate stepTemplate = promptTemplate.getSteps().get(i);
+			
+			CompletableFuture<?>[] dependencies = promptTemplate.getDependencies(i).stream()
+				.map(futures::get)
+				.toArray(CompletableFuture<?>[]::new);
+			
+			CompletableFuture<Void> step = CompletableFuture.allOf(dependencies).thenCompose(v -> {
+				long renderStart = System.nanoTime();
+				processedPrompts[stepIndex] = renderStep(stepTemplate, context);
+				long renderNanos = System.nanoTime() - renderStart;
+				
+				Conversation conversation = Conversation.empty();
+				for (int j : promptTemplate.getHistory(stepIndex)) {
+					conversation = conversation
+						.append(Message.Role.USER, processedPrompts[j])
+						.append(Message.Role.ASSISTANT, responses[j]);
+				}
+				conversation = conversation.append(Message.Role.USER, processedPrompts[stepIndex]);
+				
+				Map<String, String> requestParams = prepareRequest(prompt, promptTemplate, stepIndex, conversation);
+				
+				ChunkHandler handler = chunkHandler(prompt, stepTemplate, listener);
+				StepGuard guard = StepGuard.forStep(stepTemplate, jPrompt.getOptions(), handler);
+				LLMRequest request = new LLMRequest(conversation, requestParams, guard != null ? guard.getChunkHandler() : handler);
+				
+				long requestStart = System.nanoTime();
+				CompletableFuture<LLMResponse> call = connector.executeAsync(request, executor);
+				requests.add(call);
+				if (result.isDone())
+					call.cancel(true);
+				
+				return call
+					.whenComplete((response, e) -> {
+						stepMetrics.add(
+							stepFinished(prompt, stepTemplate, stepIndex, renderNanos, requestStart, response, unwrap(e))
+						);
+					})
+					.thenAccept(response -> {
+						responses[stepIndex] = guard != null ? guard.finish(response.getText()) : response.getText();
+						if (listener != null)
+							listener.onStepComplete(new PromptStep(stepTemplate, processedPrompts[stepIndex], responses[stepIndex]));
+					});
+			});
+			
+			step.whenComplete((v, e) -> {
+				if (e != null)
+					result.completeExceptionally(unwrap(e));
+			});
+			futures.add(step);
+		}
+		
+		CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new)).thenRun(() -> {
+			try {
+				for (int i = 0; i < size; i++)
+					prompt.addStep(new PromptStep(promptTemplate.getSteps().get(i), processedPrompts[i], responses[i]));
+				result.complete(prompt.getOutput());
+			} catch (RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+		});
+		
+		// On the first failure, stop the steps that are still waiting for their
+		// dependencies or for the LLM, as their output is no longer needed
+		result.whenComplete((output, e) -> {
+			if (e != null) {
+				futures.forEach(future -> future.cancel(true));
+				requests.forEach(request -> request.cancel(true));
+			}
+		});
+		
+		return result.whenComplete((output, e) -> {
+			promptFinished(prompt, start, stepMetrics, unwrap(e));
+		});
+	}
+
+	/**
+	 * Returns the handler for the chunks of a step, combining the listener (which receives
+	 * each chunk first) with the handler of the prompt, or null if neither is present
+	 */
+	private static ChunkHandler chunkHandler(Prompt<?> prompt, PromptStepTemplate stepTemplate, StreamListener listener) {
+		ChunkHandler promptHandler = prompt.getChunkHandler(stepTemplate);
+		if (listener == null)
+			return promptHandler;
+		
+		ChunkHandler listenerHandler = chunk -> listener.onChunk(stepTemplate.getName(), chunk);
+		if (promptHandler == null)
+			return listenerHandler;
+		
+		return chunk -> {
+			listenerHandler.onChunk(chunk);
+			promptHandler.onChunk(chunk);
+		};
+	}
+
+	/**
+	 * Processes the template of the given step, replacing the variables with the values
+	 * from the context.
+	 */
+	private String renderStep(PromptStepTemplate stepTemplate, IContext context) {
+		return stepTemplate.getCompiledTemplate().render(context).trim();
+	}
+
+	/**
+	 * Returns the params to use for the request of the i-th step, after logging
+	 * the conversation built so far.
+	 */
+	private Map<String, String> prepareRequest(Prompt<?> prompt, PromptTemplate promptTemplate, int i,
+			Conversation conversation) {
+		PromptStepTemplate promptStep = promptTemplate.getSteps().get(i);
+
+		// Get the default request params and then merge (override)
+		// with the values (if any) taken from the current step
+		Map<String, String> requestParams = connector.getDefaultParams();
+		requestParams.putAll(promptStep.getParams());
+		requestParams.put(LLMRequest.PROMPT_PARAM, prompt.getName());
+
+		if (jPrompt.getOptions().isPrintPrompts())
+			System.out.println(conversation.toPrompt());
+
+		if (LLMConnector.logger.isInfoEnabled()) {
+			Tokenizer tokenizer = Tokenizer.forModel(requestParams.get("model"));
+			long tokens = tokenizer != null ? tokenizer.countTokens(conversation) : conversation.length() / 3;
+			
+			LLMConnector.logger.info(
+				prompt.getName() + ":" + (i + 1) + "/" + promptTemplate.getSteps().size() + ":" + promptStep.getName()
+				+ " ~" + tokens + " tokens | params: " + requestParams
+			);
+		}
+
+		return requestParams;
+	}
+
+	/**
+	 * Builds the metrics for a completed step and passes them to the listeners
+	 */
+	private StepMetrics stepFinished(Prompt<?> prompt, PromptStepTemplate stepTemplate, int stepIndex,
+			long renderNanos, long requestStart, LLMResponse response, Throwable failure) {
+		long requestNanos = System.nanoTime() - requestStart;
+
+		StepMetrics metrics;
+		if (response != null) {
+			metrics = new StepMetrics(prompt.getName(), stepTemplate.getName(), stepIndex, renderNanos,
+				response.getQueueNanos(), Math.max(0, requestNanos - response.getQueueNanos()),
+				response.getPromptTokens(), response.getCompletionTokens(), response.getRetries(),
+				response.isCached(), null);
+		} else {
+			int retries = failure instanceof LLMRequestException ? ((LLMRequestException)failure).getRetries() : 0;
+			metrics = new StepMetrics(prompt.getName(), stepTemplate.getName(), stepIndex, renderNanos,
+				0, requestNanos, LLMResponse.UNKNOWN_TOKENS, LLMResponse.UNKNOWN_TOKENS, retries, false, failure);
+		}
+
+		for (CompletionListener listener : jPrompt.getOptions().getListeners()) {
+			try {
+				listener.onStepFinished(metrics);
+			} catch (RuntimeException e) {
+				logger.warn("Completion listener " + listener + " failed", e);
+			}
+		}
+
+		return metrics;
+	}
+
+	/**
+	 * Builds the metrics for a completed prompt and passes them to the listeners
+	 */
+	private void promptFinished(Prompt<?> prompt, long start, List<StepMetrics> stepMetrics, Throwable failure) {
+		List<CompletionListener> listeners = jPrompt.getOptions().getListeners();
+		if (listeners.isEmpty())
+			return;
+
+		PromptMetrics metrics = new PromptMetrics(prompt.getName(), System.nanoTime() - start, stepMetrics, failure);
+		for (CompletionListener listener : listeners) {
+			try {
+				listener.onPromptFinished(metrics);
+			} catch (RuntimeException e) {
+				logger.warn("Completion listener " + listener + " failed", e);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the given future, rethrowing the cause of its failure
+	 */
+	private static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			Throwable cause = unwrap(e);
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if (cause instanceof Error)
+				throw (Error)cause;
+			throw new JPromptManagerException(cause);
+		}
+	}
+
+	private static Throwable unwrap(Throwable e) {
+		if (e instanceof CompletionException && e.getCause() != null)
+			return e.getCause();
+		return e;
+	}
+}
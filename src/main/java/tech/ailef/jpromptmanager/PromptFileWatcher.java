@@ -0,0 +1,116 @@
+package tech.ailef.jpromptmanager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+
+/**
+ * Watches a prompts file and calls a callback, on a background daemon thread,
+ * each time the file is modified or replaced. Bursts of events (e.g. editors
+ * that write a file in multiple steps) are coalesced into a single call.
+ * 
+ * If the path is a directory, any change to the directory or to the subdirectories
+ * that existed when the watcher was created triggers the callback.
+ */
+class PromptFileWatcher implements Closeable {
+	private static final Logger logger = LogManager.getLogger(PromptFileWatcher.class);
+	
+	/**
+	 * How long to wait for the file to settle after a change
+	 */
+	private static final long DEBOUNCE_MILLIS = 200;
+	
+	private final Path file;
+	
+	private final boolean directory;
+	
+	private final WatchService watchService;
+	
+	private final Runnable onChange;
+	
+	private final Thread thread;
+	
+	PromptFileWatcher(Path file, Runnable onChange) {
+		this.file = file.toAbsolutePath();
+		this.directory = Files.isDirectory(this.file);
+		this.onChange = onChange;
+		
+		try {
+			this.watchService = this.file.getFileSystem().newWatchService();
+			if (directory) {
+				try (Stream<Path> dirs = Files.walk(this.file)) {
+					for (Path dir : (Iterable<Path>)dirs.filter(Files::isDirectory)::iterator)
+						dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, 
+							StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+				}
+			} else {
+				this.file.getParent().register(watchService, 
+					StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			}
+		} catch (IOException e) {
+			throw new JPromptManagerException("Unable to watch prompts file " + file, e);
+		}
+		
+		this.thread = new Thread(this::run, "jpromptmanager-prompt-watcher");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	
+	private void run() {
+		try {
+			while (true) {
+				if (!isChanged(watchService.take()))
+					continue;
+				
+				// Drain the events that follow closely, so that a burst of writes only triggers one reload
+				WatchKey next;
+				while ((next = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null)
+					isChanged(next);
+				
+				try {
+					onChange.run();
+				} catch (RuntimeException e) {
+					logger.error("Error while handling change of prompts file " + file, e);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// The watcher has been closed
+		}
+	}
+	
+	/**
+	 * Returns whether the events of the given key include a change to the watched file
+	 */
+	private boolean isChanged(WatchKey key) {
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (directory || event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context()))
+				changed = true;
+		}
+		key.reset();
+		return changed;
+	}
+	
+	@Override
+	public void close() {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			logger.warn("Error while closing watcher of prompts file " + file, e);
+		}
+		thread.interrupt();
+	}
+}
@@ -0,0 +1,67 @@
+package tech.ailef.jpromptmanager;
+
+import java.util.Map;
+import java.util.Set;
+
+import tech.ailef.jpromptmanager.catalog.LazyPromptCatalog;
+
+/**
+ * An immutable snapshot of the loaded prompt templates. When prompts are
+ * reloaded a new snapshot replaces the old one, while completions that
+ * already started keep using the templates they looked up.
+ * 
+ * The templates are either all loaded upfront or, when backed by 
+ * a {@link LazyPromptCatalog}, parsed on first use.
+ */
+public final class PromptRegistry {
+	/**
+	 * The loaded templates, null if backed by a lazy catalog
+	 */
+	private final Map<String, PromptTemplate> prompts;
+	
+	private final LazyPromptCatalog catalog;
+	
+	private final long version;
+	
+	public PromptRegistry(Map<String, PromptTemplate> prompts, long version) {
+		this.prompts = Map.copyOf(prompts);
+		this.catalog = null;
+		this.version = version;
+	}
+	
+	public PromptRegistry(LazyPromptCatalog catalog, long version) {
+		this.prompts = null;
+		this.catalog = catalog;
+		this.version = version;
+	}
+	
+	/**
+	 * Returns the template of the given prompt type
+	 * @param type	the prompt type
+	 * @return	the template, or null if missing
+	 */
+	public PromptTemplate get(String type) {
+		return prompts != null ? prompts.get(type) : catalog.get(type);
+	}
+	
+	/**
+	 * Returns the types of all the prompts in this snapshot
+	 * @return	the prompt types
+	 */
+	public Set<String> getPromptTypes() {
+		return prompts != null ? prompts.keySet() : catalog.getPromptTypes();
+	}
+	
+	/**
+	 * Returns the version of this snapshot, which is incremented 
+	 * each time the prompts are reloaded
+	 * @return	the version, starting from 1
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	public int size() {
+		return prompts != null ? prompts.size() : catalog.size();
+	}
+}
@@ -5,45 +5,40 @@ import java.util.Map;
 import tech.ailef.jpromptmanager.completion.LLMConnector;
 
 /**
- * A step in a prompt.
+ * A step in a prompt, as executed during a single completion. It holds
+ * the text of the prompt after variable interpolation and the response
+ * returned by the LLM, along with the {@link PromptStepTemplate} it
+ * was built from.
  *
  */
 public class PromptStep {
 	/**
-	 * Prompt template text
+	 * The definition of this step, as loaded from the XML file
 	 */
-	private String template;
-	
+	private final PromptStepTemplate stepTemplate;
+
 	/**
 	 * Prompt text after variable interpolation
 	 */
-	private String prompt;
+	private final String prompt;
 
 	/**
 	 * The raw text response to this step
 	 */
-	private String response;
-	
-	/**
-	 * The name of the current step
-	 */
-	private String name;
-	
+	private final String response;
+
+	public PromptStep(PromptStepTemplate stepTemplate, String prompt, String response) {
+		this.stepTemplate = stepTemplate;
+		this.prompt = prompt;
+		this.response = response;
+	}
+
 	/**
-	 * A set of parameters that are used to customize the request (for this step only) 
-	 * to the LLM. These can include temperature, topP, model id or whatever your
-	 * LLM requires. They are loaded from the attributes on the <step> XML elements
-	 * and override those returned by {@link LLMConnector#getDefaultParams()}.
+	 * Returns the definition this step was built from
+	 * @return	the template of this step
 	 */
-	private Map<String, String> params;
-	
-	public PromptStep(String template) {
-		this(template, null);
-	}
-	
-	public PromptStep(String template, String name) {
-		this.template = template;
-		this.name = name;
+	public PromptStepTemplate getStepTemplate() {
+		return stepTemplate;
 	}
 
 	/**
@@ -51,7 +46,7 @@ public class PromptStep {
 	 * @return	the template text for this prompt step (it includes ${variables})
 	 */
 	public String getTemplate() {
-		return template;
+		return stepTemplate.getTemplate();
 	}
 
 	/**
@@ -75,32 +70,16 @@ public class PromptStep {
 	 * @return
 	 */
 	public String getName() {
-		return name;
-	}
-	
-	public void setName(String name) {
-		this.name = name;
-	}
-	
-	public void setResponse(String response) {
-		this.response = response;
-	}
-	
-	public void setPrompt(String prompt) {
-		this.prompt = prompt;
-	}
-	
-	public Map<String, String> getParams() {
-		return params;
+		return stepTemplate.getName();
 	}
-	
+
 	/**
-	 * Returns a set of parameters that are used to customize the request (for this step only) 
+	 * Returns a set of parameters that are used to customize the request (for this step only)
 	 * to the LLM. These can include temperature, topP, model id or whatever your
 	 * LLM requires. They are loaded from the attributes on the &lt;step&gt; XML elements
 	 * and override those returned by {@link LLMConnector#getDefaultParams()}.
 	 */
-	public void setParams(Map<String, String> params) {
-		this.params = params;
+	public Map<String, String> getParams() {
+		return stepTemplate.getParams();
 	}
 }
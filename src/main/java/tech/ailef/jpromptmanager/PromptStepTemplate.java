@@ -0,0 +1,236 @@
+package tech.ailef.jpromptmanager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import tech.ailef.jpromptmanager.completion.LLMConnector;
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.prompts.OutputValidator;
+import tech.ailef.jpromptmanager.templating.CompiledTemplate;
+
+/**
+ * The immutable definition of a step in a prompt, as loaded from
+ * the XML file. Instances of this class are shared among all the executions
+ * of a prompt, while the results of each execution are stored in {@link PromptStep}
+ * objects, so it's safe to complete the same prompt from multiple threads.
+ */
+public class PromptStepTemplate {
+	/**
+	 * The name of the step attribute that lists (comma separated) the steps this one depends on
+	 */
+	public static final String DEPENDS_ON_PARAM = "dependsOn";
+	
+	/**
+	 * The name of the step attribute that marks a step as not depending on any other step
+	 */
+	public static final String INDEPENDENT_PARAM = "independent";
+	
+	/**
+	 * The name of the step attribute that lists (separated by `|`) the sequences the output 
+	 * is cut at, e.g. `stop="\n\n|END"`. The escapes `\n`, `\t`, `\|` and `\\` are supported.
+	 */
+	public static final String STOP_PARAM = "stop";
+	
+	/**
+	 * The name of the step attribute that sets the maximum length of the output, in characters
+	 */
+	public static final String MAX_CHARS_PARAM = "maxChars";
+	
+	/**
+	 * The name of the step attribute that sets the validator of the output (see {@link OutputValidator})
+	 */
+	public static final String VALIDATE_PARAM = "validate";
+	
+	/**
+	 * The name of this step
+	 */
+	private final String name;
+
+	/**
+	 * Prompt template text
+	 */
+	private final String template;
+	
+	/**
+	 * The template text compiled at load time
+	 */
+	private final CompiledTemplate compiledTemplate;
+
+	/**
+	 * A set of parameters that are used to customize the request (for this step only)
+	 * to the LLM. These can include temperature, topP, model id or whatever your
+	 * LLM requires. They are loaded from the attributes on the &lt;step&gt; XML elements
+	 * and override those returned by {@link LLMConnector#getDefaultParams()}.
+	 */
+	private final Map<String, String> params;
+	
+	/**
+	 * The names of the steps this step depends on, as declared with the `dependsOn`
+	 * attribute (empty if the step is independent), or null if the step depends on 
+	 * all the previous ones, which is the default.
+	 */
+	private final List<String> dependsOn;
+	
+	/**
+	 * The sequences the output is cut at, empty if none
+	 */
+	private final List<String> stopSequences;
+	
+	/**
+	 * The maximum length of the output in characters, or -1 if unlimited
+	 */
+	private final int maxChars;
+	
+	/**
+	 * The built-in validator set with the `validate` attribute, or null if none
+	 * or if the attribute refers to a validator registered in the options
+	 */
+	private final OutputValidator validator;
+
+	public PromptStepTemplate(String name, String template, Map<String, String> params) {
+		this.name = name;
+		this.template = template;
+		this.compiledTemplate = CompiledTemplate.compile(template);
+		this.params = Collections.unmodifiableMap(new HashMap<>(params));
+		this.dependsOn = parseDependencies(name, params);
+		this.stopSequences = parseStopSequences(params.get(STOP_PARAM));
+		this.maxChars = parseMaxChars(name, params.get(MAX_CHARS_PARAM));
+		this.validator = params.containsKey(VALIDATE_PARAM) ? OutputValidator.parse(params.get(VALIDATE_PARAM)) : null;
+	}
+	
+	/**
+	 * Parses the value of a `stop` attribute
+	 * @param value	the attribute value, can be null
+	 * @return	the list of stop sequences, empty if the value is null
+	 */
+	public static List<String> parseStopSequences(String value) {
+		if (value == null)
+			return List.of();
+		
+		List<String> sequences = new ArrayList<>();
+		StringBuilder current = new StringBuilder();
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				char next = value.charAt(++i);
+				current.append(next == 'n' ? '\n' : next == 't' ? '\t' : next);
+			} else if (c == '|') {
+				sequences.add(current.toString());
+				current.setLength(0);
+			} else {
+				current.append(c);
+			}
+		}
+		sequences.add(current.toString());
+		sequences.removeIf(String::isEmpty);
+		return Collections.unmodifiableList(sequences);
+	}
+	
+	private static int parseMaxChars(String name, String value) {
+		if (value == null)
+			return -1;
+		
+		try {
+			int maxChars = Integer.parseInt(value.trim());
+			if (maxChars > 0)
+				return maxChars;
+		} catch (NumberFormatException e) {
+			// Reported below
+		}
+		throw new JPromptManagerException("Step `" + name + "` has an invalid `" + MAX_CHARS_PARAM + "`: " + value);
+	}
+	
+	private static List<String> parseDependencies(String name, Map<String, String> params) {
+		String dependsOn = params.get(DEPENDS_ON_PARAM);
+		boolean independent = Boolean.parseBoolean(params.get(INDEPENDENT_PARAM));
+		
+		if (independent && dependsOn != null)
+			throw new JPromptManagerException("Step `" + name + "` cannot be both `independent` and have `dependsOn`");
+		
+		if (independent)
+			return List.of();
+		if (dependsOn == null)
+			return null;
+		
+		return Arrays.stream(dependsOn.split(","))
+			.map(String::trim)
+			.filter(s -> !s.isEmpty())
+			.collect(Collectors.toUnmodifiableList());
+	}
+
+	/**
+	 * Returns the name of this step
+	 * @return	the name of this step
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the template for this prompt step.
+	 * @return	the template text for this prompt step (it includes ${variables})
+	 */
+	public String getTemplate() {
+		return template;
+	}
+
+	/**
+	 * Returns the compiled form of the template for this prompt step.
+	 * @return	the compiled template
+	 */
+	public CompiledTemplate getCompiledTemplate() {
+		return compiledTemplate;
+	}
+
+	/**
+	 * Returns the (unmodifiable) set of parameters used to customize the request
+	 * to the LLM for this step.
+	 * @return	the request params for this step
+	 */
+	public Map<String, String> getParams() {
+		return params;
+	}
+	
+	/**
+	 * Returns the names of the steps this step depends on, as declared with the
+	 * `dependsOn` attribute. Steps marked with `independent="true"` have no 
+	 * dependencies, and steps with neither attribute depend on all the previous steps.
+	 * @return	the names of the dependencies, or null if the step depends on all the previous steps
+	 */
+	public List<String> getDependsOn() {
+		return dependsOn;
+	}
+	
+	/**
+	 * Returns the sequences the output of this step is cut at, as declared
+	 * with the `stop` attribute
+	 * @return	the stop sequences, empty if none
+	 */
+	public List<String> getStopSequences() {
+		return stopSequences;
+	}
+	
+	/**
+	 * Returns the maximum length of the output of this step, as declared
+	 * with the `maxChars` attribute
+	 * @return	the maximum number of characters, or -1 if unlimited
+	 */
+	public int getMaxChars() {
+		return maxChars;
+	}
+	
+	/**
+	 * Returns the validator for the output of this step, if the `validate` attribute
+	 * refers to a built-in validator
+	 * @return	the validator, or null if there's no `validate` attribute or it refers
+	 * 	to a validator registered in the options
+	 */
+	public OutputValidator getValidator() {
+		return validator;
+	}
+}
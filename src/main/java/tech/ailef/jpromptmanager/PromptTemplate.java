@@ -1,20 +1,113 @@
 package tech.ailef.jpromptmanager;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
 
 /**
  * A prompt template which includes variables that have to be replaced
- * with actual values before executing.
+ * with actual values before executing. Prompt templates are immutable and
+ * can be shared safely among concurrent executions.
  * 
+ * By default each step depends on all the previous ones, so steps are executed
+ * in sequence and each one sees the full history. Steps can declare their
+ * dependencies with the `dependsOn` attribute (a comma separated list of
+ * previous steps) or have none with `independent="true"`: steps whose
+ * dependencies have completed are then executed concurrently, and each 
+ * step only sees the history of the steps it (transitively) depends on.
  */
 public class PromptTemplate {
-	private List<PromptStep> steps;
+	private final List<PromptStepTemplate> steps;
+	
+	/**
+	 * For each step, the indices of the steps it directly depends on
+	 */
+	private final List<List<Integer>> dependencies;
+	
+	/**
+	 * For each step, the indices (in declaration order) of the steps 
+	 * that make up its history, i.e. its transitive dependencies
+	 */
+	private final List<List<Integer>> histories;
 	
-	public PromptTemplate(List<PromptStep> steps) {
-		this.steps = steps;
+	private final boolean sequential;
+
+	public PromptTemplate(List<PromptStepTemplate> steps) {
+		this.steps = List.copyOf(steps);
+		
+		Map<String, Integer> indices = new HashMap<>();
+		List<List<Integer>> dependencies = new ArrayList<>();
+		List<List<Integer>> histories = new ArrayList<>();
+		boolean sequential = true;
+		
+		for (int i = 0; i < this.steps.size(); i++) {
+			PromptStepTemplate step = this.steps.get(i);
+			
+			TreeSet<Integer> direct = new TreeSet<>();
+			TreeSet<Integer> history = new TreeSet<>();
+			if (step.getDependsOn() == null) {
+				for (int j = 0; j < i; j++) {
+					direct.add(j);
+					history.add(j);
+				}
+			} else {
+				for (String dependency : step.getDependsOn()) {
+					Integer j = indices.get(dependency);
+					if (j == null)
+						throw new JPromptManagerException("Step `" + step.getName() + "` depends on `" + dependency 
+								+ "`, which is not one of the steps declared before it");
+					direct.add(j);
+					history.add(j);
+					history.addAll(histories.get(j));
+				}
+			}
+			
+			// A step that has all the previous steps in its history must wait 
+			// for all of them, as it would in the default sequential chain
+			sequential &= history.size() == i;
+			dependencies.add(List.copyOf(direct));
+			histories.add(List.copyOf(history));
+			indices.put(step.getName(), i);
+		}
+		
+		this.dependencies = List.copyOf(dependencies);
+		this.histories = List.copyOf(histories);
+		this.sequential = sequential;
 	}
 
-	public List<PromptStep> getSteps() {
+	public List<PromptStepTemplate> getSteps() {
 		return steps;
 	}
+	
+	/**
+	 * Returns the steps the i-th step directly depends on
+	 * @param i	the index of the step
+	 * @return	the indices of the dependencies, in declaration order
+	 */
+	public List<Integer> getDependencies(int i) {
+		return dependencies.get(i);
+	}
+	
+	/**
+	 * Returns the steps whose prompts and responses make up the history 
+	 * sent along with the i-th step, i.e. its transitive dependencies
+	 * @param i	the index of the step
+	 * @return	the indices of the steps in the history, in declaration order
+	 */
+	public List<Integer> getHistory(int i) {
+		return histories.get(i);
+	}
+	
+	/**
+	 * Returns whether all the steps depend on the previous ones, so that 
+	 * they must be executed in sequence
+	 * @return	true if every step has all the previous steps in its history
+	 */
+	public boolean isSequential() {
+		return sequential;
+	}
 }
@@ -0,0 +1,88 @@
+package tech.ailef.jpromptmanager;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+
+/**
+ * Parses prompt templates from the XML format.
+ */
+public class PromptXmlParser {
+	private PromptXmlParser() {}
+	
+	/**
+	 * Parses prompts from an XML file. This step will perform some basic data validation
+	 * and can throw a {@link JPromptManagerException} if some of these checks fail.
+	 * @param fileStream	the XML content
+	 * @return	the prompt templates, keyed by prompt type
+	 */
+	public static Map<String, PromptTemplate> parse(InputStream fileStream) throws JPromptManagerException {
+		SAXReader reader = new SAXReader();
+		Map<String, PromptTemplate> result = new HashMap<>();
+		
+		try {
+			Document document = reader.read(fileStream);
+			
+			Element root = document.getRootElement();
+			List<Element> prompts = "prompts".equals(root.getName()) ? root.elements("prompt") : List.of();
+			
+			prompts.forEach(promptElement -> {
+				String promptClass = promptElement.attributeValue("type");
+				if (promptClass == null)
+					throw new JPromptManagerException("Found prompt object with missing `type` attribute: " + promptElement.asXML());
+				
+				List<PromptStepTemplate> steps = new ArrayList<>();
+				
+				List<Element> stepElements = promptElement.elements("step");
+				stepElements.forEach(stepElement -> {
+					// Remove leading spaces caused by indentation in XML file
+					// Also removing <step> tags that are included when using asXML()
+					// which is needed to avoid having thymeleaf tags not present
+					String normalizedText = Arrays.stream(
+						stepElement.asXML().split("\\n")).map(l -> l.trim())
+							.filter(l -> !l.startsWith("<step") && !l.startsWith("</step"))
+							.collect(Collectors.joining("\n")
+					);
+					
+					Map<String, String> stepParams = new HashMap<>();
+					stepElement.attributes().forEach(attribute -> {
+						String attrName = attribute.getName();
+						String attrValue = attribute.getValue();
+						stepParams.put(attrName, attrValue);
+					});
+					
+					String stepName = stepElement.attributeValue("name", null);
+					if (stepName == null)
+						throw new JPromptManagerException("Found step object with missing `name` attribute; found: " + stepElement.asXML());
+					
+					steps.add(new PromptStepTemplate(stepName, normalizedText, stepParams));
+				});
+				
+				
+				Set<String> distinctNames = 
+					steps.stream().map(PromptStepTemplate::getName).collect(Collectors.toSet());
+				if (steps.size() != distinctNames.size()) {
+					throw new JPromptManagerException("All prompt steps must have unique names: invalid prompt `" + promptClass);
+				}
+				
+				result.put(promptClass, new PromptTemplate(steps));
+			});
+		} catch (DocumentException e) {
+			throw new JPromptManagerException(e);
+		}
+		
+		return result;
+	}
+}
@@ -0,0 +1,224 @@
+package tech.ailef.jpromptmanager;
+
+import java.util.List;
+
+import tech.ailef.jpromptmanager.completion.ChunkHandler;
+import tech.ailef.jpromptmanager.completion.StopGenerationException;
+import tech.ailef.jpromptmanager.exceptions.InvalidOutputException;
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.prompts.OutputValidator;
+
+/**
+ * Enforces the stop sequences, maximum length and validator of a step on its output
+ * while it's being streamed: the generation is stopped as soon as the output is cut 
+ * or the validator finds it complete, and aborted as soon as the validator finds it invalid. 
+ * The chunks are passed on to the validator and to the downstream handler (e.g. the stream 
+ * listener) up to the cut, holding back any text that may be the beginning of a stop sequence.
+ * 
+ * A guard holds the state of a single request. Executors that receive whole responses
+ * outside of the streaming path (e.g. batches) use {@link #apply(PromptStepTemplate, JPromptManagerOptions, String)}.
+ */
+public class StepGuard implements ChunkHandler {
+	private final PromptStepTemplate step;
+	
+	private final List<String> stopSequences;
+	
+	private final int maxStopLength;
+	
+	private final int maxChars;
+	
+	private final OutputValidator validator;
+	
+	/**
+	 * The validation of the output, null if the step has no validator
+	 */
+	private OutputValidator.Validation validation;
+	
+	/**
+	 * The handler the accepted output is passed to, can be null
+	 */
+	private final ChunkHandler downstream;
+	
+	private final StringBuilder output = new StringBuilder();
+	
+	/**
+	 * The length of the output passed to the downstream handler
+	 */
+	private int sent;
+	
+	/**
+	 * The length of the output passed to the validation
+	 */
+	private int validated;
+	
+	private boolean stopped;
+	
+	private StepGuard(PromptStepTemplate step, OutputValidator validator, ChunkHandler downstream) {
+		this.step = step;
+		this.stopSequences = step.getStopSequences();
+		this.maxStopLength = stopSequences.stream().mapToInt(String::length).max().orElse(0);
+		this.maxChars = step.getMaxChars();
+		this.validator = validator;
+		this.validation = validator != null ? validator.start() : null;
+		this.downstream = downstream;
+	}
+	
+	/**
+	 * Applies the stop sequences, maximum length and validator of a step to a whole response
+	 * @param step	the step
+	 * @param options	the options holding the registered validators
+	 * @param response	the text of the response
+	 * @return	the output of the step, i.e. the response cut at the first stop sequence or maximum length
+	 * @throws InvalidOutputException	if the output is rejected by the validator
+	 * @throws JPromptManagerException	if the step refers to an unknown validator
+	 */
+	public static String apply(PromptStepTemplate step, JPromptManagerOptions options, String response) {
+		StepGuard guard = forStep(step, options, null);
+		return guard != null ? guard.finish(response) : response;
+	}
+	
+	/**
+	 * Returns a guard for the given step, or null if the step has no stop sequences, 
+	 * maximum length or validator
+	 * @param step	the step
+	 * @param options	the options holding the registered validators
+	 * @param downstream	the handler for the accepted output, can be null
+	 */
+	static StepGuard forStep(PromptStepTemplate step, JPromptManagerOptions options, ChunkHandler downstream) {
+		OutputValidator validator = step.getValidator();
+		String validatorName = step.getParams().get(PromptStepTemplate.VALIDATE_PARAM);
+		if (validator == null && validatorName != null) {
+			validator = options.getValidator(validatorName);
+			if (validator == null)
+				throw new JPromptManagerException("Step `" + step.getName() + "` refers to an unknown validator: " + validatorName);
+		}
+		
+		if (validator == null && step.getStopSequences().isEmpty() && step.getMaxChars() < 0)
+			return null;
+		return new StepGuard(step, validator, downstream);
+	}
+	
+	/**
+	 * Returns the handler the request must be streamed to: the guard itself if the output
+	 * has a validator or is passed on while it's generated, otherwise null, as the stop 
+	 * sequences and maximum length are applied to the whole response by {@link #finish(String)}.
+	 * Non-streamed requests keep their token usage and can be hedged.
+	 */
+	ChunkHandler getChunkHandler() {
+		return validator != null || downstream != null ? this : null;
+	}
+	
+	@Override
+	public void onChunk(String chunk) {
+		if (stopped || chunk.isEmpty())
+			return;
+		
+		// Previous chunks contained no stop sequence, so a match must end in this chunk
+		int from = Math.max(0, output.length() - Math.max(0, maxStopLength - 1));
+		output.append(chunk);
+		int cut = cutoff(output.substring(from), from);
+		if (cut >= 0) {
+			output.setLength(cut);
+			stopped = true;
+		}
+		
+		// Text that may be the beginning of a stop sequence is neither validated nor forwarded yet
+		int accepted = stopped ? output.length() : output.length() - pendingStopLength();
+		if (validation != null && validated < accepted) {
+			OutputValidator.Verdict verdict = validation.append(output.substring(validated, accepted));
+			validated = accepted;
+			if (verdict == OutputValidator.Verdict.INVALID)
+				throw invalid(output.substring(0, accepted));
+			if (verdict == OutputValidator.Verdict.COMPLETE) {
+				stopped = true;
+				accepted = output.length();
+			}
+		}
+		
+		forward(accepted);
+		if (stopped)
+			throw new StopGenerationException();
+	}
+	
+	/**
+	 * Applies the stop sequences and maximum length to the full response, validates it
+	 * and passes any text held back to the downstream handler
+	 * @param response	the text of the response
+	 * @return	the output of the step
+	 * @throws InvalidOutputException	if the output is rejected by the validator
+	 */
+	String finish(String response) {
+		int cut = cutoff(response, 0);
+		String result = cut >= 0 ? response.substring(0, cut) : response;
+		
+		if (validation != null) {
+			if (validated > result.length() || !result.startsWith(output.substring(0, validated))) {
+				// Not the streamed output (e.g. a response from the cache): validate it from the start
+				validation = validator.start();
+				validated = 0;
+			}
+			
+			if (validated < result.length())
+				validation.append(result.substring(validated));
+			validated = result.length();
+			if (validation.finish() != OutputValidator.Verdict.COMPLETE)
+				throw invalid(result);
+		}
+		
+		if (downstream != null && sent < result.length()) {
+			String rest = result.substring(sent);
+			sent = result.length();
+			ChunkHandler.sendWhole(downstream, rest);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the position the output is cut at, i.e. the start of the first stop
+	 * sequence or the maximum length, or -1 if the output is not cut
+	 * @param text	a suffix of the output
+	 * @param offset	the position of the suffix in the output
+	 */
+	private int cutoff(String text, int offset) {
+		int cut = -1;
+		for (String stop : stopSequences) {
+			int index = text.indexOf(stop);
+			if (index >= 0 && (cut < 0 || offset + index < cut))
+				cut = offset + index;
+		}
+		
+		if (maxChars >= 0 && offset + text.length() > maxChars && (cut < 0 || cut > maxChars))
+			cut = maxChars;
+		return cut;
+	}
+	
+	/**
+	 * Returns the length of the longest suffix of the output that is the beginning of a stop sequence
+	 */
+	private int pendingStopLength() {
+		int pending = 0;
+		for (String stop : stopSequences) {
+			for (int length = Math.min(stop.length() - 1, output.length() - sent); length > pending; length--) {
+				if (output.indexOf(stop.substring(0, length), output.length() - length) >= 0) {
+					pending = length;
+					break;
+				}
+			}
+		}
+		return pending;
+	}
+	
+	private void forward(int end) {
+		if (downstream == null || end <= sent)
+			return;
+		
+		String chunk = output.substring(sent, end);
+		sent = end;
+		downstream.onChunk(chunk);
+	}
+	
+	private InvalidOutputException invalid(String partialOutput) {
+		return new InvalidOutputException(step.getName(), partialOutput, 
+				"rejected by validator `" + step.getParams().get(PromptStepTemplate.VALIDATE_PARAM) + "`", null);
+	}
+}
@@ -0,0 +1,25 @@
+package tech.ailef.jpromptmanager;
+
+/**
+ * Observes the output of a prompt while it's being generated, when using
+ * streaming completion (see {@link JPromptManager#completeStreaming(Class, org.thymeleaf.context.IContext, StreamListener)}).
+ * 
+ * If the prompt has steps that run concurrently (see {@link PromptTemplate}), the
+ * listener can be called from multiple threads at the same time.
+ */
+@FunctionalInterface
+public interface StreamListener {
+	/**
+	 * Called for each chunk of the response to a step, as soon as it's received
+	 * @param stepName	the name of the step being generated
+	 * @param chunk	the next piece of the response to the step
+	 */
+	public void onChunk(String stepName, String chunk);
+	
+	/**
+	 * Called when the response to a step is complete
+	 * @param step	the completed step
+	 */
+	public default void onStepComplete(PromptStep step) {
+	}
+}
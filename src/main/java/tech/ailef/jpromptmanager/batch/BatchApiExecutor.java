@@ -0,0 +1,314 @@
+package tech.ailef.jpromptmanager.batch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.thymeleaf.context.IContext;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import tech.ailef.jpromptmanager.JPromptManager;
+import tech.ailef.jpromptmanager.PromptBinding;
+import tech.ailef.jpromptmanager.PromptStep;
+import tech.ailef.jpromptmanager.PromptStepTemplate;
+import tech.ailef.jpromptmanager.PromptTemplate;
+import tech.ailef.jpromptmanager.StepGuard;
+import tech.ailef.jpromptmanager.completion.BatchableLLMConnector;
+import tech.ailef.jpromptmanager.completion.Conversation;
+import tech.ailef.jpromptmanager.completion.LLMRequest;
+import tech.ailef.jpromptmanager.completion.Message;
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.exceptions.LLMRequestException;
+import tech.ailef.jpromptmanager.prompts.Prompt;
+
+/**
+ * Completes a prompt over many contexts with the batch API of the provider, for bulk
+ * jobs that don't need interactive latency. The requests of all the contexts are written 
+ * to a JSONL file, submitted to a {@link BatchBackend} and polled until the batch finishes; 
+ * the results are then passed to the prompt classes as with interactive completions.
+ * 
+ * Multi-step prompts advance in waves, one batch round per step: a step is only submitted
+ * once the results of the steps it depends on are available (steps that don't depend on 
+ * each other are submitted in the same round). As with the {@link BatchExecutor}, a failure 
+ * on one of the contexts doesn't abort the batch: it's recorded in the corresponding 
+ * {@link BatchItem}, and the remaining steps of that context are skipped.
+ *
+ * @param <T>	the output type of the prompt
+ */
+public class BatchApiExecutor<T> {
+	private static final Logger logger = LogManager.getLogger(BatchApiExecutor.class);
+	
+	private final JPromptManager jPrompt;
+	
+	private final Class<? extends Prompt<T>> promptClass;
+	
+	private final BatchableLLMConnector connector;
+	
+	private final BatchBackend backend;
+	
+	private Path workDirectory;
+	
+	private Duration pollInterval = Duration.ofSeconds(30);
+	
+	private int maxBatchSize = 50_000;
+	
+	/**
+	 * Builds an executor for the given prompt
+	 * @param jPrompt	the JPromptManager the prompt is loaded in
+	 * @param promptClass	the class of the prompt
+	 * @param connector	the connector that builds the requests and parses the responses
+	 * @param backend	the service that completes the batches
+	 */
+	public BatchApiExecutor(JPromptManager jPrompt, Class<? extends Prompt<T>> promptClass, 
+			BatchableLLMConnector connector, BatchBackend backend) {
+		this.jPrompt = jPrompt;
+		this.promptClass = promptClass;
+		this.connector = connector;
+		this.backend = backend;
+	}
+	
+	/**
+	 * Sets the directory where the input and output files of the batches are written,
+	 * by default a new temporary directory for each call to {@link #completeAll(List)}
+	 * @param workDirectory	the directory for the batch files
+	 * @return	this executor
+	 */
+	public BatchApiExecutor<T> withWorkDirectory(Path workDirectory) {
+		this.workDirectory = workDirectory;
+		return this;
+	}
+	
+	/**
+	 * Sets how often the status of the submitted batches is checked, default 30 seconds
+	 * @param pollInterval	the interval between status checks
+	 * @return	this executor
+	 */
+	public BatchApiExecutor<T> withPollInterval(Duration pollInterval) {
+		this.pollInterval = pollInterval;
+		return this;
+	}
+	
+	/**
+	 * Sets the maximum number of requests in a batch file, default 50000 (the limit of
+	 * the OpenAI Batch API). Larger rounds are split in several batches.
+	 * @param maxBatchSize	the maximum number of requests per batch
+	 * @return	this executor
+	 */
+	public BatchApiExecutor<T> withMaxBatchSize(int maxBatchSize) {
+		if (maxBatchSize <= 0)
+			throw new IllegalArgumentException("maxBatchSize must be positive, got " + maxBatchSize);
+		this.maxBatchSize = maxBatchSize;
+		return this;
+	}
+	
+	/**
+	 * Completes the prompt for all the given contexts, waiting for all the batch rounds
+	 * @param contexts	the contexts to complete the prompt with
+	 * @return	the results, in the same order as the contexts
+	 */
+	public BatchResult<T> completeAll(List<IContext> contexts) {
+		PromptBinding<T> binding = PromptBinding.of(promptClass);
+		PromptTemplate template = binding.getTemplate(jPrompt.getPromptRegistry());
+		int size = template.getSteps().size();
+		
+		String[][] prompts = new String[contexts.size()][size];
+		String[][] responses = new String[contexts.size()][size];
+		Throwable[] errors = new Throwable[contexts.size()];
+		
+		int[] waves = new int[size];
+		int waveCount = 0;
+		for (int i = 0; i < size; i++) {
+			for (int j : template.getDependencies(i))
+				waves[i] = Math.max(waves[i], waves[j] + 1);
+			waveCount = Math.max(waveCount, waves[i] + 1);
+		}
+		
+		Path directory = getWorkDirectory();
+		for (int wave = 0; wave < waveCount; wave++) {
+			Map<String, int[]> requests = new HashMap<>();
+			List<String> lines = new ArrayList<>();
+			
+			for (int item = 0; item < contexts.size(); item++) {
+				if (errors[item] != null)
+					continue;
+				
+				List<String> itemLines = new ArrayList<>();
+				try {
+					for (int step = 0; step < size; step++) {
+						if (waves[step] != wave)
+							continue;
+						
+						String customId = item + "-" + step;
+						itemLines.add(buildLine(customId, template, step, contexts.get(item), prompts[item], responses[item]));
+						requests.put(customId, new int[] { item, step });
+					}
+					lines.addAll(itemLines);
+				} catch (RuntimeException e) {
+					errors[item] = e;
+				}
+			}
+			
+			String name = binding.getName() + "-wave" + (wave + 1);
+			logger.info(name + "/" + waveCount + ": submitting " + lines.size() + " requests");
+			for (JsonObject result : run(directory, name, lines)) {
+				int[] request = requests.remove(result.get("custom_id").getAsString());
+				if (request == null || errors[request[0]] != null)
+					continue;
+				
+				try {
+					responses[request[0]][request[1]] = StepGuard.apply(template.getSteps().get(request[1]), 
+							jPrompt.getOptions(), parseResult(result));
+				} catch (RuntimeException e) {
+					errors[request[0]] = e;
+				}
+			}
+			
+			// Requests without a result, e.g. because the batch expired or failed
+			for (int[] request : requests.values()) {
+				if (errors[request[0]] == null) {
+					errors[request[0]] = new LLMRequestException("No result for step `" + template.getSteps().get(request[1]).getName() 
+							+ "` in the batch", LLMRequestException.NO_STATUS, null, null);
+				}
+			}
+		}
+		
+		List<BatchItem<T>> items = new ArrayList<>(contexts.size());
+		for (int item = 0; item < contexts.size(); item++) {
+			T output = null;
+			if (errors[item] == null) {
+				try {
+					Prompt<T> prompt = binding.newInstance();
+					for (int step = 0; step < size; step++)
+						prompt.addStep(new PromptStep(template.getSteps().get(step), prompts[item][step], responses[item][step]));
+					output = prompt.getOutput();
+				} catch (RuntimeException e) {
+					errors[item] = e;
+				}
+			}
+			items.add(new BatchItem<>(item, contexts.get(item), output, errors[item]));
+		}
+		return new BatchResult<>(items);
+	}
+	
+	/**
+	 * Renders a step for one of the contexts and returns the corresponding line of the batch file
+	 */
+	private String buildLine(String customId, PromptTemplate template, int step, IContext context, 
+			String[] prompts, String[] responses) {
+		PromptStepTemplate stepTemplate = template.getSteps().get(step);
+		prompts[step] = stepTemplate.getCompiledTemplate().render(context).trim();
+		
+		Conversation conversation = Conversation.empty();
+		for (int j : template.getHistory(step)) {
+			conversation = conversation
+				.append(Message.Role.USER, prompts[j])
+				.append(Message.Role.ASSISTANT, responses[j]);
+		}
+		conversation = conversation.append(Message.Role.USER, prompts[step]);
+		
+		Map<String, String> params = connector.getDefaultParams();
+		params.putAll(stepTemplate.getParams());
+		
+		JsonObject line = new JsonObject();
+		line.addProperty("custom_id", customId);
+		line.addProperty("method", "POST");
+		line.addProperty("url", connector.getBatchEndpoint());
+		line.add("body", JsonParser.parseString(connector.toBatchBody(new LLMRequest(conversation, params))));
+		return line.toString();
+	}
+	
+	/**
+	 * Submits the lines in batches of at most `maxBatchSize` requests, waits for 
+	 * all of them to finish and returns the results
+	 */
+	private List<JsonObject> run(Path directory, String name, List<String> lines) {
+		List<String> batchIds = new ArrayList<>();
+		for (int start = 0, part = 1; start < lines.size(); start += maxBatchSize, part++) {
+			Path input = directory.resolve(name + "-" + part + ".jsonl");
+			try {
+				Files.write(input, lines.subList(start, Math.min(start + maxBatchSize, lines.size())), StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				throw new JPromptManagerException("Unable to write batch file " + input, e);
+			}
+			
+			String batchId = backend.submit(input, connector.getBatchEndpoint());
+			logger.info("Submitted batch " + batchId + " (" + input.getFileName() + ")");
+			batchIds.add(batchId);
+		}
+		
+		List<JsonObject> results = new ArrayList<>();
+		for (int i = 0; i < batchIds.size(); i++) {
+			String batchId = batchIds.get(i);
+			BatchBackend.Status status = waitFor(batchId);
+			if (status != BatchBackend.Status.COMPLETED)
+				logger.warn("Batch " + batchId + " finished with status " + status + ", some results may be missing");
+			
+			Path output = directory.resolve(name + "-" + (i + 1) + "-output.jsonl");
+			backend.download(batchId, output);
+			try (BufferedReader reader = Files.newBufferedReader(output, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (!line.isBlank())
+						results.add(JsonParser.parseString(line).getAsJsonObject());
+				}
+			} catch (IOException e) {
+				throw new JPromptManagerException("Unable to read batch results " + output, e);
+			}
+		}
+		return results;
+	}
+	
+	private BatchBackend.Status waitFor(String batchId) {
+		try {
+			while (true) {
+				BatchBackend.Status status = backend.getStatus(batchId);
+				if (status.isFinished())
+					return status;
+				Thread.sleep(pollInterval.toMillis());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JPromptManagerException("Interrupted while waiting for batch " + batchId, e);
+		}
+	}
+	
+	/**
+	 * Returns the text of a successful result, or throws the error it reports
+	 */
+	private String parseResult(JsonObject result) {
+		JsonElement response = result.get("response");
+		if (response != null && response.isJsonObject()) {
+			JsonObject responseObject = response.getAsJsonObject();
+			int status = responseObject.get("status_code").getAsInt();
+			if (status == 200)
+				return connector.fromBatchBody(responseObject.get("body").toString()).getText();
+			
+			throw new LLMRequestException("Batch request failed with status " + status + ": " + responseObject.get("body"), 
+					status, null, null);
+		}
+		
+		throw new LLMRequestException("Batch request failed: " + result.get("error"), LLMRequestException.NO_STATUS, null, null);
+	}
+	
+	private Path getWorkDirectory() {
+		try {
+			if (workDirectory == null)
+				return Files.createTempDirectory("jpromptmanager-batch");
+			return Files.createDirectories(workDirectory);
+		} catch (IOException e) {
+			throw new JPromptManagerException("Unable to create batch directory", e);
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package tech.ailef.jpromptmanager.batch;
+
+import java.nio.file.Path;
+
+/**
+ * A service that completes a file of requests offline, such as the OpenAI Batch API. 
+ * Both the input and the output are JSONL files in the OpenAI batch format: each input
+ * line holds the `custom_id`, `method`, `url` and `body` of a request, and each output
+ * line holds the `custom_id` of the request along with its `response` or `error`.
+ */
+public interface BatchBackend {
+	/**
+	 * The status of a submitted batch
+	 */
+	public enum Status {
+		IN_PROGRESS,
+		COMPLETED,
+		FAILED,
+		EXPIRED,
+		CANCELLED;
+		
+		/**
+		 * Returns whether the batch won't make any more progress
+		 * @return	true unless the batch is in progress
+		 */
+		public boolean isFinished() {
+			return this != IN_PROGRESS;
+		}
+	}
+	
+	/**
+	 * Submits a batch of requests
+	 * @param input	the JSONL file with the requests
+	 * @param endpoint	the endpoint all the requests are sent to, e.g. `/v1/chat/completions`
+	 * @return	the id of the batch
+	 */
+	public String submit(Path input, String endpoint);
+	
+	/**
+	 * Returns the status of a batch
+	 * @param batchId	the id of the batch
+	 * @return	the current status
+	 */
+	public Status getStatus(String batchId);
+	
+	/**
+	 * Writes the results of a finished batch to the given file. Batches that didn't 
+	 * complete (e.g. expired ones) may only have the results of some requests.
+	 * @param batchId	the id of the batch
+	 * @param output	the JSONL file to write the results to
+	 */
+	public void download(String batchId, Path output);
+}
@@ -0,0 +1,110 @@
+package tech.ailef.jpromptmanager.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+import org.thymeleaf.context.IContext;
+
+import tech.ailef.jpromptmanager.JPromptManager;
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.prompts.Prompt;
+
+/**
+ * Completes a prompt over many contexts, keeping at most `maxConcurrency`
+ * completions in flight at the same time. A failure on one of the contexts
+ * doesn't abort the batch: it's recorded in the corresponding {@link BatchItem}.
+ *
+ * @param <T>	the output type of the prompt
+ */
+public class BatchExecutor<T> {
+	private final JPromptManager jPrompt;
+	
+	private final Class<? extends Prompt<T>> promptClass;
+	
+	private final int maxConcurrency;
+	
+	public BatchExecutor(JPromptManager jPrompt, Class<? extends Prompt<T>> promptClass, int maxConcurrency) {
+		if (maxConcurrency <= 0)
+			throw new IllegalArgumentException("maxConcurrency must be positive, got " + maxConcurrency);
+		
+		this.jPrompt = jPrompt;
+		this.promptClass = promptClass;
+		this.maxConcurrency = maxConcurrency;
+	}
+	
+	/**
+	 * Completes the prompt for all the given contexts and waits for the results.
+	 * @param contexts	the contexts to complete the prompt with
+	 * @return	the results, in the same order as the contexts
+	 */
+	public BatchResult<T> completeAll(List<IContext> contexts) {
+		// Each item is set once, at its own index, before run() returns
+		List<BatchItem<T>> items = new ArrayList<>(Collections.nCopies(contexts.size(), null));
+		run(contexts.iterator(), item -> items.set(item.getIndex(), item));
+		return new BatchResult<>(items);
+	}
+	
+	/**
+	 * Completes the prompt for all the contexts returned by the iterator, passing each
+	 * result to the consumer as soon as it's available (i.e. not necessarily in the
+	 * same order as the contexts). Contexts are consumed lazily, so the iterator can
+	 * be backed by a source that doesn't fit in memory. The consumer is never called
+	 * concurrently, and this method returns after it has been called for all the items.
+	 * @param contexts	the contexts to complete the prompt with
+	 * @param consumer	the consumer for the results
+	 */
+	public void completeAll(Iterator<IContext> contexts, Consumer<BatchItem<T>> consumer) {
+		run(contexts, consumer);
+	}
+	
+	private void run(Iterator<IContext> contexts, Consumer<BatchItem<T>> consumer) {
+		Semaphore permits = new Semaphore(maxConcurrency);
+		Object consumerLock = new Object();
+		
+		try {
+			int index = 0;
+			while (contexts.hasNext()) {
+				IContext context = contexts.next();
+				int itemIndex = index++;
+				
+				permits.acquire();
+				
+				try {
+					jPrompt.completeAsync(promptClass, context).whenComplete((output, error) -> {
+						try {
+							BatchItem<T> item = new BatchItem<>(itemIndex, context, output, unwrap(error));
+							synchronized (consumerLock) {
+								consumer.accept(item);
+							}
+						} finally {
+							permits.release();
+						}
+					});
+				} catch (RuntimeException e) {
+					permits.release();
+					synchronized (consumerLock) {
+						consumer.accept(new BatchItem<>(itemIndex, context, null, e));
+					}
+				}
+			}
+			
+			// Wait for all in-flight completions to finish
+			permits.acquire(maxConcurrency);
+			permits.release(maxConcurrency);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JPromptManagerException("Interrupted while waiting for batch completion", e);
+		}
+	}
+	
+	private static Throwable unwrap(Throwable error) {
+		if (error instanceof CompletionException && error.getCause() != null)
+			return error.getCause();
+		return error;
+	}
+}
@@ -0,0 +1,67 @@
+package tech.ailef.jpromptmanager.batch;
+
+import org.thymeleaf.context.IContext;
+
+/**
+ * The outcome of completing a prompt for one of the contexts in a batch:
+ * it holds either the output of the prompt or the error that made it fail.
+ *
+ * @param <T>	the output type of the prompt
+ */
+public class BatchItem<T> {
+	private final int index;
+	
+	private final IContext context;
+	
+	private final T output;
+	
+	private final Throwable error;
+
+	BatchItem(int index, IContext context, T output, Throwable error) {
+		this.index = index;
+		this.context = context;
+		this.output = output;
+		this.error = error;
+	}
+	
+	/**
+	 * Returns the position of the context in the input list/stream
+	 * @return	the index of this item
+	 */
+	public int getIndex() {
+		return index;
+	}
+	
+	/**
+	 * Returns the context this item was completed with
+	 * @return	the context of this item
+	 */
+	public IContext getContext() {
+		return context;
+	}
+	
+	/**
+	 * Returns the output of the prompt, null if the completion failed
+	 * @return	the output of the prompt
+	 */
+	public T getOutput() {
+		return output;
+	}
+	
+	/**
+	 * Returns the error that made the completion fail, null if it succeeded
+	 * @return	the error for this item
+	 */
+	public Throwable getError() {
+		return error;
+	}
+	
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	@Override
+	public String toString() {
+		return "BatchItem [index=" + index + ", output=" + output + ", error=" + error + "]";
+	}
+}
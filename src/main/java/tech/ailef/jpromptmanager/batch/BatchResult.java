@@ -0,0 +1,55 @@
+package tech.ailef.jpromptmanager.batch;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The results of a batch completion, in the same order as the input contexts.
+ *
+ * @param <T>	the output type of the prompt
+ */
+public class BatchResult<T> {
+	private final List<BatchItem<T>> items;
+	
+	BatchResult(List<BatchItem<T>> items) {
+		this.items = Collections.unmodifiableList(items);
+	}
+	
+	/**
+	 * Returns all the items in this batch, in the same order as the input contexts
+	 * @return	the items in this batch
+	 */
+	public List<BatchItem<T>> getItems() {
+		return items;
+	}
+	
+	/**
+	 * Returns the outputs of all items, in the same order as the input contexts. 
+	 * Failed items have a null output.
+	 * @return	the outputs of the batch
+	 */
+	public List<T> getOutputs() {
+		return items.stream().map(BatchItem::getOutput).collect(Collectors.toList());
+	}
+	
+	/**
+	 * Returns the items that completed successfully
+	 * @return	the successful items
+	 */
+	public List<BatchItem<T>> getSuccesses() {
+		return items.stream().filter(BatchItem::isSuccess).collect(Collectors.toList());
+	}
+	
+	/**
+	 * Returns the items that failed
+	 * @return	the failed items
+	 */
+	public List<BatchItem<T>> getFailures() {
+		return items.stream().filter(i -> !i.isSuccess()).collect(Collectors.toList());
+	}
+	
+	public boolean hasFailures() {
+		return items.stream().anyMatch(i -> !i.isSuccess());
+	}
+}
@@ -0,0 +1,199 @@
+package tech.ailef.jpromptmanager.batch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import tech.ailef.jpromptmanager.completion.Conversation;
+import tech.ailef.jpromptmanager.completion.LLMConnector;
+import tech.ailef.jpromptmanager.completion.LLMRequest;
+import tech.ailef.jpromptmanager.completion.LLMResponse;
+import tech.ailef.jpromptmanager.completion.Message;
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.exceptions.LLMRequestException;
+
+/**
+ * A stand-in for a batch API that runs the requests locally with a {@link LLMConnector}, 
+ * reading and writing the same JSONL files as the OpenAI Batch API. It's meant for tests and 
+ * development, e.g. with a fake connector, so that batch jobs can be run offline.
+ * 
+ * The body of each request is converted back to a {@link LLMRequest}: snake_case fields 
+ * become params (`max_tokens` becomes `maxTokens`), and the `messages` (without the system 
+ * prompt, which the connector adds) or the `prompt` become the conversation. Batches are 
+ * completed synchronously when submitted.
+ */
+public class LocalBatchBackend implements BatchBackend {
+	private final LLMConnector connector;
+	
+	private final Map<String, List<String>> results = new ConcurrentHashMap<>();
+	
+	private final AtomicInteger ids = new AtomicInteger();
+	
+	private final AtomicInteger requestIds = new AtomicInteger();
+	
+	/**
+	 * Builds a backend that runs the requests with the given connector
+	 * @param connector	the connector that completes the requests
+	 */
+	public LocalBatchBackend(LLMConnector connector) {
+		this.connector = connector;
+	}
+	
+	@Override
+	public String submit(Path input, String endpoint) {
+		List<String> output = new ArrayList<>();
+		try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isBlank())
+					output.add(complete(JsonParser.parseString(line).getAsJsonObject()).toString());
+			}
+		} catch (IOException e) {
+			throw new JPromptManagerException("Unable to read batch file " + input, e);
+		}
+		
+		String batchId = "local_batch_" + ids.incrementAndGet();
+		results.put(batchId, output);
+		return batchId;
+	}
+	
+	@Override
+	public Status getStatus(String batchId) {
+		getResults(batchId);
+		return Status.COMPLETED;
+	}
+	
+	@Override
+	public void download(String batchId, Path output) {
+		try {
+			Files.write(output, getResults(batchId), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new JPromptManagerException("Unable to write batch results to " + output, e);
+		}
+	}
+	
+	private List<String> getResults(String batchId) {
+		List<String> output = results.get(batchId);
+		if (output == null)
+			throw new JPromptManagerException("Unknown batch: " + batchId);
+		return output;
+	}
+	
+	/**
+	 * Runs the request on a line of the input file, and returns the corresponding output line
+	 */
+	private JsonObject complete(JsonObject line) {
+		JsonObject result = new JsonObject();
+		result.addProperty("id", "batch_req_" + requestIds.incrementAndGet());
+		result.add("custom_id", line.get("custom_id"));
+		
+		JsonObject body = line.getAsJsonObject("body");
+		boolean chat = body.has("messages");
+		JsonObject response = new JsonObject();
+		try {
+			LLMResponse completion = connector.execute(toRequest(body, chat));
+			response.addProperty("status_code", 200);
+			response.add("body", toBody(completion, body, chat));
+			result.add("response", response);
+			result.add("error", null);
+		} catch (LLMRequestException e) {
+			JsonObject error = new JsonObject();
+			error.addProperty("message", e.getMessage());
+			JsonObject errorBody = new JsonObject();
+			errorBody.add("error", error);
+			
+			response.addProperty("status_code", e.getStatusCode() == LLMRequestException.NO_STATUS ? 500 : e.getStatusCode());
+			response.add("body", errorBody);
+			result.add("response", response);
+			result.add("error", null);
+		} catch (RuntimeException e) {
+			JsonObject error = new JsonObject();
+			error.addProperty("code", "local_error");
+			error.addProperty("message", String.valueOf(e.getMessage()));
+			result.add("response", null);
+			result.add("error", error);
+		}
+		return result;
+	}
+	
+	private static LLMRequest toRequest(JsonObject body, boolean chat) {
+		Map<String, String> params = new HashMap<>();
+		for (Map.Entry<String, JsonElement> field : body.entrySet()) {
+			if (field.getValue().isJsonPrimitive())
+				params.put(toCamelCase(field.getKey()), field.getValue().getAsString());
+		}
+		
+		if (!chat)
+			return new LLMRequest(body.get("prompt").getAsString(), params);
+		
+		Conversation conversation = Conversation.empty();
+		for (JsonElement element : body.getAsJsonArray("messages")) {
+			JsonObject message = element.getAsJsonObject();
+			Message.Role role = Message.Role.valueOf(message.get("role").getAsString().toUpperCase(Locale.ROOT));
+			if (role != Message.Role.SYSTEM)
+				conversation = conversation.append(role, message.get("content").getAsString());
+		}
+		return new LLMRequest(conversation, params);
+	}
+	
+	/**
+	 * Builds the body of a response to a completion or chat completion request
+	 */
+	private static JsonObject toBody(LLMResponse completion, JsonObject request, boolean chat) {
+		JsonObject choice = new JsonObject();
+		choice.addProperty("index", 0);
+		if (chat) {
+			JsonObject message = new JsonObject();
+			message.addProperty("role", Message.Role.ASSISTANT.getValue());
+			message.addProperty("content", completion.getText());
+			choice.add("message", message);
+		} else {
+			choice.addProperty("text", completion.getText());
+		}
+		choice.addProperty("finish_reason", "stop");
+		
+		JsonArray choices = new JsonArray();
+		choices.add(choice);
+		
+		JsonObject body = new JsonObject();
+		body.addProperty("object", chat ? "chat.completion" : "text_completion");
+		body.add("model", request.get("model"));
+		body.add("choices", choices);
+		if (completion.getPromptTokens() != LLMResponse.UNKNOWN_TOKENS && completion.getCompletionTokens() != LLMResponse.UNKNOWN_TOKENS) {
+			JsonObject usage = new JsonObject();
+			usage.addProperty("prompt_tokens", completion.getPromptTokens());
+			usage.addProperty("completion_tokens", completion.getCompletionTokens());
+			usage.addProperty("total_tokens", completion.getPromptTokens() + completion.getCompletionTokens());
+			body.add("usage", usage);
+		}
+		return body;
+	}
+	
+	private static String toCamelCase(String name) {
+		StringBuilder result = new StringBuilder(name.length());
+		boolean upper = false;
+		for (char c : name.toCharArray()) {
+			if (c == '_') {
+				upper = true;
+			} else {
+				result.append(upper ? Character.toUpperCase(c) : c);
+				upper = false;
+			}
+		}
+		return result.toString();
+	}
+}
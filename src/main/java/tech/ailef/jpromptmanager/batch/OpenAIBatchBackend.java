@@ -0,0 +1,166 @@
+package tech.ailef.jpromptmanager.batch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import tech.ailef.jpromptmanager.completion.HttpTransport;
+import tech.ailef.jpromptmanager.completion.JdkHttpTransport;
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.exceptions.LLMRequestException;
+import tech.ailef.jpromptmanager.retry.RetryPolicy;
+
+/**
+ * Runs batches with the OpenAI Batch API: the input file is uploaded with the 
+ * Files API and completed within 24 hours, at a lower price than interactive requests.
+ */
+public class OpenAIBatchBackend implements BatchBackend {
+	private static final Map<String, Status> STATUSES = Map.of(
+		"validating", Status.IN_PROGRESS,
+		"in_progress", Status.IN_PROGRESS,
+		"finalizing", Status.IN_PROGRESS,
+		"cancelling", Status.IN_PROGRESS,
+		"completed", Status.COMPLETED,
+		"failed", Status.FAILED,
+		"expired", Status.EXPIRED,
+		"cancelled", Status.CANCELLED
+	);
+	
+	private final HttpTransport transport;
+	
+	private final String apiKey;
+	
+	private final URI baseUrl;
+	
+	/**
+	 * Builds a backend that uses the default transport
+	 * @param apiKey	OpenAI secret key
+	 */
+	public OpenAIBatchBackend(String apiKey) {
+		this(apiKey, JdkHttpTransport.getDefault(), URI.create("https://api.openai.com/"));
+	}
+	
+	/**
+	 * Builds a backend
+	 * @param apiKey	OpenAI secret key
+	 * @param transport	the HTTP transport, which can be shared with the connectors
+	 * @param baseUrl	the base URL of the API, e.g. `https://api.openai.com/`
+	 */
+	public OpenAIBatchBackend(String apiKey, HttpTransport transport, URI baseUrl) {
+		this.apiKey = apiKey;
+		this.transport = transport;
+		this.baseUrl = baseUrl;
+	}
+	
+	@Override
+	public String submit(Path input, String endpoint) {
+		byte[] file;
+		try {
+			file = Files.readAllBytes(input);
+		} catch (IOException e) {
+			throw new JPromptManagerException("Unable to read batch file " + input, e);
+		}
+		
+		String boundary = "----jpromptmanager" + UUID.randomUUID();
+		ByteArrayOutputStream body = new ByteArrayOutputStream(file.length + 512);
+		write(body, "--" + boundary + "\r\n"
+				+ "Content-Disposition: form-data; name=\"purpose\"\r\n\r\n"
+				+ "batch\r\n"
+				+ "--" + boundary + "\r\n"
+				+ "Content-Disposition: form-data; name=\"file\"; filename=\"" + input.getFileName() + "\"\r\n"
+				+ "Content-Type: application/jsonl\r\n\r\n");
+		body.writeBytes(file);
+		write(body, "\r\n--" + boundary + "--\r\n");
+		
+		JsonObject uploaded = call(HttpTransport.Request.post(
+			baseUrl.resolve("v1/files"), body.toByteArray(), "multipart/form-data; boundary=" + boundary
+		));
+		
+		JsonObject batch = new JsonObject();
+		batch.addProperty("input_file_id", uploaded.get("id").getAsString());
+		batch.addProperty("endpoint", endpoint);
+		batch.addProperty("completion_window", "24h");
+		return call(HttpTransport.Request.post(baseUrl.resolve("v1/batches"), batch.toString()))
+			.get("id").getAsString();
+	}
+	
+	@Override
+	public Status getStatus(String batchId) {
+		String status = getBatch(batchId).get("status").getAsString();
+		Status result = STATUSES.get(status);
+		if (result == null)
+			throw new LLMRequestException("Unknown status for batch " + batchId + ": " + status, LLMRequestException.NO_STATUS, null, null);
+		return result;
+	}
+	
+	/**
+	 * Writes the output file of the batch, followed by the error file which 
+	 * holds the requests that failed
+	 */
+	@Override
+	public void download(String batchId, Path output) {
+		JsonObject batch = getBatch(batchId);
+		try (OutputStream out = Files.newOutputStream(output)) {
+			for (String file : new String[] { "output_file_id", "error_file_id" }) {
+				if (!batch.has(file) || batch.get(file).isJsonNull())
+					continue;
+				
+				HttpTransport.Request request = HttpTransport.Request.get(
+					baseUrl.resolve("v1/files/" + batch.get(file).getAsString() + "/content")
+				);
+				try (HttpTransport.Response response = send(request)) {
+					response.body().transferTo(out);
+				}
+			}
+		} catch (IOException e) {
+			throw new LLMRequestException("Unable to download the results of batch " + batchId + ": " + e.getMessage(), 
+					LLMRequestException.NO_STATUS, null, e);
+		}
+	}
+	
+	private JsonObject getBatch(String batchId) {
+		return call(HttpTransport.Request.get(baseUrl.resolve("v1/batches/" + batchId)));
+	}
+	
+	private JsonObject call(HttpTransport.Request request) {
+		try (HttpTransport.Response response = send(request)) {
+			return JsonParser.parseString(response.bodyAsString()).getAsJsonObject();
+		}
+	}
+	
+	/**
+	 * Sends the request, throwing a {@link LLMRequestException} if it fails
+	 */
+	private HttpTransport.Response send(HttpTransport.Request request) {
+		HttpTransport.Response response;
+		try {
+			response = transport.send(request.withHeader("Authorization", "Bearer " + apiKey));
+		} catch (IOException e) {
+			throw new LLMRequestException("OpenAI request failed: " + e.getMessage(), LLMRequestException.NO_STATUS, null, e);
+		}
+		
+		if (!response.isSuccessful()) {
+			try (response) {
+				throw new LLMRequestException(
+					"OpenAI request to " + request.getUri().getPath() + " failed with status " 
+						+ response.getStatusCode() + ": " + response.bodyAsString(), 
+					response.getStatusCode(), RetryPolicy.parseRetryAfter(response::header), null
+				);
+			}
+		}
+		return response;
+	}
+	
+	private static void write(ByteArrayOutputStream out, String text) {
+		out.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+	}
+}
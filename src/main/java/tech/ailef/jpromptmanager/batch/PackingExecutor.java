@@ -0,0 +1,368 @@
+package tech.ailef.jpromptmanager.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.thymeleaf.context.IContext;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import tech.ailef.jpromptmanager.JPromptManager;
+import tech.ailef.jpromptmanager.PromptBinding;
+import tech.ailef.jpromptmanager.PromptStep;
+import tech.ailef.jpromptmanager.PromptStepTemplate;
+import tech.ailef.jpromptmanager.PromptTemplate;
+import tech.ailef.jpromptmanager.StepGuard;
+import tech.ailef.jpromptmanager.completion.Conversation;
+import tech.ailef.jpromptmanager.completion.LLMConnector;
+import tech.ailef.jpromptmanager.completion.LLMRequest;
+import tech.ailef.jpromptmanager.completion.LLMResponse;
+import tech.ailef.jpromptmanager.completion.Message;
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.prompts.Prompt;
+import tech.ailef.jpromptmanager.tokenizer.BpeTokenizer;
+import tech.ailef.jpromptmanager.tokenizer.ModelInfo;
+import tech.ailef.jpromptmanager.tokenizer.Tokenizer;
+
+/**
+ * Completes a single-step prompt over many contexts by packing several contexts in 
+ * each request: the rendered prompts are sent together as numbered tasks, and the 
+ * response (a numbered list or a JSON array) is split back into one result per context.
+ * For small prompts this saves most of the fixed overhead of each request.
+ * 
+ * When the model is known (see {@link ModelInfo}), packs are limited so that the prompts
+ * and `maxTokens` for each answer fit in its context window. If a response doesn't have
+ * exactly one answer per context, the contexts of that pack are completed with individual
+ * requests, and the following packs are made smaller.
+ *
+ * @param <T>	the output type of the prompt
+ */
+public class PackingExecutor<T> {
+	private static final Logger logger = LogManager.getLogger(PackingExecutor.class);
+	
+	/**
+	 * The format the LLM is asked to answer in
+	 */
+	public enum Format {
+		/**
+		 * A numbered list, one item per task: `1. answer`
+		 */
+		NUMBERED_LIST,
+		
+		/**
+		 * A JSON array of strings
+		 */
+		JSON_ARRAY
+	}
+	
+	/**
+	 * Estimated number of tokens of the instructions added to each pack
+	 */
+	private static final int INSTRUCTION_TOKENS = 80;
+	
+	/**
+	 * Estimated number of tokens added to each task and answer for its number
+	 */
+	private static final int ITEM_TOKENS = 8;
+	
+	private static final Pattern LIST_ITEM = Pattern.compile("^\\s*(\\d{1,6})[.)]\\s*(.*)$");
+	
+	private final JPromptManager jPrompt;
+	
+	private final Class<? extends Prompt<T>> promptClass;
+	
+	private final int maxPackSize;
+	
+	private final int maxConcurrency;
+	
+	private Format format = Format.NUMBERED_LIST;
+	
+	/**
+	 * The current pack size, lowered when responses can't be split
+	 */
+	private final AtomicInteger packSize;
+	
+	private final AtomicLong packs = new AtomicLong();
+	
+	private final AtomicLong fallbacks = new AtomicLong();
+	
+	/**
+	 * Builds an executor that packs at most `maxPackSize` contexts per request, keeping
+	 * at most {@link tech.ailef.jpromptmanager.JPromptManagerOptions#getBatchConcurrency()}
+	 * requests in flight
+	 * @param jPrompt	the JPromptManager the prompt is loaded in
+	 * @param promptClass	the class of the prompt, which must have a single step
+	 * @param maxPackSize	the maximum number of contexts per request
+	 */
+	public PackingExecutor(JPromptManager jPrompt, Class<? extends Prompt<T>> promptClass, int maxPackSize) {
+		if (maxPackSize <= 0)
+			throw new IllegalArgumentException("maxPackSize must be positive, got " + maxPackSize);
+		
+		this.jPrompt = jPrompt;
+		this.promptClass = promptClass;
+		this.maxPackSize = maxPackSize;
+		this.maxConcurrency = jPrompt.getOptions().getBatchConcurrency();
+		this.packSize = new AtomicInteger(maxPackSize);
+	}
+	
+	/**
+	 * Sets the format of the packed responses, default {@link Format#NUMBERED_LIST}. 
+	 * JSON arrays are more robust for answers that span multiple lines.
+	 * @param format	the format of the responses
+	 * @return	this executor
+	 */
+	public PackingExecutor<T> withFormat(Format format) {
+		this.format = format;
+		return this;
+	}
+	
+	/**
+	 * Completes the prompt for all the given contexts and waits for the results.
+	 * @param contexts	the contexts to complete the prompt with
+	 * @return	the results, in the same order as the contexts
+	 */
+	public BatchResult<T> completeAll(List<IContext> contexts) {
+		PromptBinding<T> binding = PromptBinding.of(promptClass);
+		PromptTemplate template = binding.getTemplate(jPrompt.getPromptRegistry());
+		if (template.getSteps().size() != 1)
+			throw new JPromptManagerException("Only single-step prompts can be packed, " + binding.getName() 
+				+ " has " + template.getSteps().size() + " steps");
+		
+		PromptStepTemplate stepTemplate = template.getSteps().get(0);
+		LLMConnector connector = jPrompt.getConnector();
+		Map<String, String> params = connector.getDefaultParams();
+		params.putAll(stepTemplate.getParams());
+		
+		ModelInfo model = ModelInfo.forModel(params.get("model"));
+		Tokenizer tokenizer = model == null ? null : BpeTokenizer.forEncoding(model.getEncoding());
+		int maxTokens = params.containsKey("maxTokens") ? Integer.parseInt(params.get("maxTokens")) : 0;
+		
+		// Each item is set once, at its own index, before the in-flight requests are awaited
+		List<BatchItem<T>> items = new ArrayList<>(Collections.nCopies(contexts.size(), null));
+		String[] prompts = new String[contexts.size()];
+		int[] tokens = new int[contexts.size()];
+		for (int i = 0; i < contexts.size(); i++) {
+			try {
+				prompts[i] = stepTemplate.getCompiledTemplate().render(contexts.get(i)).trim();
+				tokens[i] = tokenizer == null ? 0 : tokenizer.countTokens(prompts[i]) + ITEM_TOKENS;
+			} catch (RuntimeException e) {
+				items.set(i, new BatchItem<>(i, contexts.get(i), null, e));
+			}
+		}
+		
+		Semaphore permits = new Semaphore(maxConcurrency);
+		try {
+			int next = 0;
+			while (next < contexts.size()) {
+				// Fill the pack while the prompts and the answers fit in the context window
+				List<Integer> pack = new ArrayList<>();
+				int packTokens = INSTRUCTION_TOKENS;
+				int limit = Math.min(maxPackSize, packSize.get());
+				for (; next < contexts.size() && pack.size() < limit; next++) {
+					if (items.get(next) != null)
+						continue;
+					
+					if (model != null && !pack.isEmpty() 
+							&& packTokens + tokens[next] + (pack.size() + 1) * (maxTokens + ITEM_TOKENS) > model.getContextWindow())
+						break;
+					
+					pack.add(next);
+					packTokens += tokens[next];
+				}
+				
+				if (pack.isEmpty())
+					continue;
+				
+				permits.acquire();
+				CompletableFuture<Void> done;
+				if (pack.size() == 1) {
+					done = completeIndividually(pack, contexts, items);
+				} else {
+					done = completePack(pack, contexts, prompts, items, binding, stepTemplate, connector, params, maxTokens);
+				}
+				done.whenComplete((v, e) -> permits.release());
+			}
+			
+			// Wait for all in-flight requests to finish
+			permits.acquire(maxConcurrency);
+			permits.release(maxConcurrency);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JPromptManagerException("Interrupted while waiting for batch completion", e);
+		}
+		
+		return new BatchResult<>(items);
+	}
+	
+	/**
+	 * Returns the number of packed requests sent
+	 * @return	the number of packs
+	 */
+	public long getPacks() {
+		return packs.get();
+	}
+	
+	/**
+	 * Returns the number of packs whose response couldn't be split, 
+	 * and that were completed with individual requests
+	 * @return	the number of fallbacks
+	 */
+	public long getFallbacks() {
+		return fallbacks.get();
+	}
+	
+	private CompletableFuture<Void> completePack(List<Integer> pack, List<IContext> contexts, String[] prompts, 
+			List<BatchItem<T>> items, PromptBinding<T> binding, PromptStepTemplate stepTemplate, LLMConnector connector, 
+			Map<String, String> params, int maxTokens) {
+		packs.incrementAndGet();
+		
+		List<String> tasks = new ArrayList<>(pack.size());
+		for (int i : pack)
+			tasks.add(prompts[i]);
+		
+		Map<String, String> packParams = new HashMap<>(params);
+		if (maxTokens > 0)
+			packParams.put("maxTokens", String.valueOf((maxTokens + ITEM_TOKENS) * pack.size()));
+		LLMRequest request = new LLMRequest(Conversation.empty().append(Message.Role.USER, buildPrompt(tasks)), packParams);
+		
+		CompletableFuture<LLMResponse> completion;
+		try {
+			completion = connector.executeAsync(request, jPrompt.getOptions().getExecutor());
+		} catch (RuntimeException e) {
+			completion = CompletableFuture.failedFuture(e);
+		}
+		
+		return completion
+			.handle((response, e) -> {
+				List<String> answers = e == null ? split(response.getText(), pack.size()) : null;
+				if (answers == null) {
+					packSize.set(Math.max(1, pack.size() / 2));
+					fallbacks.incrementAndGet();
+					logger.warn("Unable to split the response for " + pack.size() + " contexts of " + binding.getName()
+						+ (e != null ? " (" + unwrap(e).getMessage() + ")" : "") + ", completing them individually");
+					return completeIndividually(pack, contexts, items);
+				}
+				
+				for (int j = 0; j < pack.size(); j++) {
+					int i = pack.get(j);
+					try {
+						Prompt<T> prompt = binding.newInstance();
+						String output = StepGuard.apply(stepTemplate, jPrompt.getOptions(), answers.get(j));
+						prompt.addStep(new PromptStep(stepTemplate, prompts[i], output));
+						items.set(i, new BatchItem<>(i, contexts.get(i), prompt.getOutput(), null));
+					} catch (RuntimeException ex) {
+						items.set(i, new BatchItem<>(i, contexts.get(i), null, ex));
+					}
+				}
+				return CompletableFuture.<Void>completedFuture(null);
+			})
+			.thenCompose(f -> f);
+	}
+	
+	private CompletableFuture<Void> completeIndividually(List<Integer> pack, List<IContext> contexts, List<BatchItem<T>> items) {
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[pack.size()];
+		for (int j = 0; j < pack.size(); j++) {
+			int i = pack.get(j);
+			CompletableFuture<T> completion;
+			try {
+				completion = jPrompt.completeAsync(promptClass, contexts.get(i));
+			} catch (RuntimeException e) {
+				completion = CompletableFuture.failedFuture(e);
+			}
+			futures[j] = completion.whenComplete((output, e) -> {
+				items.set(i, new BatchItem<>(i, contexts.get(i), output, unwrap(e)));
+			});
+		}
+		return CompletableFuture.allOf(futures).exceptionally(e -> null);
+	}
+	
+	/**
+	 * Builds the prompt asking to complete all the tasks
+	 */
+	private String buildPrompt(List<String> tasks) {
+		StringBuilder prompt = new StringBuilder();
+		prompt.append("Complete each of the following ").append(tasks.size()).append(" tasks independently.\n\n");
+		
+		if (format == Format.JSON_ARRAY) {
+			JsonArray array = new JsonArray();
+			tasks.forEach(array::add);
+			prompt.append("The tasks are given as a JSON array of strings:\n").append(array).append("\n\n")
+				.append("Answer with a JSON array of exactly ").append(tasks.size())
+				.append(" strings, where the i-th string is the answer to the i-th task, and nothing else.");
+		} else {
+			for (int i = 0; i < tasks.size(); i++)
+				prompt.append("Task ").append(i + 1).append(":\n").append(tasks.get(i)).append("\n\n");
+			prompt.append("Answer with a numbered list of exactly ").append(tasks.size())
+				.append(" items, one for each task in the same order, formatted as \"1. answer\", and nothing else.");
+		}
+		return prompt.toString();
+	}
+	
+	/**
+	 * Splits the response into the answers to the tasks
+	 * @return	the answers, or null if the response doesn't have exactly one answer per task
+	 */
+	private List<String> split(String response, int count) {
+		List<String> answers = new ArrayList<>(count);
+		
+		if (format == Format.JSON_ARRAY) {
+			int start = response.indexOf('['), end = response.lastIndexOf(']');
+			if (start < 0 || end < start)
+				return null;
+			
+			try {
+				JsonElement parsed = JsonParser.parseString(response.substring(start, end + 1));
+				if (!parsed.isJsonArray())
+					return null;
+				for (JsonElement element : parsed.getAsJsonArray()) {
+					if (element.isJsonPrimitive())
+						answers.add(((JsonPrimitive)element).getAsString());
+					else
+						answers.add(element.toString());
+				}
+			} catch (JsonParseException e) {
+				return null;
+			}
+			return answers.size() == count ? answers : null;
+		}
+		
+		// Lines that don't start with the next number are the continuation of the current answer
+		StringBuilder current = null;
+		for (String line : response.split("\n")) {
+			Matcher matcher = LIST_ITEM.matcher(line);
+			if (matcher.matches() && Integer.parseInt(matcher.group(1)) == answers.size() + (current == null ? 1 : 2)) {
+				if (current != null)
+					answers.add(current.toString().trim());
+				current = new StringBuilder(matcher.group(2));
+			} else if (current != null) {
+				current.append('\n').append(line);
+			}
+		}
+		if (current != null)
+			answers.add(current.toString().trim());
+		
+		return answers.size() == count ? answers : null;
+	}
+	
+	private static Throwable unwrap(Throwable error) {
+		if (error instanceof CompletionException && error.getCause() != null)
+			return error.getCause();
+		return error;
+	}
+}
@@ -0,0 +1,63 @@
+package tech.ailef.jpromptmanager.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Computes the keys that identify a request to the LLM, as a SHA-256 hash
+ * of the prompt text and of the request params. Params that don't change
+ * the output of the request (e.g. the step name) are not included.
+ */
+public class CacheKeys {
+	/**
+	 * Step attributes that only control how JPromptManager executes a request,
+	 * and are therefore not included in the key. `maxChars` and `validate` are kept
+	 * in the key: a response they stopped early only holds the text up to the stop,
+	 * which must not be reused by steps that would have accepted more.
+	 */
+	public static final Set<String> IGNORED_PARAMS = Set.of("prompt", "name", "cache", "dependsOn", "independent", "hedge", "coalesce");
+	
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	private CacheKeys() {}
+	
+	/**
+	 * Returns the key for a request with the given prompt and params
+	 * @param prompt	the prompt text
+	 * @param params	the request params, merged with the defaults
+	 * @return	a hex-encoded SHA-256 hash identifying the request
+	 */
+	public static String of(String prompt, Map<String, String> params) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+		
+		// Sort params so that the key doesn't depend on the map iteration order
+		for (Map.Entry<String, String> param : new TreeMap<>(params).entrySet()) {
+			if (IGNORED_PARAMS.contains(param.getKey()))
+				continue;
+			
+			digest.update(param.getKey().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte)'=');
+			if (param.getValue() != null)
+				digest.update(param.getValue().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte)0);
+		}
+		digest.update(prompt.getBytes(StandardCharsets.UTF_8));
+		
+		byte[] hash = digest.digest();
+		char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			hex[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+			hex[i * 2 + 1] = HEX[hash[i] & 0xF];
+		}
+		return new String(hex);
+	}
+}
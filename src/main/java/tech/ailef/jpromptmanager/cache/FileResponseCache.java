@@ -0,0 +1,105 @@
+package tech.ailef.jpromptmanager.cache;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+
+/**
+ * A {@link ResponseCache} that stores each response in its own file inside a 
+ * directory, so that cached responses survive restarts. Errors when reading or
+ * writing entries are logged and treated as cache misses, so a broken cache
+ * never makes a completion fail.
+ */
+public class FileResponseCache implements ResponseCache {
+	private static final Logger logger = LogManager.getLogger(FileResponseCache.class);
+	
+	private static final String EXTENSION = ".txt";
+	
+	private final Path directory;
+	
+	private final Duration ttl;
+	
+	/**
+	 * Builds a cache that stores responses in the given directory, with no expiration
+	 * @param directory	the directory to store responses in, created if missing
+	 */
+	public FileResponseCache(Path directory) {
+		this(directory, Duration.ZERO);
+	}
+	
+	/**
+	 * Builds a cache that stores responses in the given directory
+	 * @param directory	the directory to store responses in, created if missing
+	 * @param ttl	the time-to-live of the entries, zero means no expiration
+	 */
+	public FileResponseCache(Path directory, Duration ttl) {
+		this.directory = directory;
+		this.ttl = ttl;
+		try {
+			Files.createDirectories(directory);
+		} catch (IOException e) {
+			throw new JPromptManagerException("Unable to create cache directory " + directory, e);
+		}
+	}
+
+	@Override
+	public String get(String key) {
+		Path file = directory.resolve(key + EXTENSION);
+		try {
+			if (!ttl.isZero()) {
+				long age = System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis();
+				if (age > ttl.toMillis()) {
+					Files.deleteIfExists(file);
+					return null;
+				}
+			}
+			
+			return Files.readString(file, StandardCharsets.UTF_8);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			logger.warn("Unable to read cache entry " + file, e);
+			return null;
+		}
+	}
+
+	@Override
+	public void put(String key, String response) {
+		Path file = directory.resolve(key + EXTENSION);
+		try {
+			// Write to a temporary file first, so that concurrent readers
+			// never see a partially written entry
+			Path tmp = Files.createTempFile(directory, key, ".tmp");
+			Files.writeString(tmp, response, StandardCharsets.UTF_8);
+			try {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			logger.warn("Unable to write cache entry " + file, e);
+		}
+	}
+
+	@Override
+	public void clear() {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+			for (Path file : files) {
+				Files.deleteIfExists(file);
+			}
+		} catch (IOException e) {
+			throw new JPromptManagerException("Unable to clear cache directory " + directory, e);
+		}
+	}
+}
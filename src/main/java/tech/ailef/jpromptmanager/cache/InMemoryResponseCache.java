@@ -0,0 +1,94 @@
+package tech.ailef.jpromptmanager.cache;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-memory {@link ResponseCache} holding at most `maxEntries` responses,
+ * evicting the least recently used ones when full. Entries can optionally
+ * expire after a fixed time-to-live.
+ */
+public class InMemoryResponseCache implements ResponseCache {
+	private final int maxEntries;
+	
+	/**
+	 * Time-to-live of the entries in nanoseconds, 0 means no expiration
+	 */
+	private final long ttlNanos;
+	
+	private final LinkedHashMap<String, Entry> entries;
+	
+	/**
+	 * Builds a LRU cache with no expiration
+	 * @param maxEntries	the maximum number of responses to keep
+	 */
+	public InMemoryResponseCache(int maxEntries) {
+		this(maxEntries, Duration.ZERO);
+	}
+	
+	/**
+	 * Builds a LRU cache where entries expire after the given time-to-live
+	 * @param maxEntries	the maximum number of responses to keep
+	 * @param ttl	the time-to-live of the entries, zero means no expiration
+	 */
+	public InMemoryResponseCache(int maxEntries, Duration ttl) {
+		if (maxEntries <= 0)
+			throw new IllegalArgumentException("maxEntries must be positive, got " + maxEntries);
+		
+		this.maxEntries = maxEntries;
+		this.ttlNanos = ttl.toNanos();
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > InMemoryResponseCache.this.maxEntries;
+			}
+		};
+	}
+
+	@Override
+	public synchronized String get(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null)
+			return null;
+		
+		if (ttlNanos > 0 && System.nanoTime() - entry.createdAt > ttlNanos) {
+			entries.remove(key);
+			return null;
+		}
+		
+		return entry.response;
+	}
+
+	@Override
+	public synchronized void put(String key, String response) {
+		entries.put(key, new Entry(response, System.nanoTime()));
+	}
+	
+	@Override
+	public synchronized void clear() {
+		entries.clear();
+	}
+	
+	/**
+	 * Returns the number of entries currently in the cache, including expired
+	 * ones that haven't been evicted yet
+	 * @return	the number of entries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	private static class Entry {
+		private final String response;
+		
+		private final long createdAt;
+		
+		private Entry(String response, long createdAt) {
+			this.response = response;
+			this.createdAt = createdAt;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package tech.ailef.jpromptmanager.cache;
+
+/**
+ * A cache for LLM responses, used by {@link tech.ailef.jpromptmanager.completion.CachingLLMConnector}.
+ * Keys are computed with {@link CacheKeys#of(String, java.util.Map)} from the prompt 
+ * text and the request params. Implementations must be thread-safe.
+ */
+public interface ResponseCache {
+	/**
+	 * Returns the response stored for the given key
+	 * @param key	the key of the request
+	 * @return	the cached response, or null if missing or expired
+	 */
+	public String get(String key);
+	
+	/**
+	 * Stores the response for the given key
+	 * @param key	the key of the request
+	 * @param response	the response to store
+	 */
+	public void put(String key, String response);
+	
+	/**
+	 * Removes all the entries from this cache
+	 */
+	public void clear();
+}
@@ -0,0 +1,49 @@
+package tech.ailef.jpromptmanager.cache;
+
+import java.util.List;
+
+/**
+ * A {@link ResponseCache} made of multiple tiers, usually a fast in-memory one 
+ * followed by a persistent one. Lookups go through the tiers in order and
+ * a hit in a lower tier is copied to all the tiers above it; writes go
+ * to all the tiers.
+ */
+public class TieredResponseCache implements ResponseCache {
+	private final List<ResponseCache> tiers;
+	
+	/**
+	 * Builds a cache with the given tiers, from the fastest to the slowest
+	 * @param tiers	the tiers of this cache
+	 */
+	public TieredResponseCache(ResponseCache... tiers) {
+		this.tiers = List.of(tiers);
+	}
+
+	@Override
+	public String get(String key) {
+		for (int i = 0; i < tiers.size(); i++) {
+			String response = tiers.get(i).get(key);
+			if (response != null) {
+				for (int j = 0; j < i; j++) {
+					tiers.get(j).put(key, response);
+				}
+				return response;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void put(String key, String response) {
+		for (ResponseCache tier : tiers) {
+			tier.put(key, response);
+		}
+	}
+
+	@Override
+	public void clear() {
+		for (ResponseCache tier : tiers) {
+			tier.clear();
+		}
+	}
+}
@@ -0,0 +1,304 @@
+package tech.ailef.jpromptmanager.catalog;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import tech.ailef.jpromptmanager.PromptTemplate;
+import tech.ailef.jpromptmanager.PromptXmlParser;
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+
+/**
+ * Prompts spread across many files (XML files or {@link PromptCatalog}s), loaded on demand.
+ * When the catalog is opened, each file is scanned once to build an index from prompt type
+ * to the file and offset where the prompt is declared, without parsing any template.
+ * A prompt is parsed the first time it's requested, by reading only its own bytes, 
+ * and kept in a bounded LRU cache, so memory use depends on the prompts that 
+ * are actually used rather than on the size of the catalog.
+ * 
+ * Since templates are parsed lazily, an invalid prompt is only reported (with a 
+ * {@link JPromptManagerException}) when it's first requested. Duplicate types 
+ * and prompts without a type are reported when the catalog is opened.
+ */
+public class LazyPromptCatalog {
+	private static final Logger logger = LogManager.getLogger(LazyPromptCatalog.class);
+	
+	/**
+	 * Where a prompt is declared
+	 */
+	private static final class Entry {
+		private final URL source;
+		
+		private final long offset;
+		
+		private final int length;
+		
+		/**
+		 * The XML declaration of the file, null if the file is a catalog
+		 */
+		private final byte[] prolog;
+		
+		private Entry(URL source, long offset, int length, byte[] prolog) {
+			this.source = source;
+			this.offset = offset;
+			this.length = length;
+			this.prolog = prolog;
+		}
+	}
+	
+	private final Map<String, Entry> index;
+	
+	private final Map<String, PromptTemplate> cache;
+	
+	private LazyPromptCatalog(Map<String, Entry> index, int cacheSize) {
+		if (cacheSize <= 0)
+			throw new IllegalArgumentException("cacheSize must be positive, got " + cacheSize);
+		
+		this.index = Collections.unmodifiableMap(index);
+		this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PromptTemplate> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+	
+	/**
+	 * Opens all the `.xml` and `.catalog` files in a directory and its subdirectories
+	 * @param directory	the directory
+	 * @param cacheSize	the maximum number of parsed prompts to keep in memory
+	 * @return	the catalog
+	 * @throws JPromptManagerException	if the files can't be read or indexed
+	 */
+	public static LazyPromptCatalog fromDirectory(Path directory, int cacheSize) {
+		List<URL> files;
+		try (Stream<Path> paths = Files.walk(directory)) {
+			files = paths.filter(Files::isRegularFile)
+				.filter(p -> isPromptFile(p.getFileName().toString()))
+				.sorted()
+				.map(LazyPromptCatalog::toURL)
+				.collect(Collectors.toList());
+		} catch (IOException | UncheckedIOException e) {
+			throw new JPromptManagerException("Unable to list prompts directory " + directory, e);
+		}
+		
+		return open(files, cacheSize);
+	}
+	
+	/**
+	 * Opens all the classpath resources matching a glob pattern, e.g. `prompts/**.xml`
+	 * or `prompts/*.catalog`, from both directories and JAR files in the classpath
+	 * @param classLoader	the class loader to search
+	 * @param pattern	the pattern, relative to the root of the classpath
+	 * @param cacheSize	the maximum number of parsed prompts to keep in memory
+	 * @return	the catalog
+	 * @throws JPromptManagerException	if the resources can't be read or indexed
+	 */
+	public static LazyPromptCatalog fromClasspath(ClassLoader classLoader, String pattern, int cacheSize) {
+		int firstWildcard = indexOfWildcard(pattern);
+		int baseEnd = pattern.lastIndexOf('/', firstWildcard) + 1;
+		String base = pattern.substring(0, baseEnd);
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern.substring(baseEnd));
+		
+		List<URL> files = new ArrayList<>();
+		try {
+			Enumeration<URL> roots = classLoader.getResources(base.isEmpty() ? "" : base.substring(0, base.length() - 1));
+			while (roots.hasMoreElements()) {
+				URL root = roots.nextElement();
+				if ("file".equals(root.getProtocol())) {
+					Path dir = Paths.get(root.toURI());
+					try (Stream<Path> paths = Files.walk(dir)) {
+						paths.filter(Files::isRegularFile)
+							.filter(p -> matcher.matches(dir.relativize(p)))
+							.sorted()
+							.forEach(p -> files.add(toURL(p)));
+					}
+				} else if ("jar".equals(root.getProtocol())) {
+					JarURLConnection connection = (JarURLConnection)root.openConnection();
+					// Not cached, so that closing it doesn't affect the class loader
+					connection.setUseCaches(false);
+					URL jarURL = connection.getJarFileURL();
+					try (JarFile jar = connection.getJarFile()) {
+						jar.stream()
+							.map(JarEntry::getName)
+							.filter(name -> !name.endsWith("/") && name.startsWith(base))
+							.filter(name -> matcher.matches(Paths.get(name.substring(base.length()))))
+							.sorted()
+							.forEach(name -> files.add(toURL(jarURL, name)));
+					}
+				} else {
+					logger.warn("Skipping classpath location " + root + ", unsupported protocol");
+				}
+			}
+		} catch (IOException | UncheckedIOException | URISyntaxException e) {
+			throw new JPromptManagerException("Unable to list classpath resources matching " + pattern, e);
+		}
+		
+		return open(files, cacheSize);
+	}
+	
+	/**
+	 * Indexes the given files
+	 */
+	private static LazyPromptCatalog open(List<URL> files, int cacheSize) {
+		long start = System.nanoTime();
+		Map<String, Entry> index = new HashMap<>();
+		
+		for (URL file : files) {
+			byte[] content;
+			try (InputStream in = file.openStream()) {
+				content = in.readAllBytes();
+			} catch (IOException e) {
+				throw new JPromptManagerException("Unable to read prompts file " + file, e);
+			}
+			
+			boolean catalog = PromptCatalog.isCatalog(content);
+			byte[] prolog = catalog ? null : XmlPromptIndexer.prolog(content);
+			Map<String, long[]> positions = catalog 
+					? PromptCatalog.index(content) 
+					: XmlPromptIndexer.index(content, file.toString());
+			
+			positions.forEach((type, position) -> {
+				Entry previous = index.put(type, new Entry(file, position[0], (int)position[1], prolog));
+				if (previous != null)
+					throw new JPromptManagerException("Prompt `" + type + "` is declared in both " + previous.source + " and " + file);
+			});
+		}
+		
+		logger.info("Indexed " + index.size() + " prompts from " + files.size() + " files in " 
+				+ (System.nanoTime() - start) / 1_000_000 + "ms");
+		return new LazyPromptCatalog(index, cacheSize);
+	}
+	
+	/**
+	 * Returns the template of the given prompt type, parsing it if it's not in the cache
+	 * @param type	the prompt type
+	 * @return	the template, or null if missing
+	 * @throws JPromptManagerException	if the prompt can't be read or is invalid
+	 */
+	public PromptTemplate get(String type) {
+		synchronized (cache) {
+			PromptTemplate template = cache.get(type);
+			if (template != null)
+				return template;
+		}
+		
+		Entry entry = index.get(type);
+		if (entry == null)
+			return null;
+		
+		// Parsed outside the lock: two threads might parse the same prompt, but lookups of other prompts aren't blocked
+		PromptTemplate template = load(type, entry);
+		synchronized (cache) {
+			PromptTemplate existing = cache.putIfAbsent(type, template);
+			return existing != null ? existing : template;
+		}
+	}
+	
+	private PromptTemplate load(String type, Entry entry) {
+		byte[] bytes;
+		try (InputStream in = entry.source.openStream()) {
+			in.skipNBytes(entry.offset);
+			bytes = in.readNBytes(entry.length);
+		} catch (IOException e) {
+			throw new JPromptManagerException("Unable to read prompt `" + type + "` from " + entry.source, e);
+		}
+		if (bytes.length != entry.length)
+			throw new JPromptManagerException("Prompts file " + entry.source + " has changed since it was indexed");
+		
+		if (entry.prolog == null)
+			return PromptCatalog.readPrompt(bytes);
+		
+		// Parse the element on its own, wrapped in a root element
+		byte[] open = "<prompts>".getBytes(StandardCharsets.US_ASCII);
+		byte[] close = "</prompts>".getBytes(StandardCharsets.US_ASCII);
+		byte[] document = new byte[entry.prolog.length + open.length + bytes.length + close.length];
+		System.arraycopy(entry.prolog, 0, document, 0, entry.prolog.length);
+		System.arraycopy(open, 0, document, entry.prolog.length, open.length);
+		System.arraycopy(bytes, 0, document, entry.prolog.length + open.length, bytes.length);
+		System.arraycopy(close, 0, document, document.length - close.length, close.length);
+		
+		PromptTemplate template = PromptXmlParser.parse(new ByteArrayInputStream(document)).get(type);
+		if (template == null)
+			throw new JPromptManagerException("Prompts file " + entry.source + " has changed since it was indexed");
+		return template;
+	}
+	
+	/**
+	 * Returns the types of all the prompts in the catalog
+	 * @return	the prompt types
+	 */
+	public Set<String> getPromptTypes() {
+		return index.keySet();
+	}
+	
+	/**
+	 * Returns the number of prompts that are currently parsed and cached
+	 * @return	the number of cached prompts
+	 */
+	public int getCachedCount() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+	
+	public int size() {
+		return index.size();
+	}
+	
+	private static boolean isPromptFile(String name) {
+		return name.endsWith(".xml") || name.endsWith(".catalog");
+	}
+	
+	private static int indexOfWildcard(String pattern) {
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c == '*' || c == '?' || c == '[' || c == '{')
+				return i;
+		}
+		return pattern.length();
+	}
+	
+	private static URL toURL(URL jarURL, String entry) {
+		try {
+			return new URL("jar:" + jarURL + "!/" + entry);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private static URL toURL(Path path) {
+		try {
+			return path.toUri().toURL();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
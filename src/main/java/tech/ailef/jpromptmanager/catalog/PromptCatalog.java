@@ -0,0 +1,230 @@
+package tech.ailef.jpromptmanager.catalog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import tech.ailef.jpromptmanager.PromptStepTemplate;
+import tech.ailef.jpromptmanager.PromptTemplate;
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+
+/**
+ * A compact binary representation of a set of prompt templates, which can be
+ * loaded with a single read and without parsing XML. Catalogs are built from
+ * the XML prompts file (which stays the source of truth) with {@link PromptCatalogCompiler},
+ * and loaded by {@link tech.ailef.jpromptmanager.JPromptManager} in place of the XML file.
+ * 
+ * The format is: the magic number `JPMC`, a format version, the number of prompts and, for 
+ * each prompt, its type and steps (name, template text and attributes). Strings are
+ * stored as a length followed by UTF-8 bytes.
+ */
+public class PromptCatalog {
+	/**
+	 * The first bytes of every catalog, `JPMC` in ASCII
+	 */
+	public static final int MAGIC = 0x4A504D43;
+	
+	public static final short FORMAT_VERSION = 1;
+	
+	private PromptCatalog() {}
+	
+	/**
+	 * Returns whether the given content is a catalog, as opposed to an XML file
+	 * @param content	the content of a prompts file
+	 * @return	true if the content starts with the catalog magic number
+	 */
+	public static boolean isCatalog(byte[] content) {
+		return content.length >= 4 && ByteBuffer.wrap(content).getInt(0) == MAGIC;
+	}
+	
+	/**
+	 * Writes the given prompts as a catalog
+	 * @param prompts	the prompt templates, keyed by prompt type
+	 * @param out	the stream to write to
+	 * @throws IOException	if writing fails
+	 */
+	public static void write(Map<String, PromptTemplate> prompts, OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeShort(FORMAT_VERSION);
+		data.writeInt(prompts.size());
+		
+		// Sorted, so that the same prompts always produce the same bytes
+		for (Map.Entry<String, PromptTemplate> prompt : new TreeMap<>(prompts).entrySet()) {
+			writeString(data, prompt.getKey());
+			
+			List<PromptStepTemplate> steps = prompt.getValue().getSteps();
+			data.writeInt(steps.size());
+			for (PromptStepTemplate step : steps) {
+				writeString(data, step.getName());
+				writeString(data, step.getTemplate());
+				
+				Map<String, String> params = new TreeMap<>(step.getParams());
+				data.writeInt(params.size());
+				for (Map.Entry<String, String> param : params.entrySet()) {
+					writeString(data, param.getKey());
+					writeString(data, param.getValue());
+				}
+			}
+		}
+		
+		data.flush();
+	}
+	
+	/**
+	 * Returns the given prompts as a catalog
+	 * @param prompts	the prompt templates, keyed by prompt type
+	 * @return	the catalog bytes
+	 */
+	public static byte[] toBytes(Map<String, PromptTemplate> prompts) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			write(prompts, out);
+		} catch (IOException e) {
+			// Can't happen when writing to memory
+			throw new JPromptManagerException(e);
+		}
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Reads the prompts in a catalog
+	 * @param content	the catalog bytes
+	 * @return	the prompt templates, keyed by prompt type
+	 * @throws JPromptManagerException	if the content is not a valid catalog
+	 */
+	public static Map<String, PromptTemplate> read(byte[] content) {
+		ByteBuffer buffer = ByteBuffer.wrap(content);
+		
+		try {
+			if (buffer.getInt() != MAGIC)
+				throw new JPromptManagerException("Not a prompt catalog");
+			
+			readVersion(buffer);
+			
+			int promptCount = buffer.getInt();
+			Map<String, PromptTemplate> prompts = new HashMap<>(promptCount * 2);
+			for (int i = 0; i < promptCount; i++) {
+				String type = readString(buffer);
+				prompts.put(type, readSteps(buffer));
+			}
+			
+			return prompts;
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new JPromptManagerException("Truncated or corrupted prompt catalog", e);
+		}
+	}
+	
+	/**
+	 * Returns the position of each prompt in a catalog, without building the templates
+	 * @param content	the catalog bytes
+	 * @return	the offset and length of each prompt, keyed by prompt type, in the order they appear
+	 * @throws JPromptManagerException	if the content is not a valid catalog
+	 */
+	static Map<String, long[]> index(byte[] content) {
+		ByteBuffer buffer = ByteBuffer.wrap(content);
+		
+		try {
+			if (buffer.getInt() != MAGIC)
+				throw new JPromptManagerException("Not a prompt catalog");
+			readVersion(buffer);
+			
+			int promptCount = buffer.getInt();
+			Map<String, long[]> index = new LinkedHashMap<>(promptCount * 2);
+			for (int i = 0; i < promptCount; i++) {
+				int start = buffer.position();
+				String type = readString(buffer);
+				
+				int stepCount = buffer.getInt();
+				for (int j = 0; j < stepCount; j++) {
+					skipString(buffer);
+					skipString(buffer);
+					int paramCount = buffer.getInt();
+					for (int k = 0; k < paramCount * 2; k++)
+						skipString(buffer);
+				}
+				
+				index.put(type, new long[] { start, buffer.position() - start });
+			}
+			
+			return index;
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new JPromptManagerException("Truncated or corrupted prompt catalog", e);
+		}
+	}
+	
+	/**
+	 * Reads a single prompt, as located by {@link #index(byte[])}
+	 * @param record	the bytes of the prompt
+	 * @return	the prompt template
+	 * @throws JPromptManagerException	if the record is not valid
+	 */
+	static PromptTemplate readPrompt(byte[] record) {
+		ByteBuffer buffer = ByteBuffer.wrap(record);
+		
+		try {
+			readString(buffer);
+			return readSteps(buffer);
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new JPromptManagerException("Truncated or corrupted prompt catalog", e);
+		}
+	}
+	
+	private static void readVersion(ByteBuffer buffer) {
+		short version = buffer.getShort();
+		if (version != FORMAT_VERSION)
+			throw new JPromptManagerException("Unsupported prompt catalog version " + version 
+					+ ", expected " + FORMAT_VERSION + ": recompile the catalog");
+	}
+	
+	private static PromptTemplate readSteps(ByteBuffer buffer) {
+		int stepCount = buffer.getInt();
+		List<PromptStepTemplate> steps = new ArrayList<>(stepCount);
+		for (int j = 0; j < stepCount; j++) {
+			String name = readString(buffer);
+			String template = readString(buffer);
+			
+			int paramCount = buffer.getInt();
+			Map<String, String> params = new HashMap<>(paramCount * 2);
+			for (int k = 0; k < paramCount; k++)
+				params.put(readString(buffer), readString(buffer));
+			
+			steps.add(new PromptStepTemplate(name, template, params));
+		}
+		
+		return new PromptTemplate(steps);
+	}
+	
+	private static void writeString(DataOutputStream data, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		data.writeInt(bytes.length);
+		data.write(bytes);
+	}
+	
+	private static void skipString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining())
+			throw new BufferUnderflowException();
+		buffer.position(buffer.position() + length);
+	}
+	
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining())
+			throw new BufferUnderflowException();
+		
+		String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return value;
+	}
+}
@@ -0,0 +1,68 @@
+package tech.ailef.jpromptmanager.catalog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+import tech.ailef.jpromptmanager.PromptTemplate;
+import tech.ailef.jpromptmanager.PromptXmlParser;
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+
+/**
+ * Compiles an XML prompts file into a {@link PromptCatalog}. It can be run from the
+ * command line or as part of the build (e.g. with the exec-maven-plugin):
+ * 
+ * `java -cp jpromptmanager.jar tech.ailef.jpromptmanager.catalog.PromptCatalogCompiler prompts.xml prompts.catalog`
+ */
+public class PromptCatalogCompiler {
+	private PromptCatalogCompiler() {}
+	
+	/**
+	 * Compiles the given XML file into a catalog. The XML is fully validated
+	 * before anything is written, and the catalog is replaced atomically.
+	 * @param xmlFile	the XML prompts file
+	 * @param catalogFile	the catalog file to write
+	 * @return	the number of prompts in the catalog
+	 * @throws IOException	if reading or writing fails
+	 */
+	public static int compile(Path xmlFile, Path catalogFile) throws IOException {
+		Map<String, PromptTemplate> prompts;
+		try (InputStream in = Files.newInputStream(xmlFile)) {
+			prompts = PromptXmlParser.parse(in);
+		}
+		
+		Path parent = catalogFile.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path temp = Files.createTempFile(parent, catalogFile.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(temp)) {
+				PromptCatalog.write(prompts, out);
+			}
+			Files.move(temp, catalogFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		
+		return prompts.size();
+	}
+	
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: PromptCatalogCompiler <prompts.xml> <output catalog>");
+			System.exit(2);
+		}
+		
+		try {
+			int count = compile(Paths.get(args[0]), Paths.get(args[1]));
+			System.out.println("Compiled " + count + " prompts from " + args[0] + " to " + args[1]);
+		} catch (IOException | JPromptManagerException e) {
+			System.err.println("Unable to compile " + args[0] + ": " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
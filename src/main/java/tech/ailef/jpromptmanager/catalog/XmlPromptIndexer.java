@@ -0,0 +1,178 @@
+package tech.ailef.jpromptmanager.catalog;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+
+/**
+ * Finds the `<prompt>` elements of an XML prompts file without parsing it, by 
+ * scanning the bytes for the start and end tags (skipping comments, CDATA sections
+ * and processing instructions). Only the `type` attribute of each prompt is decoded;
+ * the elements themselves are parsed later, one at a time, when they're needed.
+ */
+class XmlPromptIndexer {
+	private static final Pattern TYPE_ATTRIBUTE = Pattern.compile("\\stype\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+	
+	private static final byte[] COMMENT_START = ascii("<!--");
+	private static final byte[] COMMENT_END = ascii("-->");
+	private static final byte[] CDATA_START = ascii("<![CDATA[");
+	private static final byte[] CDATA_END = ascii("]]>");
+	private static final byte[] PI_START = ascii("<?");
+	private static final byte[] PI_END = ascii("?>");
+	private static final byte[] XML_DECLARATION_START = ascii("<?xml");
+	private static final byte[] PROMPT_START = ascii("<prompt");
+	private static final byte[] PROMPT_END = ascii("</prompt");
+	
+	private XmlPromptIndexer() {}
+	
+	/**
+	 * Returns the XML declaration at the start of the file (which carries the encoding),
+	 * so that it can be prepended to each element when parsing it on its own
+	 * @param content	the content of the file
+	 * @return	the declaration, or an empty array if there's none
+	 */
+	static byte[] prolog(byte[] content) {
+		int start = content.length >= 3 && (content[0] & 0xFF) == 0xEF ? 3 : 0;
+		if (!startsWith(content, start, XML_DECLARATION_START))
+			return new byte[0];
+		
+		int end = indexOf(content, PI_END, start);
+		byte[] prolog = new byte[end + PI_END.length];
+		System.arraycopy(content, 0, prolog, 0, prolog.length);
+		return prolog;
+	}
+	
+	/**
+	 * Returns the position of each `<prompt>` element in the given content
+	 * @param content	the content of the XML file
+	 * @param source	the name of the file, for error messages
+	 * @return	the offset and length of each prompt, keyed by prompt type, in the order they appear
+	 * @throws JPromptManagerException	if the file is malformed or a prompt has no type
+	 */
+	static Map<String, long[]> index(byte[] content, String source) {
+		Map<String, long[]> index = new LinkedHashMap<>();
+		
+		int i = 0;
+		while (i < content.length) {
+			int skipped = skip(content, i);
+			if (skipped != i) {
+				i = skipped;
+			} else if (isTag(content, i, PROMPT_START)) {
+				int tagEnd = endOfTag(content, i);
+				String tag = new String(content, i, tagEnd - i, StandardCharsets.UTF_8);
+				
+				Matcher matcher = TYPE_ATTRIBUTE.matcher(tag);
+				if (!matcher.find())
+					throw new JPromptManagerException("Found prompt object with missing `type` attribute in " + source + ": " + tag);
+				String type = unescape(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+				
+				int end = tag.endsWith("/>") ? tagEnd : findPromptEnd(content, tagEnd, source, type);
+				if (index.put(type, new long[] { i, end - i }) != null)
+					throw new JPromptManagerException("Prompt `" + type + "` is declared more than once in " + source);
+				i = end;
+			} else {
+				i++;
+			}
+		}
+		
+		return index;
+	}
+	
+	/**
+	 * Returns the position after the `</prompt>` tag that closes the element
+	 */
+	private static int findPromptEnd(byte[] content, int from, String source, String type) {
+		int i = from;
+		while (i < content.length) {
+			int skipped = skip(content, i);
+			if (skipped != i)
+				i = skipped;
+			else if (isTag(content, i, PROMPT_END))
+				return endOfTag(content, i);
+			else
+				i++;
+		}
+		throw new JPromptManagerException("Prompt `" + type + "` is not closed in " + source);
+	}
+	
+	/**
+	 * Returns the position after the comment, CDATA section or processing instruction
+	 * starting at the given position, or the position itself if there's none
+	 */
+	private static int skip(byte[] content, int i) {
+		if (content[i] != '<')
+			return i;
+		if (startsWith(content, i, COMMENT_START))
+			return indexOf(content, COMMENT_END, i + COMMENT_START.length) + COMMENT_END.length;
+		if (startsWith(content, i, CDATA_START))
+			return indexOf(content, CDATA_END, i + CDATA_START.length) + CDATA_END.length;
+		if (startsWith(content, i, PI_START))
+			return indexOf(content, PI_END, i + PI_START.length) + PI_END.length;
+		return i;
+	}
+	
+	/**
+	 * Returns whether a tag with exactly the given name starts at the given position
+	 */
+	private static boolean isTag(byte[] content, int i, byte[] name) {
+		if (!startsWith(content, i, name))
+			return false;
+		if (i + name.length >= content.length)
+			return false;
+		byte next = content[i + name.length];
+		return next == '>' || next == '/' || next == ' ' || next == '\t' || next == '\n' || next == '\r';
+	}
+	
+	/**
+	 * Returns the position after the `>` that closes the tag starting at the given position,
+	 * ignoring the ones in quoted attribute values
+	 */
+	private static int endOfTag(byte[] content, int i) {
+		byte quote = 0;
+		for (int j = i; j < content.length; j++) {
+			byte b = content[j];
+			if (quote != 0) {
+				if (b == quote)
+					quote = 0;
+			} else if (b == '"' || b == '\'') {
+				quote = b;
+			} else if (b == '>') {
+				return j + 1;
+			}
+		}
+		throw new JPromptManagerException("Unterminated tag at offset " + i);
+	}
+	
+	private static int indexOf(byte[] content, byte[] needle, int from) {
+		for (int i = from; i <= content.length - needle.length; i++) {
+			if (startsWith(content, i, needle))
+				return i;
+		}
+		throw new JPromptManagerException("Malformed XML: missing `" + new String(needle, StandardCharsets.US_ASCII) + "`");
+	}
+	
+	private static boolean startsWith(byte[] content, int i, byte[] prefix) {
+		if (i + prefix.length > content.length)
+			return false;
+		for (int j = 0; j < prefix.length; j++) {
+			if (content[i + j] != prefix[j])
+				return false;
+		}
+		return true;
+	}
+	
+	private static String unescape(String value) {
+		if (value.indexOf('&') < 0)
+			return value;
+		return value.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+				.replace("&apos;", "'").replace("&amp;", "&");
+	}
+	
+	private static byte[] ascii(String value) {
+		return value.getBytes(StandardCharsets.US_ASCII);
+	}
+}
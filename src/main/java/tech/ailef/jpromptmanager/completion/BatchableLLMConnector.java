@@ -0,0 +1,29 @@
+package tech.ailef.jpromptmanager.completion;
+
+/**
+ * A connector whose requests can also be sent through the batch API of the provider, 
+ * where requests are submitted as a file and completed offline, usually at a lower price. 
+ * Connectors implementing this interface can be used with a 
+ * {@link tech.ailef.jpromptmanager.batch.BatchApiExecutor}.
+ */
+public interface BatchableLLMConnector extends LLMConnector {
+	/**
+	 * Returns the endpoint that batched requests are sent to
+	 * @return	the URL path of the endpoint, e.g. `/v1/chat/completions`
+	 */
+	public String getBatchEndpoint();
+	
+	/**
+	 * Returns the JSON body that would be sent for the given (non-streaming) request
+	 * @param request	the request
+	 * @return	the JSON body of the request
+	 */
+	public String toBatchBody(LLMRequest request);
+	
+	/**
+	 * Parses the JSON body of the response to a batched request
+	 * @param body	the body of the response
+	 * @return	the response
+	 */
+	public LLMResponse fromBatchBody(String body);
+}
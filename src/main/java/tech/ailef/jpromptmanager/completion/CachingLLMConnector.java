@@ -0,0 +1,133 @@
+package tech.ailef.jpromptmanager.completion;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tech.ailef.jpromptmanager.cache.CacheKeys;
+import tech.ailef.jpromptmanager.cache.ResponseCache;
+
+/**
+ * A connector that caches the responses of another connector, so that requests
+ * with the same prompt text and params are only sent to the LLM once.
+ * 
+ * Caching can be enabled or disabled on individual steps with the `cache` attribute,
+ * e.g. `&lt;step name="shopJson" temperature="0" cache="true"&gt;`. Steps without
+ * the attribute follow the default passed to the constructor.
+ */
+public class CachingLLMConnector extends ForwardingLLMConnector {
+	/**
+	 * The name of the step attribute that enables/disables caching
+	 */
+	public static final String CACHE_PARAM = "cache";
+	
+	private final ResponseCache cache;
+	
+	private final boolean cacheByDefault;
+	
+	private final AtomicLong hits = new AtomicLong();
+	
+	private final AtomicLong misses = new AtomicLong();
+	
+	/**
+	 * Builds a connector that caches all requests, except for steps 
+	 * that have `cache="false"`.
+	 * @param delegate	the connector to forward requests to
+	 * @param cache	the cache to store responses in
+	 */
+	public CachingLLMConnector(LLMConnector delegate, ResponseCache cache) {
+		this(delegate, cache, true);
+	}
+	
+	/**
+	 * Builds a caching connector.
+	 * @param delegate	the connector to forward requests to
+	 * @param cache	the cache to store responses in
+	 * @param cacheByDefault	whether to cache requests of steps that don't have a `cache` attribute
+	 */
+	public CachingLLMConnector(LLMConnector delegate, ResponseCache cache, boolean cacheByDefault) {
+		super(delegate);
+		this.cache = cache;
+		this.cacheByDefault = cacheByDefault;
+	}
+
+	/**
+	 * On a cache miss, the request is forwarded to the underlying connector (streaming
+	 * the response if requested), while cached responses are passed to the chunk
+	 * handler as a single chunk.
+	 */
+	@Override
+	public LLMResponse execute(LLMRequest request) {
+		if (!isCacheable(request.getParams()))
+			return delegate.execute(request);
+		
+		String key = CacheKeys.of(request.getPrompt(), request.getParams());
+		LLMResponse cached = lookup(key, request);
+		if (cached != null)
+			return cached;
+		
+		LLMResponse response = delegate.execute(request);
+		cache.put(key, response.getText());
+		return response;
+	}
+	
+	@Override
+	public CompletableFuture<LLMResponse> executeAsync(LLMRequest request, Executor executor) {
+		if (!isCacheable(request.getParams()))
+			return delegate.executeAsync(request, executor);
+		
+		String key = CacheKeys.of(request.getPrompt(), request.getParams());
+		LLMResponse cached = lookup(key, request);
+		if (cached != null)
+			return CompletableFuture.completedFuture(cached);
+		
+		return delegate.executeAsync(request, executor).thenApply(response -> {
+			cache.put(key, response.getText());
+			return response;
+		});
+	}
+	
+	/**
+	 * Returns the number of requests served from the cache
+	 * @return	the number of cache hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * Returns the number of cacheable requests that were not found in 
+	 * the cache and had to be forwarded to the underlying connector
+	 * @return	the number of cache misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * Returns the underlying cache
+	 * @return	the cache used by this connector
+	 */
+	public ResponseCache getCache() {
+		return cache;
+	}
+	
+	private LLMResponse lookup(String key, LLMRequest request) {
+		String cached = cache.get(key);
+		if (cached == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		
+		hits.incrementAndGet();
+		if (request.isStreaming())
+			ChunkHandler.sendWhole(request.getChunkHandler(), cached);
+		return new LLMResponse(cached).asCached();
+	}
+	
+	private boolean isCacheable(Map<String, String> params) {
+		String value = params.get(CACHE_PARAM);
+		return value == null ? cacheByDefault : Boolean.parseBoolean(value);
+	}
+}
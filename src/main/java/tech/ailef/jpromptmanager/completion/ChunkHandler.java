@@ -0,0 +1,30 @@
+package tech.ailef.jpromptmanager.completion;
+
+/**
+ * Receives the chunks of a response while it is being generated
+ * by the LLM, when using streaming completion.
+ */
+@FunctionalInterface
+public interface ChunkHandler {
+	/**
+	 * Called for each chunk of the response, in order. The concatenation
+	 * of all the chunks is the full response.
+	 * @param chunk	the next piece of the response
+	 */
+	public void onChunk(String chunk);
+	
+	/**
+	 * Passes a whole response to the handler as a single chunk, for responses that are
+	 * not streamed (e.g. cached ones). Since the response is already complete, a handler
+	 * that stops the generation with a {@link StopGenerationException} has no effect.
+	 * @param handler	the handler
+	 * @param text	the full response
+	 */
+	public static void sendWhole(ChunkHandler handler, String text) {
+		try {
+			handler.onChunk(text);
+		} catch (StopGenerationException e) {
+			// Nothing left to stop
+		}
+	}
+}
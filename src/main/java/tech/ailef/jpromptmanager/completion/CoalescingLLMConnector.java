@@ -0,0 +1,228 @@
+package tech.ailef.jpromptmanager.completion;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import tech.ailef.jpromptmanager.cache.CacheKeys;
+
+/**
+ * A connector that coalesces identical concurrent requests (single-flight): while
+ * a request is in progress, other requests with the same prompt text and params
+ * don't reach the LLM, and get the response of the request in progress instead.
+ * Unlike a {@link CachingLLMConnector}, responses are not kept once the request completes.
+ * 
+ * Coalescing can be enabled or disabled on individual steps with the `coalesce` attribute,
+ * e.g. `&lt;step name="tagline" coalesce="true"&gt;`. Steps without the attribute are
+ * coalesced only if they are deterministic (`temperature="0"`), unless a different 
+ * default is passed to the constructor.
+ * 
+ * Coalesced responses are marked as cached, since they didn't need a request of their own. 
+ * When combined with a {@link HedgingLLMConnector}, this connector must wrap the hedging one, 
+ * otherwise hedges would be coalesced with the request they are meant to replace.
+ */
+public class CoalescingLLMConnector extends ForwardingLLMConnector {
+	/**
+	 * The name of the step attribute that enables/disables coalescing
+	 */
+	public static final String COALESCE_PARAM = "coalesce";
+	
+	private final Map<String, Flight> inFlight = new ConcurrentHashMap<>();
+	
+	private final Boolean coalesceByDefault;
+	
+	private final AtomicLong requests = new AtomicLong();
+	
+	private final AtomicLong coalesced = new AtomicLong();
+	
+	/**
+	 * Builds a connector that coalesces the requests of deterministic steps 
+	 * (with `temperature="0"`) and of steps that have `coalesce="true"`
+	 * @param delegate	the connector to forward requests to
+	 */
+	public CoalescingLLMConnector(LLMConnector delegate) {
+		super(delegate);
+		this.coalesceByDefault = null;
+	}
+	
+	/**
+	 * Builds a coalescing connector
+	 * @param delegate	the connector to forward requests to
+	 * @param coalesceByDefault	whether to coalesce the requests of steps that don't have a `coalesce` attribute
+	 */
+	public CoalescingLLMConnector(LLMConnector delegate, boolean coalesceByDefault) {
+		super(delegate);
+		this.coalesceByDefault = coalesceByDefault;
+	}
+	
+	/**
+	 * Waits for an identical request in progress, if any, or forwards the request to
+	 * the underlying connector. Waiting requests that asked for streaming receive
+	 * the response as a single chunk.
+	 */
+	@Override
+	public LLMResponse execute(LLMRequest request) {
+		if (!isCoalesced(request.getParams()))
+			return delegate.execute(request);
+		
+		String key = CacheKeys.of(request.getPrompt(), request.getParams());
+		Flight flight = new Flight();
+		Flight existing = join(key, flight);
+		if (existing != null) {
+			try {
+				return followerResponse(existing.response.join(), request);
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException)e.getCause();
+				throw e;
+			}
+		}
+		
+		try {
+			LLMResponse response = delegate.execute(request);
+			flight.response.complete(response);
+			return response;
+		} catch (RuntimeException e) {
+			flight.response.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, flight);
+		}
+	}
+	
+	/**
+	 * Like {@link #execute(LLMRequest)}, but without blocking. Cancelling the returned future 
+	 * only cancels the underlying request once all the coalesced requests are cancelled.
+	 */
+	@Override
+	public CompletableFuture<LLMResponse> executeAsync(LLMRequest request, Executor executor) {
+		if (!isCoalesced(request.getParams()))
+			return delegate.executeAsync(request, executor);
+		
+		String key = CacheKeys.of(request.getPrompt(), request.getParams());
+		Flight flight = new Flight();
+		Flight existing = join(key, flight);
+		if (existing != null)
+			return existing.view(response -> followerResponse(response, request));
+		
+		CompletableFuture<LLMResponse> call;
+		try {
+			call = delegate.executeAsync(request, executor);
+		} catch (RuntimeException e) {
+			call = CompletableFuture.failedFuture(e);
+		}
+		flight.call = call;
+		
+		call.whenComplete((response, e) -> {
+			inFlight.remove(key, flight);
+			if (e == null)
+				flight.response.complete(response);
+			else
+				flight.response.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+		});
+		return flight.view(response -> response);
+	}
+	
+	/**
+	 * Returns the number of coalescable requests received
+	 * @return	the number of requests
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+	
+	/**
+	 * Returns the number of requests that were served by an identical request in progress
+	 * @return	the number of coalesced requests
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+	
+	/**
+	 * Registers the given flight for the key, unless there is already one in progress
+	 * @return	the flight in progress to wait for, or null if the given flight was registered
+	 */
+	private Flight join(String key, Flight flight) {
+		requests.incrementAndGet();
+		while (true) {
+			Flight existing = inFlight.putIfAbsent(key, flight);
+			if (existing == null)
+				return null;
+			if (existing.addWaiter()) {
+				coalesced.incrementAndGet();
+				return existing;
+			}
+			// All the waiters of the existing flight were cancelled
+			inFlight.remove(key, existing);
+		}
+	}
+	
+	private LLMResponse followerResponse(LLMResponse response, LLMRequest request) {
+		if (request.isStreaming())
+			ChunkHandler.sendWhole(request.getChunkHandler(), response.getText());
+		return response.asCached();
+	}
+	
+	private boolean isCoalesced(Map<String, String> params) {
+		String value = params.get(COALESCE_PARAM);
+		if (value != null)
+			return Boolean.parseBoolean(value);
+		if (coalesceByDefault != null)
+			return coalesceByDefault;
+		
+		try {
+			String temperature = params.get("temperature");
+			return temperature != null && Double.parseDouble(temperature) == 0;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * A request in progress, shared by all the identical requests received in the meantime
+	 */
+	private static class Flight {
+		private final CompletableFuture<LLMResponse> response = new CompletableFuture<>();
+		
+		/**
+		 * The request to the underlying connector, null for synchronous requests
+		 */
+		private volatile CompletableFuture<LLMResponse> call;
+		
+		private int waiters = 1;
+		
+		private synchronized boolean addWaiter() {
+			if (waiters == 0)
+				return false;
+			waiters++;
+			return true;
+		}
+		
+		/**
+		 * Returns the future for one of the requests, which can be cancelled 
+		 * without affecting the others
+		 */
+		private CompletableFuture<LLMResponse> view(Function<LLMResponse, LLMResponse> mapper) {
+			CompletableFuture<LLMResponse> view = response.thenApply(mapper);
+			view.whenComplete((r, e) -> {
+				if (view.isCancelled())
+					removeWaiter();
+			});
+			return view;
+		}
+		
+		private void removeWaiter() {
+			boolean abandoned;
+			synchronized (this) {
+				abandoned = --waiters == 0;
+			}
+			if (abandoned && call != null)
+				call.cancel(true);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package tech.ailef.jpromptmanager.completion;
+
+import java.util.List;
+
+/**
+ * The history of a prompt execution, as a list of typed messages: the instructions
+ * of each step (as {@link Message.Role#USER} messages) followed by the LLM response to
+ * it (as {@link Message.Role#ASSISTANT} messages).
+ * 
+ * Conversations are immutable: {@link #append(Message.Role, String)} returns a new 
+ * conversation that shares all the previous messages with this one, so appending is 
+ * constant time and a conversation can be safely retained (e.g. by a request still
+ * in flight) while the prompt execution continues.
+ */
+public final class Conversation {
+	private static final Conversation EMPTY = new Conversation(null, null);
+	
+	/**
+	 * The conversation this one extends, null for the empty conversation
+	 */
+	private final Conversation previous;
+	
+	/**
+	 * The last message, null for the empty conversation
+	 */
+	private final Message last;
+	
+	private final int size;
+	
+	/**
+	 * The total number of characters in the messages
+	 */
+	private final long length;
+	
+	private Conversation(Conversation previous, Message last) {
+		this.previous = previous;
+		this.last = last;
+		this.size = previous == null ? 0 : previous.size + 1;
+		this.length = previous == null ? 0 : previous.length + last.getContent().length();
+	}
+	
+	/**
+	 * Returns the empty conversation
+	 * @return	a conversation with no messages
+	 */
+	public static Conversation empty() {
+		return EMPTY;
+	}
+	
+	/**
+	 * Builds a conversation from a prompt in the string format used by completion
+	 * connectors, where the instructions of each step are delimited by 
+	 * {@link LLMConnector#PROMPT_TOKEN} and {@link LLMConnector#COMPLETION_TOKEN}.
+	 * Text that is not in this format becomes a single user message.
+	 * @param prompt	the prompt text
+	 * @return	the parsed conversation
+	 */
+	public static Conversation parse(String prompt) {
+		Conversation conversation = EMPTY;
+		int position = 0;
+		
+		while (position < prompt.length()) {
+			int start = prompt.indexOf(LLMConnector.PROMPT_TOKEN, position);
+			if (start < 0) {
+				conversation = conversation.appendIfNotBlank(
+					conversation.size == 0 ? Message.Role.USER : Message.Role.ASSISTANT, prompt.substring(position));
+				break;
+			}
+			
+			// Text before the first step marker, or the response to the previous step
+			conversation = conversation.appendIfNotBlank(
+				conversation.size == 0 ? Message.Role.USER : Message.Role.ASSISTANT, prompt.substring(position, start));
+			
+			int contentStart = start + LLMConnector.PROMPT_TOKEN.length();
+			int end = prompt.indexOf(LLMConnector.COMPLETION_TOKEN, contentStart);
+			if (end < 0) {
+				conversation = conversation.appendIfNotBlank(Message.Role.USER, prompt.substring(contentStart));
+				break;
+			}
+			
+			conversation = conversation.appendIfNotBlank(Message.Role.USER, prompt.substring(contentStart, end));
+			position = end + LLMConnector.COMPLETION_TOKEN.length();
+		}
+		
+		return conversation;
+	}
+	
+	/**
+	 * Returns a new conversation with the given message appended
+	 * @param role	the author of the message
+	 * @param content	the text of the message
+	 * @return	the extended conversation
+	 */
+	public Conversation append(Message.Role role, String content) {
+		return append(new Message(role, content));
+	}
+	
+	/**
+	 * Returns a new conversation with the given message appended
+	 * @param message	the message
+	 * @return	the extended conversation
+	 */
+	public Conversation append(Message message) {
+		return new Conversation(this, message);
+	}
+	
+	private Conversation appendIfNotBlank(Message.Role role, String content) {
+		content = content.trim();
+		return content.isEmpty() ? this : append(role, content);
+	}
+	
+	/**
+	 * Returns the messages in this conversation, in order
+	 * @return	the (unmodifiable) list of messages
+	 */
+	public List<Message> getMessages() {
+		Message[] messages = new Message[size];
+		Conversation current = this;
+		for (int i = size - 1; i >= 0; i--) {
+			messages[i] = current.last;
+			current = current.previous;
+		}
+		return List.of(messages);
+	}
+	
+	/**
+	 * Returns the last message in this conversation
+	 * @return	the last message, null if the conversation is empty
+	 */
+	public Message getLast() {
+		return last;
+	}
+	
+	/**
+	 * Returns the number of messages in this conversation
+	 * @return	the number of messages
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the total number of characters in the messages of this conversation
+	 * @return	the length of the conversation
+	 */
+	public long length() {
+		return length;
+	}
+	
+	/**
+	 * Returns this conversation in the string format used by completion connectors:
+	 * user messages are wrapped in {@link LLMConnector#PROMPT_TOKEN} and {@link LLMConnector#COMPLETION_TOKEN}
+	 * and followed by the responses.
+	 * @return	the conversation as a single prompt
+	 */
+	public String toPrompt() {
+		int capacity = (int)Math.min(Integer.MAX_VALUE - 8, 
+			length + (long)size * (LLMConnector.PROMPT_TOKEN.length() + LLMConnector.COMPLETION_TOKEN.length()));
+		StringBuilder prompt = new StringBuilder(capacity);
+		
+		for (Message message : getMessages()) {
+			if (message.getRole() == Message.Role.USER) {
+				prompt.append(LLMConnector.PROMPT_TOKEN).append(message.getContent()).append(LLMConnector.COMPLETION_TOKEN);
+			} else {
+				prompt.append(message.getContent());
+			}
+		}
+		
+		return prompt.toString();
+	}
+	
+	@Override
+	public String toString() {
+		return getMessages().toString();
+	}
+}
@@ -0,0 +1,58 @@
+package tech.ailef.jpromptmanager.completion;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A connector that forwards all the requests to another connector. This is
+ * the base class for decorators that add some behaviour (caching, rate limiting, etc...)
+ * on top of an existing connector: subclasses only need to override the methods
+ * they are interested in.
+ */
+public abstract class ForwardingLLMConnector implements LLMConnector {
+	protected final LLMConnector delegate;
+	
+	protected ForwardingLLMConnector(LLMConnector delegate) {
+		if (delegate == null)
+			throw new NullPointerException("Delegate connector cannot be null");
+		this.delegate = delegate;
+	}
+	
+	/**
+	 * Forwards the request through {@link #execute(LLMRequest)}, so that subclasses
+	 * only need to override that method.
+	 */
+	@Override
+	public String complete(String prompt, Map<String, String> params) {
+		return execute(new LLMRequest(prompt, params)).getText();
+	}
+	
+	@Override
+	public String complete(String prompt, Map<String, String> params, ChunkHandler handler) {
+		return execute(new LLMRequest(prompt, params, handler)).getText();
+	}
+	
+	@Override
+	public LLMResponse execute(LLMRequest request) {
+		return delegate.execute(request);
+	}
+	
+	@Override
+	public CompletableFuture<LLMResponse> executeAsync(LLMRequest request, Executor executor) {
+		return delegate.executeAsync(request, executor);
+	}
+	
+	@Override
+	public Map<String, String> getDefaultParams() {
+		return delegate.getDefaultParams();
+	}
+	
+	/**
+	 * Returns the connector this object forwards requests to
+	 * @return	the underlying connector
+	 */
+	public LLMConnector getDelegate() {
+		return delegate;
+	}
+}
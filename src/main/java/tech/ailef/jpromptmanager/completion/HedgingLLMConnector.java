@@ -0,0 +1,314 @@
+package tech.ailef.jpromptmanager.completion;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import tech.ailef.jpromptmanager.JPromptManagerOptions;
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+
+/**
+ * A connector that hedges slow requests: if a request hasn't completed after a delay
+ * based on the recent latencies of the same step (e.g. their 95th percentile), a duplicate
+ * is sent. The first response wins and the other request is cancelled. When the delegate
+ * is a {@link LoadBalancingLLMConnector}, the duplicate usually goes to another endpoint.
+ *
+ * Hedging is enabled on individual steps with the `hedge` attribute, either `true` to
+ * use the default percentile or a percentile such as `p90`, e.g.
+ * `&lt;step name="summary" temperature="0" hedge="p95"&gt;`. Only deterministic requests
+ * (with `temperature="0"`) are hedged, as both responses must be interchangeable;
+ * streaming requests are never hedged.
+ *
+ * To bound the extra cost, hedges are limited by a budget: each hedgeable request earns
+ * a fraction of a hedge (e.g. 0.05 for at most 5% more requests), up to a small burst.
+ * Note that the losing request is only aborted if the delegate supports cancellation,
+ * as the OpenAI connectors do for non-streaming requests; otherwise its response is discarded.
+ */
+public class HedgingLLMConnector extends ForwardingLLMConnector {
+	/**
+	 * The name of the step attribute that enables hedging
+	 */
+	public static final String HEDGE_PARAM = "hedge";
+
+	/**
+	 * The number of latencies of each step needed before hedging starts
+	 */
+	private static final int MIN_SAMPLES = 20;
+
+	/**
+	 * The number of recent latencies of each step the delay is computed on
+	 */
+	private static final int WINDOW_SIZE = 200;
+
+	/**
+	 * The maximum number of hedges that can be saved up by the budget
+	 */
+	private static final double MAX_BURST = 10;
+
+	private final double defaultPercentile;
+
+	private final double budgetRatio;
+
+	private final boolean hedgeByDefault;
+
+	private final Executor executor;
+
+	private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+
+	private double budget = MAX_BURST;
+
+	private final AtomicLong hedges = new AtomicLong();
+
+	private final AtomicLong hedgeWins = new AtomicLong();
+
+	/**
+	 * Builds a connector that hedges the steps with the `hedge` attribute after the
+	 * 95th percentile of their latency, with at most 5% extra requests
+	 * @param delegate	the connector to forward requests to
+	 */
+	public HedgingLLMConnector(LLMConnector delegate) {
+		this(delegate, 95, 0.05, false);
+	}
+
+	/**
+	 * Builds a hedging connector that runs the hedged synchronous requests
+	 * on the default executor (see {@link JPromptManagerOptions#getDefaultExecutor()})
+	 * @param delegate	the connector to forward requests to
+	 * @param defaultPercentile	the latency percentile after which a hedge is sent, for steps with `hedge="true"`
+	 * @param budgetRatio	the maximum number of hedges per hedgeable request, e.g. 0.05
+	 * @param hedgeByDefault	whether to hedge the deterministic steps that don't have a `hedge` attribute
+	 */
+	public HedgingLLMConnector(LLMConnector delegate, double defaultPercentile, double budgetRatio, boolean hedgeByDefault) {
+		this(delegate, defaultPercentile, budgetRatio, hedgeByDefault, JPromptManagerOptions.getDefaultExecutor());
+	}
+
+	/**
+	 * Builds a hedging connector
+	 * @param delegate	the connector to forward requests to
+	 * @param defaultPercentile	the latency percentile after which a hedge is sent, for steps with `hedge="true"`
+	 * @param budgetRatio	the maximum number of hedges per hedgeable request, e.g. 0.05
+	 * @param hedgeByDefault	whether to hedge the deterministic steps that don't have a `hedge` attribute
+	 * @param executor	the executor that runs hedged synchronous requests, e.g. {@link JPromptManagerOptions#getExecutor()}
+	 */
+	public HedgingLLMConnector(LLMConnector delegate, double defaultPercentile, double budgetRatio, boolean hedgeByDefault,
+			Executor executor) {
+		super(delegate);
+		if (executor == null)
+			throw new NullPointerException("executor cannot be null");
+		if (defaultPercentile <= 0 || defaultPercentile >= 100)
+			throw new IllegalArgumentException("defaultPercentile must be between 0 and 100, got " + defaultPercentile);
+		if (budgetRatio < 0 || budgetRatio > 1)
+			throw new IllegalArgumentException("budgetRatio must be between 0 and 1, got " + budgetRatio);
+
+		this.defaultPercentile = defaultPercentile;
+		this.budgetRatio = budgetRatio;
+		this.hedgeByDefault = hedgeByDefault;
+		this.executor = executor;
+	}
+
+	/**
+	 * Runs hedged requests asynchronously on the executor of this connector 
+	 * and waits for the winner
+	 */
+	@Override
+	public LLMResponse execute(LLMRequest request) {
+		if (getHedgePercentile(request) < 0)
+			return delegate.execute(request);
+
+		try {
+			return executeAsync(request, executor).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw e;
+		}
+	}
+
+	@Override
+	public CompletableFuture<LLMResponse> executeAsync(LLMRequest request, Executor executor) {
+		double percentile = getHedgePercentile(request);
+		if (percentile < 0)
+			return delegate.executeAsync(request, executor);
+
+		LatencyWindow window = latencies.computeIfAbsent(getStepKey(request), key -> new LatencyWindow());
+		long delayNanos = window.getPercentileNanos(percentile);
+		earnBudget();
+
+		long start = System.nanoTime();
+		CompletableFuture<LLMResponse> result = new CompletableFuture<>();
+		result.thenRun(() -> window.record(System.nanoTime() - start));
+
+		AtomicInteger running = new AtomicInteger(1);
+		AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+		CompletableFuture<LLMResponse> primary = send(request, executor, result, running, firstFailure, false);
+		if (delayNanos < 0)
+			return result;
+
+		CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS, executor).execute(() -> {
+			if (result.isDone() || !spendBudget())
+				return;
+
+			running.incrementAndGet();
+			if (result.isDone())
+				return;
+
+			hedges.incrementAndGet();
+			CompletableFuture<LLMResponse> hedge = send(request, executor, result, running, firstFailure, true);
+			result.whenComplete((response, e) -> hedge.cancel(true));
+		});
+
+		result.whenComplete((response, e) -> primary.cancel(true));
+		return result;
+	}
+
+	/**
+	 * Sends one copy of the request: the first success completes the result, which
+	 * fails only when all the copies have failed
+	 */
+	private CompletableFuture<LLMResponse> send(LLMRequest request, Executor executor, CompletableFuture<LLMResponse> result,
+			AtomicInteger running, AtomicReference<Throwable> firstFailure, boolean isHedge) {
+		CompletableFuture<LLMResponse> attempt;
+		try {
+			attempt = delegate.executeAsync(request, executor);
+		} catch (RuntimeException e) {
+			attempt = CompletableFuture.failedFuture(e);
+		}
+
+		attempt.whenComplete((response, e) -> {
+			if (e == null) {
+				if (result.complete(response) && isHedge)
+					hedgeWins.incrementAndGet();
+				return;
+			}
+
+			firstFailure.compareAndSet(null, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+			if (running.decrementAndGet() == 0)
+				result.completeExceptionally(firstFailure.get());
+		});
+		return attempt;
+	}
+
+	/**
+	 * Returns the percentile after which the request is hedged, or -1 if it must not be hedged
+	 */
+	private double getHedgePercentile(LLMRequest request) {
+		if (request.isStreaming() || !isDeterministic(request.getParams()))
+			return -1;
+
+		String value = request.getParams().get(HEDGE_PARAM);
+		if (value == null)
+			return hedgeByDefault ? defaultPercentile : -1;
+
+		value = value.trim().toLowerCase();
+		if (value.equals("true"))
+			return defaultPercentile;
+		if (value.equals("false"))
+			return -1;
+
+		try {
+			double percentile = Double.parseDouble(value.startsWith("p") ? value.substring(1) : value);
+			if (percentile > 0 && percentile < 100)
+				return percentile;
+		} catch (NumberFormatException e) {
+			// Reported below
+		}
+		throw new JPromptManagerException("Invalid value for `" + HEDGE_PARAM + "`: " + value
+				+ ", expected true, false or a percentile such as p95");
+	}
+
+	/**
+	 * Returns the key of the latency window of a request: the prompt type and the 
+	 * step name, as steps with the same name in different prompts can be unrelated
+	 */
+	private static String getStepKey(LLMRequest request) {
+		Map<String, String> params = request.getParams();
+		return params.getOrDefault(LLMRequest.PROMPT_PARAM, "") + "/" + params.getOrDefault("name", "");
+	}
+
+	private static boolean isDeterministic(Map<String, String> params) {
+		String temperature = params.get("temperature");
+		try {
+			return temperature != null && Double.parseDouble(temperature) == 0;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private synchronized void earnBudget() {
+		budget = Math.min(MAX_BURST, budget + budgetRatio);
+	}
+
+	private synchronized boolean spendBudget() {
+		if (budget < 1)
+			return false;
+		budget -= 1;
+		return true;
+	}
+
+	/**
+	 * Returns the number of hedges sent
+	 * @return	the number of hedged requests
+	 */
+	public long getHedges() {
+		return hedges.get();
+	}
+
+	/**
+	 * Returns the number of hedges that completed before the original request
+	 * @return	the number of times the hedge won
+	 */
+	public long getHedgeWins() {
+		return hedgeWins.get();
+	}
+
+	/**
+	 * The most recent latencies of a step
+	 */
+	private static class LatencyWindow {
+		private final long[] values = new long[WINDOW_SIZE];
+
+		private int count;
+
+		private int position;
+
+		/**
+		 * Sorted copy of the values, rebuilt every few records
+		 */
+		private long[] sorted;
+
+		private int recordsSinceSort;
+
+		private synchronized void record(long nanos) {
+			values[position] = nanos;
+			position = (position + 1) % values.length;
+			count = Math.min(count + 1, values.length);
+
+			if (++recordsSinceSort >= 10) {
+				sorted = null;
+				recordsSinceSort = 0;
+			}
+		}
+
+		/**
+		 * Returns the given percentile, or -1 if there are not enough values yet
+		 */
+		private synchronized long getPercentileNanos(double percentile) {
+			if (count < MIN_SAMPLES)
+				return -1;
+
+			if (sorted == null) {
+				sorted = Arrays.copyOf(values, count);
+				Arrays.sort(sorted);
+			}
+			int index = (int)Math.ceil(percentile / 100.0 * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+		}
+	}
+}
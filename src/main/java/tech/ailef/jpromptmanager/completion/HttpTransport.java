@@ -0,0 +1,241 @@
+package tech.ailef.jpromptmanager.completion;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * The HTTP client used by connectors to call the LLM APIs. A transport holds the
+ * connections, so a single instance should be shared by all the connectors of an
+ * application (see {@link tech.ailef.jpromptmanager.JPromptManagerOptions#getHttpTransport()}).
+ * The default implementation is {@link JdkHttpTransport}.
+ */
+public interface HttpTransport {
+	/**
+	 * Sends a request and waits for the response headers. The body is read
+	 * as it arrives, so the response must be closed once consumed.
+	 * @param request	the request
+	 * @return	the response, with a streaming body
+	 * @throws IOException	if the request fails
+	 */
+	public Response send(Request request) throws IOException;
+	
+	/**
+	 * Sends a request without blocking. The returned future completes once the
+	 * whole body has been received.
+	 * @param request	the request
+	 * @return	a future that completes with the response
+	 */
+	public CompletableFuture<Response> sendAsync(Request request);
+	
+	/**
+	 * An HTTP request. Instances are immutable: the `with*` methods return modified copies.
+	 */
+	public static final class Request {
+		private final String method;
+		
+		private final URI uri;
+		
+		private final Map<String, String> headers;
+		
+		private final byte[] body;
+		
+		private final Duration timeout;
+		
+		private Request(String method, URI uri, Map<String, String> headers, byte[] body, Duration timeout) {
+			this.method = method;
+			this.uri = uri;
+			this.headers = Collections.unmodifiableMap(headers);
+			this.body = body;
+			this.timeout = timeout;
+		}
+		
+		/**
+		 * Builds a POST request with a JSON body
+		 * @param uri	the URI
+		 * @param json	the body
+		 * @return	the request
+		 */
+		public static Request post(URI uri, String json) {
+			return post(uri, json.getBytes(StandardCharsets.UTF_8), "application/json");
+		}
+		
+		/**
+		 * Builds a POST request with a body of the given type
+		 * @param uri	the URI
+		 * @param body	the body
+		 * @param contentType	the value of the `Content-Type` header
+		 * @return	the request
+		 */
+		public static Request post(URI uri, byte[] body, String contentType) {
+			Map<String, String> headers = new LinkedHashMap<>();
+			headers.put("Content-Type", contentType);
+			return new Request("POST", uri, headers, body, null);
+		}
+		
+		/**
+		 * Builds a GET request
+		 * @param uri	the URI
+		 * @return	the request
+		 */
+		public static Request get(URI uri) {
+			return new Request("GET", uri, new LinkedHashMap<>(), null, null);
+		}
+		
+		/**
+		 * Sets a header
+		 * @param name	the header name
+		 * @param value	the header value
+		 * @return	the modified request
+		 */
+		public Request withHeader(String name, String value) {
+			Map<String, String> copy = new LinkedHashMap<>(headers);
+			copy.put(name, value);
+			return new Request(method, uri, copy, body, timeout);
+		}
+		
+		/**
+		 * Sets the time allowed to receive the response headers
+		 * @param timeout	the timeout, null or zero for no timeout
+		 * @return	the modified request
+		 */
+		public Request withTimeout(Duration timeout) {
+			return new Request(method, uri, headers, body, timeout == null || timeout.isZero() ? null : timeout);
+		}
+		
+		public String getMethod() {
+			return method;
+		}
+		
+		public URI getUri() {
+			return uri;
+		}
+		
+		public Map<String, String> getHeaders() {
+			return headers;
+		}
+		
+		/**
+		 * Returns the body of the request
+		 * @return	the body, null if the request has none
+		 */
+		public byte[] getBody() {
+			return body;
+		}
+		
+		/**
+		 * Returns the timeout of the request
+		 * @return	the timeout, null if there's none
+		 */
+		public Duration getTimeout() {
+			return timeout;
+		}
+	}
+	
+	/**
+	 * An HTTP response. It must be closed to release the connection, 
+	 * unless the body has been read with {@link #bodyAsString()}.
+	 */
+	public static final class Response implements Closeable {
+		private final int statusCode;
+		
+		private final Function<String, String> headers;
+		
+		private final InputStream body;
+		
+		private final Runnable onClose;
+		
+		private boolean closed;
+		
+		/**
+		 * Builds a response
+		 * @param statusCode	the HTTP status code
+		 * @param headers	a function returning the value of a header, or null if missing
+		 * @param body	the body
+		 * @param onClose	called once when the response is closed
+		 */
+		public Response(int statusCode, Function<String, String> headers, InputStream body, Runnable onClose) {
+			this.statusCode = statusCode;
+			this.headers = headers;
+			this.body = body;
+			this.onClose = onClose;
+		}
+		
+		/**
+		 * Builds a response with a body already received
+		 * @param statusCode	the HTTP status code
+		 * @param headers	a function returning the value of a header, or null if missing
+		 * @param body	the body
+		 */
+		public Response(int statusCode, Function<String, String> headers, byte[] body) {
+			this(statusCode, headers, new ByteArrayInputStream(body), () -> {});
+		}
+		
+		public int getStatusCode() {
+			return statusCode;
+		}
+		
+		/**
+		 * Returns whether the status code is 2xx
+		 * @return	true if the request was successful
+		 */
+		public boolean isSuccessful() {
+			return statusCode >= 200 && statusCode < 300;
+		}
+		
+		/**
+		 * Returns the value of a header
+		 * @param name	the header name, case insensitive
+		 * @return	the value, or null if missing
+		 */
+		public String header(String name) {
+			return headers.apply(name);
+		}
+		
+		/**
+		 * Returns the body, to be read as it arrives
+		 * @return	the body
+		 */
+		public InputStream body() {
+			return body;
+		}
+		
+		/**
+		 * Reads the whole body as UTF-8 text and closes the response
+		 * @return	the body
+		 * @throws UncheckedIOException	if reading fails
+		 */
+		public String bodyAsString() {
+			try (this) {
+				return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		@Override
+		public synchronized void close() {
+			if (closed)
+				return;
+			closed = true;
+			
+			try {
+				body.close();
+			} catch (IOException e) {
+				// Nothing left to read
+			} finally {
+				onClose.run();
+			}
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package tech.ailef.jpromptmanager.completion;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+
+/**
+ * A {@link HttpTransport} based on the {@link HttpClient} of the JDK, which keeps
+ * connections alive between requests and, with HTTP/2, multiplexes concurrent 
+ * requests to the same host on a single connection.
+ * 
+ * The number of requests in flight is limited: further requests wait for a slot, 
+ * without holding a thread in the case of {@link #sendAsync(Request)}. 
+ * The size of the idle connection pool and the keep-alive timeout are not configurable 
+ * per client in the JDK; they're controlled by the `jdk.httpclient.connectionPoolSize` 
+ * and `jdk.httpclient.keepalive.timeout` system properties.
+ */
+public class JdkHttpTransport implements HttpTransport {
+	private final HttpClient client;
+	
+	private final Semaphore permits;
+	
+	/**
+	 * Asynchronous requests waiting for a permit
+	 */
+	private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+	
+	/**
+	 * The default limits, also used by {@link tech.ailef.jpromptmanager.JPromptManagerOptions}
+	 */
+	public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 64;
+	
+	public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+	
+	private static class DefaultTransportHolder {
+		private static final JdkHttpTransport TRANSPORT = new JdkHttpTransport(
+			DEFAULT_MAX_CONCURRENT_REQUESTS, DEFAULT_CONNECT_TIMEOUT, HttpClient.Version.HTTP_2
+		);
+	}
+	
+	/**
+	 * Returns the transport shared by the connectors that are built without one,
+	 * created on first use with the default limits
+	 * @return	the default transport
+	 */
+	public static JdkHttpTransport getDefault() {
+		return DefaultTransportHolder.TRANSPORT;
+	}
+	
+	/**
+	 * Builds a transport with its own HTTP client
+	 * @param maxConcurrentRequests	the maximum number of requests in flight
+	 * @param connectTimeout	the time allowed to open a connection
+	 * @param version	the preferred HTTP version; HTTP/2 falls back to HTTP/1.1 if the server doesn't support it
+	 */
+	public JdkHttpTransport(int maxConcurrentRequests, Duration connectTimeout, HttpClient.Version version) {
+		this(HttpClient.newBuilder()
+				.version(version)
+				.connectTimeout(connectTimeout)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.build(), maxConcurrentRequests);
+	}
+	
+	/**
+	 * Builds a transport with the given HTTP client
+	 * @param client	the HTTP client
+	 * @param maxConcurrentRequests	the maximum number of requests in flight
+	 */
+	public JdkHttpTransport(HttpClient client, int maxConcurrentRequests) {
+		if (maxConcurrentRequests <= 0)
+			throw new IllegalArgumentException("maxConcurrentRequests must be positive, got " + maxConcurrentRequests);
+		
+		this.client = client;
+		this.permits = new Semaphore(maxConcurrentRequests);
+	}
+	
+	@Override
+	public Response send(Request request) throws IOException {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JPromptManagerException("Interrupted while waiting to send request", e);
+		}
+		
+		try {
+			HttpResponse<InputStream> response = client.send(toHttpRequest(request), BodyHandlers.ofInputStream());
+			return new Response(response.statusCode(), name -> response.headers().firstValue(name).orElse(null), 
+					response.body(), this::release);
+		} catch (InterruptedException e) {
+			release();
+			Thread.currentThread().interrupt();
+			throw new JPromptManagerException("Interrupted while waiting for response", e);
+		} catch (IOException | RuntimeException e) {
+			release();
+			throw e;
+		}
+	}
+	
+	@Override
+	public CompletableFuture<Response> sendAsync(Request request) {
+		CompletableFuture<Response> result = new CompletableFuture<>();
+		waiting.add(() -> {
+			if (result.isDone()) {
+				// Cancelled while waiting for a permit
+				release();
+				return;
+			}
+			
+			try {
+				CompletableFuture<HttpResponse<byte[]>> exchange = 
+					client.sendAsync(toHttpRequest(request), BodyHandlers.ofByteArray());
+				exchange.whenComplete((response, e) -> {
+					release();
+					if (e != null)
+						result.completeExceptionally(e);
+					else
+						result.complete(new Response(response.statusCode(), 
+							name -> response.headers().firstValue(name).orElse(null), response.body()));
+				});
+				// Abort the exchange if the caller is no longer interested in the response
+				result.whenComplete((response, e) -> {
+					if (result.isCancelled())
+						exchange.cancel(true);
+				});
+			} catch (RuntimeException e) {
+				release();
+				result.completeExceptionally(e);
+			}
+		});
+		dispatch();
+		return result;
+	}
+	
+	public HttpClient getClient() {
+		return client;
+	}
+	
+	private void release() {
+		permits.release();
+		dispatch();
+	}
+	
+	/**
+	 * Starts the waiting requests while there are permits available
+	 */
+	private void dispatch() {
+		while (!waiting.isEmpty() && permits.tryAcquire()) {
+			Runnable next = waiting.poll();
+			if (next == null) {
+				// Taken by another thread in the meantime
+				permits.release();
+				continue;
+			}
+			next.run();
+		}
+	}
+	
+	private static HttpRequest toHttpRequest(Request request) {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(request.getUri())
+			.method(request.getMethod(), request.getBody() == null 
+					? BodyPublishers.noBody() 
+					: BodyPublishers.ofByteArray(request.getBody()));
+		request.getHeaders().forEach(builder::header);
+		if (request.getTimeout() != null)
+			builder.timeout(request.getTimeout());
+		return builder.build();
+	}
+}
@@ -1,7 +1,8 @@
 package tech.ailef.jpromptmanager.completion;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -10,10 +11,10 @@ import org.thymeleaf.context.IContext;
 
 import tech.ailef.jpromptmanager.JPromptManager;
 import tech.ailef.jpromptmanager.PromptContextBuilder;
-import tech.ailef.jpromptmanager.PromptStep;
-import tech.ailef.jpromptmanager.PromptTemplate;
-import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.PromptExecutor;
+import tech.ailef.jpromptmanager.StreamListener;
 import tech.ailef.jpromptmanager.prompts.Prompt;
+import tech.ailef.jpromptmanager.templating.CompiledTemplate;
 /**
  * Generic interface that defines methods needed to interact with a LLM. 
  * 
@@ -28,7 +29,7 @@ public interface LLMConnector {
 	
 	public static final String COMPLETION_TOKEN = "\n\n__#COMPLETION#__\n\n";
 	
-	public static final TemplateEngine TE = new TemplateEngine();
+	public static final TemplateEngine TE = CompiledTemplate.ENGINE;
 	
 	/**
 	 * Performs a request to the underlying LLM and returns the response
@@ -38,6 +39,36 @@ public interface LLMConnector {
 	 */
 	public String complete(String prompt, Map<String, String> params);
 	
+	/**
+	 * Performs a non-blocking request to the underlying LLM. The default implementation
+	 * delegates to {@link #executeAsync(LLMRequest, Executor)}; connectors backed by an 
+	 * asynchronous client should override that method to avoid holding a thread for the 
+	 * whole duration of the request.
+	 * @param prompt	the prompt text
+	 * @param params	the (optional) params sent along the request (e.g., temperature, model id, max tokens, etc...)
+	 * @param executor	the executor to run the request on
+	 * @return	a future that completes with the raw LLM response
+	 */
+	public default CompletableFuture<String> completeAsync(String prompt, Map<String, String> params, Executor executor) {
+		return executeAsync(new LLMRequest(prompt, params), executor).thenApply(LLMResponse::getText);
+	}
+	
+	/**
+	 * Performs a streaming request to the underlying LLM, passing each chunk of the
+	 * response to the handler as soon as it's generated. The default implementation
+	 * doesn't stream: it waits for the full response and passes it as a single chunk.
+	 * Connectors that support streaming should override this method.
+	 * @param prompt	the prompt text
+	 * @param params	the (optional) params sent along the request (e.g., temperature, model id, max tokens, etc...)
+	 * @param handler	the handler for the chunks of the response
+	 * @return	the full raw LLM response
+	 */
+	public default String complete(String prompt, Map<String, String> params, ChunkHandler handler) {
+		String response = complete(prompt, params);
+		ChunkHandler.sendWhole(handler, response);
+		return response;
+	}
+	
 	/**
 	 * Returns a (possibly empty) map containing the default values for the request params.
 	 * These values will be applied to all requests, except when a different value for the
@@ -45,9 +76,41 @@ public interface LLMConnector {
 	 */
 	public Map<String, String> getDefaultParams();
 	
+	/**
+	 * Performs a request to the underlying LLM and returns the response along with
+	 * the information reported by the API (e.g. token usage). This is the method
+	 * used by JPromptManager to run each step; the default implementation calls 
+	 * {@link #complete(String, Map)} or, for streaming requests, {@link #complete(String, Map, ChunkHandler)}. 
+	 * Connectors that can report usage should override it.
+	 * @param request	the request
+	 * @return	the LLM response
+	 */
+	public default LLMResponse execute(LLMRequest request) {
+		String text = request.isStreaming() 
+			? complete(request.getPrompt(), request.getParams(), request.getChunkHandler())
+			: complete(request.getPrompt(), request.getParams());
+		return new LLMResponse(text);
+	}
+	
+	/**
+	 * Performs a non-blocking request to the underlying LLM. The default implementation
+	 * runs {@link #execute(LLMRequest)} on the provided executor and records how long
+	 * the request waited to be picked up.
+	 * @param request	the request
+	 * @param executor	the executor to run the request on
+	 * @return	a future that completes with the LLM response
+	 */
+	public default CompletableFuture<LLMResponse> executeAsync(LLMRequest request, Executor executor) {
+		long submitted = System.nanoTime();
+		return CompletableFuture.supplyAsync(() -> {
+			long queueNanos = System.nanoTime() - submitted;
+			return execute(request).withQueueTime(queueNanos);
+		}, executor);
+	}
+	
 	/**
 	 * Default implementation that takes care of performing template variable substitution and
-	 * chaining the different steps correctly. 
+	 * chaining the different steps correctly (see {@link PromptExecutor}). 
 	 * @param <T>	the type of the final object returned by running this prompt
 	 * @param promptClass	the class of the prompt
 	 * @param context	the variables for the templating engine
@@ -55,52 +118,46 @@ public interface LLMConnector {
 	 * @return on object of type T as specified in the prompt class
 	 */
 	public default <T> T complete(Class<? extends Prompt<T>> promptClass, IContext context, JPromptManager jPrompt) {
-		Prompt<T> prompt;
-		try {
-			prompt = promptClass.getConstructor().newInstance();
-		} catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException
-				| NoSuchMethodException | SecurityException e) {
-			throw new JPromptManagerException("Error when calling no-args constructor for class " + promptClass, e);
-		}
-		
-		StringBuilder incrementalPrompt = new StringBuilder();
-		
-		PromptTemplate promptTemplate = jPrompt.getPromptTemplate(prompt.getName());
-		
-		if (promptTemplate == null) {
-			throw new JPromptManagerException("Unable to find prompt template for " + prompt.getName());
-		}
-		
-		for (int i = 0; i < promptTemplate.getSteps().size(); i++) {
-			PromptStep promptStep = promptTemplate.getSteps().get(i);
-			
-			String processedPrompt = PROMPT_TOKEN + TE.process(promptStep.getTemplate(), context).trim() + COMPLETION_TOKEN;
-			promptStep.setPrompt(processedPrompt);
-			incrementalPrompt.append(processedPrompt);
-
-			// Get the default request params and then merge (override)
-			// with the values (if any) taken from the current step
-			Map<String, String> requestParams = getDefaultParams();
-			requestParams.putAll(promptStep.getParams());
-			
-			String currentPrompt = incrementalPrompt.toString();
-			
-			if (jPrompt.getOptions().isPrintPrompts())
-				System.out.println(currentPrompt);
-			
-			logger.info(
-				prompt.getName() + ":" + (i + 1) + "/" + promptTemplate.getSteps().size() + ":" + promptStep.getName()
-				+ " ~" + (currentPrompt.length() / 3) + " tokens | params: " + requestParams 
-			);
-			
-			String responseText = complete(currentPrompt, requestParams);
-			
-			incrementalPrompt.append(responseText);
-			promptStep.setResponse(responseText);
-			prompt.addStep(promptStep);
-		}
-		
-		return prompt.getOutput();
+		return complete(promptClass, context, jPrompt, null);
+	}
+	
+	/**
+	 * Default implementation of streaming prompt completion. Works like {@link #complete(Class, IContext, JPromptManager)},
+	 * but the response to each step is passed to the listener while it's generated. 
+	 * @param <T>	the type of the final object returned by running this prompt
+	 * @param promptClass	the class of the prompt
+	 * @param context	the variables for the templating engine
+	 * @param jPrompt the jPrompt instance
+	 * @param listener	the listener for the output of each step, or null to disable streaming
+	 * @return on object of type T as specified in the prompt class
+	 */
+	public default <T> T complete(Class<? extends Prompt<T>> promptClass, IContext context, JPromptManager jPrompt, StreamListener listener) {
+		return new PromptExecutor(this, jPrompt).complete(promptClass, context, listener);
+	}
+	
+	/**
+	 * Default implementation of asynchronous prompt completion. Steps are chained
+	 * so that each one is submitted when the previous one completes, without
+	 * blocking any thread while waiting for the LLM responses.
+	 * @param <T>	the type of the final object returned by running this prompt
+	 * @param promptClass	the class of the prompt
+	 * @param context	the variables for the templating engine
+	 * @param jPrompt the jPrompt instance
+	 * @return	a future that completes with an object of type T as specified in the prompt class
+	 */
+	public default <T> CompletableFuture<T> completeAsync(Class<? extends Prompt<T>> promptClass, IContext context, JPromptManager jPrompt) {
+		return new PromptExecutor(this, jPrompt).completeAsync(promptClass, context);
+	}
+	
+	/**
+	 * Default implementation for asynchronous prompt completion with no template variable substitution
+	 * @param <T>	the type of the final object returned by running this prompt
+	 * @param prompt	the class of the prompt
+	 * @param jPrompt	the jPrompt instance
+	 * @return	a future that completes with an object of type T as specified in the prompt class
+	 */
+	public default <T> CompletableFuture<T> completeAsync(Class<? extends Prompt<T>> prompt, JPromptManager jPrompt) {
+		return completeAsync(prompt, new PromptContextBuilder().build(), jPrompt);
 	}
 	
 	/**
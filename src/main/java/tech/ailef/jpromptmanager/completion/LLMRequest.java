@@ -0,0 +1,125 @@
+package tech.ailef.jpromptmanager.completion;
+
+import java.util.Map;
+
+/**
+ * A single request to the LLM, as built by JPromptManager for each step of a prompt.
+ * 
+ * The history of the prompt is carried as a typed {@link Conversation}, which chat
+ * connectors can send as-is. Completion connectors, which need a single block of text,
+ * can use {@link #getPrompt()} instead.
+ */
+public class LLMRequest {
+	/**
+	 * The name of the param holding the type of the prompt the request belongs to,
+	 * set by the prompt executor along with the step name (`name`)
+	 */
+	public static final String PROMPT_PARAM = "prompt";
+	
+	/**
+	 * The history of the prompt, including the previous steps. Parsed
+	 * lazily when the request is built from a string.
+	 */
+	private Conversation conversation;
+	
+	/**
+	 * The history of the prompt as a single string. Rendered lazily
+	 * when the request is built from a conversation.
+	 */
+	private String prompt;
+	
+	/**
+	 * The request params, i.e. the defaults of the connector merged with the step attributes
+	 */
+	private final Map<String, String> params;
+	
+	/**
+	 * The handler for the chunks of the response, null if the request is not streaming
+	 */
+	private final ChunkHandler chunkHandler;
+	
+	public LLMRequest(Conversation conversation, Map<String, String> params) {
+		this(conversation, params, null);
+	}
+	
+	public LLMRequest(Conversation conversation, Map<String, String> params, ChunkHandler chunkHandler) {
+		this(conversation, null, params, chunkHandler);
+	}
+	
+	/**
+	 * Builds a request from a prompt in the string format used by completion connectors
+	 * (see {@link Conversation#parse(String)})
+	 * @param prompt	the prompt text
+	 * @param params	the request params
+	 */
+	public LLMRequest(String prompt, Map<String, String> params) {
+		this(prompt, params, null);
+	}
+	
+	/**
+	 * Builds a request from a prompt in the string format used by completion connectors
+	 * (see {@link Conversation#parse(String)})
+	 * @param prompt	the prompt text
+	 * @param params	the request params
+	 * @param chunkHandler	the handler for the chunks of the response
+	 */
+	public LLMRequest(String prompt, Map<String, String> params, ChunkHandler chunkHandler) {
+		this(null, prompt, params, chunkHandler);
+	}
+	
+	private LLMRequest(Conversation conversation, String prompt, Map<String, String> params, ChunkHandler chunkHandler) {
+		if (conversation == null && prompt == null)
+			throw new NullPointerException("prompt cannot be null");
+		
+		this.conversation = conversation;
+		this.prompt = prompt;
+		this.params = params;
+		this.chunkHandler = chunkHandler;
+	}
+	
+	/**
+	 * Returns the history of the prompt as a list of messages
+	 * @return	the conversation
+	 */
+	public Conversation getConversation() {
+		// Both fields hold immutable values, so computing them more than
+		// once in case of concurrent access is harmless
+		if (conversation == null)
+			conversation = Conversation.parse(prompt);
+		return conversation;
+	}
+	
+	/**
+	 * Returns the history of the prompt as a single string (see {@link Conversation#toPrompt()})
+	 * @return	the prompt text
+	 */
+	public String getPrompt() {
+		if (prompt == null)
+			prompt = conversation.toPrompt();
+		return prompt;
+	}
+	
+	/**
+	 * Returns the number of characters in the prompt, without rendering it
+	 * @return	the length of the prompt
+	 */
+	public long getPromptLength() {
+		return prompt != null ? prompt.length() : conversation.length();
+	}
+	
+	public Map<String, String> getParams() {
+		return params;
+	}
+	
+	/**
+	 * Returns the handler for the chunks of the response
+	 * @return	the chunk handler, null if this request is not streaming
+	 */
+	public ChunkHandler getChunkHandler() {
+		return chunkHandler;
+	}
+	
+	public boolean isStreaming() {
+		return chunkHandler != null;
+	}
+}
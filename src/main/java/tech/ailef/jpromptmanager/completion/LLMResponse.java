@@ -0,0 +1,114 @@
+package tech.ailef.jpromptmanager.completion;
+
+/**
+ * The response to a {@link LLMRequest}: the generated text, along with
+ * the information about the request reported by the connector.
+ */
+public class LLMResponse {
+	/**
+	 * Value for token counts that were not reported by the connector
+	 */
+	public static final int UNKNOWN_TOKENS = -1;
+	
+	private final String text;
+	
+	private final int promptTokens;
+	
+	private final int completionTokens;
+	
+	private final int retries;
+	
+	private final boolean cached;
+	
+	private final long queueNanos;
+	
+	/**
+	 * Builds a response with no information besides the text
+	 * @param text	the text of the response
+	 */
+	public LLMResponse(String text) {
+		this(text, UNKNOWN_TOKENS, UNKNOWN_TOKENS, 0);
+	}
+	
+	/**
+	 * Builds a response
+	 * @param text	the text of the response
+	 * @param promptTokens	the number of tokens in the prompt, as reported by the API
+	 * @param completionTokens	the number of tokens in the response, as reported by the API
+	 * @param retries	the number of retries needed to get the response
+	 */
+	public LLMResponse(String text, int promptTokens, int completionTokens, int retries) {
+		this(text, promptTokens, completionTokens, retries, false, 0);
+	}
+	
+	private LLMResponse(String text, int promptTokens, int completionTokens, int retries, boolean cached, long queueNanos) {
+		this.text = text;
+		this.promptTokens = promptTokens;
+		this.completionTokens = completionTokens;
+		this.retries = retries;
+		this.cached = cached;
+		this.queueNanos = queueNanos;
+	}
+	
+	/**
+	 * Returns a copy of this response marked as served from a cache
+	 * @return	the cached response
+	 */
+	public LLMResponse asCached() {
+		return new LLMResponse(text, promptTokens, completionTokens, 0, true, queueNanos);
+	}
+	
+	/**
+	 * Returns a copy of this response with additional time spent waiting before
+	 * the request was sent (e.g. in an executor queue or for a rate limiter)
+	 * @param nanos	the additional waiting time, in nanoseconds
+	 * @return	the updated response
+	 */
+	public LLMResponse withQueueTime(long nanos) {
+		return new LLMResponse(text, promptTokens, completionTokens, retries, cached, queueNanos + nanos);
+	}
+	
+	public String getText() {
+		return text;
+	}
+	
+	/**
+	 * Returns the number of tokens in the prompt, as reported by the API
+	 * @return	the number of prompt tokens, or {@link #UNKNOWN_TOKENS} 
+	 */
+	public int getPromptTokens() {
+		return promptTokens;
+	}
+	
+	/**
+	 * Returns the number of tokens in the response, as reported by the API
+	 * @return	the number of completion tokens, or {@link #UNKNOWN_TOKENS} 
+	 */
+	public int getCompletionTokens() {
+		return completionTokens;
+	}
+	
+	/**
+	 * Returns the number of retries needed to get this response
+	 * @return	the number of retries
+	 */
+	public int getRetries() {
+		return retries;
+	}
+	
+	/**
+	 * Returns whether this response was served from a cache instead of the LLM
+	 * @return	true if the response was cached
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+	
+	/**
+	 * Returns the time spent waiting before the request was sent
+	 * @return	the queue time, in nanoseconds
+	 */
+	public long getQueueNanos() {
+		return queueNanos;
+	}
+}
@@ -0,0 +1,501 @@
+package tech.ailef.jpromptmanager.completion;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.exceptions.LLMRequestException;
+import tech.ailef.jpromptmanager.retry.CircuitBreaker;
+import tech.ailef.jpromptmanager.retry.RetryPolicy;
+
+/**
+ * A connector that spreads requests across several endpoints (e.g. different API keys,
+ * regions or a local model server), each one being a connector on its own. Endpoints
+ * are picked according to a {@link Strategy}, skipping the ones whose circuit breaker
+ * is open because they have been failing.
+ *
+ * When a request fails with an error that is retryable (according to a {@link RetryPolicy},
+ * e.g. server errors, rate limits and network errors), it's sent again to another endpoint.
+ * Streaming requests only fail over if no chunk has been received yet. Other errors are
+ * propagated immediately, as sending the same request elsewhere would fail in the same way.
+ *
+ * The default params are the ones of the first endpoint. When a request is sent to
+ * another endpoint, the params that are missing or still set to the default of the
+ * first endpoint are replaced with the defaults of that endpoint (e.g. its model).
+ */
+public class LoadBalancingLLMConnector implements LLMConnector {
+	private static final Logger logger = LogManager.getLogger(LoadBalancingLLMConnector.class);
+
+	/**
+	 * How endpoints are picked
+	 */
+	public enum Strategy {
+		/**
+		 * The endpoint with the fewest requests in flight relative to its weight,
+		 * preferring the lowest average latency on ties
+		 */
+		LEAST_OUTSTANDING,
+		/**
+		 * Each endpoint in turn, proportionally to its weight
+		 */
+		WEIGHTED_ROUND_ROBIN
+	}
+
+	/**
+	 * An endpoint of the connector, with the statistics used to pick it
+	 */
+	public static final class Endpoint {
+		/**
+		 * The weight of the latest latency in the moving average
+		 */
+		private static final double LATENCY_SMOOTHING = 0.2;
+
+		private final String name;
+
+		private final LLMConnector connector;
+
+		private final int weight;
+
+		private final Map<String, String> defaultParams;
+
+		private volatile CircuitBreaker circuitBreaker;
+
+		private final AtomicInteger outstanding = new AtomicInteger();
+
+		private final AtomicLong requests = new AtomicLong();
+
+		private final AtomicLong failures = new AtomicLong();
+
+		private double averageLatencyNanos;
+
+		/**
+		 * The current weight of smooth weighted round-robin, guarded by the connector
+		 */
+		private long currentWeight;
+
+		private Endpoint(String name, LLMConnector connector, int weight, CircuitBreaker circuitBreaker) {
+			this.name = name;
+			this.connector = connector;
+			this.weight = weight;
+			this.defaultParams = Map.copyOf(connector.getDefaultParams());
+			this.circuitBreaker = circuitBreaker;
+		}
+
+		private void started() {
+			outstanding.incrementAndGet();
+			requests.incrementAndGet();
+		}
+
+		private void succeeded(long latencyNanos) {
+			outstanding.decrementAndGet();
+			circuitBreaker.onSuccess();
+			synchronized (this) {
+				averageLatencyNanos = averageLatencyNanos == 0
+						? latencyNanos
+						: averageLatencyNanos + LATENCY_SMOOTHING * (latencyNanos - averageLatencyNanos);
+			}
+		}
+
+		private void failed(boolean unhealthy) {
+			outstanding.decrementAndGet();
+			if (unhealthy) {
+				failures.incrementAndGet();
+				circuitBreaker.onFailure();
+			} else {
+				// The endpoint answered, the request itself was wrong
+				circuitBreaker.onSuccess();
+			}
+		}
+
+		private void cancelled() {
+			outstanding.decrementAndGet();
+			circuitBreaker.onCancelled();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public LLMConnector getConnector() {
+			return connector;
+		}
+
+		public int getWeight() {
+			return weight;
+		}
+
+		/**
+		 * Returns the number of requests in flight
+		 * @return	the number of outstanding requests
+		 */
+		public int getOutstanding() {
+			return outstanding.get();
+		}
+
+		/**
+		 * Returns the total number of requests sent to this endpoint
+		 * @return	the number of requests
+		 */
+		public long getRequests() {
+			return requests.get();
+		}
+
+		/**
+		 * Returns the number of requests that failed with a retryable error
+		 * @return	the number of failures
+		 */
+		public long getFailures() {
+			return failures.get();
+		}
+
+		/**
+		 * Returns the exponential moving average of the latency of successful requests
+		 * @return	the average latency, zero if no request succeeded yet
+		 */
+		public synchronized Duration getAverageLatency() {
+			return Duration.ofNanos((long)averageLatencyNanos);
+		}
+
+		/**
+		 * Returns the failure rate over the window of the circuit breaker
+		 * @return	the recent error rate, between 0 and 1
+		 */
+		public double getErrorRate() {
+			return circuitBreaker.getFailureRate();
+		}
+
+		public CircuitBreaker.State getCircuitState() {
+			return circuitBreaker.getState();
+		}
+
+		private synchronized double getAverageLatencyNanos() {
+			return averageLatencyNanos;
+		}
+	}
+
+	private final Strategy strategy;
+
+	private final List<Endpoint> endpoints = new CopyOnWriteArrayList<>();
+
+	private RetryPolicy failoverPolicy = new RetryPolicy();
+
+	private int maxAttempts = Integer.MAX_VALUE;
+
+	private double failureRateThreshold = 0.5;
+
+	private int windowSize = 20;
+
+	private int minimumRequests = 5;
+
+	private Duration openDuration = Duration.ofSeconds(30);
+
+	/**
+	 * Rotates the starting point of the search, to spread requests across equivalent endpoints
+	 */
+	private final AtomicInteger rotation = new AtomicInteger();
+
+	/**
+	 * Builds a connector with no endpoints, which must be added with {@link #withEndpoint(String, LLMConnector, int)}
+	 * @param strategy	how endpoints are picked
+	 */
+	public LoadBalancingLLMConnector(Strategy strategy) {
+		this.strategy = strategy;
+	}
+
+	/**
+	 * Adds an endpoint with weight 1
+	 * @param name	the name of the endpoint, used in logs
+	 * @param connector	the connector of the endpoint
+	 * @return	this connector
+	 */
+	public LoadBalancingLLMConnector withEndpoint(String name, LLMConnector connector) {
+		return withEndpoint(name, connector, 1);
+	}
+
+	/**
+	 * Adds an endpoint
+	 * @param name	the name of the endpoint, used in logs
+	 * @param connector	the connector of the endpoint
+	 * @param weight	the share of requests of the endpoint relative to the others, e.g. the quota of its API key
+	 * @return	this connector
+	 */
+	public LoadBalancingLLMConnector withEndpoint(String name, LLMConnector connector, int weight) {
+		if (weight <= 0)
+			throw new IllegalArgumentException("weight must be positive, got " + weight);
+		endpoints.add(new Endpoint(name, connector, weight, newCircuitBreaker()));
+		return this;
+	}
+
+	/**
+	 * Configures the circuit breakers of the endpoints, by default opened by a 50% failure
+	 * rate over the last 20 requests (with at least 5 requests) for 30 seconds. Resets the
+	 * state of the circuit breakers of the endpoints already added.
+	 * @param failureRateThreshold	the failure rate (between 0 and 1) that opens the circuit
+	 * @param windowSize	the number of recent requests the failure rate is computed on
+	 * @param minimumRequests	the minimum number of requests in the window before the circuit can open
+	 * @param openDuration	how long an endpoint is skipped before a trial request
+	 * @return	this connector
+	 */
+	public LoadBalancingLLMConnector withCircuitBreaker(double failureRateThreshold, int windowSize,
+			int minimumRequests, Duration openDuration) {
+		this.failureRateThreshold = failureRateThreshold;
+		this.windowSize = windowSize;
+		this.minimumRequests = minimumRequests;
+		this.openDuration = openDuration;
+		for (Endpoint endpoint : endpoints)
+			endpoint.circuitBreaker = newCircuitBreaker();
+		return this;
+	}
+
+	/**
+	 * Sets the policy that decides which failures are sent to another endpoint,
+	 * see {@link RetryPolicy#isRetryable(Throwable)}. Its retry settings are ignored.
+	 * @param failoverPolicy	the policy
+	 * @return	this connector
+	 */
+	public LoadBalancingLLMConnector withFailoverPolicy(RetryPolicy failoverPolicy) {
+		this.failoverPolicy = failoverPolicy;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of endpoints a request is sent to, default all of them
+	 * @param maxAttempts	the maximum number of attempts, 1 to disable failover
+	 * @return	this connector
+	 */
+	public LoadBalancingLLMConnector withMaxAttempts(int maxAttempts) {
+		if (maxAttempts <= 0)
+			throw new IllegalArgumentException("maxAttempts must be positive, got " + maxAttempts);
+		this.maxAttempts = maxAttempts;
+		return this;
+	}
+
+	@Override
+	public String complete(String prompt, Map<String, String> params) {
+		return execute(new LLMRequest(prompt, params)).getText();
+	}
+
+	@Override
+	public String complete(String prompt, Map<String, String> params, ChunkHandler handler) {
+		return execute(new LLMRequest(prompt, params, handler)).getText();
+	}
+
+	@Override
+	public LLMResponse execute(LLMRequest request) {
+		Set<Endpoint> tried = new HashSet<>();
+		AtomicBoolean streamed = new AtomicBoolean();
+		RuntimeException lastFailure = null;
+
+		while (tried.size() < maxAttempts) {
+			Endpoint endpoint = select(tried);
+			if (endpoint == null)
+				break;
+			tried.add(endpoint);
+
+			long start = System.nanoTime();
+			endpoint.started();
+			try {
+				LLMResponse response = endpoint.connector.execute(adapt(request, endpoint, streamed));
+				endpoint.succeeded(System.nanoTime() - start - response.getQueueNanos());
+				return response;
+			} catch (RuntimeException e) {
+				boolean retryable = failoverPolicy.isRetryable(e);
+				endpoint.failed(retryable);
+				if (!retryable || streamed.get())
+					throw e;
+
+				logger.warn("Request to endpoint " + endpoint.name + " failed (" + e.getMessage() + "), failing over");
+				lastFailure = e;
+			}
+		}
+
+		throw noEndpointLeft(lastFailure);
+	}
+
+	@Override
+	public CompletableFuture<LLMResponse> executeAsync(LLMRequest request, Executor executor) {
+		CompletableFuture<LLMResponse> result = new CompletableFuture<>();
+		attemptAsync(request, executor, new HashSet<>(), new AtomicBoolean(), null, result);
+		return result;
+	}
+
+	/**
+	 * Sends the request to the next endpoint. Attempts are sequential,
+	 * so the set of tried endpoints is never accessed concurrently.
+	 */
+	private void attemptAsync(LLMRequest request, Executor executor, Set<Endpoint> tried, AtomicBoolean streamed,
+			RuntimeException lastFailure, CompletableFuture<LLMResponse> result) {
+		Endpoint endpoint = tried.size() < maxAttempts ? select(tried) : null;
+		if (endpoint == null) {
+			result.completeExceptionally(noEndpointLeft(lastFailure));
+			return;
+		}
+		tried.add(endpoint);
+
+		long start = System.nanoTime();
+		endpoint.started();
+		CompletableFuture<LLMResponse> attempt;
+		try {
+			attempt = endpoint.connector.executeAsync(adapt(request, endpoint, streamed), executor);
+		} catch (RuntimeException e) {
+			attempt = CompletableFuture.failedFuture(e);
+		}
+
+		CompletableFuture<LLMResponse> current = attempt;
+		result.whenComplete((response, error) -> {
+			if (result.isCancelled())
+				current.cancel(true);
+		});
+
+		attempt.whenComplete((response, error) -> {
+			if (error == null) {
+				endpoint.succeeded(System.nanoTime() - start - response.getQueueNanos());
+				result.complete(response);
+				return;
+			}
+
+			Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+			if (cause instanceof CancellationException) {
+				endpoint.cancelled();
+				result.completeExceptionally(cause);
+				return;
+			}
+
+			boolean retryable = failoverPolicy.isRetryable(cause);
+			endpoint.failed(retryable);
+			if (!retryable || streamed.get() || !(cause instanceof RuntimeException)) {
+				result.completeExceptionally(cause);
+				return;
+			}
+
+			logger.warn("Request to endpoint " + endpoint.name + " failed (" + cause.getMessage() + "), failing over");
+			attemptAsync(request, executor, tried, streamed, (RuntimeException)cause, result);
+		});
+	}
+
+	/**
+	 * Picks the endpoint for the next attempt among the ones not tried yet,
+	 * acquiring its circuit breaker
+	 * @return	the endpoint, or null if none is available
+	 */
+	private synchronized Endpoint select(Set<Endpoint> tried) {
+		List<Endpoint> candidates = new ArrayList<>(endpoints.size());
+		for (Endpoint endpoint : endpoints) {
+			if (!tried.contains(endpoint))
+				candidates.add(endpoint);
+		}
+		if (candidates.isEmpty())
+			return null;
+
+		Collections.rotate(candidates, rotation.getAndIncrement() % candidates.size());
+
+		if (strategy == Strategy.WEIGHTED_ROUND_ROBIN) {
+			// Smooth weighted round-robin: every candidate gains its weight, the chosen one pays the total
+			long totalWeight = 0;
+			for (Endpoint endpoint : candidates) {
+				endpoint.currentWeight += endpoint.weight;
+				totalWeight += endpoint.weight;
+			}
+			candidates.sort(Comparator.comparingLong((Endpoint e) -> e.currentWeight).reversed());
+
+			for (Endpoint endpoint : candidates) {
+				if (endpoint.circuitBreaker.tryAcquire()) {
+					endpoint.currentWeight -= totalWeight;
+					return endpoint;
+				}
+				// Don't let unavailable endpoints build up credit, or they'd get a burst of requests when they recover
+				endpoint.currentWeight = 0;
+			}
+			return null;
+		}
+
+		candidates.sort(Comparator.comparingDouble((Endpoint e) -> e.getOutstanding() / (double)e.weight)
+				.thenComparingDouble(Endpoint::getAverageLatencyNanos));
+		return acquireFirst(candidates);
+	}
+
+	private static Endpoint acquireFirst(List<Endpoint> candidates) {
+		for (Endpoint endpoint : candidates) {
+			if (endpoint.circuitBreaker.tryAcquire())
+				return endpoint;
+		}
+		return null;
+	}
+
+	/**
+	 * Replaces the params left to the defaults of the first endpoint with the defaults
+	 * of the given endpoint, and tracks whether streaming has started
+	 */
+	private LLMRequest adapt(LLMRequest request, Endpoint endpoint, AtomicBoolean streamed) {
+		Map<String, String> primaryDefaults = endpoints.get(0).defaultParams;
+		Map<String, String> params = request.getParams();
+		if (endpoint.defaultParams != primaryDefaults && !endpoint.defaultParams.equals(primaryDefaults)) {
+			params = new HashMap<>(params);
+			for (Map.Entry<String, String> param : endpoint.defaultParams.entrySet()) {
+				String value = params.get(param.getKey());
+				if (value == null || value.equals(primaryDefaults.get(param.getKey())))
+					params.put(param.getKey(), param.getValue());
+			}
+		}
+
+		if (!request.isStreaming())
+			return params == request.getParams() ? request : new LLMRequest(request.getConversation(), params);
+
+		ChunkHandler handler = request.getChunkHandler();
+		return new LLMRequest(request.getConversation(), params, chunk -> {
+			streamed.set(true);
+			handler.onChunk(chunk);
+		});
+	}
+
+	private RuntimeException noEndpointLeft(RuntimeException lastFailure) {
+		if (lastFailure != null)
+			return lastFailure;
+		return new LLMRequestException("No endpoint available: all circuit breakers are open",
+				LLMRequestException.NO_STATUS, null, null);
+	}
+
+	private CircuitBreaker newCircuitBreaker() {
+		return new CircuitBreaker(failureRateThreshold, windowSize, minimumRequests, openDuration);
+	}
+
+	/**
+	 * Returns the default params of the first endpoint
+	 */
+	@Override
+	public Map<String, String> getDefaultParams() {
+		if (endpoints.isEmpty())
+			throw new JPromptManagerException("No endpoints configured");
+		return new HashMap<>(endpoints.get(0).defaultParams);
+	}
+
+	/**
+	 * Returns the endpoints, with their statistics
+	 * @return	the endpoints, in the order they were added
+	 */
+	public List<Endpoint> getEndpoints() {
+		return Collections.unmodifiableList(endpoints);
+	}
+
+	public Strategy getStrategy() {
+		return strategy;
+	}
+}
@@ -0,0 +1,92 @@
+package tech.ailef.jpromptmanager.completion;
+
+import tech.ailef.jpromptmanager.tokenizer.Tokenizer;
+
+/**
+ * A single message of a {@link Conversation}: the instructions of a step
+ * or the response of the LLM to it.
+ */
+public class Message {
+	/**
+	 * The author of a message
+	 */
+	public enum Role {
+		SYSTEM("system"),
+		USER("user"),
+		ASSISTANT("assistant");
+		
+		private final String value;
+		
+		private Role(String value) {
+			this.value = value;
+		}
+		
+		/**
+		 * Returns the name of this role as used by chat APIs
+		 * @return	the name of the role, e.g. `user`
+		 */
+		public String getValue() {
+			return value;
+		}
+	}
+	
+	private final Role role;
+	
+	private final String content;
+	
+	/**
+	 * The number of tokens in the content, cached because the messages of a 
+	 * conversation are counted several times (e.g. for logging, rate limiting 
+	 * and the context window) and again in each of the following steps
+	 */
+	private volatile TokenCount tokenCount;
+	
+	public Message(Role role, String content) {
+		if (role == null)
+			throw new NullPointerException("role cannot be null");
+		if (content == null)
+			throw new NullPointerException("content cannot be null");
+		
+		this.role = role;
+		this.content = content;
+	}
+	
+	public Role getRole() {
+		return role;
+	}
+	
+	public String getContent() {
+		return content;
+	}
+	
+	/**
+	 * Returns the number of tokens in the content of this message, counting them
+	 * only the first time for each tokenizer
+	 * @param tokenizer	the tokenizer
+	 * @return	the number of tokens
+	 */
+	public int countTokens(Tokenizer tokenizer) {
+		TokenCount count = tokenCount;
+		if (count == null || count.tokenizer != tokenizer) {
+			count = new TokenCount(tokenizer, tokenizer.countTokens(content));
+			tokenCount = count;
+		}
+		return count.tokens;
+	}
+	
+	@Override
+	public String toString() {
+		return role.getValue() + ": " + content;
+	}
+	
+	private static class TokenCount {
+		private final Tokenizer tokenizer;
+		
+		private final int tokens;
+		
+		private TokenCount(Tokenizer tokenizer, int tokens) {
+			this.tokenizer = tokenizer;
+			this.tokens = tokens;
+		}
+	}
+}
@@ -1,35 +1,49 @@
 package tech.ailef.jpromptmanager.completion;
 
 import java.time.Duration;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
-import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.Usage;
 import com.theokanning.openai.completion.chat.ChatCompletionChoice;
 import com.theokanning.openai.completion.chat.ChatCompletionRequest;
 import com.theokanning.openai.completion.chat.ChatCompletionResult;
 import com.theokanning.openai.completion.chat.ChatMessage;
-import com.theokanning.openai.service.OpenAiService;
 
+import tech.ailef.jpromptmanager.PromptStepTemplate;
 import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.retry.RetryPolicy;
+import tech.ailef.jpromptmanager.tokenizer.BpeTokenizer;
+import tech.ailef.jpromptmanager.tokenizer.ModelInfo;
+import tech.ailef.jpromptmanager.tokenizer.TokenBudget;
+import tech.ailef.jpromptmanager.tokenizer.Tokenizer;
 
 /**
  * An implementation of the LLMConnector that allows to make requests
  * to the ChatGPT OpenAI endpoints. 
  *
  */
-public class OpenAIChatGPTConnector implements LLMConnector {
-	private OpenAiService service;
+public class OpenAIChatGPTConnector implements BatchableLLMConnector {
+	/**
+	 * The maximum number of stop sequences accepted by the API
+	 */
+	private static final int MAX_STOP_SEQUENCES = 4;
+	
+	private OpenAIClient client;
 
 	private String model;
 	
-	private String systemPrompt;
+	/**
+	 * The system prompt, built once so that its token count is cached
+	 */
+	private Message systemMessage;
 	
-	private int maxRetries;
+	private RetryPolicy retryPolicy;
 	
 
 	/**
@@ -58,7 +72,7 @@ public class OpenAIChatGPTConnector implements LLMConnector {
 	 * @param apiKey	OpenAI secret key
 	 * @param timeout	timeout for requests, 0 means no timeout
 	 * @param model	the OpenAI model to use (this setting will be overridden if an individual `<step>` tag provides a different value)
-	 * @param maxRetries	the number of times to retry a request that fails, default 0
+	 * @param maxRetries	the number of times to retry a request that fails (with the default {@link RetryPolicy} backoff), default 0
 	 */
 	public OpenAIChatGPTConnector(String apiKey, int timeout, int maxRetries, String model) {
 		this(apiKey, timeout, maxRetries, model, "You are a helpful assistant.");
@@ -68,18 +82,45 @@ public class OpenAIChatGPTConnector implements LLMConnector {
 	 * Builds the connector to ChatGPT with the required parameters.
 	 * @param apiKey	OpenAI secret key
 	 * @param timeout	timeout for requests, 0 means no timeout
+	 * @param maxRetries	the number of times to retry a request that fails (with the default {@link RetryPolicy} backoff), default 0
 	 * @param model	the OpenAI model to use (this setting will be overridden if an individual `<step>` tag provides a different value),
 	 * @param systemPrompt the initial system prompt that gets prepended to each conversation (see https://platform.openai.com/docs/guides/chat)
 	 */
 	public OpenAIChatGPTConnector(String apiKey, int timeout, int maxRetries, String model, String systemPrompt) {
-		service = new OpenAiService(apiKey, Duration.ofSeconds(timeout));
-		this.maxRetries = maxRetries;
+		this(apiKey, timeout, new RetryPolicy().withMaxRetries(maxRetries), model, systemPrompt);
+	}
+	
+	/**
+	 * Builds the connector to ChatGPT with the required parameters.
+	 * @param apiKey	OpenAI secret key
+	 * @param timeout	timeout for requests, 0 means no timeout
+	 * @param retryPolicy	the policy used to retry failed requests
+	 * @param model	the OpenAI model to use (this setting will be overridden if an individual `<step>` tag provides a different value),
+	 * @param systemPrompt the initial system prompt that gets prepended to each conversation (see https://platform.openai.com/docs/guides/chat)
+	 */
+	public OpenAIChatGPTConnector(String apiKey, int timeout, RetryPolicy retryPolicy, String model, String systemPrompt) {
+		this(apiKey, JdkHttpTransport.getDefault(), Duration.ofSeconds(timeout), retryPolicy, model, systemPrompt);
+	}
+	
+	/**
+	 * Builds the connector to ChatGPT with the required parameters.
+	 * @param apiKey	OpenAI secret key
+	 * @param transport	the HTTP transport, which can be shared with other connectors
+	 * @param timeout	timeout for requests, zero means no timeout
+	 * @param retryPolicy	the policy used to retry failed requests
+	 * @param model	the OpenAI model to use (this setting will be overridden if an individual `<step>` tag provides a different value),
+	 * @param systemPrompt the initial system prompt that gets prepended to each conversation (see https://platform.openai.com/docs/guides/chat)
+	 */
+	public OpenAIChatGPTConnector(String apiKey, HttpTransport transport, Duration timeout, RetryPolicy retryPolicy, 
+			String model, String systemPrompt) {
+		this.client = new OpenAIClient(transport, apiKey, timeout);
+		this.retryPolicy = retryPolicy;
 		
 		if (model == null)
 			throw new JPromptManagerException("Must specify which OpenAI model to use");
 		
 		this.model = model;
-		this.systemPrompt = systemPrompt;
+		this.systemMessage = new Message(Message.Role.SYSTEM, systemPrompt);
 	}
 
 	/**
@@ -87,51 +128,155 @@ public class OpenAIChatGPTConnector implements LLMConnector {
 	 */
 	@Override
 	public String complete(String prompt, Map<String, String> params) {
+		return execute(new LLMRequest(prompt, params)).getText();
+	}
+	
+	/**
+	 * Requests a streaming completion for the given text/params to OpenAI.
+	 */
+	@Override
+	public String complete(String prompt, Map<String, String> params, ChunkHandler handler) {
+		return execute(new LLMRequest(prompt, params, handler)).getText();
+	}
+	
+	/**
+	 * Requests a completion to OpenAI, streaming it if the request has a chunk handler.
+	 * The token usage is only reported for non-streaming requests.
+	 */
+	@Override
+	public LLMResponse execute(LLMRequest request) {
+		request = fitToContextWindow(request);
+		ChatCompletionRequest completionRequest = buildRequest(request.getConversation(), request.getParams());
+		AtomicInteger retries = new AtomicInteger();
+		
+		if (request.isStreaming()) {
+			completionRequest.setStream(true);
+			String text = client.stream(
+				"v1/chat/completions", completionRequest, retryPolicy, retries::set,
+				event -> OpenAIClient.firstChoice(event, "delta", "content"), request.getChunkHandler()
+			);
+			return new LLMResponse(text, LLMResponse.UNKNOWN_TOKENS, LLMResponse.UNKNOWN_TOKENS, retries.get());
+		}
+		
+		ChatCompletionResult chatCompletion = client.post(
+			"v1/chat/completions", completionRequest, ChatCompletionResult.class, retryPolicy, retries::set
+		);
+		return toResponse(chatCompletion, retries.get());
+	}
+	
+	/**
+	 * Requests a completion to OpenAI without blocking a thread while waiting for the
+	 * response. Streaming requests are run on the executor with {@link #execute(LLMRequest)}.
+	 */
+	@Override
+	public CompletableFuture<LLMResponse> executeAsync(LLMRequest request, Executor executor) {
+		if (request.isStreaming())
+			return BatchableLLMConnector.super.executeAsync(request, executor);
+		
+		ChatCompletionRequest completionRequest;
+		try {
+			LLMRequest fitted = fitToContextWindow(request);
+			completionRequest = buildRequest(fitted.getConversation(), fitted.getParams());
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		
+		AtomicInteger retries = new AtomicInteger();
+		CompletableFuture<ChatCompletionResult> call = 
+			client.postAsync("v1/chat/completions", completionRequest, ChatCompletionResult.class, retryPolicy, retries::set);
+		CompletableFuture<LLMResponse> response = call.thenApplyAsync(result -> toResponse(result, retries.get()), executor);
+		// Propagate cancellation, e.g. of the losing request of a hedge, to the HTTP call
+		response.whenComplete((result, e) -> {
+			if (response.isCancelled())
+				call.cancel(true);
+		});
+		return response;
+	}
+	
+	@Override
+	public String getBatchEndpoint() {
+		return "/v1/chat/completions";
+	}
+	
+	@Override
+	public String toBatchBody(LLMRequest request) {
+		LLMRequest fitted = fitToContextWindow(request);
+		return OpenAIClient.toJson(buildRequest(fitted.getConversation(), fitted.getParams()));
+	}
+	
+	@Override
+	public LLMResponse fromBatchBody(String body) {
+		return toResponse(OpenAIClient.fromJson(body, ChatCompletionResult.class), 0);
+	}
+	
+	private LLMResponse toResponse(ChatCompletionResult result, int retries) {
+		ChatCompletionChoice choice = result.getChoices().get(0);
+		
+		Usage usage = result.getUsage();
+		if (usage == null)
+			return new LLMResponse(choice.getMessage().getContent(), LLMResponse.UNKNOWN_TOKENS, LLMResponse.UNKNOWN_TOKENS, retries);
+		
+		return new LLMResponse(choice.getMessage().getContent(), (int)usage.getPromptTokens(), 
+				(int)usage.getCompletionTokens(), retries);
+	}
+	
+	/**
+	 * Lowers `maxTokens` and, if needed, truncates the history so that the
+	 * request fits in the context window of the model, when the model is known.
+	 */
+	private LLMRequest fitToContextWindow(LLMRequest request) {
+		ModelInfo info = ModelInfo.forModel(model);
+		if (info == null)
+			return request;
+		
+		Tokenizer tokenizer = BpeTokenizer.forEncoding(info.getEncoding());
+		TokenBudget budget = new TokenBudget(info.getContextWindow(), 
+				r -> tokenizer.countChatTokens(toMessages(r.getConversation())));
+		return budget.fit(request);
+	}
+	
+	/**
+	 * Builds the request for the given conversation, prepending the system prompt.
+	 * Package-private so it can be measured by the benchmarks.
+	 */
+	ChatCompletionRequest buildRequest(Conversation conversation, Map<String, String> params) {
 		int maxTokens = Integer.parseInt(params.get("maxTokens"));
 		double temperature = Double.parseDouble(params.get("temperature"));
 		
-		String[] messages = prompt.split("(" + LLMConnector.PROMPT_TOKEN + ")|(" + LLMConnector.COMPLETION_TOKEN + ")");
+		List<ChatMessage> chatMessages = new ArrayList<>(conversation.size() + 1);
+		for (Message message : toMessages(conversation))
+			chatMessages.add(new ChatMessage(message.getRole().getValue(), message.getContent()));
 		
-		AtomicInteger count = new AtomicInteger(0);
-		List<ChatMessage> chatMessages = Arrays.asList(messages).stream().filter(x -> x.trim().length() > 0)
-			.map(x -> x.trim())
-			.map(x -> {
-				if (count.get() % 2 == 0) {
-					return new ChatMessage("user", x);
-				} else {
-					return new ChatMessage("assistant", x);
-				}
-			})
-			.collect(Collectors.toList());
-		chatMessages.add(0, new ChatMessage("system", systemPrompt));
+		// The API accepts a limited number of stop sequences: the others
+		// are still enforced on the streamed output by the prompt executor
+		List<String> stop = PromptStepTemplate.parseStopSequences(params.get(PromptStepTemplate.STOP_PARAM));
+		if (stop.size() > MAX_STOP_SEQUENCES)
+			stop = stop.subList(0, MAX_STOP_SEQUENCES);
 		
-		int tries = 1;
-		while (tries <= maxRetries) {
-			try {
-				ChatCompletionRequest completionRequest = ChatCompletionRequest.builder()
-					.messages(chatMessages)
-					.maxTokens(maxTokens)
-					.temperature(temperature)
-					.model(model)
-					.build();
-				
-				ChatCompletionResult chatCompletion = service.createChatCompletion(completionRequest);
-				ChatCompletionChoice choice = chatCompletion.getChoices().get(0);
-					
-				return choice.getMessage().getContent();
-			} catch (OpenAiHttpException e) {
-				System.err.println("On try " + tries + ", got exception: " + e.getMessage());
-                tries++;
-                
-                try {
-                    Thread.sleep(2000);
-                } catch (InterruptedException e1) {
-                    throw new RuntimeException(e);
-                }
-			}
+		return ChatCompletionRequest.builder()
+			.messages(chatMessages)
+			.maxTokens(maxTokens)
+			.temperature(temperature)
+			.model(model)
+			.stop(stop.isEmpty() ? null : stop)
+			.build();
+	}
+	
+	/**
+	 * Returns the messages that are sent for the given conversation: the system prompt
+	 * followed by the non-empty messages of the conversation. Messages that need no
+	 * trimming are reused, keeping their cached token counts.
+	 */
+	private List<Message> toMessages(Conversation conversation) {
+		List<Message> messages = new ArrayList<>(conversation.size() + 1);
+		messages.add(systemMessage);
+		for (Message message : conversation.getMessages()) {
+			String content = message.getContent().trim();
+			if (content.isEmpty())
+				continue;
+			messages.add(content.length() == message.getContent().length() ? message : new Message(message.getRole(), content));
 		}
-		
-		throw new RuntimeException("Request failed after " + tries + " retries");
+		return messages;
 	}
 
 	@Override
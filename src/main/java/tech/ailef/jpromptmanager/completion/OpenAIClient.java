@@ -0,0 +1,208 @@
+package tech.ailef.jpromptmanager.completion;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import tech.ailef.jpromptmanager.exceptions.LLMRequestException;
+import tech.ailef.jpromptmanager.retry.RetryPolicy;
+
+/**
+ * Calls the OpenAI API through a {@link HttpTransport}. The request and result classes 
+ * of the OpenAI client library are (de)serialized with the snake_case field names used 
+ * by the API. Streaming responses are read as server-sent events.
+ */
+class OpenAIClient {
+	static final String BASE_URL = "https://api.openai.com/";
+	
+	private static final String DATA_PREFIX = "data:";
+	
+	private static final String DONE = "[DONE]";
+	
+	private static final Gson gson = new GsonBuilder()
+		.setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+		.create();
+	
+	private final HttpTransport transport;
+	
+	private final String apiKey;
+	
+	private final Duration timeout;
+	
+	/**
+	 * @param transport	the transport used to send requests
+	 * @param apiKey	OpenAI secret key
+	 * @param timeout	the time allowed to receive the response headers, zero means no timeout
+	 */
+	OpenAIClient(HttpTransport transport, String apiKey, Duration timeout) {
+		this.transport = transport;
+		this.apiKey = apiKey;
+		this.timeout = timeout;
+	}
+	
+	/**
+	 * Sends a request and parses the response, retrying according to the policy
+	 * @param path	the path of the endpoint, relative to the base URL
+	 * @param request	the request object
+	 * @param resultType	the class of the result
+	 * @param retryPolicy	the policy used to retry the request
+	 * @param onRetry	called with the number of the retry before each retry
+	 * @return	the result
+	 */
+	<T> T post(String path, Object request, Class<T> resultType, RetryPolicy retryPolicy, IntConsumer onRetry) {
+		HttpTransport.Request httpRequest = buildRequest(path, request, false);
+		return retryPolicy.execute(() -> {
+			try (HttpTransport.Response response = transport.send(httpRequest)) {
+				return parse(check(response), resultType);
+			}
+		}, OpenAIErrors::translate, onRetry);
+	}
+	
+	/**
+	 * Sends a request without blocking, retrying according to the policy
+	 * @param path	the path of the endpoint, relative to the base URL
+	 * @param request	the request object
+	 * @param resultType	the class of the result
+	 * @param retryPolicy	the policy used to retry the request
+	 * @param onRetry	called with the number of the retry before each retry
+	 * @return	a future that completes with the result
+	 */
+	<T> CompletableFuture<T> postAsync(String path, Object request, Class<T> resultType, 
+			RetryPolicy retryPolicy, IntConsumer onRetry) {
+		HttpTransport.Request httpRequest = buildRequest(path, request, false);
+		return retryPolicy.executeAsync(
+			() -> transport.sendAsync(httpRequest).thenApply(response -> parse(check(response), resultType)),
+			OpenAIErrors::translate, onRetry
+		);
+	}
+	
+	/**
+	 * Sends a streaming request and passes the content of each event to the handler.
+	 * Only the request that opens the stream is retried: once chunks have been passed 
+	 * to the handler, a failure is propagated to the caller.
+	 * @param path	the path of the endpoint, relative to the base URL
+	 * @param request	the request object, which must have `stream` set to true
+	 * @param retryPolicy	the policy used to retry opening the stream
+	 * @param onRetry	called with the number of the retry before each retry
+	 * @param contentExtractor	extracts the text content from each event, can return null
+	 * @param handler	the handler for the chunks
+	 * @return	the full response
+	 */
+	String stream(String path, Object request, RetryPolicy retryPolicy, IntConsumer onRetry, 
+			Function<JsonObject, String> contentExtractor, ChunkHandler handler) {
+		HttpTransport.Request httpRequest = buildRequest(path, request, true);
+		HttpTransport.Response response = retryPolicy.execute(
+			() -> check(transport.send(httpRequest)), OpenAIErrors::translate, onRetry
+		);
+		
+		StringBuilder fullResponse = new StringBuilder();
+		try (response; BufferedReader reader = new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.startsWith(DATA_PREFIX))
+					continue;
+				
+				String data = line.substring(DATA_PREFIX.length()).trim();
+				if (data.equals(DONE))
+					break;
+				
+				String content = contentExtractor.apply(JsonParser.parseString(data).getAsJsonObject());
+				if (content != null && !content.isEmpty()) {
+					fullResponse.append(content);
+					try {
+						handler.onChunk(content);
+					} catch (StopGenerationException e) {
+						// Closing the response aborts the rest of the stream
+						break;
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new LLMRequestException("OpenAI stream interrupted: " + e.getMessage(), LLMRequestException.NO_STATUS, null, e);
+		}
+		
+		return fullResponse.toString();
+	}
+	
+	/**
+	 * Returns the string value of `choices[0].[path...]`, null if missing
+	 */
+	static String firstChoice(JsonObject event, String... path) {
+		if (!event.has("choices") || event.getAsJsonArray("choices").isEmpty())
+			return null;
+		
+		JsonElement current = event.getAsJsonArray("choices").get(0);
+		for (String key : path) {
+			if (!current.isJsonObject() || !current.getAsJsonObject().has(key))
+				return null;
+			current = current.getAsJsonObject().get(key);
+		}
+		
+		return current.isJsonNull() ? null : current.getAsString();
+	}
+	
+	/**
+	 * Serializes a request object with the field names used by the API
+	 */
+	static String toJson(Object request) {
+		return gson.toJson(request);
+	}
+	
+	/**
+	 * Parses a result object returned by the API
+	 */
+	static <T> T fromJson(String json, Class<T> resultType) {
+		try {
+			return gson.fromJson(json, resultType);
+		} catch (JsonParseException e) {
+			throw new LLMRequestException("Invalid response from OpenAI: " + json, LLMRequestException.NO_STATUS, null, e);
+		}
+	}
+	
+	private HttpTransport.Request buildRequest(String path, Object request, boolean streaming) {
+		return HttpTransport.Request.post(URI.create(BASE_URL + path), gson.toJson(request))
+			.withHeader("Authorization", "Bearer " + apiKey)
+			.withHeader("Accept", streaming ? "text/event-stream" : "application/json")
+			.withTimeout(timeout);
+	}
+	
+	/**
+	 * Returns the response if successful, otherwise closes it and throws
+	 * a {@link LLMRequestException} with the status code
+	 */
+	private static HttpTransport.Response check(HttpTransport.Response response) {
+		if (response.isSuccessful())
+			return response;
+		
+		Duration retryAfter = RetryPolicy.parseRetryAfter(response::header);
+		String error;
+		try {
+			error = response.bodyAsString();
+		} catch (UncheckedIOException e) {
+			error = "";
+		}
+		throw new LLMRequestException(
+			"OpenAI request failed with status " + response.getStatusCode() + ": " + error, 
+			response.getStatusCode(), retryAfter, null
+		);
+	}
+	
+	private static <T> T parse(HttpTransport.Response response, Class<T> resultType) {
+		return fromJson(response.bodyAsString(), resultType);
+	}
+}
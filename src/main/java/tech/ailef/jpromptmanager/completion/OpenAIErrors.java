@@ -0,0 +1,35 @@
+package tech.ailef.jpromptmanager.completion;
+
+import java.io.IOException;
+
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.exceptions.LLMRequestException;
+
+/**
+ * Converts the exceptions thrown while calling the OpenAI API into {@link LLMRequestException}s,
+ * so that network errors can be classified by the retry policy.
+ */
+class OpenAIErrors {
+	private OpenAIErrors() {}
+	
+	static RuntimeException translate(Exception e) {
+		if (e instanceof LLMRequestException)
+			return (LLMRequestException)e;
+		
+		if (findCause(e, IOException.class) != null)
+			return new LLMRequestException("OpenAI request failed: " + e.getMessage(), LLMRequestException.NO_STATUS, null, e);
+		
+		if (e instanceof RuntimeException)
+			return (RuntimeException)e;
+		
+		return new JPromptManagerException(e);
+	}
+	
+	private static <E extends Throwable> E findCause(Throwable e, Class<E> type) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (type.isInstance(t))
+				return type.cast(t);
+		}
+		return null;
+	}
+}
@@ -1,29 +1,43 @@
 package tech.ailef.jpromptmanager.completion;
 
 import java.time.Duration;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.Usage;
 import com.theokanning.openai.completion.CompletionChoice;
 import com.theokanning.openai.completion.CompletionRequest;
 import com.theokanning.openai.completion.CompletionResult;
-import com.theokanning.openai.service.OpenAiService;
 
+import tech.ailef.jpromptmanager.PromptStepTemplate;
 import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.retry.RetryPolicy;
+import tech.ailef.jpromptmanager.tokenizer.BpeTokenizer;
+import tech.ailef.jpromptmanager.tokenizer.ModelInfo;
+import tech.ailef.jpromptmanager.tokenizer.TokenBudget;
+import tech.ailef.jpromptmanager.tokenizer.Tokenizer;
 
 /**
  * An implementation of the LLMConnector that allows to make requests
  * to the GPT-3 OpenAI endpoints. 
  *
  */
-public class OpenAIGPT3Connector implements LLMConnector {
-	private OpenAiService service;
+public class OpenAIGPT3Connector implements BatchableLLMConnector {
+	/**
+	 * The maximum number of stop sequences accepted by the API
+	 */
+	private static final int MAX_STOP_SEQUENCES = 4;
+	
+	private OpenAIClient client;
 
 	private String model;
 	
-	private int maxRetries;
+	private RetryPolicy retryPolicy;
 	
 	/**
 	 * Builds the connector with the provided parameters.
@@ -40,14 +54,37 @@ public class OpenAIGPT3Connector implements LLMConnector {
 	 * @param apiKey	OpenAI secret key
 	 * @param timeout	timeout for requests, 0 means no timeout
 	 * @param model	the OpenAI model to use (this setting will be overridden if an individual `<step>` tag provides a different value)
-	 * @param maxRetries the number of times to retry a request that fails, default 0
+	 * @param maxRetries the number of times to retry a request that fails (with the default {@link RetryPolicy} backoff), default 0
 	 */
 	public OpenAIGPT3Connector(String apiKey, int timeout, int maxRetries, String model) {
+		this(apiKey, timeout, new RetryPolicy().withMaxRetries(maxRetries), model);
+	}
+	
+	/**
+	 * Builds the connector with the provided parameters.
+	 * @param apiKey	OpenAI secret key
+	 * @param timeout	timeout for requests, 0 means no timeout
+	 * @param retryPolicy	the policy used to retry failed requests
+	 * @param model	the OpenAI model to use (this setting will be overridden if an individual `<step>` tag provides a different value)
+	 */
+	public OpenAIGPT3Connector(String apiKey, int timeout, RetryPolicy retryPolicy, String model) {
+		this(apiKey, JdkHttpTransport.getDefault(), Duration.ofSeconds(timeout), retryPolicy, model);
+	}
+	
+	/**
+	 * Builds the connector with the provided parameters.
+	 * @param apiKey	OpenAI secret key
+	 * @param transport	the HTTP transport, which can be shared with other connectors
+	 * @param timeout	timeout for requests, zero means no timeout
+	 * @param retryPolicy	the policy used to retry failed requests
+	 * @param model	the OpenAI model to use (this setting will be overridden if an individual `<step>` tag provides a different value)
+	 */
+	public OpenAIGPT3Connector(String apiKey, HttpTransport transport, Duration timeout, RetryPolicy retryPolicy, String model) {
 		if (model == null)
 			throw new JPromptManagerException("Must specify which OpenAI model to use");
 		
-		this.maxRetries = maxRetries;
-		this.service = new OpenAiService(apiKey, Duration.ofSeconds(timeout));
+		this.retryPolicy = retryPolicy;
+		this.client = new OpenAIClient(transport, apiKey, timeout);
 		this.model = model;
 	}
 
@@ -56,43 +93,138 @@ public class OpenAIGPT3Connector implements LLMConnector {
 	 */
 	@Override
 	public String complete(String prompt, Map<String, String> params) {
+		return execute(new LLMRequest(prompt, params)).getText();
+	}
+	
+	/**
+	 * Requests a streaming completion for the given text/params to OpenAI.
+	 */
+	@Override
+	public String complete(String prompt, Map<String, String> params, ChunkHandler handler) {
+		return execute(new LLMRequest(prompt, params, handler)).getText();
+	}
+	
+	/**
+	 * Requests a completion to OpenAI, streaming it if the request has a chunk handler.
+	 * The token usage is only reported for non-streaming requests.
+	 */
+	@Override
+	public LLMResponse execute(LLMRequest request) {
+		request = fitToContextWindow(request);
+		CompletionRequest completionRequest = buildRequest(request.getPrompt(), request.getParams());
+		AtomicInteger retries = new AtomicInteger();
+		
+		if (request.isStreaming()) {
+			completionRequest.setStream(true);
+			String text = client.stream(
+				"v1/completions", completionRequest, retryPolicy, retries::set,
+				event -> OpenAIClient.firstChoice(event, "text"), request.getChunkHandler()
+			);
+			return new LLMResponse(text, LLMResponse.UNKNOWN_TOKENS, LLMResponse.UNKNOWN_TOKENS, retries.get());
+		}
+		
+		CompletionResult createCompletion = client.post(
+			"v1/completions", completionRequest, CompletionResult.class, retryPolicy, retries::set
+		);
+		return toResponse(createCompletion, retries.get());
+	}
+	
+	/**
+	 * Requests a completion to OpenAI without blocking a thread while waiting for the
+	 * response. Streaming requests are run on the executor with {@link #execute(LLMRequest)}.
+	 */
+	@Override
+	public CompletableFuture<LLMResponse> executeAsync(LLMRequest request, Executor executor) {
+		if (request.isStreaming())
+			return BatchableLLMConnector.super.executeAsync(request, executor);
+		
+		CompletionRequest completionRequest;
+		try {
+			LLMRequest fitted = fitToContextWindow(request);
+			completionRequest = buildRequest(fitted.getPrompt(), fitted.getParams());
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		
+		AtomicInteger retries = new AtomicInteger();
+		CompletableFuture<CompletionResult> call = 
+			client.postAsync("v1/completions", completionRequest, CompletionResult.class, retryPolicy, retries::set);
+		CompletableFuture<LLMResponse> response = call.thenApplyAsync(result -> toResponse(result, retries.get()), executor);
+		// Propagate cancellation, e.g. of the losing request of a hedge, to the HTTP call
+		response.whenComplete((result, e) -> {
+			if (response.isCancelled())
+				call.cancel(true);
+		});
+		return response;
+	}
+	
+	@Override
+	public String getBatchEndpoint() {
+		return "/v1/completions";
+	}
+	
+	@Override
+	public String toBatchBody(LLMRequest request) {
+		LLMRequest fitted = fitToContextWindow(request);
+		return OpenAIClient.toJson(buildRequest(fitted.getPrompt(), fitted.getParams()));
+	}
+	
+	@Override
+	public LLMResponse fromBatchBody(String body) {
+		return toResponse(OpenAIClient.fromJson(body, CompletionResult.class), 0);
+	}
+	
+	private LLMResponse toResponse(CompletionResult result, int retries) {
+		CompletionChoice choice = result.getChoices().get(0);
+		
+		Usage usage = result.getUsage();
+		if (usage == null)
+			return new LLMResponse(choice.getText(), LLMResponse.UNKNOWN_TOKENS, LLMResponse.UNKNOWN_TOKENS, retries);
+		
+		return new LLMResponse(choice.getText(), (int)usage.getPromptTokens(), 
+				(int)usage.getCompletionTokens(), retries);
+	}
+	
+	/**
+	 * Lowers `maxTokens` and, if needed, truncates the history so that the
+	 * request fits in the context window of the model, when the model is known.
+	 */
+	private LLMRequest fitToContextWindow(LLMRequest request) {
+		ModelInfo info = ModelInfo.forModel(request.getParams().get("model"));
+		if (info == null)
+			return request;
+		
+		Tokenizer tokenizer = BpeTokenizer.forEncoding(info.getEncoding());
+		TokenBudget budget = new TokenBudget(info.getContextWindow(), r -> tokenizer.countTokens(r.getPrompt()));
+		return budget.fit(request);
+	}
+	
+	private CompletionRequest buildRequest(String prompt, Map<String, String> params) {
 		// Cast parameters to correct type
 		double temperature = Double.parseDouble(params.get("temperature"));
 		double topP = Double.parseDouble(params.get("topP"));
 		String model = params.get("model");
 		int maxTokens = Integer.parseInt(params.get("maxTokens"));
 		
-		int tries = 1;
-		while (tries <= maxRetries) {
-			try {
-				CompletionRequest completionRequest = CompletionRequest.builder()
-				        .prompt(prompt)
-				        .stop(Arrays.asList(LLMConnector.PROMPT_TOKEN))
-				        .temperature(temperature)
-				        .topP(topP)
-				        .model(model)
-				        .maxTokens(maxTokens)
-				        .n(1)
-				        .echo(false)
-				        .build();
-				
-				CompletionResult createCompletion = service.createCompletion(completionRequest);
-				CompletionChoice choice = createCompletion.getChoices().get(0);
-				return choice.getText();
-			} catch (OpenAiHttpException e) {
-				System.err.println("On try " + tries + ", got exception: " + e.getMessage());
-                tries++;
-                
-                try {
-                    Thread.sleep(2000);
-                } catch (InterruptedException e1) {
-                    throw new RuntimeException(e);
-                }
-			}
+		// The API accepts a limited number of stop sequences: the others
+		// are still enforced on the streamed output by the prompt executor
+		List<String> stop = new ArrayList<>(MAX_STOP_SEQUENCES);
+		stop.add(LLMConnector.PROMPT_TOKEN);
+		for (String sequence : PromptStepTemplate.parseStopSequences(params.get(PromptStepTemplate.STOP_PARAM))) {
+			if (stop.size() < MAX_STOP_SEQUENCES)
+				stop.add(sequence);
 		}
 		
-		throw new RuntimeException("Request failed after " + tries + " retries");
-		
+		return CompletionRequest.builder()
+		        .prompt(prompt)
+		        .stop(stop)
+		        .temperature(temperature)
+		        .topP(topP)
+		        .model(model)
+		        .maxTokens(maxTokens)
+		        .n(1)
+		        .echo(false)
+		        .build();
 	}
 
 	@Override
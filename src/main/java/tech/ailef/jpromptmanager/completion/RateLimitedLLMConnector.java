@@ -0,0 +1,129 @@
+package tech.ailef.jpromptmanager.completion;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.ratelimit.RateLimiter;
+import tech.ailef.jpromptmanager.tokenizer.Tokenizer;
+
+/**
+ * A connector that paces the requests to another connector with a {@link RateLimiter}.
+ * Requests wait (in FIFO order) until they can be sent within the limits, instead
+ * of being rejected by the LLM provider.
+ */
+public class RateLimitedLLMConnector extends ForwardingLLMConnector {
+	private final RateLimiter rateLimiter;
+	
+	/**
+	 * Builds a rate limited connector
+	 * @param delegate	the connector to forward requests to
+	 * @param rateLimiter	the rate limiter, which can be shared with other connectors
+	 */
+	public RateLimitedLLMConnector(LLMConnector delegate, RateLimiter rateLimiter) {
+		super(delegate);
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Waits for the rate limiter and then forwards the request. The time spent 
+	 * waiting is added to the queue time of the response.
+	 */
+	@Override
+	public LLMResponse execute(LLMRequest request) {
+		long start = System.nanoTime();
+		RateLimiter.Permit permit;
+		try {
+			permit = rateLimiter.acquire(estimateTokens(request));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JPromptManagerException("Interrupted while waiting for rate limiter", e);
+		}
+		
+		try {
+			long waited = System.nanoTime() - start;
+			return delegate.execute(request).withQueueTime(waited);
+		} finally {
+			permit.close();
+		}
+	}
+	
+	/**
+	 * Forwards the request to the asynchronous path of the delegate once the rate
+	 * limiter allows it, without holding a thread while waiting. Cancelling the
+	 * returned future gives up the wait, or cancels the request if already sent.
+	 */
+	@Override
+	public CompletableFuture<LLMResponse> executeAsync(LLMRequest request, Executor executor) {
+		long submitted = System.nanoTime();
+		CompletableFuture<LLMResponse> result = new CompletableFuture<>();
+		
+		CompletableFuture<RateLimiter.Permit> permitFuture = rateLimiter.acquireAsync(estimateTokens(request), executor);
+		permitFuture.whenComplete((permit, e) -> {
+			if (e != null) {
+				result.completeExceptionally(e);
+				return;
+			}
+			if (result.isDone()) {
+				permit.close();
+				return;
+			}
+			
+			long queueNanos = System.nanoTime() - submitted;
+			CompletableFuture<LLMResponse> call;
+			try {
+				call = delegate.executeAsync(request, executor);
+			} catch (RuntimeException ex) {
+				call = CompletableFuture.failedFuture(ex);
+			}
+			
+			call.whenComplete((response, ex) -> {
+				permit.close();
+				if (ex != null)
+					result.completeExceptionally(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+				else
+					result.complete(response.withQueueTime(queueNanos));
+			});
+			
+			CompletableFuture<LLMResponse> sent = call;
+			result.whenComplete((response, ex) -> {
+				if (result.isCancelled())
+					sent.cancel(true);
+			});
+		});
+		
+		result.whenComplete((response, e) -> {
+			if (result.isCancelled())
+				permitFuture.cancel(false);
+		});
+		return result;
+	}
+	
+	/**
+	 * Returns the number of tokens a request is expected to use, counting 
+	 * both the prompt and the maximum length of the completion, as this is 
+	 * what providers usually count against the limits. Prompt tokens are
+	 * counted with the tokenizer of the model when it's known, and estimated
+	 * from the prompt length otherwise.
+	 * @param request	the request
+	 * @return	the estimated number of tokens for the request
+	 */
+	protected int estimateTokens(LLMRequest request) {
+		int completionTokens = 0;
+		String maxTokens = request.getParams().get("maxTokens");
+		if (maxTokens != null)
+			completionTokens = Integer.parseInt(maxTokens);
+		
+		Tokenizer tokenizer = Tokenizer.forModel(request.getParams().get("model"));
+		if (tokenizer != null)
+			return tokenizer.countTokens(request.getConversation()) + completionTokens;
+		
+		return (int)(request.getPromptLength() / 3) + completionTokens;
+	}
+	
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+}
@@ -0,0 +1,18 @@
+package tech.ailef.jpromptmanager.completion;
+
+/**
+ * Thrown by a {@link ChunkHandler} to stop a streaming response once the rest of it 
+ * is not needed, e.g. because the answer is already complete. Connectors stop reading
+ * the response (aborting the request if possible) and return the text received so far,
+ * as if the generation had ended normally.
+ * 
+ * To abort a request because the output is unusable, handlers should throw any other
+ * exception instead, which is propagated to the caller.
+ */
+public class StopGenerationException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public StopGenerationException() {
+		super("Generation stopped by the chunk handler", null, false, false);
+	}
+}
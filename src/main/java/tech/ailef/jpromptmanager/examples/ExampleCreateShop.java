@@ -1,33 +1,29 @@
 package tech.ailef.jpromptmanager.examples;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
-import tech.ailef.jpromptmanager.PromptStep;
-import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
-import tech.ailef.jpromptmanager.prompts.Prompt;
+import tech.ailef.jpromptmanager.prompts.StreamingJsonPrompt;
 
 /**
  * An example prompt class that deserializes the output of a single step into a POJO. 
+ * The output is parsed while it's being generated, so the request is aborted as soon 
+ * as the LLM produces invalid JSON, and stopped as soon as the JSON object is complete.
  */
-public class ExampleCreateShop extends Prompt<Shop> {
-	private static final Gson gson = new Gson();
+public class ExampleCreateShop extends StreamingJsonPrompt<Shop> {
+	private static final Logger logger = LogManager.getLogger(ExampleCreateShop.class);
+	
+	public ExampleCreateShop() {
+		super(Shop.class, "shopJson");
+	}
 	
-	@Override
 	/**
-	 * Builds a Shop object by deserializing the output of the first (and only)
-	 * step in the prompt. When prompted correctly and with low temperature, LLMs
-	 * almost always produce valid JSON code; nevertheless, it may be wise to
-	 * account for them anyway as shown below.
+	 * Logs each owner as soon as it's generated, before the rest of the shop 
 	 */
-	public Shop getOutput() {
-		PromptStep userJson = steps.get(0);
-		
-		try {
-			return gson.fromJson(userJson.getResponse(), Shop.class);
-		} catch (JsonSyntaxException e) {
-			throw new JPromptManagerException("Error parsing LLM output as JSON: received " + userJson.getResponse(), e);
-		}
+	@Override
+	protected void onElement(String field, int index, Object element) {
+		if ("owners".equals(field))
+			logger.info("Owner #" + (index + 1) + ": " + element);
 	}
 
 }
@@ -0,0 +1,36 @@
+package tech.ailef.jpromptmanager.exceptions;
+
+/**
+ * Thrown when the output of a step is found to be unusable while it's being 
+ * generated (e.g. it's not valid JSON), aborting the request so that no more 
+ * tokens are spent on it.
+ */
+public class InvalidOutputException extends JPromptManagerException {
+	private static final long serialVersionUID = -3034630398157240155L;
+
+	private final String stepName;
+	
+	private final String partialOutput;
+	
+	public InvalidOutputException(String stepName, String partialOutput, String msg, Throwable e) {
+		super("Invalid output for step `" + stepName + "`: " + msg, e);
+		this.stepName = stepName;
+		this.partialOutput = partialOutput;
+	}
+	
+	/**
+	 * Returns the name of the step whose output is invalid
+	 * @return	the step name
+	 */
+	public String getStepName() {
+		return stepName;
+	}
+	
+	/**
+	 * Returns the output generated until the request was aborted
+	 * @return	the partial output
+	 */
+	public String getPartialOutput() {
+		return partialOutput;
+	}
+}
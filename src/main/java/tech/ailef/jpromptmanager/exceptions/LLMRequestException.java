@@ -0,0 +1,58 @@
+package tech.ailef.jpromptmanager.exceptions;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a request to the LLM fails. It carries the HTTP status code 
+ * returned by the provider, if any, and how long the provider asked to wait
+ * before retrying, if it did.
+ */
+public class LLMRequestException extends JPromptManagerException {
+	private static final long serialVersionUID = -2297323150934436118L;
+	
+	/**
+	 * Status code used when the request failed without an HTTP response
+	 * (e.g. network errors, timeouts)
+	 */
+	public static final int NO_STATUS = -1;
+
+	private final int statusCode;
+	
+	private final Duration retryAfter;
+	
+	private int retries;
+	
+	public LLMRequestException(String msg, int statusCode, Duration retryAfter, Throwable e) {
+		super(msg, e);
+		this.statusCode = statusCode;
+		this.retryAfter = retryAfter;
+	}
+	
+	/**
+	 * Returns the HTTP status code of the failed request
+	 * @return	the status code, or {@link #NO_STATUS} if the request didn't get a response
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+	
+	/**
+	 * Returns how long the provider asked to wait before retrying
+	 * @return	the delay requested by the provider, null if not provided
+	 */
+	public Duration getRetryAfter() {
+		return retryAfter;
+	}
+	
+	/**
+	 * Returns the number of times the request was retried before giving up
+	 * @return	the number of retries
+	 */
+	public int getRetries() {
+		return retries;
+	}
+	
+	public void setRetries(int retries) {
+		this.retries = retries;
+	}
+}
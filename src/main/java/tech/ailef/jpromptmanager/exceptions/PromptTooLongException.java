@@ -0,0 +1,36 @@
+package tech.ailef.jpromptmanager.exceptions;
+
+/**
+ * Thrown before sending a request when the prompt doesn't fit in
+ * the context window of the model.
+ */
+public class PromptTooLongException extends JPromptManagerException {
+	private static final long serialVersionUID = 4211815870916521063L;
+
+	private final int promptTokens;
+	
+	private final int contextWindow;
+	
+	public PromptTooLongException(int promptTokens, int contextWindow) {
+		super("Prompt is " + promptTokens + " tokens long, which doesn't fit the context window of " 
+				+ contextWindow + " tokens");
+		this.promptTokens = promptTokens;
+		this.contextWindow = contextWindow;
+	}
+	
+	/**
+	 * Returns the number of tokens in the rejected prompt
+	 * @return	the prompt tokens
+	 */
+	public int getPromptTokens() {
+		return promptTokens;
+	}
+	
+	/**
+	 * Returns the context window of the model the request was meant for
+	 * @return	the maximum number of tokens, prompt and completion included
+	 */
+	public int getContextWindow() {
+		return contextWindow;
+	}
+}
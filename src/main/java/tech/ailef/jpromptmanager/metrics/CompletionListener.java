@@ -0,0 +1,27 @@
+package tech.ailef.jpromptmanager.metrics;
+
+/**
+ * Receives metrics about the execution of prompts and their steps. Listeners are
+ * registered with {@link tech.ailef.jpromptmanager.JPromptManagerOptions#withListener(CompletionListener)}
+ * and are called synchronously on the thread that executes the step, so they 
+ * should be fast and thread-safe. Exceptions thrown by listeners are logged and ignored.
+ * 
+ * This interface can be implemented to forward metrics to a monitoring system
+ * (e.g. Micrometer) or a tracer; {@link SimpleMetricsCollector} is a dependency-free
+ * implementation that aggregates them in memory.
+ */
+public interface CompletionListener {
+	/**
+	 * Called when a step completes, successfully or not
+	 * @param metrics	the metrics of the step
+	 */
+	public default void onStepFinished(StepMetrics metrics) {
+	}
+	
+	/**
+	 * Called when a prompt completes, successfully or not
+	 * @param metrics	the metrics of the prompt
+	 */
+	public default void onPromptFinished(PromptMetrics metrics) {
+	}
+}
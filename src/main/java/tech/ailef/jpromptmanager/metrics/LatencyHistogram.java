@@ -0,0 +1,66 @@
+package tech.ailef.jpromptmanager.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies, with buckets that double in size starting 
+ * from 1 microsecond. Percentiles are approximated by the upper bound of the
+ * bucket they fall in, so they are accurate within a factor of two.
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS = 40;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	
+	private final LongAdder count = new LongAdder();
+	
+	private final LongAdder totalNanos = new LongAdder();
+	
+	public void record(long nanos) {
+		long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos));
+		int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+		counts.incrementAndGet(bucket);
+		count.increment();
+		totalNanos.add(nanos);
+	}
+	
+	public long getCount() {
+		return count.sum();
+	}
+	
+	/**
+	 * Returns the mean of the recorded values
+	 * @return	the mean in nanoseconds, 0 if no value was recorded
+	 */
+	public long getMeanNanos() {
+		long n = count.sum();
+		return n == 0 ? 0 : totalNanos.sum() / n;
+	}
+	
+	/**
+	 * Returns an approximation of the given percentile
+	 * @param percentile	the percentile, between 0 and 100
+	 * @return	the percentile in nanoseconds, 0 if no value was recorded
+	 */
+	public long getPercentileNanos(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0)
+			return 0;
+		
+		long rank = (long)Math.ceil(percentile / 100.0 * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank)
+				return TimeUnit.MICROSECONDS.toNanos(2L << i);
+		}
+		return TimeUnit.MICROSECONDS.toNanos(2L << (BUCKETS - 1));
+	}
+}
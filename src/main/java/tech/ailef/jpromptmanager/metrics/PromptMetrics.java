@@ -0,0 +1,71 @@
+package tech.ailef.jpromptmanager.metrics;
+
+import java.util.List;
+
+/**
+ * Metrics about the execution of a prompt, with the metrics of all the 
+ * steps that were executed.
+ */
+public class PromptMetrics {
+	private final String promptName;
+	
+	private final long totalNanos;
+	
+	private final List<StepMetrics> steps;
+	
+	private final Throwable failure;
+
+	public PromptMetrics(String promptName, long totalNanos, List<StepMetrics> steps, Throwable failure) {
+		this.promptName = promptName;
+		this.totalNanos = totalNanos;
+		this.steps = List.copyOf(steps);
+		this.failure = failure;
+	}
+	
+	public String getPromptName() {
+		return promptName;
+	}
+	
+	/**
+	 * Returns the total time to complete the prompt
+	 * @return	the total time in nanoseconds
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+	
+	/**
+	 * Returns the metrics of the steps executed, in order. If the prompt
+	 * failed, the last step is the one that failed.
+	 * @return	the metrics of the steps
+	 */
+	public List<StepMetrics> getSteps() {
+		return steps;
+	}
+	
+	/**
+	 * Returns the error that made the prompt fail
+	 * @return	the failure, null if the prompt succeeded
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+	
+	public boolean isSuccess() {
+		return failure == null;
+	}
+	
+	/**
+	 * Returns a short description of the failure (see {@link StepMetrics#getFailureType()})
+	 * @return	the failure type, null if the prompt succeeded
+	 */
+	public String getFailureType() {
+		return StepMetrics.failureType(failure);
+	}
+	
+	@Override
+	public String toString() {
+		return "PromptMetrics [prompt=" + promptName + ", totalNanos=" + totalNanos + ", steps=" + steps.size()
+				+ ", failure=" + getFailureType() + "]";
+	}
+}
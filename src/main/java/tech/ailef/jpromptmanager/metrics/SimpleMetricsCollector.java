@@ -0,0 +1,165 @@
+package tech.ailef.jpromptmanager.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link CompletionListener} that aggregates metrics in memory, with no
+ * external dependencies. Statistics are kept per prompt and per step, and
+ * can be read at any time, e.g. to expose them on a monitoring endpoint or
+ * to print them periodically.
+ */
+public class SimpleMetricsCollector implements CompletionListener {
+	private final Map<String, Stats> prompts = new ConcurrentHashMap<>();
+	
+	private final Map<String, Stats> steps = new ConcurrentHashMap<>();
+
+	@Override
+	public void onStepFinished(StepMetrics metrics) {
+		Stats stats = steps.computeIfAbsent(metrics.getPromptName() + "." + metrics.getStepName(), k -> new Stats());
+		stats.record(metrics.getLlmNanos(), metrics.getFailureType());
+		stats.renderLatency.record(metrics.getRenderNanos());
+		stats.queueLatency.record(metrics.getQueueNanos());
+		stats.retries.add(metrics.getRetries());
+		if (metrics.isCached())
+			stats.cacheHits.increment();
+		if (metrics.getPromptTokens() > 0)
+			stats.promptTokens.add(metrics.getPromptTokens());
+		if (metrics.getCompletionTokens() > 0)
+			stats.completionTokens.add(metrics.getCompletionTokens());
+	}
+	
+	@Override
+	public void onPromptFinished(PromptMetrics metrics) {
+		Stats stats = prompts.computeIfAbsent(metrics.getPromptName(), k -> new Stats());
+		stats.record(metrics.getTotalNanos(), metrics.getFailureType());
+		for (StepMetrics step : metrics.getSteps()) {
+			stats.retries.add(step.getRetries());
+			if (step.isCached())
+				stats.cacheHits.increment();
+			if (step.getPromptTokens() > 0)
+				stats.promptTokens.add(step.getPromptTokens());
+			if (step.getCompletionTokens() > 0)
+				stats.completionTokens.add(step.getCompletionTokens());
+		}
+	}
+	
+	/**
+	 * Returns the statistics of each prompt, keyed by prompt name. The latency
+	 * is the total time to complete the prompt.
+	 * @return	the statistics of the prompts
+	 */
+	public Map<String, Stats> getPromptStats() {
+		return Collections.unmodifiableMap(prompts);
+	}
+	
+	/**
+	 * Returns the statistics of each step, keyed by `promptName.stepName`. The latency
+	 * is the time spent waiting for the LLM.
+	 * @return	the statistics of the steps
+	 */
+	public Map<String, Stats> getStepStats() {
+		return Collections.unmodifiableMap(steps);
+	}
+	
+	/**
+	 * Removes all the collected statistics
+	 */
+	public void reset() {
+		prompts.clear();
+		steps.clear();
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		prompts.forEach((name, stats) -> builder.append(name).append(": ").append(stats).append("\n"));
+		steps.forEach((name, stats) -> builder.append("  ").append(name).append(": ").append(stats).append("\n"));
+		return builder.toString();
+	}
+	
+	/**
+	 * Aggregated statistics for a prompt or a step.
+	 */
+	public static class Stats {
+		private final LongAdder count = new LongAdder();
+		
+		private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+		
+		private final LatencyHistogram latency = new LatencyHistogram();
+		
+		private final LatencyHistogram renderLatency = new LatencyHistogram();
+		
+		private final LatencyHistogram queueLatency = new LatencyHistogram();
+		
+		private final LongAdder retries = new LongAdder();
+		
+		private final LongAdder cacheHits = new LongAdder();
+		
+		private final LongAdder promptTokens = new LongAdder();
+		
+		private final LongAdder completionTokens = new LongAdder();
+		
+		private void record(long nanos, String failureType) {
+			count.increment();
+			latency.record(nanos);
+			if (failureType != null)
+				failures.computeIfAbsent(failureType, k -> new LongAdder()).increment();
+		}
+		
+		public long getCount() {
+			return count.sum();
+		}
+		
+		/**
+		 * Returns the number of failures, keyed by failure type
+		 * @return	the failure counts
+		 */
+		public Map<String, Long> getFailures() {
+			Map<String, Long> result = new ConcurrentHashMap<>();
+			failures.forEach((type, n) -> result.put(type, n.sum()));
+			return result;
+		}
+		
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+		
+		public LatencyHistogram getRenderLatency() {
+			return renderLatency;
+		}
+		
+		public LatencyHistogram getQueueLatency() {
+			return queueLatency;
+		}
+		
+		public long getRetries() {
+			return retries.sum();
+		}
+		
+		public long getCacheHits() {
+			return cacheHits.sum();
+		}
+		
+		public long getPromptTokens() {
+			return promptTokens.sum();
+		}
+		
+		public long getCompletionTokens() {
+			return completionTokens.sum();
+		}
+		
+		@Override
+		public String toString() {
+			return "count=" + getCount() + ", failures=" + getFailures() 
+				+ ", mean=" + TimeUnit.NANOSECONDS.toMillis(latency.getMeanNanos()) + "ms"
+				+ ", p50=" + TimeUnit.NANOSECONDS.toMillis(latency.getPercentileNanos(50)) + "ms"
+				+ ", p99=" + TimeUnit.NANOSECONDS.toMillis(latency.getPercentileNanos(99)) + "ms"
+				+ ", retries=" + getRetries() + ", cacheHits=" + getCacheHits()
+				+ ", promptTokens=" + getPromptTokens() + ", completionTokens=" + getCompletionTokens();
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package tech.ailef.jpromptmanager.metrics;
+
+import tech.ailef.jpromptmanager.exceptions.LLMRequestException;
+
+/**
+ * Metrics about the execution of a single step of a prompt.
+ */
+public class StepMetrics {
+	private final String promptName;
+	
+	private final String stepName;
+	
+	private final int stepIndex;
+	
+	private final long renderNanos;
+	
+	private final long queueNanos;
+	
+	private final long llmNanos;
+	
+	private final int promptTokens;
+	
+	private final int completionTokens;
+	
+	private final int retries;
+	
+	private final boolean cached;
+	
+	private final Throwable failure;
+
+	public StepMetrics(String promptName, String stepName, int stepIndex, long renderNanos, long queueNanos, 
+			long llmNanos, int promptTokens, int completionTokens, int retries, boolean cached, Throwable failure) {
+		this.promptName = promptName;
+		this.stepName = stepName;
+		this.stepIndex = stepIndex;
+		this.renderNanos = renderNanos;
+		this.queueNanos = queueNanos;
+		this.llmNanos = llmNanos;
+		this.promptTokens = promptTokens;
+		this.completionTokens = completionTokens;
+		this.retries = retries;
+		this.cached = cached;
+		this.failure = failure;
+	}
+	
+	public String getPromptName() {
+		return promptName;
+	}
+	
+	public String getStepName() {
+		return stepName;
+	}
+	
+	/**
+	 * Returns the position of this step in the prompt, starting from 0
+	 * @return	the index of the step
+	 */
+	public int getStepIndex() {
+		return stepIndex;
+	}
+	
+	/**
+	 * Returns the time spent rendering the step template
+	 * @return	the render time in nanoseconds
+	 */
+	public long getRenderNanos() {
+		return renderNanos;
+	}
+	
+	/**
+	 * Returns the time the request spent waiting before being sent to the LLM, 
+	 * e.g. in the executor queue or for the rate limiter
+	 * @return	the queue time in nanoseconds
+	 */
+	public long getQueueNanos() {
+		return queueNanos;
+	}
+	
+	/**
+	 * Returns the time spent waiting for the LLM response, including retries
+	 * but excluding the queue time
+	 * @return	the LLM latency in nanoseconds
+	 */
+	public long getLlmNanos() {
+		return llmNanos;
+	}
+	
+	/**
+	 * Returns the number of prompt tokens as reported by the API
+	 * @return	the prompt tokens, or {@link tech.ailef.jpromptmanager.completion.LLMResponse#UNKNOWN_TOKENS}
+	 */
+	public int getPromptTokens() {
+		return promptTokens;
+	}
+	
+	/**
+	 * Returns the number of completion tokens as reported by the API
+	 * @return	the completion tokens, or {@link tech.ailef.jpromptmanager.completion.LLMResponse#UNKNOWN_TOKENS}
+	 */
+	public int getCompletionTokens() {
+		return completionTokens;
+	}
+	
+	public int getRetries() {
+		return retries;
+	}
+	
+	/**
+	 * Returns whether the response was served from a cache
+	 * @return	true if the response was cached
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+	
+	/**
+	 * Returns the error that made the step fail
+	 * @return	the failure, null if the step succeeded
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+	
+	public boolean isSuccess() {
+		return failure == null;
+	}
+	
+	/**
+	 * Returns a short description of the failure, suitable as a metric tag: 
+	 * `http_STATUS` for HTTP errors, the name of the exception class otherwise
+	 * @return	the failure type, null if the step succeeded
+	 */
+	public String getFailureType() {
+		return failureType(failure);
+	}
+
+	static String failureType(Throwable failure) {
+		if (failure == null)
+			return null;
+		
+		if (failure instanceof LLMRequestException) {
+			int statusCode = ((LLMRequestException)failure).getStatusCode();
+			if (statusCode != LLMRequestException.NO_STATUS)
+				return "http_" + statusCode;
+		}
+		
+		return failure.getClass().getSimpleName();
+	}
+	
+	@Override
+	public String toString() {
+		return "StepMetrics [prompt=" + promptName + ", step=" + stepName + ", renderNanos=" + renderNanos
+				+ ", queueNanos=" + queueNanos + ", llmNanos=" + llmNanos + ", promptTokens=" + promptTokens
+				+ ", completionTokens=" + completionTokens + ", retries=" + retries + ", cached=" + cached
+				+ ", failure=" + getFailureType() + "]";
+	}
+}
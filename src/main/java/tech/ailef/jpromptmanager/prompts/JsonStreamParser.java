@@ -0,0 +1,317 @@
+package tech.ailef.jpromptmanager.prompts;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Parses a JSON document incrementally, as its text is received in chunks (e.g. from
+ * a streaming completion). Each chunk is validated as soon as it's fed, so a syntax 
+ * error is detected at the first invalid character rather than at the end of the 
+ * response, and the listener is notified as soon as each value is complete.
+ * 
+ * The document must be an object or an array. Text before it is only allowed if it's 
+ * whitespace or the opening of a Markdown code block (e.g. "```json"), and text after
+ * it is ignored.
+ */
+public class JsonStreamParser {
+	/**
+	 * Receives the values of the document as soon as they are complete
+	 */
+	@FunctionalInterface
+	public interface ValueListener {
+		/**
+		 * Called when a value is complete, inner values first
+		 * @param path	the names (for object members) and indices (for array elements)
+		 * 	that lead to the value, empty for the root
+		 * @param json	the JSON text of the value
+		 */
+		public void onValue(List<Object> path, String json);
+	}
+	
+	private enum State { START, FENCE, VALUE, FIRST_VALUE, FIRST_KEY, KEY, COLON, AFTER_VALUE, STRING, NUMBER, LITERAL, DONE }
+	
+	private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+	
+	/**
+	 * An object or array that has been opened and not closed yet
+	 */
+	private static class Container {
+		private final boolean object;
+		
+		private final int start;
+		
+		/**
+		 * The name of the current member, for objects
+		 */
+		private String key;
+		
+		/**
+		 * The index of the current element, for arrays
+		 */
+		private int index = -1;
+		
+		private Container(boolean object, int start) {
+			this.object = object;
+			this.start = start;
+		}
+	}
+	
+	private final ValueListener listener;
+	
+	private final int maxDepth;
+	
+	private final StringBuilder text = new StringBuilder();
+	
+	private final Deque<Container> stack = new ArrayDeque<>();
+	
+	private State state = State.START;
+	
+	private int rootStart = -1;
+	
+	private int rootEnd = -1;
+	
+	/**
+	 * Start of the string, number or literal being parsed
+	 */
+	private int valueStart;
+	
+	private boolean stringIsKey;
+	
+	private boolean escape;
+	
+	private int unicodeDigits;
+	
+	private String literal;
+	
+	/**
+	 * Builds a parser that reports all the values of the document
+	 * @param listener	the listener for the values
+	 */
+	public JsonStreamParser(ValueListener listener) {
+		this(Integer.MAX_VALUE, listener);
+	}
+	
+	/**
+	 * Builds a parser that reports the values up to the given depth 
+	 * (0 for the root only, 1 for its members or elements, and so on)
+	 * @param maxDepth	the maximum length of the path of the reported values
+	 * @param listener	the listener for the values
+	 */
+	public JsonStreamParser(int maxDepth, ValueListener listener) {
+		this.maxDepth = maxDepth;
+		this.listener = listener;
+	}
+	
+	/**
+	 * Parses the next chunk of the document
+	 * @param chunk	the next piece of text
+	 * @throws JsonSyntaxException	if the text received so far can't be the beginning of a JSON document
+	 */
+	public void feed(CharSequence chunk) {
+		for (int i = 0; i < chunk.length(); i++) {
+			if (state == State.DONE)
+				return;
+			
+			text.append(chunk.charAt(i));
+			process(chunk.charAt(i), text.length() - 1);
+		}
+	}
+	
+	/**
+	 * Returns whether the whole document has been received
+	 * @return	true once the root object or array has been closed
+	 */
+	public boolean isComplete() {
+		return state == State.DONE;
+	}
+	
+	/**
+	 * Returns the text of the document received so far, without the text before it
+	 * @return	the JSON text, complete or partial
+	 */
+	public String getJson() {
+		if (rootStart < 0)
+			return "";
+		return text.substring(rootStart, rootEnd < 0 ? text.length() : rootEnd);
+	}
+	
+	private void process(char c, int position) {
+		switch (state) {
+			case START:
+				if (c == '{' || c == '[') {
+					rootStart = position;
+					open(c == '{', position);
+				} else if (c == '`') {
+					state = State.FENCE;
+				} else if (!isWhitespace(c)) {
+					throw error(c, position, "expected a JSON object or array");
+				}
+				break;
+			case FENCE:
+				// Skip the rest of the code block opening, e.g. ```json
+				if (c == '\n')
+					state = State.START;
+				break;
+			case FIRST_VALUE:
+				if (c == ']')
+					close(c, position);
+				else if (!isWhitespace(c))
+					beginValue(c, position);
+				break;
+			case VALUE:
+				if (!isWhitespace(c))
+					beginValue(c, position);
+				break;
+			case FIRST_KEY:
+			case KEY:
+				if (c == '"') {
+					stringIsKey = true;
+					valueStart = position;
+					state = State.STRING;
+				} else if (c == '}' && state == State.FIRST_KEY) {
+					close(c, position);
+				} else if (!isWhitespace(c)) {
+					throw error(c, position, "expected a member name");
+				}
+				break;
+			case COLON:
+				if (c == ':')
+					state = State.VALUE;
+				else if (!isWhitespace(c))
+					throw error(c, position, "expected ':'");
+				break;
+			case AFTER_VALUE:
+				if (c == ',')
+					state = stack.peek().object ? State.KEY : State.VALUE;
+				else if (c == '}' || c == ']')
+					close(c, position);
+				else if (!isWhitespace(c))
+					throw error(c, position, "expected ',' or the end of the " + (stack.peek().object ? "object" : "array"));
+				break;
+			case STRING:
+				processString(c, position);
+				break;
+			case NUMBER:
+				if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E')
+					break;
+				
+				String number = text.substring(valueStart, position);
+				if (!NUMBER.matcher(number).matches())
+					throw error(c, position, "invalid number " + number);
+				valueComplete(valueStart, position);
+				process(c, position);
+				break;
+			case LITERAL:
+				if (c != literal.charAt(position - valueStart))
+					throw error(c, position, "expected " + literal);
+				if (position - valueStart == literal.length() - 1)
+					valueComplete(valueStart, position + 1);
+				break;
+			case DONE:
+				break;
+		}
+	}
+	
+	private void processString(char c, int position) {
+		if (unicodeDigits > 0) {
+			if (Character.digit(c, 16) < 0)
+				throw error(c, position, "invalid unicode escape");
+			unicodeDigits--;
+		} else if (escape) {
+			if (c == 'u')
+				unicodeDigits = 4;
+			else if ("\"\\/bfnrt".indexOf(c) < 0)
+				throw error(c, position, "invalid escape sequence");
+			escape = false;
+		} else if (c == '\\') {
+			escape = true;
+		} else if (c == '"') {
+			if (stringIsKey) {
+				stack.peek().key = JsonParser.parseString(text.substring(valueStart, position + 1)).getAsString();
+				state = State.COLON;
+			} else {
+				valueComplete(valueStart, position + 1);
+			}
+		} else if (c < 0x20) {
+			throw error(c, position, "control character in string");
+		}
+	}
+	
+	private void beginValue(char c, int position) {
+		if (!stack.peek().object)
+			stack.peek().index++;
+		
+		valueStart = position;
+		if (c == '{' || c == '[') {
+			open(c == '{', position);
+		} else if (c == '"') {
+			stringIsKey = false;
+			state = State.STRING;
+		} else if (c == '-' || (c >= '0' && c <= '9')) {
+			state = State.NUMBER;
+		} else if (c == 't' || c == 'f' || c == 'n') {
+			literal = c == 't' ? "true" : c == 'f' ? "false" : "null";
+			state = State.LITERAL;
+		} else {
+			throw error(c, position, "expected a value");
+		}
+	}
+	
+	private void open(boolean object, int position) {
+		stack.push(new Container(object, position));
+		state = object ? State.FIRST_KEY : State.FIRST_VALUE;
+	}
+	
+	private void close(char c, int position) {
+		Container container = stack.peek();
+		if (container.object != (c == '}'))
+			throw error(c, position, "mismatched " + c);
+		
+		stack.pop();
+		valueComplete(container.start, position + 1);
+	}
+	
+	private void valueComplete(int start, int end) {
+		if (stack.size() <= maxDepth) 
+			listener.onValue(getPath(), text.substring(start, end));
+		
+		if (stack.isEmpty()) {
+			rootEnd = end;
+			state = State.DONE;
+		} else {
+			state = State.AFTER_VALUE;
+		}
+	}
+	
+	/**
+	 * Returns the path of the current value, from the root
+	 */
+	private List<Object> getPath() {
+		if (stack.isEmpty())
+			return Collections.emptyList();
+		
+		List<Object> path = new ArrayList<>(stack.size());
+		for (Iterator<Container> it = stack.descendingIterator(); it.hasNext();) {
+			Container container = it.next();
+			path.add(container.object ? container.key : (Object)container.index);
+		}
+		return path;
+	}
+	
+	private JsonSyntaxException error(char c, int position, String message) {
+		String context = text.substring(Math.max(0, position - 40), position + 1);
+		return new JsonSyntaxException("Unexpected character '" + c + "' at offset " + position + " (" + message + "): ..." + context);
+	}
+	
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+}
@@ -0,0 +1,250 @@
+package tech.ailef.jpromptmanager.prompts;
+
+import java.lang.reflect.Type;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+
+/**
+ * Checks the output of a step while it's being generated, so that the request can be
+ * stopped as soon as the answer is complete, or aborted as soon as it can't be valid.
+ * Validators are enabled on individual steps with the `validate` attribute, e.g.
+ * `&lt;step name="year" validate="regex:\d{4}"&gt;`, which accepts one of:
+ * <ul>
+ * 	<li>`json`: the output must be a JSON object or array (see {@link #json()})</li>
+ * 	<li>`regex:` followed by a pattern the whole output must match (see {@link #regex(Pattern)})</li>
+ * 	<li>the name of a validator registered with 
+ * 		{@link tech.ailef.jpromptmanager.JPromptManagerOptions#withValidator(String, OutputValidator)}</li>
+ * </ul>
+ * The output is passed with leading and trailing whitespace removed.
+ * 
+ * While a response is streamed, the output is checked through a {@link Validation}, 
+ * which receives the new text of each chunk. The built-in validators keep their state 
+ * between chunks, so that checking a long output doesn't re-read it at each chunk.
+ */
+@FunctionalInterface
+public interface OutputValidator {
+	/**
+	 * The prefix of the `validate` attribute for regex validators
+	 */
+	public static final String REGEX_PREFIX = "regex:";
+	
+	/**
+	 * The length up to which regex validators check the output while it's being generated
+	 */
+	public static final int REGEX_STREAMING_LIMIT = 1000;
+	
+	/**
+	 * The outcome of a validation
+	 */
+	public enum Verdict {
+		/**
+		 * The output is not complete yet, but it may become valid
+		 */
+		INCOMPLETE,
+		/**
+		 * The output is a complete, valid answer: no more text is needed
+		 */
+		COMPLETE,
+		/**
+		 * The output can't become valid, whatever text follows
+		 */
+		INVALID
+	}
+	
+	/**
+	 * The validation of a single output, which receives the output chunk by chunk
+	 * while it's being generated. A validation is used by a single thread.
+	 */
+	public interface Validation {
+		/**
+		 * Checks the output after the given text has been appended to it
+		 * @param chunk	the new text of the output
+		 * @return	the verdict on the output generated so far
+		 */
+		public Verdict append(String chunk);
+		
+		/**
+		 * Checks the output once the generation has ended
+		 * @return	the verdict on the whole output, {@link Verdict#COMPLETE} or {@link Verdict#INVALID}
+		 */
+		public Verdict finish();
+	}
+	
+	/**
+	 * Checks the output generated so far. With the default {@link #start()}, this is 
+	 * called after each chunk of a streaming response, and once more on the final output. 
+	 * Implementations must be thread-safe, as they are shared by all the executions of a step.
+	 * @param output	the output generated so far, stripped of surrounding whitespace
+	 * @param finished	whether the generation has ended, in which case {@link Verdict#INCOMPLETE} 
+	 * 	is treated as {@link Verdict#INVALID}
+	 * @return	the verdict on the output
+	 */
+	public Verdict validate(String output, boolean finished);
+	
+	/**
+	 * Starts the validation of a new output. By default, {@link #validate(String, boolean)} 
+	 * is applied to the whole output after each chunk: validators that check long outputs
+	 * while they're generated should override this to keep their state between chunks.
+	 * @return	the validation
+	 */
+	public default Validation start() {
+		StringBuilder output = new StringBuilder();
+		return new Validation() {
+			@Override
+			public Verdict append(String chunk) {
+				output.append(chunk);
+				return validate(output.toString().strip(), false);
+			}
+			
+			@Override
+			public Verdict finish() {
+				return validate(output.toString().strip(), true);
+			}
+		};
+	}
+	
+	/**
+	 * Returns a validator for outputs that must match the given pattern entirely. The output 
+	 * is complete as soon as it matches and no additional text could still match (e.g. 
+	 * `\d{4}` after four digits), and invalid as soon as no additional text could make it match.
+	 * 
+	 * Since a regex can't be resumed, each check matches the whole output. While the output 
+	 * is being generated, it's only checked up to {@link #REGEX_STREAMING_LIMIT} characters, 
+	 * so that long outputs are only matched once more, when they're finished.
+	 * @param pattern	the pattern
+	 * @return	the validator
+	 */
+	public static OutputValidator regex(Pattern pattern) {
+		return new OutputValidator() {
+			@Override
+			public Verdict validate(String output, boolean finished) {
+				Matcher matcher = pattern.matcher(output);
+				boolean matches = matcher.matches();
+				if (!finished && matcher.hitEnd())
+					return Verdict.INCOMPLETE;
+				return matches ? Verdict.COMPLETE : Verdict.INVALID;
+			}
+			
+			@Override
+			public Validation start() {
+				StringBuilder output = new StringBuilder();
+				return new Validation() {
+					@Override
+					public Verdict append(String chunk) {
+						output.append(chunk);
+						if (output.length() > REGEX_STREAMING_LIMIT)
+							return Verdict.INCOMPLETE;
+						return validate(output.toString().strip(), false);
+					}
+					
+					@Override
+					public Verdict finish() {
+						return validate(output.toString().strip(), true);
+					}
+				};
+			}
+		};
+	}
+	
+	/**
+	 * Returns a validator for outputs that must be a JSON object or array, optionally
+	 * preceded by the opening of a Markdown code block. The output is complete as soon
+	 * as the document is closed, and invalid at the first character that is not valid JSON.
+	 * @return	the validator
+	 */
+	public static OutputValidator json() {
+		return json(null);
+	}
+	
+	/**
+	 * Returns a validator for outputs that must be a JSON document that can be 
+	 * deserialized with Gson to the given type, which acts as a schema for the output.
+	 * While the output is being generated, each chunk is fed to a single {@link JsonStreamParser}.
+	 * @param type	the type of the document, or null to accept any object or array
+	 * @return	the validator
+	 */
+	public static OutputValidator json(Type type) {
+		Gson gson = new Gson();
+		return new OutputValidator() {
+			@Override
+			public Verdict validate(String output, boolean finished) {
+				Validation validation = start();
+				Verdict verdict = validation.append(output);
+				return finished ? validation.finish() : verdict;
+			}
+			
+			@Override
+			public Validation start() {
+				JsonStreamParser parser = new JsonStreamParser(0, (path, json) -> {});
+				return new Validation() {
+					private Verdict verdict = Verdict.INCOMPLETE;
+					
+					@Override
+					public Verdict append(String chunk) {
+						if (verdict != Verdict.INCOMPLETE)
+							return verdict;
+						
+						try {
+							parser.feed(chunk);
+							if (parser.isComplete()) {
+								if (type != null)
+									gson.fromJson(parser.getJson(), type);
+								verdict = Verdict.COMPLETE;
+							}
+						} catch (JsonParseException e) {
+							verdict = Verdict.INVALID;
+						}
+						return verdict;
+					}
+					
+					@Override
+					public Verdict finish() {
+						return verdict == Verdict.COMPLETE ? verdict : Verdict.INVALID;
+					}
+				};
+			}
+		};
+	}
+	
+	/**
+	 * Returns a validator that checks the final output with the given predicate.
+	 * Since the predicate can't tell an incomplete output from an invalid one, it's
+	 * not applied while the output is being generated.
+	 * @param predicate	the predicate that accepts valid outputs
+	 * @return	the validator
+	 */
+	public static OutputValidator of(Predicate<String> predicate) {
+		return (output, finished) -> {
+			if (!finished)
+				return Verdict.INCOMPLETE;
+			return predicate.test(output) ? Verdict.COMPLETE : Verdict.INVALID;
+		};
+	}
+	
+	/**
+	 * Returns the built-in validator for the value of a `validate` attribute
+	 * @param value	the attribute value
+	 * @return	the validator, or null if the value is not `json` or a regex
+	 * @throws JPromptManagerException	if the regex is not valid
+	 */
+	public static OutputValidator parse(String value) {
+		if (value.equals("json"))
+			return json();
+		
+		if (value.startsWith(REGEX_PREFIX)) {
+			try {
+				return regex(Pattern.compile(value.substring(REGEX_PREFIX.length()), Pattern.DOTALL));
+			} catch (PatternSyntaxException e) {
+				throw new JPromptManagerException("Invalid regex in `validate` attribute: " + value, e);
+			}
+		}
+		return null;
+	}
+}
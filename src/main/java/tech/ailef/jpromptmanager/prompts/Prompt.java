@@ -6,6 +6,8 @@ import java.util.List;
 import java.util.Optional;
 
 import tech.ailef.jpromptmanager.PromptStep;
+import tech.ailef.jpromptmanager.PromptStepTemplate;
+import tech.ailef.jpromptmanager.completion.ChunkHandler;
 
 /**
  * A class providing an implementation for a given prompt type, as defined
@@ -43,6 +45,19 @@ public abstract class Prompt<T> {
 		return getClass().getSimpleName();
 	}
 	
+	/**
+	 * Returns a handler for the output of the given step while it's being generated, 
+	 * or null (the default) if the prompt doesn't need it. When a handler is returned,
+	 * the step is executed as a streaming request. The handler can stop the generation
+	 * early by throwing a {@link tech.ailef.jpromptmanager.completion.StopGenerationException}, 
+	 * or fail the request by throwing any other exception.
+	 * @param step	the step about to be executed
+	 * @return	the handler for the chunks of the step output, or null
+	 */
+	public ChunkHandler getChunkHandler(PromptStepTemplate step) {
+		return null;
+	}
+	
 	/**
 	 * Adds a step to this prompt. Used when appending the output
 	 * of a LLM request.
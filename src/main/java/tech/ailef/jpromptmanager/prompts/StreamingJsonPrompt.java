@@ -0,0 +1,222 @@
+package tech.ailef.jpromptmanager.prompts;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+
+import tech.ailef.jpromptmanager.PromptStep;
+import tech.ailef.jpromptmanager.PromptStepTemplate;
+import tech.ailef.jpromptmanager.completion.ChunkHandler;
+import tech.ailef.jpromptmanager.completion.StopGenerationException;
+import tech.ailef.jpromptmanager.exceptions.InvalidOutputException;
+
+/**
+ * A prompt whose output is a JSON document generated by one of its steps, which
+ * is parsed while the step is being streamed. This has a few advantages over
+ * parsing the whole response at the end:
+ * <ul>
+ * 	<li>the fields of the output object are filled as soon as their values are complete, 
+ * 		and can be read with {@link #getPartial()} or intercepted with {@link #onField(String, Object)}</li>
+ * 	<li>the elements of arrays (either the root or a field of the root object) are passed 
+ * 		to {@link #onElement(String, int, Object)} as soon as they are complete, so that
+ * 		work on them can start before the end of the response</li>
+ * 	<li>the request is aborted as soon as the output can't be valid JSON, or can't be 
+ * 		mapped to the output type, failing with an {@link InvalidOutputException}</li>
+ * 	<li>the request is stopped as soon as the JSON document is complete, so
+ * 		no tokens are spent on any text the LLM adds after it</li>
+ * </ul>
+ * The step is always executed as a streaming request. Hooks are called on the 
+ * thread that receives the response, in the order the values are generated.
+ *
+ * @param <T>	the type the JSON document is deserialized to
+ */
+public abstract class StreamingJsonPrompt<T> extends Prompt<T> {
+	protected static final Gson gson = new Gson();
+	
+	/**
+	 * The fields of each output type by their name in the JSON document, computed
+	 * once per type and already made accessible
+	 */
+	private static final ClassValue<Map<String, Field>> typeFields = new ClassValue<>() {
+		@Override
+		protected Map<String, Field> computeValue(Class<?> type) {
+			Map<String, Field> fields = new HashMap<>();
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					// Skipped as by Gson
+					if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers()))
+						continue;
+					
+					try {
+						field.setAccessible(true);
+					} catch (RuntimeException e) {
+						// Not settable (e.g. a field of a JDK class): its value is only set by getOutput()
+						continue;
+					}
+					
+					SerializedName serializedName = field.getAnnotation(SerializedName.class);
+					fields.putIfAbsent(serializedName == null ? field.getName() : serializedName.value(), field);
+				}
+			}
+			return Map.copyOf(fields);
+		}
+	};
+	
+	private final Type type;
+	
+	private final String stepName;
+	
+	/**
+	 * The fields of the output type, by their name in the JSON document
+	 */
+	private final Map<String, Field> fields;
+	
+	private T partial;
+	
+	/**
+	 * Builds a prompt whose output is deserialized to the given class
+	 * @param type	the output type
+	 * @param stepName	the name of the step that generates the JSON document
+	 */
+	protected StreamingJsonPrompt(Class<T> type, String stepName) {
+		this((Type)type, stepName);
+	}
+	
+	/**
+	 * Builds a prompt whose output is deserialized to the given type, e.g. 
+	 * a parameterized type obtained with a Gson `TypeToken`
+	 * @param type	the output type
+	 * @param stepName	the name of the step that generates the JSON document
+	 */
+	protected StreamingJsonPrompt(Type type, String stepName) {
+		this.type = type;
+		this.stepName = stepName;
+		this.fields = typeFields.get(TypeToken.get(type).getRawType());
+	}
+	
+	@Override
+	public ChunkHandler getChunkHandler(PromptStepTemplate step) {
+		if (!step.getName().equals(stepName))
+			return null;
+		
+		StringBuilder output = new StringBuilder();
+		JsonStreamParser parser = new JsonStreamParser(2, (path, json) -> onValue(path, json, output));
+		return chunk -> {
+			output.append(chunk);
+			try {
+				parser.feed(chunk);
+			} catch (JsonParseException e) {
+				throw new InvalidOutputException(stepName, output.toString(), e.getMessage(), e);
+			}
+			
+			if (parser.isComplete())
+				throw new StopGenerationException();
+		};
+	}
+	
+	/**
+	 * Deserializes the JSON document generated by the step. Text around the document, 
+	 * such as a Markdown code block, is ignored.
+	 */
+	@Override
+	public T getOutput() {
+		String response = getStep(stepName)
+			.map(PromptStep::getResponse)
+			.orElseThrow(() -> new IllegalStateException("No step named `" + stepName + "` in prompt " + getName()));
+		
+		JsonStreamParser parser = new JsonStreamParser(0, (path, json) -> {});
+		try {
+			parser.feed(response);
+			if (!parser.isComplete())
+				throw new InvalidOutputException(stepName, response, "incomplete JSON document", null);
+			return gson.fromJson(parser.getJson(), type);
+		} catch (JsonParseException e) {
+			throw new InvalidOutputException(stepName, response, e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Returns the output object with the fields received so far, or null if the
+	 * step hasn't started generating an object yet
+	 * @return	the partially filled output object
+	 */
+	public T getPartial() {
+		return partial;
+	}
+	
+	/**
+	 * Called when the value of a field of the root object is complete, after
+	 * it has been set on the partial object
+	 * @param name	the name of the field, as in the JSON document
+	 * @param value	the deserialized value
+	 */
+	protected void onField(String name, Object value) {
+	}
+	
+	/**
+	 * Called when an element of an array is complete
+	 * @param field	the name of the field holding the array, or null if the array is the root
+	 * @param index	the index of the element
+	 * @param element	the deserialized element
+	 */
+	protected void onElement(String field, int index, Object element) {
+	}
+	
+	private void onValue(List<Object> path, String json, StringBuilder output) {
+		try {
+			if (path.size() == 1 && path.get(0) instanceof String) {
+				setField((String)path.get(0), json, output);
+			} else if (path.size() == 1) {
+				onElement(null, (Integer)path.get(0), gson.fromJson(json, elementType(type)));
+			} else if (path.size() == 2 && path.get(0) instanceof String && path.get(1) instanceof Integer) {
+				Field field = fields.get(path.get(0));
+				if (field != null)
+					onElement((String)path.get(0), (Integer)path.get(1), gson.fromJson(json, elementType(field.getGenericType())));
+			}
+		} catch (JsonParseException e) {
+			throw new InvalidOutputException(stepName, output.toString(), "can't deserialize " + json + " at " + path, e);
+		}
+	}
+	
+	private void setField(String name, String json, StringBuilder output) {
+		if (partial == null)
+			partial = gson.fromJson("{}", type);
+		
+		Field field = fields.get(name);
+		// Unknown fields are ignored, as when Gson deserializes the whole document
+		if (field == null)
+			return;
+		
+		Object value = gson.fromJson(json, field.getGenericType());
+		try {
+			field.set(partial, value);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			throw new InvalidOutputException(stepName, output.toString(), "can't set field " + field.getName(), e);
+		}
+		onField(name, value);
+	}
+	
+	/**
+	 * Returns the type of the elements of a collection or array type, Object if unknown
+	 */
+	private static Type elementType(Type type) {
+		if (type instanceof Class<?> && ((Class<?>)type).isArray())
+			return ((Class<?>)type).getComponentType();
+		if (type instanceof GenericArrayType)
+			return ((GenericArrayType)type).getGenericComponentType();
+		if (type instanceof ParameterizedType && Collection.class.isAssignableFrom(TypeToken.get(type).getRawType()))
+			return ((ParameterizedType)type).getActualTypeArguments()[0];
+		return Object.class;
+	}
+}
@@ -0,0 +1,192 @@
+package tech.ailef.jpromptmanager.ratelimit;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A client-side limiter that paces requests to stay within the limits of an LLM
+ * provider, instead of hitting them and waiting after an error. It enforces 
+ * (any combination of):
+ * <ul>
+ * 	<li>a maximum number of requests per minute;</li>
+ * 	<li>a maximum number of tokens per minute;</li>
+ * 	<li>a maximum number of requests in flight at the same time.</li>
+ * </ul>
+ * Callers are served in FIFO order. A single instance can be shared among
+ * multiple connectors that draw from the same quota.
+ */
+public class RateLimiter {
+	/**
+	 * Value to disable one of the limits
+	 */
+	public static final int UNLIMITED = 0;
+	
+	private final ReentrantLock lock = new ReentrantLock(true);
+	
+	private final TokenBucket requests;
+	
+	private final TokenBucket tokens;
+	
+	private final int maxInFlight;
+	
+	/**
+	 * The number of requests in flight, guarded by the `waiters` lock
+	 */
+	private int inFlight;
+	
+	/**
+	 * The callers waiting for an in-flight slot, in FIFO order
+	 */
+	private final Deque<CompletableFuture<Permit>> waiters = new ArrayDeque<>();
+	
+	/**
+	 * Builds a rate limiter with the given limits. Each limit can be 
+	 * disabled by passing {@link #UNLIMITED}.
+	 * @param requestsPerMinute	the maximum number of requests per minute
+	 * @param tokensPerMinute	the maximum number of tokens (prompt + completion) per minute
+	 * @param maxInFlight	the maximum number of requests in flight at the same time
+	 */
+	public RateLimiter(int requestsPerMinute, int tokensPerMinute, int maxInFlight) {
+		if (requestsPerMinute < 0 || tokensPerMinute < 0 || maxInFlight < 0)
+			throw new IllegalArgumentException("Rate limits cannot be negative");
+		
+		long now = System.nanoTime();
+		this.requests = requestsPerMinute == UNLIMITED ? null : new TokenBucket(requestsPerMinute, now);
+		this.tokens = tokensPerMinute == UNLIMITED ? null : new TokenBucket(tokensPerMinute, now);
+		this.maxInFlight = maxInFlight;
+	}
+	
+	/**
+	 * Waits until a request using the given number of tokens can be sent. The returned 
+	 * permit must be closed when the request completes, to release its in-flight slot.
+	 * @param estimatedTokens	the number of tokens the request is expected to use
+	 * @return	the permit for the request
+	 * @throws InterruptedException	if interrupted while waiting
+	 */
+	public Permit acquire(int estimatedTokens) throws InterruptedException {
+		long waitNanos = reserve(estimatedTokens);
+		if (waitNanos > 0)
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		
+		CompletableFuture<Permit> permit = new CompletableFuture<>();
+		acquireSlot(permit);
+		try {
+			return permit.get();
+		} catch (InterruptedException e) {
+			// The slot may have been granted in the meantime
+			if (!permit.cancel(false))
+				permit.join().close();
+			throw e;
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Returns a future that completes when a request using the given number of tokens
+	 * can be sent, without blocking any thread while waiting. The permit must be closed 
+	 * when the request completes; cancelling the future gives up the wait.
+	 * @param estimatedTokens	the number of tokens the request is expected to use
+	 * @param executor	the executor the future is completed on after a delay
+	 * @return	a future for the permit of the request
+	 */
+	public CompletableFuture<Permit> acquireAsync(int estimatedTokens, Executor executor) {
+		long waitNanos = reserve(estimatedTokens);
+		
+		CompletableFuture<Permit> permit = new CompletableFuture<>();
+		if (waitNanos > 0)
+			CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS, executor).execute(() -> acquireSlot(permit));
+		else
+			acquireSlot(permit);
+		return permit;
+	}
+	
+	/**
+	 * Reserves a request and the given number of tokens
+	 * @return	the number of nanoseconds to wait before sending the request
+	 */
+	private long reserve(int estimatedTokens) {
+		long waitNanos = 0;
+		
+		lock.lock();
+		try {
+			long now = System.nanoTime();
+			if (requests != null)
+				waitNanos = Math.max(waitNanos, requests.reserve(1, now));
+			if (tokens != null)
+				waitNanos = Math.max(waitNanos, tokens.reserve(estimatedTokens, now));
+		} finally {
+			lock.unlock();
+		}
+		return waitNanos;
+	}
+	
+	/**
+	 * Completes the future with a permit as soon as an in-flight slot is free
+	 */
+	private void acquireSlot(CompletableFuture<Permit> permit) {
+		if (maxInFlight == UNLIMITED) {
+			permit.complete(new Permit(null));
+			return;
+		}
+		
+		synchronized (waiters) {
+			if (permit.isDone())
+				return;
+			
+			if (inFlight == maxInFlight) {
+				waiters.add(permit);
+				return;
+			}
+			inFlight++;
+		}
+		
+		if (!permit.complete(new Permit(this)))
+			release();
+	}
+	
+	/**
+	 * Hands the slot of a completed request to the next waiter, if any
+	 */
+	private void release() {
+		while (true) {
+			CompletableFuture<Permit> next;
+			synchronized (waiters) {
+				next = waiters.poll();
+				if (next == null) {
+					inFlight--;
+					return;
+				}
+			}
+			
+			// Waiters that have been cancelled are skipped
+			if (next.complete(new Permit(this)))
+				return;
+		}
+	}
+	
+	/**
+	 * A permit to send a request, releasing its in-flight slot when closed.
+	 */
+	public static class Permit implements AutoCloseable {
+		private final RateLimiter limiter;
+		
+		private boolean closed = false;
+		
+		private Permit(RateLimiter limiter) {
+			this.limiter = limiter;
+		}
+		
+		@Override
+		public synchronized void close() {
+			if (!closed && limiter != null)
+				limiter.release();
+			closed = true;
+		}
+	}
+}
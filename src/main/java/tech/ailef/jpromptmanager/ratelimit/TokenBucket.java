@@ -0,0 +1,42 @@
+package tech.ailef.jpromptmanager.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that refills continuously at a fixed rate up to its capacity.
+ * Reservations are allowed to take the bucket below zero: the caller is then told how 
+ * long to wait before the debt is paid back, so that callers are served in the order
+ * they made their reservations. This class is not thread-safe, access is guarded by
+ * {@link RateLimiter}.
+ */
+class TokenBucket {
+	private final double capacity;
+	
+	private final double tokensPerNano;
+	
+	private double available;
+	
+	private long lastRefill;
+	
+	TokenBucket(long capacityPerMinute, long now) {
+		this.capacity = capacityPerMinute;
+		this.tokensPerNano = capacityPerMinute / (double)TimeUnit.MINUTES.toNanos(1);
+		this.available = capacity;
+		this.lastRefill = now;
+	}
+	
+	/**
+	 * Takes the given amount of tokens from the bucket
+	 * @param amount	the number of tokens to take
+	 * @param now	the current time in nanoseconds
+	 * @return	the number of nanoseconds to wait before the tokens can be used
+	 */
+	long reserve(double amount, long now) {
+		available = Math.min(capacity, available + (now - lastRefill) * tokensPerNano);
+		lastRefill = now;
+		
+		available -= amount;
+		
+		return available >= 0 ? 0 : (long)Math.ceil(-available / tokensPerNano);
+	}
+}
@@ -0,0 +1,176 @@
+package tech.ailef.jpromptmanager.retry;
+
+import java.time.Duration;
+
+/**
+ * Stops sending requests to an endpoint that keeps failing. The outcome of the last 
+ * requests is kept in a sliding window: when the failure rate over the window exceeds
+ * the threshold, the circuit opens and requests are refused for a cooldown period.
+ * After the cooldown, a single trial request is let through (half-open state): 
+ * the circuit closes if it succeeds and opens again if it fails.
+ * 
+ * Only failures that say something about the health of the endpoint should be 
+ * recorded as such (e.g. server errors, rate limits, timeouts); requests that are
+ * rejected because they're invalid should be recorded as successes.
+ */
+public class CircuitBreaker {
+	public enum State {
+		/**
+		 * Requests are allowed
+		 */
+		CLOSED,
+		/**
+		 * Requests are refused until the cooldown expires
+		 */
+		OPEN,
+		/**
+		 * A single trial request is allowed
+		 */
+		HALF_OPEN
+	}
+	
+	private final double failureRateThreshold;
+	
+	private final int minimumRequests;
+	
+	private final long openNanos;
+	
+	/**
+	 * The outcome of the last requests, true for failures
+	 */
+	private final boolean[] window;
+	
+	private int windowPosition;
+	
+	private int windowCount;
+	
+	private int windowFailures;
+	
+	private State state = State.CLOSED;
+	
+	private long openedAt;
+	
+	private boolean trialInFlight;
+	
+	/**
+	 * Builds a circuit breaker
+	 * @param failureRateThreshold	the failure rate (between 0 and 1) that opens the circuit
+	 * @param windowSize	the number of recent requests the failure rate is computed on
+	 * @param minimumRequests	the minimum number of requests in the window before the circuit can open
+	 * @param openDuration	how long the circuit stays open before a trial request
+	 */
+	public CircuitBreaker(double failureRateThreshold, int windowSize, int minimumRequests, Duration openDuration) {
+		if (failureRateThreshold <= 0 || failureRateThreshold > 1)
+			throw new IllegalArgumentException("failureRateThreshold must be in (0, 1], got " + failureRateThreshold);
+		if (windowSize <= 0)
+			throw new IllegalArgumentException("windowSize must be positive, got " + windowSize);
+		
+		this.failureRateThreshold = failureRateThreshold;
+		this.minimumRequests = Math.max(1, Math.min(minimumRequests, windowSize));
+		this.openNanos = openDuration.toNanos();
+		this.window = new boolean[windowSize];
+	}
+	
+	/**
+	 * Returns whether a request can be sent now. In the half-open state, this
+	 * reserves the trial request: the caller must then record its outcome.
+	 * @return	true if the request is allowed
+	 */
+	public synchronized boolean tryAcquire() {
+		if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+			state = State.HALF_OPEN;
+			trialInFlight = false;
+		}
+		
+		switch (state) {
+			case CLOSED:
+				return true;
+			case HALF_OPEN:
+				if (trialInFlight)
+					return false;
+				trialInFlight = true;
+				return true;
+			default:
+				return false;
+		}
+	}
+	
+	/**
+	 * Records a successful request
+	 */
+	public synchronized void onSuccess() {
+		if (state == State.HALF_OPEN) {
+			state = State.CLOSED;
+			resetWindow();
+			return;
+		}
+		record(false);
+	}
+	
+	/**
+	 * Records a failed request
+	 */
+	public synchronized void onFailure() {
+		if (state == State.HALF_OPEN) {
+			open();
+			return;
+		}
+		
+		record(true);
+		if (state == State.CLOSED && windowCount >= minimumRequests 
+				&& windowFailures >= failureRateThreshold * windowCount)
+			open();
+	}
+	
+	/**
+	 * Records a request that was abandoned before its outcome was known, 
+	 * releasing the trial request in the half-open state
+	 */
+	public synchronized void onCancelled() {
+		if (state == State.HALF_OPEN)
+			trialInFlight = false;
+	}
+	
+	/**
+	 * Returns the current state, without moving from open to half-open
+	 * @return	the state
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+	
+	/**
+	 * Returns the failure rate over the window
+	 * @return	the failure rate, between 0 and 1
+	 */
+	public synchronized double getFailureRate() {
+		return windowCount == 0 ? 0 : windowFailures / (double)windowCount;
+	}
+	
+	private void open() {
+		state = State.OPEN;
+		openedAt = System.nanoTime();
+		trialInFlight = false;
+		resetWindow();
+	}
+	
+	private void record(boolean failure) {
+		if (windowCount == window.length) {
+			if (window[windowPosition])
+				windowFailures--;
+		} else {
+			windowCount++;
+		}
+		
+		window[windowPosition] = failure;
+		if (failure)
+			windowFailures++;
+		windowPosition = (windowPosition + 1) % window.length;
+	}
+	
+	private void resetWindow() {
+		windowPosition = 0;
+		windowCount = 0;
+		windowFailures = 0;
+	}
+}
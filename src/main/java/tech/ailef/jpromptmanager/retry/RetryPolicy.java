@@ -0,0 +1,390 @@
+package tech.ailef.jpromptmanager.retry;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.exceptions.LLMRequestException;
+
+/**
+ * Defines how failed requests to the LLM are retried. Retries are spaced with
+ * exponential backoff and full jitter (i.e. a random delay between zero and the
+ * exponential bound), so that clients that failed together don't retry together.
+ * If the provider tells how long to wait (e.g. with a `Retry-After` header), that
+ * delay is used instead.
+ * 
+ * Only failures that are likely to be transient are retried: network errors and 
+ * the status codes returned by {@link #getRetryableStatusCodes()}. All retries
+ * must fit within a total deadline, measured from the first attempt.
+ * 
+ * Instances are immutable: the `with*` methods return modified copies.
+ */
+public class RetryPolicy {
+	private static final Logger logger = LogManager.getLogger(RetryPolicy.class);
+	
+	/**
+	 * Status codes that signal a transient failure: timeouts, conflicts, 
+	 * rate limits, server errors
+	 */
+	public static final Set<Integer> DEFAULT_RETRYABLE_STATUS_CODES = Set.of(408, 409, 429, 500, 502, 503, 504);
+	
+	private static final Pattern DURATION_COMPONENT = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+	
+	private final int maxRetries;
+	
+	private final Duration baseDelay;
+	
+	private final Duration maxDelay;
+	
+	private final Duration deadline;
+	
+	private final Set<Integer> retryableStatusCodes;
+	
+	/**
+	 * Builds the default policy: 3 retries, with delays starting from 500ms
+	 * and capped at 30 seconds, within a total deadline of 2 minutes.
+	 */
+	public RetryPolicy() {
+		this(3, Duration.ofMillis(500), Duration.ofSeconds(30), Duration.ofMinutes(2), DEFAULT_RETRYABLE_STATUS_CODES);
+	}
+	
+	private RetryPolicy(int maxRetries, Duration baseDelay, Duration maxDelay, Duration deadline, Set<Integer> retryableStatusCodes) {
+		if (maxRetries < 0)
+			throw new IllegalArgumentException("maxRetries cannot be negative, got " + maxRetries);
+		
+		this.maxRetries = maxRetries;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+		this.deadline = deadline;
+		this.retryableStatusCodes = Set.copyOf(retryableStatusCodes);
+	}
+	
+	/**
+	 * Returns a policy that never retries
+	 * @return	a policy with no retries
+	 */
+	public static RetryPolicy none() {
+		return new RetryPolicy().withMaxRetries(0);
+	}
+	
+	/**
+	 * Sets the maximum number of retries after the first attempt
+	 * @param maxRetries	the number of retries, 0 to never retry
+	 * @return	the modified policy
+	 */
+	public RetryPolicy withMaxRetries(int maxRetries) {
+		return new RetryPolicy(maxRetries, baseDelay, maxDelay, deadline, retryableStatusCodes);
+	}
+	
+	/**
+	 * Sets the delays used for exponential backoff: the n-th retry waits a random
+	 * time between zero and min(maxDelay, baseDelay * 2^n)
+	 * @param baseDelay	the upper bound of the delay before the first retry
+	 * @param maxDelay	the maximum delay before any retry
+	 * @return	the modified policy
+	 */
+	public RetryPolicy withBackoff(Duration baseDelay, Duration maxDelay) {
+		return new RetryPolicy(maxRetries, baseDelay, maxDelay, deadline, retryableStatusCodes);
+	}
+	
+	/**
+	 * Sets the total time allowed for all the attempts, measured from the first
+	 * one. No retry is made if it would start after the deadline.
+	 * @param deadline	the total deadline
+	 * @return	the modified policy
+	 */
+	public RetryPolicy withDeadline(Duration deadline) {
+		return new RetryPolicy(maxRetries, baseDelay, maxDelay, deadline, retryableStatusCodes);
+	}
+	
+	/**
+	 * Sets the HTTP status codes that are retried
+	 * @param retryableStatusCodes	the retryable status codes
+	 * @return	the modified policy
+	 */
+	public RetryPolicy withRetryableStatusCodes(Set<Integer> retryableStatusCodes) {
+		return new RetryPolicy(maxRetries, baseDelay, maxDelay, deadline, retryableStatusCodes);
+	}
+	
+	/**
+	 * Runs the given call, retrying it according to this policy. Failures are
+	 * first converted with the provided translator (e.g. to extract the status code 
+	 * from a client specific exception).
+	 * @param <T>	the return type of the call
+	 * @param call	the call to run
+	 * @param translator	converts the failures of the call to exceptions this policy can classify
+	 * @return	the result of the first successful attempt
+	 * @throws RuntimeException	the (translated) failure of the last attempt
+	 */
+	public <T> T execute(Callable<T> call, Function<Exception, RuntimeException> translator) {
+		return execute(call, translator, retry -> {});
+	}
+	
+	/**
+	 * Runs the given call, retrying it according to this policy, and notifies
+	 * the given callback before each retry. If the last attempt fails with a 
+	 * {@link LLMRequestException}, the number of retries performed is recorded on it.
+	 * @param <T>	the return type of the call
+	 * @param call	the call to run
+	 * @param translator	converts the failures of the call to exceptions this policy can classify
+	 * @param onRetry	called with the number of the retry (starting from 1) before it's performed
+	 * @return	the result of the first successful attempt
+	 * @throws RuntimeException	the (translated) failure of the last attempt
+	 */
+	public <T> T execute(Callable<T> call, Function<Exception, RuntimeException> translator, IntConsumer onRetry) {
+		long start = System.nanoTime();
+		int retries = 0;
+		
+		while (true) {
+			RuntimeException failure;
+			try {
+				return call.call();
+			} catch (Exception e) {
+				failure = translator.apply(e);
+			}
+			
+			long delayNanos = nextDelay(failure, retries, start);
+			if (delayNanos < 0)
+				throw failure;
+			
+			retries++;
+			onRetry.accept(retries);
+			
+			try {
+				TimeUnit.NANOSECONDS.sleep(delayNanos);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new JPromptManagerException("Interrupted while waiting to retry request", e);
+			}
+		}
+	}
+	
+	/**
+	 * Runs the given asynchronous call, retrying it according to this policy. Works like
+	 * {@link #execute(Callable, Function, IntConsumer)}, but no thread is blocked between
+	 * the attempts: retries are scheduled after the backoff delay.
+	 * @param <T>	the return type of the call
+	 * @param call	starts an attempt of the call
+	 * @param translator	converts the failures of the call to exceptions this policy can classify
+	 * @param onRetry	called with the number of the retry (starting from 1) before it's performed
+	 * @return	a future that completes with the result of the first successful attempt,
+	 * 	or with the (translated) failure of the last attempt
+	 */
+	public <T> CompletableFuture<T> executeAsync(Supplier<CompletableFuture<T>> call, 
+			Function<Exception, RuntimeException> translator, IntConsumer onRetry) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		attemptAsync(call, translator, onRetry, result, System.nanoTime(), 0);
+		return result;
+	}
+	
+	private <T> void attemptAsync(Supplier<CompletableFuture<T>> call, Function<Exception, RuntimeException> translator, 
+			IntConsumer onRetry, CompletableFuture<T> result, long start, int retries) {
+		if (result.isDone())
+			return;
+		
+		CompletableFuture<T> attempt;
+		try {
+			attempt = call.get();
+		} catch (RuntimeException e) {
+			attempt = CompletableFuture.failedFuture(e);
+		}
+		
+		// Cancelling the result also cancels the attempt in progress
+		CompletableFuture<T> current = attempt;
+		result.whenComplete((value, error) -> {
+			if (result.isCancelled())
+				current.cancel(true);
+		});
+		
+		attempt.whenComplete((value, error) -> {
+			if (error == null) {
+				result.complete(value);
+				return;
+			}
+			
+			Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+			if (!(cause instanceof Exception)) {
+				result.completeExceptionally(cause);
+				return;
+			}
+			
+			RuntimeException failure = translator.apply((Exception)cause);
+			long delayNanos = nextDelay(failure, retries, start);
+			if (delayNanos < 0) {
+				result.completeExceptionally(failure);
+				return;
+			}
+			
+			onRetry.accept(retries + 1);
+			CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS)
+				.execute(() -> attemptAsync(call, translator, onRetry, result, start, retries + 1));
+		});
+	}
+	
+	/**
+	 * Returns how long to wait before retrying after the given failure, or -1 if the
+	 * request must not be retried. Records the number of retries on the failure.
+	 */
+	private long nextDelay(RuntimeException failure, int retries, long start) {
+		if (failure instanceof LLMRequestException)
+			((LLMRequestException)failure).setRetries(retries);
+		
+		if (retries >= maxRetries || !isRetryable(failure))
+			return -1;
+		
+		long delayNanos = computeDelay(retries, failure);
+		long elapsed = System.nanoTime() - start;
+		if (elapsed + delayNanos > deadline.toNanos()) {
+			logger.warn("Not retrying failed request, deadline of " + deadline + " would be exceeded");
+			return -1;
+		}
+		
+		logger.warn("Request failed (" + failure.getMessage() + "), retry " + (retries + 1) + "/" + maxRetries 
+				+ " in " + TimeUnit.NANOSECONDS.toMillis(delayNanos) + "ms");
+		return delayNanos;
+	}
+	
+	/**
+	 * Returns whether the given failure is transient and should be retried
+	 * @param failure	the failure of a request
+	 * @return	true if the request should be retried
+	 */
+	public boolean isRetryable(Throwable failure) {
+		if (failure instanceof LLMRequestException) {
+			int statusCode = ((LLMRequestException)failure).getStatusCode();
+			if (statusCode != LLMRequestException.NO_STATUS)
+				return retryableStatusCodes.contains(statusCode);
+		}
+		
+		// Requests that didn't get a response are retried on network errors
+		for (Throwable t = failure; t != null; t = t.getCause()) {
+			if (t instanceof IOException)
+				return true;
+		}
+		return false;
+	}
+	
+	private long computeDelay(int retry, RuntimeException failure) {
+		if (failure instanceof LLMRequestException) {
+			Duration retryAfter = ((LLMRequestException)failure).getRetryAfter();
+			if (retryAfter != null)
+				return retryAfter.toNanos();
+		}
+		
+		long bound = baseDelay.toNanos() << Math.min(retry, 30);
+		if (bound <= 0 || bound > maxDelay.toNanos())
+			bound = maxDelay.toNanos();
+		
+		return ThreadLocalRandom.current().nextLong(bound + 1);
+	}
+	
+	/**
+	 * Extracts the delay requested by the provider from the headers of a response. 
+	 * The following headers are supported, in order of precedence:
+	 * <ul>
+	 * 	<li>`retry-after-ms`: milliseconds</li>
+	 * 	<li>`Retry-After`: seconds or HTTP date</li>
+	 * 	<li>`x-ratelimit-reset-requests` and `x-ratelimit-reset-tokens`: durations 
+	 * 	such as `1s`, `6m0s` or `20ms` (the longest of the two is used)</li>
+	 * </ul>
+	 * @param headers	a function returning the value of a header, or null if missing
+	 * @return	the requested delay, or null if none of the headers is present and valid
+	 */
+	public static Duration parseRetryAfter(Function<String, String> headers) {
+		String retryAfterMs = headers.apply("retry-after-ms");
+		if (retryAfterMs != null) {
+			try {
+				return Duration.ofMillis((long)Double.parseDouble(retryAfterMs.trim()));
+			} catch (NumberFormatException e) {
+				// Try the next header
+			}
+		}
+		
+		String retryAfter = headers.apply("Retry-After");
+		if (retryAfter != null) {
+			try {
+				return Duration.ofSeconds(Long.parseLong(retryAfter.trim()));
+			} catch (NumberFormatException e) {
+				try {
+					ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+					Duration delay = Duration.between(ZonedDateTime.now(date.getZone()), date);
+					return delay.isNegative() ? Duration.ZERO : delay;
+				} catch (DateTimeParseException e1) {
+					// Try the next header
+				}
+			}
+		}
+		
+		Duration requestsReset = parseResetDuration(headers.apply("x-ratelimit-reset-requests"));
+		Duration tokensReset = parseResetDuration(headers.apply("x-ratelimit-reset-tokens"));
+		if (requestsReset == null)
+			return tokensReset;
+		if (tokensReset == null)
+			return requestsReset;
+		return requestsReset.compareTo(tokensReset) >= 0 ? requestsReset : tokensReset;
+	}
+	
+	/**
+	 * Parses durations in the format used by the rate limit headers, e.g. `6m0s`
+	 */
+	private static Duration parseResetDuration(String value) {
+		if (value == null || value.isBlank())
+			return null;
+		
+		Matcher matcher = DURATION_COMPONENT.matcher(value.trim());
+		double millis = 0;
+		int end = 0;
+		while (matcher.find()) {
+			if (matcher.start() != end)
+				return null;
+			
+			double amount = Double.parseDouble(matcher.group(1));
+			switch (matcher.group(2)) {
+				case "h": millis += amount * 3_600_000; break;
+				case "m": millis += amount * 60_000; break;
+				case "s": millis += amount * 1000; break;
+				default: millis += amount;
+			}
+			end = matcher.end();
+		}
+		
+		return end == value.trim().length() && end > 0 ? Duration.ofMillis((long)Math.ceil(millis)) : null;
+	}
+	
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+	
+	public Duration getBaseDelay() {
+		return baseDelay;
+	}
+	
+	public Duration getMaxDelay() {
+		return maxDelay;
+	}
+	
+	public Duration getDeadline() {
+		return deadline;
+	}
+	
+	public Set<Integer> getRetryableStatusCodes() {
+		return retryableStatusCodes;
+	}
+}
@@ -0,0 +1,105 @@
+package tech.ailef.jpromptmanager.templating;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.thymeleaf.TemplateEngine;
+import org.thymeleaf.cache.StandardCacheManager;
+import org.thymeleaf.context.IContext;
+import org.thymeleaf.templateresolver.StringTemplateResolver;
+
+/**
+ * The compiled form of a step template, built once when prompts are loaded.
+ * 
+ * Templates that only use plain `[[${variable}]]` expressions are rendered
+ * by a lightweight interpolator that doesn't need to go through the templating
+ * engine, while all the others are processed by Thymeleaf, which keeps the
+ * parsed templates in a bounded cache. 
+ */
+public abstract class CompiledTemplate {
+	/**
+	 * Maximum number of parsed templates kept in the Thymeleaf cache
+	 */
+	public static final int TEMPLATE_CACHE_SIZE = 1000;
+	
+	/**
+	 * The shared templating engine, configured to cache parsed templates
+	 */
+	public static final TemplateEngine ENGINE = createEngine();
+	
+	private static final Pattern INLINE_EXPRESSION = 
+		Pattern.compile("\\[\\[\\$\\{\\s*([A-Za-z_][A-Za-z0-9_]*)\\s*\\}\\]\\]");
+	
+	/**
+	 * Character sequences that require the full templating engine if found 
+	 * outside of a plain inline expression
+	 */
+	private static final String[] ENGINE_MARKERS = { "[[", "[(", "<", ">", "&", "${", "*{", "#{", "@{", "~{" };
+	
+	protected final String source;
+	
+	protected CompiledTemplate(String source) {
+		this.source = source;
+	}
+	
+	/**
+	 * Replaces the variables in this template with the values from the given context
+	 * @param context	the variables for the template
+	 * @return	the rendered text
+	 */
+	public abstract String render(IContext context);
+	
+	/**
+	 * Returns the template text this object was compiled from
+	 * @return	the template text
+	 */
+	public String getSource() {
+		return source;
+	}
+	
+	/**
+	 * Compiles the given template text, choosing the lightweight interpolator
+	 * if the template only contains plain `[[${variable}]]` expressions.
+	 * @param template	the template text
+	 * @return	the compiled template
+	 */
+	public static CompiledTemplate compile(String template) {
+		List<String> literals = new ArrayList<>();
+		List<String> variables = new ArrayList<>();
+		
+		Matcher matcher = INLINE_EXPRESSION.matcher(template);
+		int last = 0;
+		while (matcher.find()) {
+			literals.add(template.substring(last, matcher.start()));
+			variables.add(matcher.group(1));
+			last = matcher.end();
+		}
+		literals.add(template.substring(last));
+		
+		for (String literal : literals) {
+			for (String marker : ENGINE_MARKERS) {
+				if (literal.contains(marker))
+					return new ThymeleafTemplate(template);
+			}
+		}
+		
+		return new InterpolatedTemplate(template, literals, variables);
+	}
+	
+	private static TemplateEngine createEngine() {
+		StringTemplateResolver resolver = new StringTemplateResolver();
+		// With string templates the template name is the text itself, so
+		// enabling the cache allows to parse each distinct template only once
+		resolver.setCacheable(true);
+		
+		StandardCacheManager cacheManager = new StandardCacheManager();
+		cacheManager.setTemplateCacheMaxSize(TEMPLATE_CACHE_SIZE);
+		
+		TemplateEngine engine = new TemplateEngine();
+		engine.setTemplateResolver(resolver);
+		engine.setCacheManager(cacheManager);
+		return engine;
+	}
+}
@@ -0,0 +1,91 @@
+package tech.ailef.jpromptmanager.templating;
+
+import java.util.List;
+
+import org.thymeleaf.context.IContext;
+
+/**
+ * A template that only contains plain `[[${variable}]]` expressions, rendered
+ * by concatenating its literal parts with the escaped values of the variables.
+ * The output is the same that Thymeleaf would produce for these templates; 
+ * values of types this class doesn't know how to convert are delegated
+ * to the full engine.
+ */
+class InterpolatedTemplate extends CompiledTemplate {
+	/**
+	 * The text between the expressions, always one element longer than `variables`
+	 */
+	private final String[] literals;
+	
+	private final String[] variables;
+	
+	private final int literalsLength;
+
+	InterpolatedTemplate(String source, List<String> literals, List<String> variables) {
+		super(source);
+		this.literals = literals.toArray(new String[0]);
+		this.variables = variables.toArray(new String[0]);
+		this.literalsLength = literals.stream().mapToInt(String::length).sum();
+	}
+
+	@Override
+	public String render(IContext context) {
+		if (variables.length == 0)
+			return literals[0];
+		
+		String[] values = new String[variables.length];
+		int length = literalsLength;
+		for (int i = 0; i < variables.length; i++) {
+			Object value = context.getVariable(variables[i]);
+			if (value == null) {
+				values[i] = "";
+			} else if (value instanceof CharSequence || value instanceof Number 
+					|| value instanceof Boolean || value instanceof Character || value instanceof Enum) {
+				values[i] = escape(value.toString());
+			} else {
+				return ENGINE.process(source, context);
+			}
+			length += values[i].length();
+		}
+		
+		StringBuilder builder = new StringBuilder(length);
+		for (int i = 0; i < variables.length; i++) {
+			builder.append(literals[i]).append(values[i]);
+		}
+		builder.append(literals[variables.length]);
+		
+		return builder.toString();
+	}
+	
+	/**
+	 * Escapes markup-significant characters the same way Thymeleaf does
+	 * when inlining text in HTML mode.
+	 */
+	private static String escape(String text) {
+		StringBuilder builder = null;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			String replacement;
+			switch (c) {
+				case '&': replacement = "&amp;"; break;
+				case '<': replacement = "&lt;"; break;
+				case '>': replacement = "&gt;"; break;
+				case '"': replacement = "&quot;"; break;
+				case '\'': replacement = "&#39;"; break;
+				default: replacement = null;
+			}
+			
+			if (replacement != null) {
+				if (builder == null) {
+					builder = new StringBuilder(text.length() + 16);
+					builder.append(text, 0, i);
+				}
+				builder.append(replacement);
+			} else if (builder != null) {
+				builder.append(c);
+			}
+		}
+		
+		return builder == null ? text : builder.toString();
+	}
+}
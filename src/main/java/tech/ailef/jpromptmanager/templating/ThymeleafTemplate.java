@@ -0,0 +1,18 @@
+package tech.ailef.jpromptmanager.templating;
+
+import org.thymeleaf.context.IContext;
+
+/**
+ * A template processed by the full Thymeleaf engine.
+ */
+class ThymeleafTemplate extends CompiledTemplate {
+
+	ThymeleafTemplate(String source) {
+		super(source);
+	}
+
+	@Override
+	public String render(IContext context) {
+		return ENGINE.process(source, context);
+	}
+}
@@ -0,0 +1,55 @@
+package tech.ailef.jpromptmanager.tokenizer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+
+/**
+ * A byte pair encoding tokenizer compatible with the OpenAI models (cl100k_base, 
+ * o200k_base, p50k_base and r50k_base encodings). It works offline, as the vocabularies
+ * are bundled in the jtokkit jar, and each of them is only loaded the first time
+ * it's used. Tokenizers are thread-safe and shared.
+ */
+public class BpeTokenizer implements Tokenizer {
+	private static final EncodingRegistry REGISTRY = Encodings.newLazyEncodingRegistry();
+	
+	private static final Map<String, BpeTokenizer> TOKENIZERS = new ConcurrentHashMap<>();
+	
+	private final Encoding encoding;
+	
+	private BpeTokenizer(Encoding encoding) {
+		this.encoding = encoding;
+	}
+	
+	/**
+	 * Returns the tokenizer for the given encoding
+	 * @param encodingName	the name of the encoding, e.g. cl100k_base
+	 * @return	the tokenizer
+	 * @throws JPromptManagerException	if the encoding doesn't exist
+	 */
+	public static BpeTokenizer forEncoding(String encodingName) {
+		return TOKENIZERS.computeIfAbsent(encodingName, name -> {
+			Encoding encoding = REGISTRY.getEncoding(name)
+				.orElseThrow(() -> new JPromptManagerException("Unknown tokenizer encoding " + name));
+			return new BpeTokenizer(encoding);
+		});
+	}
+	
+	/**
+	 * Counts the tokens in the given text. Special tokens (e.g. &lt;|endoftext|&gt;) 
+	 * are counted as ordinary text, as they would be by the API.
+	 */
+	@Override
+	public int countTokens(String text) {
+		return encoding.countTokensOrdinary(text);
+	}
+	
+	public String getEncodingName() {
+		return encoding.getName();
+	}
+}
@@ -0,0 +1,113 @@
+package tech.ailef.jpromptmanager.tokenizer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The tokenizer encoding and context window of a model. Models are looked
+ * up by the longest registered prefix of their name, so that dated snapshots
+ * (e.g. gpt-4-0613) match the family they belong to.
+ */
+public class ModelInfo {
+	private static final Map<String, ModelInfo> MODELS = new ConcurrentHashMap<>();
+	
+	static {
+		register("gpt-4o", "o200k_base", 128000);
+		register("gpt-4-turbo", "cl100k_base", 128000);
+		register("gpt-4-1106", "cl100k_base", 128000);
+		register("gpt-4-0125", "cl100k_base", 128000);
+		register("gpt-4-32k", "cl100k_base", 32768);
+		register("gpt-4", "cl100k_base", 8192);
+		register("gpt-3.5-turbo-instruct", "cl100k_base", 4096);
+		register("gpt-3.5-turbo-16k", "cl100k_base", 16385);
+		register("gpt-3.5-turbo-0301", "cl100k_base", 4096);
+		register("gpt-3.5-turbo-0613", "cl100k_base", 4096);
+		register("gpt-3.5-turbo", "cl100k_base", 16385);
+		register("davinci-002", "cl100k_base", 16384);
+		register("babbage-002", "cl100k_base", 16384);
+		register("text-davinci-003", "p50k_base", 4097);
+		register("text-davinci-002", "p50k_base", 4097);
+		register("code-davinci-002", "p50k_base", 8001);
+		register("text-curie-001", "r50k_base", 2049);
+		register("text-babbage-001", "r50k_base", 2049);
+		register("text-ada-001", "r50k_base", 2049);
+		register("davinci", "r50k_base", 2049);
+		register("curie", "r50k_base", 2049);
+		register("babbage", "r50k_base", 2049);
+		register("ada", "r50k_base", 2049);
+	}
+	
+	private final String model;
+	
+	private final String encoding;
+	
+	private final int contextWindow;
+	
+	private ModelInfo(String model, String encoding, int contextWindow) {
+		this.model = model;
+		this.encoding = encoding;
+		this.contextWindow = contextWindow;
+	}
+	
+	/**
+	 * Registers a model, or overrides the information about a known one
+	 * @param modelPrefix	the name of the model, which also matches all the models that start with it
+	 * @param encoding	the name of the tokenizer encoding, e.g. cl100k_base
+	 * @param contextWindow	the maximum number of tokens, prompt and completion included
+	 */
+	public static void register(String modelPrefix, String encoding, int contextWindow) {
+		if (contextWindow <= 0)
+			throw new IllegalArgumentException("contextWindow must be positive, got " + contextWindow);
+		MODELS.put(modelPrefix, new ModelInfo(modelPrefix, encoding, contextWindow));
+	}
+	
+	/**
+	 * Returns the information about the given model
+	 * @param model	the name of the model
+	 * @return	the model information, null if the model is unknown
+	 */
+	public static ModelInfo forModel(String model) {
+		if (model == null)
+			return null;
+		
+		ModelInfo exact = MODELS.get(model);
+		if (exact != null)
+			return exact;
+		
+		ModelInfo best = null;
+		for (ModelInfo info : MODELS.values()) {
+			if (model.startsWith(info.model) && (best == null || info.model.length() > best.model.length()))
+				best = info;
+		}
+		return best;
+	}
+	
+	/**
+	 * Returns the name (or prefix) this information was registered for
+	 * @return	the model name
+	 */
+	public String getModel() {
+		return model;
+	}
+	
+	/**
+	 * Returns the name of the tokenizer encoding used by the model
+	 * @return	the encoding name
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+	
+	/**
+	 * Returns the maximum number of tokens the model accepts, prompt and completion included
+	 * @return	the context window
+	 */
+	public int getContextWindow() {
+		return contextWindow;
+	}
+	
+	@Override
+	public String toString() {
+		return "ModelInfo [model=" + model + ", encoding=" + encoding + ", contextWindow=" + contextWindow + "]";
+	}
+}
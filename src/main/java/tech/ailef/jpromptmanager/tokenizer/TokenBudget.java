@@ -0,0 +1,156 @@
+package tech.ailef.jpromptmanager.tokenizer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import tech.ailef.jpromptmanager.completion.Conversation;
+import tech.ailef.jpromptmanager.completion.LLMRequest;
+import tech.ailef.jpromptmanager.completion.Message;
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.exceptions.PromptTooLongException;
+
+/**
+ * Fits requests in the context window of a model before they are sent. When the prompt
+ * leaves less room than `maxTokens` for the completion, `maxTokens` is lowered
+ * to the available space. When the prompt doesn't fit at all, the request is either
+ * rejected or, if the step has the `overflow="truncate"` attribute, the oldest steps
+ * of the history are dropped until it fits.
+ */
+public class TokenBudget {
+	private static final Logger logger = LogManager.getLogger(TokenBudget.class);
+
+	/**
+	 * The name of the step attribute that selects the {@link OverflowPolicy}
+	 */
+	public static final String OVERFLOW_PARAM = "overflow";
+
+	/**
+	 * The name of the step attribute with the minimum number of tokens to leave
+	 * for the completion, default 1
+	 */
+	public static final String MIN_TOKENS_PARAM = "minTokens";
+
+	/**
+	 * What to do with requests whose prompt doesn't fit in the context window
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Fail with a {@link PromptTooLongException}
+		 */
+		REJECT,
+		/**
+		 * Drop the oldest steps of the history, keeping the current one
+		 */
+		TRUNCATE
+	}
+
+	private final int contextWindow;
+
+	private final ToIntFunction<LLMRequest> counter;
+
+	/**
+	 * Builds a budget for a model
+	 * @param contextWindow	the maximum number of tokens, prompt and completion included
+	 * @param counter	counts the prompt tokens of a request, as it will be sent to the model
+	 */
+	public TokenBudget(int contextWindow, ToIntFunction<LLMRequest> counter) {
+		this.contextWindow = contextWindow;
+		this.counter = counter;
+	}
+
+	/**
+	 * Returns a request that fits in the context window: the given request if it already
+	 * fits, otherwise a copy with a lower `maxTokens` and, if allowed, a truncated history.
+	 * @param request	the request
+	 * @return	a request that fits the context window
+	 * @throws PromptTooLongException	if the prompt doesn't fit and can't be truncated
+	 */
+	public LLMRequest fit(LLMRequest request) {
+		Map<String, String> params = request.getParams();
+		int maxTokens = parseInt(params, "maxTokens", 0);
+		int minTokens = Math.max(1, Math.min(maxTokens, parseInt(params, MIN_TOKENS_PARAM, 1)));
+
+		int promptTokens = counter.applyAsInt(request);
+		if (promptTokens + maxTokens <= contextWindow)
+			return request;
+
+		LLMRequest fitted = request;
+		if (contextWindow - promptTokens < minTokens) {
+			if (getOverflowPolicy(params) == OverflowPolicy.REJECT)
+				throw new PromptTooLongException(promptTokens, contextWindow);
+
+			Conversation conversation = request.getConversation();
+			int originalSize = conversation.size();
+			while (contextWindow - promptTokens < minTokens) {
+				conversation = dropFirstStep(conversation);
+				if (conversation == null)
+					throw new PromptTooLongException(promptTokens, contextWindow);
+
+				fitted = new LLMRequest(conversation, params, request.getChunkHandler());
+				promptTokens = counter.applyAsInt(fitted);
+			}
+
+			logger.warn("Dropped " + (originalSize - conversation.size()) + " messages from the history to fit the "
+					+ "context window of " + contextWindow + " tokens");
+		}
+
+		int clampedMaxTokens = Math.min(maxTokens, contextWindow - promptTokens);
+		if (clampedMaxTokens < maxTokens) {
+			logger.info("Lowering maxTokens from " + maxTokens + " to " + clampedMaxTokens + " to fit the context window"
+					+ " of " + contextWindow + " tokens (prompt is " + promptTokens + " tokens)");
+
+			Map<String, String> clampedParams = new HashMap<>(params);
+			clampedParams.put("maxTokens", String.valueOf(clampedMaxTokens));
+			fitted = new LLMRequest(fitted.getConversation(), clampedParams, request.getChunkHandler());
+		}
+
+		return fitted;
+	}
+
+	public int getContextWindow() {
+		return contextWindow;
+	}
+
+	/**
+	 * Removes the first step (the oldest user message and the response to it) from
+	 * the conversation. The last message is never removed.
+	 * @return	the truncated conversation, or null if there's nothing left to remove
+	 */
+	private static Conversation dropFirstStep(Conversation conversation) {
+		List<Message> messages = conversation.getMessages();
+		int start = 1;
+		while (start < messages.size() - 1 && messages.get(start).getRole() != Message.Role.USER)
+			start++;
+
+		if (start >= messages.size())
+			return null;
+
+		Conversation truncated = Conversation.empty();
+		for (Message message : messages.subList(start, messages.size()))
+			truncated = truncated.append(message);
+		return truncated;
+	}
+
+	private static OverflowPolicy getOverflowPolicy(Map<String, String> params) {
+		String value = params.get(OVERFLOW_PARAM);
+		if (value == null)
+			return OverflowPolicy.REJECT;
+
+		try {
+			return OverflowPolicy.valueOf(value.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new JPromptManagerException("Invalid value for `" + OVERFLOW_PARAM + "`: " + value
+					+ ", expected reject or truncate");
+		}
+	}
+
+	private static int parseInt(Map<String, String> params, String name, int defaultValue) {
+		String value = params.get(name);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+}
@@ -0,0 +1,57 @@
+package tech.ailef.jpromptmanager.tokenizer;
+
+import java.util.List;
+
+import tech.ailef.jpromptmanager.completion.Conversation;
+import tech.ailef.jpromptmanager.completion.Message;
+
+/**
+ * Counts the tokens in a text the same way the LLM does, so that prompt lengths
+ * can be checked and accounted for before sending a request.
+ */
+public interface Tokenizer {
+	/**
+	 * Returns the number of tokens in the given text
+	 * @param text	the text
+	 * @return	the number of tokens
+	 */
+	public int countTokens(String text);
+	
+	/**
+	 * Returns the number of tokens in the messages of a conversation, without
+	 * any overhead for the formatting of the messages. The count of each message
+	 * is cached on the message.
+	 * @param conversation	the conversation
+	 * @return	the number of tokens
+	 */
+	public default int countTokens(Conversation conversation) {
+		int tokens = 0;
+		for (Message message : conversation.getMessages())
+			tokens += message.countTokens(this);
+		return tokens;
+	}
+	
+	/**
+	 * Returns the number of prompt tokens used by the given messages when sent to
+	 * a chat completion endpoint, which adds a few tokens for each message to mark 
+	 * its role and boundaries, and a few more to prime the response.
+	 * @param messages	the messages, as sent to the endpoint
+	 * @return	the number of prompt tokens
+	 */
+	public default int countChatTokens(List<Message> messages) {
+		int tokens = 3;
+		for (Message message : messages)
+			tokens += 3 + countTokens(message.getRole().getValue()) + message.countTokens(this);
+		return tokens;
+	}
+	
+	/**
+	 * Returns the tokenizer for the given model
+	 * @param model	the name of the model, e.g. gpt-3.5-turbo
+	 * @return	the tokenizer, or null if the model is unknown (see {@link ModelInfo#register(String, String, int)})
+	 */
+	public static Tokenizer forModel(String model) {
+		ModelInfo info = ModelInfo.forModel(model);
+		return info == null ? null : BpeTokenizer.forEncoding(info.getEncoding());
+	}
+}
@@ -0,0 +1,69 @@
+package tech.ailef.jpromptmanager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+
+class PromptTemplateTest {
+	private static PromptStepTemplate step(String name, String... params) {
+		return new PromptStepTemplate(name, "Text of " + name, params.length == 0 ? Map.of() : Map.of(params[0], params[1]));
+	}
+	
+	@Test
+	void stepsDependOnAllPreviousByDefault() {
+		PromptTemplate template = new PromptTemplate(List.of(step("a"), step("b"), step("c")));
+		
+		assertTrue(template.isSequential());
+		assertEquals(List.of(), template.getDependencies(0));
+		assertEquals(List.of(0, 1), template.getDependencies(2));
+		assertEquals(List.of(0, 1), template.getHistory(2));
+	}
+	
+	@Test
+	void historyIncludesTransitiveDependencies() {
+		PromptTemplate template = new PromptTemplate(List.of(
+				step("a"),
+				step("b", "independent", "true"),
+				step("c", "dependsOn", "a"),
+				step("d", "dependsOn", "c, b")));
+		
+		assertFalse(template.isSequential());
+		assertEquals(List.of(), template.getDependencies(1));
+		assertEquals(List.of(0), template.getHistory(2));
+		assertEquals(List.of(1, 2), template.getDependencies(3));
+		assertEquals(List.of(0, 1, 2), template.getHistory(3));
+	}
+	
+	@Test
+	void explicitFullHistoryIsSequential() {
+		PromptTemplate template = new PromptTemplate(List.of(
+				step("a"),
+				step("b", "dependsOn", "a"),
+				step("c", "dependsOn", "b")));
+		
+		assertTrue(template.isSequential());
+		assertEquals(List.of(1), template.getDependencies(2));
+		assertEquals(List.of(0, 1), template.getHistory(2));
+	}
+	
+	@Test
+	void rejectsUnknownOrLaterDependencies() {
+		assertThrows(JPromptManagerException.class, () -> new PromptTemplate(List.of(step("a", "dependsOn", "missing"))));
+		assertThrows(JPromptManagerException.class, () -> new PromptTemplate(List.of(step("a", "dependsOn", "b"), step("b"))));
+		assertThrows(JPromptManagerException.class, () -> new PromptTemplate(List.of(step("a", "dependsOn", "a"))));
+	}
+	
+	@Test
+	void rejectsIndependentStepWithDependencies() {
+		assertThrows(JPromptManagerException.class, () -> new PromptStepTemplate("a", "Text",
+				Map.of("independent", "true", "dependsOn", "b")));
+	}
+}
@@ -0,0 +1,182 @@
+package tech.ailef.jpromptmanager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import tech.ailef.jpromptmanager.completion.StopGenerationException;
+import tech.ailef.jpromptmanager.exceptions.InvalidOutputException;
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.prompts.OutputValidator;
+
+class StepGuardTest {
+	private final StringBuilder received = new StringBuilder();
+	
+	private StepGuard guard(Map<String, String> params) {
+		return StepGuard.forStep(new PromptStepTemplate("answer", "Question", params), new JPromptManagerOptions(), received::append);
+	}
+	
+	/**
+	 * Feeds the chunks until the guard stops the generation
+	 * @return	whether the generation was stopped
+	 */
+	private static boolean stream(StepGuard guard, String... chunks) {
+		for (String chunk : chunks) {
+			try {
+				guard.onChunk(chunk);
+			} catch (StopGenerationException e) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	@Test
+	void noGuardWithoutAttributes() {
+		assertNull(guard(Map.of()));
+	}
+	
+	@Test
+	void stopsAtStopSequenceAcrossChunks() {
+		StepGuard guard = guard(Map.of("stop", "END"));
+		
+		assertTrue(stream(guard, "ab", "cE", "N", "Dxyz", "ignored"));
+		assertEquals("abc", received.toString());
+		assertEquals("abc", guard.finish("abcENDxyz"));
+	}
+	
+	@Test
+	void holdsBackStopPrefixUntilItDiverges() {
+		StepGuard guard = guard(Map.of("stop", "END"));
+		
+		assertFalse(stream(guard, "xE"));
+		assertEquals("x", received.toString());
+		assertFalse(stream(guard, "Ny"));
+		assertEquals("xENy", received.toString());
+		assertEquals("xENyEN", guard.finish("xENyEN"));
+		assertEquals("xENyEN", received.toString());
+	}
+	
+	@Test
+	void stopsAtMaxCharsAcrossChunks() {
+		StepGuard guard = guard(Map.of("maxChars", "5"));
+		
+		assertFalse(stream(guard, "abc"));
+		assertTrue(stream(guard, "defg"));
+		assertEquals("abcde", received.toString());
+		assertEquals("abcde", guard.finish("abcdefg"));
+	}
+	
+	@Test
+	void cutsAtEarliestOfStopAndMaxChars() {
+		assertEquals("ab", guard(Map.of("stop", "\\n", "maxChars", "5")).finish("ab\ncdefg"));
+		assertEquals("abcde", guard(Map.of("stop", "\\n", "maxChars", "5")).finish("abcdefg\n"));
+	}
+	
+	@Test
+	void stopsWhenValidatorFindsOutputComplete() {
+		StepGuard guard = guard(Map.of("validate", "regex:\\d{4}"));
+		
+		assertFalse(stream(guard, " 19"));
+		assertTrue(stream(guard, "85"));
+		assertEquals(" 1985", received.toString());
+		assertEquals(" 1985", guard.finish(" 1985"));
+	}
+	
+	@Test
+	void abortsWhenValidatorFindsOutputInvalid() {
+		StepGuard guard = guard(Map.of("validate", "regex:\\d{4}"));
+		
+		assertThrows(InvalidOutputException.class, () -> stream(guard, "The year"));
+		assertEquals("", received.toString());
+	}
+	
+	@Test
+	void validatesJsonAcrossChunks() {
+		StepGuard guard = guard(Map.of("validate", "json"));
+		
+		assertFalse(stream(guard, "{\"a\": [1", ", 2]"));
+		assertTrue(stream(guard, "} and more"));
+		assertEquals("{\"a\": [1, 2]} and more", guard.finish("{\"a\": [1, 2]} and more"));
+		assertThrows(InvalidOutputException.class, () -> stream(guard(Map.of("validate", "json")), "{\"a\": [1", ", 2}"));
+	}
+	
+	@Test
+	void validatorDoesntSeeStopPrefix() {
+		StepGuard guard = guard(Map.of("stop", "END", "validate", "regex:[a-c]+"));
+		
+		assertFalse(stream(guard, "ab", "cE"));
+		assertTrue(stream(guard, "ND"));
+		assertEquals("abc", guard.finish("abcEND"));
+	}
+	
+	@Test
+	void ignoresEmptyChunks() {
+		StepGuard validated = guard(Map.of("validate", "json"));
+		assertFalse(stream(validated, "", "{\"a\":", "", " 1"));
+		assertTrue(stream(validated, "}"));
+		
+		StepGuard stopped = guard(Map.of("stop", "END"));
+		assertFalse(stream(stopped, "", "abE", ""));
+		assertTrue(stream(stopped, "ND"));
+		assertEquals("{\"a\": 1}ab", received.toString());
+	}
+	
+	@Test
+	void acceptsEmptyResponse() {
+		StepGuard guard = guard(Map.of("maxChars", "10"));
+		
+		assertFalse(stream(guard, ""));
+		assertEquals("", guard.finish(""));
+		assertThrows(InvalidOutputException.class, () -> {
+			StepGuard validated = guard(Map.of("validate", "json"));
+			stream(validated, "");
+			validated.finish("");
+		});
+	}
+	
+	@Test
+	void appliesRulesToNonStreamedResponse() {
+		StepGuard guard = StepGuard.forStep(new PromptStepTemplate("answer", "Question", Map.of("stop", "\\n")),
+				new JPromptManagerOptions(), null);
+		
+		assertNull(guard.getChunkHandler());
+		assertEquals("first", guard.finish("first\nsecond"));
+	}
+	
+	@Test
+	void streamsOnlyWhenNeeded() {
+		StepGuard validated = StepGuard.forStep(new PromptStepTemplate("answer", "Question", Map.of("validate", "json")),
+				new JPromptManagerOptions(), null);
+		StepGuard observed = guard(Map.of("maxChars", "10"));
+		
+		assertSame(validated, validated.getChunkHandler());
+		assertSame(observed, observed.getChunkHandler());
+	}
+	
+	@Test
+	void validatesNonStreamedResponse() {
+		StepGuard guard = guard(Map.of("validate", "regex:\\d{4}"));
+		
+		assertEquals("2023\n", guard.finish("2023\n"));
+		assertThrows(InvalidOutputException.class, () -> guard(Map.of("validate", "regex:\\d{4}")).finish("20230"));
+	}
+	
+	@Test
+	void resolvesRegisteredValidators() {
+		JPromptManagerOptions options = new JPromptManagerOptions()
+				.withValidator("short", OutputValidator.of(answer -> answer.length() < 5));
+		PromptStepTemplate step = new PromptStepTemplate("answer", "Question", Map.of("validate", "short"));
+		
+		assertEquals("abc", StepGuard.forStep(step, options, null).finish("abc"));
+		assertThrows(InvalidOutputException.class, () -> StepGuard.forStep(step, options, null).finish("abcdef"));
+		assertThrows(JPromptManagerException.class, () -> StepGuard.forStep(step, new JPromptManagerOptions(), null));
+	}
+}
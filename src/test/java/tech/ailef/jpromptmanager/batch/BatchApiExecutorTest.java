@@ -0,0 +1,232 @@
+package tech.ailef.jpromptmanager.batch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.thymeleaf.context.IContext;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import tech.ailef.jpromptmanager.JPromptManager;
+import tech.ailef.jpromptmanager.PromptContextBuilder;
+import tech.ailef.jpromptmanager.completion.BatchableLLMConnector;
+import tech.ailef.jpromptmanager.completion.LLMRequest;
+import tech.ailef.jpromptmanager.completion.LLMResponse;
+import tech.ailef.jpromptmanager.completion.Message;
+import tech.ailef.jpromptmanager.exceptions.LLMRequestException;
+import tech.ailef.jpromptmanager.prompts.MultiStepStringPrompt;
+
+class BatchApiExecutorTest {
+	public static class Trip extends MultiStepStringPrompt {}
+	
+	/**
+	 * Answers each step with its own question, and the last step with the answer it depends on.
+	 * Requests about Atlantis fail.
+	 */
+	private static class FakeConnector implements BatchableLLMConnector {
+		@Override
+		public LLMResponse execute(LLMRequest request) {
+			List<Message> messages = request.getConversation().getMessages();
+			String question = messages.get(messages.size() - 1).getContent();
+			if (question.contains("Atlantis"))
+				throw new LLMRequestException("Unknown country", 400, null, null);
+			if (question.equals("Name a sight in the capital"))
+				return new LLMResponse("sight in " + messages.get(messages.size() - 2).getContent());
+			return new LLMResponse(question.replace("Name the ", ""));
+		}
+		
+		@Override
+		public String complete(String prompt, Map<String, String> params) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public Map<String, String> getDefaultParams() {
+			return new HashMap<>(Map.of("temperature", "0"));
+		}
+		
+		@Override
+		public String getBatchEndpoint() {
+			return "/v1/chat/completions";
+		}
+		
+		@Override
+		public String toBatchBody(LLMRequest request) {
+			JsonArray messages = new JsonArray();
+			for (Message message : request.getConversation().getMessages()) {
+				JsonObject json = new JsonObject();
+				json.addProperty("role", message.getRole().getValue());
+				json.addProperty("content", message.getContent());
+				messages.add(json);
+			}
+			
+			JsonObject body = new JsonObject();
+			body.addProperty("model", "fake");
+			body.addProperty("temperature", request.getParams().get("temperature"));
+			body.add("messages", messages);
+			return body.toString();
+		}
+		
+		@Override
+		public LLMResponse fromBatchBody(String body) {
+			JsonObject choice = JsonParser.parseString(body).getAsJsonObject().getAsJsonArray("choices").get(0).getAsJsonObject();
+			return new LLMResponse(choice.getAsJsonObject("message").get("content").getAsString());
+		}
+	}
+	
+	/**
+	 * Records the requests of each submitted batch, and leaves some results out of the output files
+	 */
+	private static class RecordingBackend implements BatchBackend {
+		private final LocalBatchBackend local;
+		
+		private final Set<String> dropped;
+		
+		private final List<List<String>> batches = new ArrayList<>();
+		
+		private RecordingBackend(LocalBatchBackend local, Set<String> dropped) {
+			this.local = local;
+			this.dropped = dropped;
+		}
+		
+		@Override
+		public String submit(Path input, String endpoint) {
+			batches.add(read(input).stream().map(RecordingBackend::customId).collect(Collectors.toList()));
+			return local.submit(input, endpoint);
+		}
+		
+		@Override
+		public Status getStatus(String batchId) {
+			return local.getStatus(batchId);
+		}
+		
+		@Override
+		public void download(String batchId, Path output) {
+			local.download(batchId, output);
+			List<String> kept = read(output).stream()
+				.filter(line -> !dropped.contains(customId(line)))
+				.collect(Collectors.toList());
+			try {
+				Files.write(output, kept, StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		private static List<String> read(Path file) {
+			try {
+				return Files.readAllLines(file, StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		private static String customId(String line) {
+			return JsonParser.parseString(line).getAsJsonObject().get("custom_id").getAsString();
+		}
+	}
+	
+	private final FakeConnector connector = new FakeConnector();
+	
+	private JPromptManager jPrompt;
+	
+	private Path workDirectory;
+	
+	@BeforeEach
+	void setUp(@TempDir Path dir) throws IOException {
+		Path prompts = dir.resolve("prompts.xml");
+		Files.writeString(prompts, "<prompts>\n"
+				+ "\t<prompt type=\"Trip\">\n"
+				+ "\t\t<step name=\"capital\">\n"
+				+ "\t\t\tName the capital of [[${country}]]\n"
+				+ "\t\t</step>\n"
+				+ "\t\t<step name=\"language\" independent=\"true\">\n"
+				+ "\t\t\tName the language of [[${country}]]\n"
+				+ "\t\t</step>\n"
+				+ "\t\t<step name=\"sight\" dependsOn=\"capital\">\n"
+				+ "\t\t\tName a sight in the capital\n"
+				+ "\t\t</step>\n"
+				+ "\t</prompt>\n"
+				+ "</prompts>\n");
+		jPrompt = new JPromptManager(connector, prompts);
+		workDirectory = dir.resolve("batches");
+	}
+	
+	private BatchApiExecutor<Map<String, String>> executor(BatchBackend backend) {
+		return new BatchApiExecutor<>(jPrompt, Trip.class, connector, backend)
+			.withWorkDirectory(workDirectory)
+			.withPollInterval(Duration.ZERO);
+	}
+	
+	private static List<IContext> contexts(String... countries) {
+		List<IContext> contexts = new ArrayList<>();
+		for (String country : countries)
+			contexts.add(new PromptContextBuilder().set("country", country).build());
+		return contexts;
+	}
+	
+	@Test
+	void completesStepsInWaves() {
+		RecordingBackend backend = new RecordingBackend(new LocalBatchBackend(connector), Set.of());
+		
+		BatchResult<Map<String, String>> result = executor(backend).completeAll(contexts("Italy", "France"));
+		
+		assertEquals(List.of(
+				Map.of("capital", "capital of Italy", "language", "language of Italy", "sight", "sight in capital of Italy"),
+				Map.of("capital", "capital of France", "language", "language of France", "sight", "sight in capital of France")),
+				result.getOutputs());
+		// The independent steps share the first round, the dependent step waits for it
+		assertEquals(List.of(List.of("0-0", "0-1", "1-0", "1-1"), List.of("0-2", "1-2")), backend.batches);
+	}
+	
+	@Test
+	void recordsErrorsPerItem() {
+		RecordingBackend backend = new RecordingBackend(new LocalBatchBackend(connector), Set.of("2-2"));
+		
+		BatchResult<Map<String, String>> result = executor(backend).completeAll(contexts("Italy", "Atlantis", "France"));
+		
+		assertEquals("sight in capital of Italy", result.getOutputs().get(0).get("sight"));
+		
+		LLMRequestException failed = (LLMRequestException)result.getItems().get(1).getError();
+		assertEquals(400, failed.getStatusCode());
+		assertNull(result.getOutputs().get(1));
+		
+		LLMRequestException missing = (LLMRequestException)result.getItems().get(2).getError();
+		assertTrue(missing.getMessage().contains("No result for step `sight`"), missing.getMessage());
+		assertNull(result.getOutputs().get(2));
+		
+		// The steps of the failed item are not submitted again
+		assertEquals(List.of(List.of("0-0", "0-1", "1-0", "1-1", "2-0", "2-1"), List.of("0-2", "2-2")), backend.batches);
+	}
+	
+	@Test
+	void splitsLargeRounds() {
+		RecordingBackend backend = new RecordingBackend(new LocalBatchBackend(connector), Set.of());
+		
+		BatchResult<Map<String, String>> result = executor(backend).withMaxBatchSize(4)
+			.completeAll(contexts("Italy", "France", "Spain"));
+		
+		assertEquals(3, result.getSuccesses().size());
+		assertEquals(List.of(List.of("0-0", "0-1", "1-0", "1-1"), List.of("2-0", "2-1"), List.of("0-2", "1-2", "2-2")),
+				backend.batches);
+	}
+}
@@ -0,0 +1,197 @@
+package tech.ailef.jpromptmanager.batch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.thymeleaf.context.IContext;
+
+import tech.ailef.jpromptmanager.JPromptManager;
+import tech.ailef.jpromptmanager.PromptContextBuilder;
+import tech.ailef.jpromptmanager.batch.PackingExecutor.Format;
+import tech.ailef.jpromptmanager.completion.LLMConnector;
+import tech.ailef.jpromptmanager.completion.LLMRequest;
+import tech.ailef.jpromptmanager.completion.LLMResponse;
+import tech.ailef.jpromptmanager.exceptions.InvalidOutputException;
+import tech.ailef.jpromptmanager.prompts.SingleStepStringPrompt;
+
+class PackingExecutorTest {
+	public static class Capital extends SingleStepStringPrompt {}
+	
+	public static class ShortCapital extends SingleStepStringPrompt {}
+	
+	/**
+	 * Answers packed requests with a fixed response, and single requests with the country
+	 */
+	private static class FakeConnector implements LLMConnector {
+		private static final Pattern COUNTRY = Pattern.compile("capital of (\\w+)");
+		
+		private volatile String packedResponse;
+		
+		private volatile boolean rejectPacked;
+		
+		private final AtomicInteger singleRequests = new AtomicInteger();
+		
+		@Override
+		public String complete(String prompt, Map<String, String> params) {
+			if (prompt.contains("Complete each of the following"))
+				return packedResponse;
+			
+			singleRequests.incrementAndGet();
+			Matcher matcher = COUNTRY.matcher(prompt);
+			return matcher.find() ? "single " + matcher.group(1) : "";
+		}
+		
+		@Override
+		public CompletableFuture<LLMResponse> executeAsync(LLMRequest request, Executor executor) {
+			if (rejectPacked && request.getPrompt().contains("Complete each of the following"))
+				throw new IllegalStateException("Rejected");
+			return LLMConnector.super.executeAsync(request, executor);
+		}
+		
+		@Override
+		public Map<String, String> getDefaultParams() {
+			return new HashMap<>(Map.of("temperature", "0"));
+		}
+	}
+	
+	private final FakeConnector connector = new FakeConnector();
+	
+	private JPromptManager jPrompt;
+	
+	@BeforeEach
+	void setUp(@TempDir Path dir) throws IOException {
+		Path prompts = dir.resolve("prompts.xml");
+		Files.writeString(prompts, "<prompts>\n"
+				+ "\t<prompt type=\"Capital\">\n"
+				+ "\t\t<step name=\"capital\">\n"
+				+ "\t\t\tName the capital of [[${country}]]\n"
+				+ "\t\t</step>\n"
+				+ "\t</prompt>\n"
+				+ "\t<prompt type=\"ShortCapital\">\n"
+				+ "\t\t<step name=\"capital\" maxChars=\"4\" validate=\"regex:[A-Z][a-z]+\">\n"
+				+ "\t\t\tName the capital of [[${country}]]\n"
+				+ "\t\t</step>\n"
+				+ "\t</prompt>\n"
+				+ "</prompts>\n");
+		jPrompt = new JPromptManager(connector, prompts);
+	}
+	
+	private static List<IContext> contexts(String... countries) {
+		List<IContext> contexts = new ArrayList<>();
+		for (String country : countries)
+			contexts.add(new PromptContextBuilder().set("country", country).build());
+		return contexts;
+	}
+	
+	@Test
+	void splitsNumberedList() {
+		connector.packedResponse = "1. Rome\n2. Paris,\non the Seine\n3) Madrid";
+		PackingExecutor<String> executor = new PackingExecutor<>(jPrompt, Capital.class, 10);
+		
+		BatchResult<String> result = executor.completeAll(contexts("Italy", "France", "Spain"));
+		
+		assertEquals(List.of("Rome", "Paris,\non the Seine", "Madrid"), result.getOutputs());
+		assertEquals(1, executor.getPacks());
+		assertEquals(0, executor.getFallbacks());
+		assertEquals(0, connector.singleRequests.get());
+	}
+	
+	@Test
+	void ignoresTextBeforeFirstItem() {
+		connector.packedResponse = "Here are the answers:\n1. Rome\n2. Paris";
+		PackingExecutor<String> executor = new PackingExecutor<>(jPrompt, Capital.class, 10);
+		
+		assertEquals(List.of("Rome", "Paris"), executor.completeAll(contexts("Italy", "France")).getOutputs());
+	}
+	
+	@Test
+	void treatsOutOfSequenceNumbersAsContinuation() {
+		connector.packedResponse = "1. Rome\n3. is the answer\n2. Paris";
+		PackingExecutor<String> executor = new PackingExecutor<>(jPrompt, Capital.class, 10);
+		
+		assertEquals(List.of("Rome\n3. is the answer", "Paris"), executor.completeAll(contexts("Italy", "France")).getOutputs());
+	}
+	
+	@Test
+	void fallsBackWhenCountDoesntMatch() {
+		connector.packedResponse = "1. Rome\n2. Paris";
+		PackingExecutor<String> executor = new PackingExecutor<>(jPrompt, Capital.class, 10);
+		
+		BatchResult<String> result = executor.completeAll(contexts("Italy", "France", "Spain"));
+		
+		assertEquals(List.of("single Italy", "single France", "single Spain"), result.getOutputs());
+		assertEquals(1, executor.getFallbacks());
+		assertEquals(3, connector.singleRequests.get());
+	}
+	
+	@Test
+	void fallsBackWhenRequestIsRejected() {
+		connector.rejectPacked = true;
+		PackingExecutor<String> executor = new PackingExecutor<>(jPrompt, Capital.class, 10);
+		
+		BatchResult<String> result = executor.completeAll(contexts("Italy", "France"));
+		
+		assertEquals(List.of("single Italy", "single France"), result.getOutputs());
+		assertEquals(1, executor.getFallbacks());
+	}
+	
+	@Test
+	void splitsJsonArray() {
+		connector.packedResponse = "```json\n[\"Rome\", \"Paris\\non the Seine\", 42, {\"city\": \"Madrid\"}]\n```";
+		PackingExecutor<String> executor = new PackingExecutor<>(jPrompt, Capital.class, 10).withFormat(Format.JSON_ARRAY);
+		
+		BatchResult<String> result = executor.completeAll(contexts("Italy", "France", "Nowhere", "Spain"));
+		
+		assertEquals(List.of("Rome", "Paris\non the Seine", "42", "{\"city\":\"Madrid\"}"), result.getOutputs());
+		assertEquals(0, executor.getFallbacks());
+	}
+	
+	@Test
+	void fallsBackOnInvalidJson() {
+		connector.packedResponse = "[\"Rome\", \"Paris\"";
+		PackingExecutor<String> executor = new PackingExecutor<>(jPrompt, Capital.class, 10).withFormat(Format.JSON_ARRAY);
+		
+		assertEquals(List.of("single Italy", "single France"), executor.completeAll(contexts("Italy", "France")).getOutputs());
+		assertEquals(1, executor.getFallbacks());
+	}
+	
+	@Test
+	void splitsContextsIntoPacks() {
+		connector.packedResponse = "1. A\n2. B";
+		PackingExecutor<String> executor = new PackingExecutor<>(jPrompt, Capital.class, 2);
+		
+		BatchResult<String> result = executor.completeAll(contexts("a", "b", "c", "d", "e"));
+		
+		// Two packs of two, and the last context alone
+		assertEquals(List.of("A", "B", "A", "B", "single e"), result.getOutputs());
+		assertEquals(2, executor.getPacks());
+	}
+	
+	@Test
+	void appliesStepRulesToAnswers() {
+		connector.packedResponse = "1. Rome\n2. Paris\n3. 42";
+		PackingExecutor<String> executor = new PackingExecutor<>(jPrompt, ShortCapital.class, 10);
+		
+		BatchResult<String> result = executor.completeAll(contexts("Italy", "France", "Nowhere"));
+		
+		assertEquals(Arrays.asList("Rome", "Pari", null), result.getOutputs());
+		assertTrue(result.getItems().get(2).getError() instanceof InvalidOutputException);
+	}
+}
@@ -0,0 +1,70 @@
+package tech.ailef.jpromptmanager.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class CacheKeysTest {
+	private static Map<String, String> params(String... keyValues) {
+		Map<String, String> params = new LinkedHashMap<>();
+		for (int i = 0; i < keyValues.length; i += 2)
+			params.put(keyValues[i], keyValues[i + 1]);
+		return params;
+	}
+	
+	@Test
+	void isHexSha256() {
+		assertTrue(CacheKeys.of("prompt", Map.of()).matches("[0-9a-f]{64}"));
+	}
+	
+	@Test
+	void doesntDependOnParamOrder() {
+		assertEquals(CacheKeys.of("prompt", params("temperature", "0", "model", "gpt-4")),
+				CacheKeys.of("prompt", params("model", "gpt-4", "temperature", "0")));
+	}
+	
+	@Test
+	void dependsOnPromptAndParams() {
+		String key = CacheKeys.of("prompt", params("temperature", "0"));
+		
+		assertNotEquals(key, CacheKeys.of("other prompt", params("temperature", "0")));
+		assertNotEquals(key, CacheKeys.of("prompt", params("temperature", "1")));
+		assertNotEquals(key, CacheKeys.of("prompt", params("temperature", "0", "stop", "\\n")));
+	}
+	
+	@Test
+	void separatesParamsFromValues() {
+		assertNotEquals(CacheKeys.of("prompt", params("a", "bc")), CacheKeys.of("prompt", params("ab", "c")));
+		assertNotEquals(CacheKeys.of("prompt", params("a", "b", "c", "d")), CacheKeys.of("prompt", params("a", "b=c", "d", "")));
+	}
+	
+	@Test
+	void ignoresExecutionParams() {
+		String key = CacheKeys.of("prompt", params("temperature", "0"));
+		
+		for (String param : CacheKeys.IGNORED_PARAMS)
+			assertEquals(key, CacheKeys.of("prompt", params("temperature", "0", param, "value")), param);
+	}
+	
+	@Test
+	void includesOutputLimits() {
+		String key = CacheKeys.of("prompt", params("temperature", "0"));
+		
+		assertNotEquals(key, CacheKeys.of("prompt", params("temperature", "0", "maxChars", "100")));
+		assertNotEquals(key, CacheKeys.of("prompt", params("temperature", "0", "validate", "json")));
+	}
+	
+	@Test
+	void acceptsNullValues() {
+		Map<String, String> params = new HashMap<>();
+		params.put("user", null);
+		
+		assertNotEquals(CacheKeys.of("prompt", Map.of()), CacheKeys.of("prompt", params));
+	}
+}
@@ -0,0 +1,116 @@
+package tech.ailef.jpromptmanager.catalog;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import tech.ailef.jpromptmanager.PromptStepTemplate;
+import tech.ailef.jpromptmanager.PromptTemplate;
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+
+class PromptCatalogTest {
+	private static Map<String, PromptTemplate> prompts() {
+		Map<String, PromptTemplate> prompts = new LinkedHashMap<>();
+		prompts.put("Tagline", new PromptTemplate(List.of(
+				new PromptStepTemplate("tagline", "Write a tagline for [[${name}]] \u2014 \u00abun\u00efcode\u00bb", Map.of("temperature", "0.7", "maxTokens", "64")))));
+		prompts.put("Shop", new PromptTemplate(List.of(
+				new PromptStepTemplate("name", "Invent a name", Map.of()),
+				new PromptStepTemplate("history", "Write its history", Map.of("dependsOn", "name", "stop", "\\n\\n")))));
+		return prompts;
+	}
+	
+	private static void assertSameTemplate(PromptTemplate expected, PromptTemplate actual) {
+		assertEquals(expected.getSteps().size(), actual.getSteps().size());
+		for (int i = 0; i < expected.getSteps().size(); i++) {
+			PromptStepTemplate expectedStep = expected.getSteps().get(i);
+			PromptStepTemplate actualStep = actual.getSteps().get(i);
+			assertEquals(expectedStep.getName(), actualStep.getName());
+			assertEquals(expectedStep.getTemplate(), actualStep.getTemplate());
+			assertEquals(expectedStep.getParams(), actualStep.getParams());
+			assertEquals(expected.getDependencies(i), actual.getDependencies(i));
+		}
+	}
+	
+	@Test
+	void roundTrips() {
+		Map<String, PromptTemplate> prompts = prompts();
+		byte[] catalog = PromptCatalog.toBytes(prompts);
+		
+		assertTrue(PromptCatalog.isCatalog(catalog));
+		Map<String, PromptTemplate> read = PromptCatalog.read(catalog);
+		assertEquals(prompts.keySet(), read.keySet());
+		for (String type : prompts.keySet())
+			assertSameTemplate(prompts.get(type), read.get(type));
+	}
+	
+	@Test
+	void readsSinglePromptsFromIndex() {
+		Map<String, PromptTemplate> prompts = prompts();
+		byte[] catalog = PromptCatalog.toBytes(prompts);
+		
+		Map<String, long[]> index = PromptCatalog.index(catalog);
+		assertEquals(List.of("Shop", "Tagline"), List.copyOf(index.keySet()));
+		for (Map.Entry<String, long[]> entry : index.entrySet()) {
+			int start = (int)entry.getValue()[0];
+			byte[] record = Arrays.copyOfRange(catalog, start, start + (int)entry.getValue()[1]);
+			assertSameTemplate(prompts.get(entry.getKey()), PromptCatalog.readPrompt(record));
+		}
+	}
+	
+	@Test
+	void writesSameBytesRegardlessOfOrder() {
+		Map<String, PromptTemplate> reversed = new LinkedHashMap<>();
+		List<Map.Entry<String, PromptTemplate>> entries = List.copyOf(prompts().entrySet());
+		for (int i = entries.size() - 1; i >= 0; i--)
+			reversed.put(entries.get(i).getKey(), entries.get(i).getValue());
+		
+		assertArrayEquals(PromptCatalog.toBytes(prompts()), PromptCatalog.toBytes(reversed));
+	}
+	
+	@Test
+	void rejectsInvalidContent() {
+		byte[] catalog = PromptCatalog.toBytes(prompts());
+		
+		assertFalse(PromptCatalog.isCatalog("<prompts></prompts>".getBytes(StandardCharsets.UTF_8)));
+		assertThrows(JPromptManagerException.class, () -> PromptCatalog.read("<prompts></prompts>".getBytes(StandardCharsets.UTF_8)));
+		assertThrows(JPromptManagerException.class, () -> PromptCatalog.read(Arrays.copyOf(catalog, catalog.length - 3)));
+		
+		byte[] newerVersion = catalog.clone();
+		ByteBuffer.wrap(newerVersion).putShort(4, (short)(PromptCatalog.FORMAT_VERSION + 1));
+		assertThrows(JPromptManagerException.class, () -> PromptCatalog.read(newerVersion));
+	}
+	
+	@Test
+	void compilesXml(@TempDir Path dir) throws IOException {
+		Path xml = dir.resolve("prompts.xml");
+		Files.writeString(xml, "<prompts>\n"
+				+ "\t<prompt type=\"Year\">\n"
+				+ "\t\t<step name=\"year\" validate=\"regex:\\d{4}\">\n"
+				+ "\t\t\tIn which year was [[${name}]] founded?\n"
+				+ "\t\t</step>\n"
+				+ "\t</prompt>\n"
+				+ "</prompts>\n");
+		Path catalog = dir.resolve("out/prompts.bin");
+		
+		assertEquals(1, PromptCatalogCompiler.compile(xml, catalog));
+		PromptStepTemplate step = PromptCatalog.read(Files.readAllBytes(catalog)).get("Year").getSteps().get(0);
+		assertEquals("year", step.getName());
+		assertEquals("regex:\\d{4}", step.getParams().get("validate"));
+		assertTrue(step.getTemplate().contains("In which year was [[${name}]] founded?"));
+	}
+}
@@ -0,0 +1,164 @@
+package tech.ailef.jpromptmanager.completion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class CoalescingLLMConnectorTest {
+	private static final Map<String, String> PARAMS = Map.of("temperature", "0");
+	
+	private static final LLMRequest REQUEST = new LLMRequest("Question", PARAMS);
+	
+	private static final Executor DIRECT = Runnable::run;
+	
+	/**
+	 * Returns a pending future for each request, completed by the test; synchronous
+	 * requests block until their future is completed
+	 */
+	private static class FakeConnector implements LLMConnector {
+		private final BlockingQueue<CompletableFuture<LLMResponse>> calls = new LinkedBlockingQueue<>();
+		
+		@Override
+		public CompletableFuture<LLMResponse> executeAsync(LLMRequest request, Executor executor) {
+			CompletableFuture<LLMResponse> call = new CompletableFuture<>();
+			calls.add(call);
+			return call;
+		}
+		
+		@Override
+		public LLMResponse execute(LLMRequest request) {
+			return executeAsync(request, DIRECT).join();
+		}
+		
+		@Override
+		public String complete(String prompt, Map<String, String> params) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public Map<String, String> getDefaultParams() {
+			return Map.of();
+		}
+	}
+	
+	private final FakeConnector delegate = new FakeConnector();
+	
+	private final CoalescingLLMConnector connector = new CoalescingLLMConnector(delegate);
+	
+	@Test
+	void concurrentRequestsShareOneCall() throws Exception {
+		ExecutorService threads = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<LLMResponse>> responses = new ArrayList<>();
+			responses.add(threads.submit(() -> connector.execute(REQUEST)));
+			CompletableFuture<LLMResponse> call = delegate.calls.poll(10, TimeUnit.SECONDS);
+			assertNotNull(call);
+			
+			for (int i = 0; i < 3; i++)
+				responses.add(threads.submit(() -> connector.execute(REQUEST)));
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (connector.getCoalesced() < 3 && System.nanoTime() < deadline)
+				Thread.sleep(1);
+			
+			call.complete(new LLMResponse("answer", 10, 5, 0));
+			assertFalse(responses.get(0).get().isCached());
+			for (Future<LLMResponse> response : responses.subList(1, responses.size())) {
+				assertEquals("answer", response.get().getText());
+				assertTrue(response.get().isCached());
+			}
+			assertTrue(delegate.calls.isEmpty());
+			assertEquals(4, connector.getRequests());
+			assertEquals(3, connector.getCoalesced());
+		} finally {
+			threads.shutdownNow();
+		}
+	}
+	
+	@Test
+	void followersGetCachedResponse() throws Exception {
+		List<String> received = new ArrayList<>();
+		LLMRequest streaming = new LLMRequest("Question", PARAMS, received::add);
+		
+		CompletableFuture<LLMResponse> leader = connector.executeAsync(REQUEST, DIRECT);
+		CompletableFuture<LLMResponse> follower = connector.executeAsync(REQUEST, DIRECT);
+		CompletableFuture<LLMResponse> streamingFollower = connector.executeAsync(streaming, DIRECT);
+		
+		delegate.calls.poll().complete(new LLMResponse("answer", 10, 5, 0));
+		assertFalse(leader.get().isCached());
+		assertTrue(follower.get().isCached());
+		assertTrue(streamingFollower.get().isCached());
+		assertEquals(List.of("answer"), received);
+		assertTrue(delegate.calls.isEmpty());
+	}
+	
+	@Test
+	void cancellingOneWaiterKeepsCall() throws Exception {
+		CompletableFuture<LLMResponse> leader = connector.executeAsync(REQUEST, DIRECT);
+		CompletableFuture<LLMResponse> follower = connector.executeAsync(REQUEST, DIRECT);
+		CompletableFuture<LLMResponse> call = delegate.calls.poll();
+		
+		leader.cancel(true);
+		assertFalse(call.isCancelled());
+		
+		call.complete(new LLMResponse("answer"));
+		assertEquals("answer", follower.get().getText());
+	}
+	
+	@Test
+	void cancellingAllWaitersCancelsCall() {
+		CompletableFuture<LLMResponse> leader = connector.executeAsync(REQUEST, DIRECT);
+		CompletableFuture<LLMResponse> follower = connector.executeAsync(REQUEST, DIRECT);
+		CompletableFuture<LLMResponse> call = delegate.calls.poll();
+		
+		follower.cancel(true);
+		leader.cancel(true);
+		assertTrue(call.isCancelled());
+		
+		// The abandoned request isn't joined by new ones
+		connector.executeAsync(REQUEST, DIRECT);
+		assertNotNull(delegate.calls.poll());
+	}
+	
+	@Test
+	void leaderFailurePropagatesToFollowers() {
+		CompletableFuture<LLMResponse> leader = connector.executeAsync(REQUEST, DIRECT);
+		CompletableFuture<LLMResponse> follower = connector.executeAsync(REQUEST, DIRECT);
+		
+		RuntimeException failure = new RuntimeException("failed");
+		delegate.calls.poll().completeExceptionally(failure);
+		
+		assertSame(failure, assertThrows(ExecutionException.class, leader::get).getCause());
+		assertSame(failure, assertThrows(ExecutionException.class, follower::get).getCause());
+		
+		// Failures aren't kept once the request completes
+		connector.executeAsync(REQUEST, DIRECT);
+		assertNotNull(delegate.calls.poll());
+	}
+	
+	@Test
+	void doesntCoalesceNonDeterministicRequests() {
+		LLMRequest request = new LLMRequest("Question", Map.of("temperature", "0.7"));
+		
+		connector.executeAsync(request, DIRECT);
+		connector.executeAsync(request, DIRECT);
+		assertEquals(2, delegate.calls.size());
+	}
+}
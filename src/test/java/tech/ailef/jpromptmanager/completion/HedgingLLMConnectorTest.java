@@ -0,0 +1,183 @@
+package tech.ailef.jpromptmanager.completion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+
+class HedgingLLMConnectorTest {
+	private static final LLMRequest REQUEST = new LLMRequest("Question", Map.of("temperature", "0", "hedge", "true"));
+	
+	/**
+	 * Returns a pending future for each request, completed by the test
+	 */
+	private static class FakeConnector implements LLMConnector {
+		private final BlockingQueue<CompletableFuture<LLMResponse>> calls = new LinkedBlockingQueue<>();
+		
+		@Override
+		public CompletableFuture<LLMResponse> executeAsync(LLMRequest request, Executor executor) {
+			CompletableFuture<LLMResponse> call = new CompletableFuture<>();
+			calls.add(call);
+			return call;
+		}
+		
+		@Override
+		public String complete(String prompt, Map<String, String> params) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public Map<String, String> getDefaultParams() {
+			return Map.of();
+		}
+	}
+	
+	private final FakeConnector delegate = new FakeConnector();
+	
+	/**
+	 * Released each time the timer of a hedge has run
+	 */
+	private final Semaphore timers = new Semaphore(0);
+	
+	/**
+	 * Runs the hedge timers on the thread that fires them
+	 */
+	private final Executor executor = task -> {
+		task.run();
+		timers.release();
+	};
+	
+	private HedgingLLMConnector hedging(double budgetRatio) {
+		return new HedgingLLMConnector(delegate, 50, budgetRatio, false, executor);
+	}
+	
+	/**
+	 * Completes requests immediately until the connector starts hedging
+	 */
+	private void warmUp(HedgingLLMConnector connector) {
+		for (int i = 0; i < 20; i++) {
+			CompletableFuture<LLMResponse> result = connector.executeAsync(REQUEST, executor);
+			delegate.calls.poll().complete(new LLMResponse("warm-up"));
+			assertTrue(result.isDone());
+		}
+	}
+	
+	/**
+	 * Sends the request and waits for its hedge timer
+	 */
+	private CompletableFuture<LLMResponse> sendAndWaitForTimer(HedgingLLMConnector connector) throws InterruptedException {
+		CompletableFuture<LLMResponse> result = connector.executeAsync(REQUEST, executor);
+		assertTrue(timers.tryAcquire(10, TimeUnit.SECONDS));
+		return result;
+	}
+	
+	@Test
+	void doesntHedgeBeforeMinSamples() {
+		HedgingLLMConnector connector = hedging(1);
+		for (int i = 0; i < 19; i++) {
+			connector.executeAsync(REQUEST, executor);
+			delegate.calls.poll().complete(new LLMResponse("fast"));
+		}
+		
+		CompletableFuture<LLMResponse> result = connector.executeAsync(REQUEST, executor);
+		assertNotNull(delegate.calls.poll());
+		assertFalse(result.isDone());
+		assertNull(delegate.calls.poll());
+		assertEquals(0, timers.availablePermits());
+		assertEquals(0, connector.getHedges());
+	}
+	
+	@Test
+	void hedgeWinsAndCancelsPrimary() throws Exception {
+		HedgingLLMConnector connector = hedging(1);
+		warmUp(connector);
+		
+		CompletableFuture<LLMResponse> result = sendAndWaitForTimer(connector);
+		CompletableFuture<LLMResponse> primary = delegate.calls.poll();
+		CompletableFuture<LLMResponse> hedge = delegate.calls.poll();
+		assertNotNull(hedge);
+		
+		hedge.complete(new LLMResponse("hedge"));
+		assertEquals("hedge", result.get().getText());
+		assertTrue(primary.isCancelled());
+		assertEquals(1, connector.getHedges());
+		assertEquals(1, connector.getHedgeWins());
+	}
+	
+	@Test
+	void primaryWinsAndCancelsHedge() throws Exception {
+		HedgingLLMConnector connector = hedging(1);
+		warmUp(connector);
+		
+		CompletableFuture<LLMResponse> result = sendAndWaitForTimer(connector);
+		CompletableFuture<LLMResponse> primary = delegate.calls.poll();
+		CompletableFuture<LLMResponse> hedge = delegate.calls.poll();
+		
+		primary.complete(new LLMResponse("primary"));
+		assertEquals("primary", result.get().getText());
+		assertTrue(hedge.isCancelled());
+		assertEquals(0, connector.getHedgeWins());
+	}
+	
+	@Test
+	void stopsHedgingWhenBudgetIsExhausted() throws Exception {
+		HedgingLLMConnector connector = hedging(0);
+		warmUp(connector);
+		
+		// The initial burst of 10 hedges
+		for (int i = 0; i < 10; i++) {
+			CompletableFuture<LLMResponse> result = sendAndWaitForTimer(connector);
+			delegate.calls.poll().complete(new LLMResponse("primary"));
+			assertTrue(delegate.calls.poll().isCancelled());
+			assertEquals("primary", result.get().getText());
+		}
+		
+		CompletableFuture<LLMResponse> result = sendAndWaitForTimer(connector);
+		assertNotNull(delegate.calls.poll());
+		assertNull(delegate.calls.poll());
+		assertFalse(result.isDone());
+		assertEquals(10, connector.getHedges());
+	}
+	
+	@Test
+	void failsWhenBothCopiesFail() throws Exception {
+		HedgingLLMConnector connector = hedging(1);
+		warmUp(connector);
+		
+		CompletableFuture<LLMResponse> result = sendAndWaitForTimer(connector);
+		CompletableFuture<LLMResponse> primary = delegate.calls.poll();
+		CompletableFuture<LLMResponse> hedge = delegate.calls.poll();
+		
+		RuntimeException failure = new RuntimeException("primary failed");
+		primary.completeExceptionally(failure);
+		assertFalse(result.isDone());
+		
+		hedge.completeExceptionally(new RuntimeException("hedge failed"));
+		ExecutionException e = assertThrows(ExecutionException.class, result::get);
+		assertSame(failure, e.getCause());
+	}
+	
+	@Test
+	void rejectsInvalidPercentile() {
+		HedgingLLMConnector connector = hedging(1);
+		LLMRequest request = new LLMRequest("Question", Map.of("temperature", "0", "hedge", "p100"));
+		
+		assertThrows(JPromptManagerException.class, () -> connector.executeAsync(request, executor));
+	}
+}
@@ -0,0 +1,90 @@
+package tech.ailef.jpromptmanager.prompts;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonSyntaxException;
+
+class JsonStreamParserTest {
+	private final List<String> values = new ArrayList<>();
+	
+	private JsonStreamParser parser(int maxDepth) {
+		return new JsonStreamParser(maxDepth, (path, json) -> values.add(path + "=" + json));
+	}
+	
+	@Test
+	void reportsInnerValuesFirst() {
+		JsonStreamParser parser = parser(Integer.MAX_VALUE);
+		parser.feed("[{\"a\": -0.5}, [], {}, \"s\", 10]");
+		
+		assertTrue(parser.isComplete());
+		assertEquals(List.of("[0, a]=-0.5", "[0]={\"a\": -0.5}", "[1]=[]", "[2]={}", "[3]=\"s\"", "[4]=10",
+				"[]=[{\"a\": -0.5}, [], {}, \"s\", 10]"), values);
+	}
+	
+	@Test
+	void chunkBoundariesDontChangeTheValues() {
+		String json = "{\"name\": \"Bob's \\\"Cars\\\" \\u00e8\", \"owners\": [\"A B\", \"C D\"], \"open\": true, \"rating\": 4.5e1}";
+		parser(Integer.MAX_VALUE).feed(json);
+		List<String> whole = new ArrayList<>(values);
+		
+		for (int size = 1; size <= 7; size++) {
+			values.clear();
+			JsonStreamParser parser = parser(Integer.MAX_VALUE);
+			for (int i = 0; i < json.length(); i += size)
+				parser.feed(json.substring(i, Math.min(json.length(), i + size)));
+			
+			assertTrue(parser.isComplete());
+			assertEquals(whole, values, "chunks of " + size);
+		}
+	}
+	
+	@Test
+	void reportsValuesUpToMaxDepth() {
+		parser(1).feed("{\"a\": {\"b\": 1}, \"c\": [2]}");
+		assertEquals(List.of("[a]={\"b\": 1}", "[c]=[2]", "[]={\"a\": {\"b\": 1}, \"c\": [2]}"), values);
+	}
+	
+	@Test
+	void skipsCodeBlockOpeningAndTrailingText() {
+		JsonStreamParser parser = parser(0);
+		parser.feed("  ```json\n{\"a\": 1}\n```\nSome explanation");
+		
+		assertTrue(parser.isComplete());
+		assertEquals("{\"a\": 1}", parser.getJson());
+	}
+	
+	@Test
+	void keepsPartialDocument() {
+		JsonStreamParser parser = parser(Integer.MAX_VALUE);
+		parser.feed("{\"a\": [1, 2");
+		
+		assertFalse(parser.isComplete());
+		assertEquals("{\"a\": [1, 2", parser.getJson());
+		assertEquals(List.of("[a, 0]=1"), values);
+	}
+	
+	@Test
+	void rejectsFirstInvalidCharacter() {
+		for (String json : List.of("S", "[01]", "[1,]", "{\"a\" 1", "[tru ", "{\"a\":1]", "[\"\\x\"]", "{1: 2}", "[1 2]")) {
+			JsonStreamParser parser = parser(Integer.MAX_VALUE);
+			assertThrows(JsonSyntaxException.class, () -> parser.feed(json), json);
+		}
+	}
+	
+	@Test
+	void rejectsErrorBeforeTheEndOfTheDocument() {
+		JsonStreamParser parser = parser(Integer.MAX_VALUE);
+		parser.feed("{\"name\": \"ok\", \"owners\": [\"A\"");
+		
+		JsonSyntaxException e = assertThrows(JsonSyntaxException.class, () -> parser.feed(" \"B\""));
+		assertTrue(e.getMessage().contains("offset 30"), e.getMessage());
+	}
+}
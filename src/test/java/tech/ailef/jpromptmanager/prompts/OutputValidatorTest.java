@@ -0,0 +1,93 @@
+package tech.ailef.jpromptmanager.prompts;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import tech.ailef.jpromptmanager.exceptions.JPromptManagerException;
+import tech.ailef.jpromptmanager.prompts.OutputValidator.Validation;
+import tech.ailef.jpromptmanager.prompts.OutputValidator.Verdict;
+
+class OutputValidatorTest {
+	private static class Owner {
+		@SuppressWarnings("unused")
+		private List<String> names;
+	}
+	
+	@Test
+	void regexVerdicts() {
+		OutputValidator year = OutputValidator.regex(Pattern.compile("\\d{4}"));
+		
+		assertEquals(Verdict.INCOMPLETE, year.validate("19", false));
+		assertEquals(Verdict.COMPLETE, year.validate("1985", false));
+		assertEquals(Verdict.INVALID, year.validate("198x", false));
+		assertEquals(Verdict.INVALID, year.validate("19", true));
+	}
+	
+	@Test
+	void regexValidationStopsCheckingLongOutputs() {
+		OutputValidator letters = OutputValidator.regex(Pattern.compile("[a-z]+"));
+		Validation validation = letters.start();
+		
+		assertEquals(Verdict.INCOMPLETE, validation.append("a".repeat(OutputValidator.REGEX_STREAMING_LIMIT)));
+		assertEquals(Verdict.INCOMPLETE, validation.append("1"));
+		assertEquals(Verdict.INVALID, validation.finish());
+	}
+	
+	@Test
+	void jsonValidationIsIncremental() {
+		Validation validation = OutputValidator.json().start();
+		
+		assertEquals(Verdict.INCOMPLETE, validation.append("```json\n{\"a\": "));
+		assertEquals(Verdict.INCOMPLETE, validation.append("[1, 2]"));
+		assertEquals(Verdict.COMPLETE, validation.append("}\n```"));
+		assertEquals(Verdict.COMPLETE, validation.finish());
+		
+		Validation invalid = OutputValidator.json().start();
+		assertEquals(Verdict.INCOMPLETE, invalid.append("{\"a\": [1"));
+		assertEquals(Verdict.INVALID, invalid.append(", 2}"));
+		assertEquals(Verdict.INVALID, invalid.finish());
+	}
+	
+	@Test
+	void jsonValidationChecksSchema() {
+		OutputValidator owner = OutputValidator.json(Owner.class);
+		
+		assertEquals(Verdict.COMPLETE, owner.validate("{\"names\": [\"A\", \"B\"]}", false));
+		assertEquals(Verdict.INVALID, owner.validate("{\"names\": 5}", false));
+		assertEquals(Verdict.INCOMPLETE, owner.validate("{\"names\": [", false));
+		assertEquals(Verdict.INVALID, owner.validate("{\"names\": [", true));
+	}
+	
+	@Test
+	void predicatesOnlyCheckFinalOutput() {
+		OutputValidator shortAnswer = OutputValidator.of(answer -> answer.length() < 5);
+		Validation validation = shortAnswer.start();
+		
+		assertEquals(Verdict.INCOMPLETE, validation.append("abcdef"));
+		assertEquals(Verdict.INVALID, validation.finish());
+		assertEquals(Verdict.COMPLETE, shortAnswer.validate("abc", true));
+	}
+	
+	@Test
+	void defaultValidationStripsOutput() {
+		OutputValidator exact = (output, finished) -> output.equals("yes") ? Verdict.COMPLETE : Verdict.INCOMPLETE;
+		Validation validation = exact.start();
+		
+		assertEquals(Verdict.INCOMPLETE, validation.append(" ye"));
+		assertEquals(Verdict.COMPLETE, validation.append("s\n"));
+	}
+	
+	@Test
+	void parsesAttribute() {
+		assertEquals(Verdict.COMPLETE, OutputValidator.parse("json").validate("[]", true));
+		assertEquals(Verdict.COMPLETE, OutputValidator.parse("regex:a.b").validate("a\nb", true));
+		assertNull(OutputValidator.parse("custom"));
+		assertThrows(JPromptManagerException.class, () -> OutputValidator.parse("regex:("));
+	}
+}
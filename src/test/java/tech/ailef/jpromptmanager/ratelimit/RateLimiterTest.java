@@ -0,0 +1,75 @@
+package tech.ailef.jpromptmanager.ratelimit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import tech.ailef.jpromptmanager.ratelimit.RateLimiter.Permit;
+
+class RateLimiterTest {
+	private static final Executor DIRECT = Runnable::run;
+	
+	@Test
+	void limitsRequestsInFlight() throws Exception {
+		RateLimiter limiter = new RateLimiter(RateLimiter.UNLIMITED, RateLimiter.UNLIMITED, 2);
+		
+		CompletableFuture<Permit> first = limiter.acquireAsync(0, DIRECT);
+		CompletableFuture<Permit> second = limiter.acquireAsync(0, DIRECT);
+		CompletableFuture<Permit> third = limiter.acquireAsync(0, DIRECT);
+		assertTrue(first.isDone() && second.isDone());
+		assertFalse(third.isDone());
+		
+		first.get().close();
+		assertTrue(third.isDone());
+	}
+	
+	@Test
+	void closingTwiceReleasesOnce() throws Exception {
+		RateLimiter limiter = new RateLimiter(RateLimiter.UNLIMITED, RateLimiter.UNLIMITED, 1);
+		
+		Permit first = limiter.acquireAsync(0, DIRECT).get();
+		CompletableFuture<Permit> second = limiter.acquireAsync(0, DIRECT);
+		CompletableFuture<Permit> third = limiter.acquireAsync(0, DIRECT);
+		first.close();
+		first.close();
+		
+		assertTrue(second.isDone());
+		assertFalse(third.isDone());
+	}
+	
+	@Test
+	void skipsCancelledWaiters() throws Exception {
+		RateLimiter limiter = new RateLimiter(RateLimiter.UNLIMITED, RateLimiter.UNLIMITED, 1);
+		
+		Permit first = limiter.acquireAsync(0, DIRECT).get();
+		CompletableFuture<Permit> cancelled = limiter.acquireAsync(0, DIRECT);
+		CompletableFuture<Permit> next = limiter.acquireAsync(0, DIRECT);
+		cancelled.cancel(false);
+		first.close();
+		
+		assertTrue(next.isDone());
+	}
+	
+	@Test
+	void delaysRequestsOverRate() throws Exception {
+		// One request per second, after the initial burst of 60
+		RateLimiter limiter = new RateLimiter(60, RateLimiter.UNLIMITED, RateLimiter.UNLIMITED);
+		for (int i = 0; i < 60; i++)
+			limiter.acquire(0).close();
+		
+		CompletableFuture<Permit> delayed = limiter.acquireAsync(0, DIRECT);
+		assertFalse(delayed.isDone());
+		delayed.get(5, TimeUnit.SECONDS).close();
+	}
+	
+	@Test
+	void rejectsNegativeLimits() {
+		assertThrows(IllegalArgumentException.class, () -> new RateLimiter(-1, 0, 0));
+	}
+}
@@ -0,0 +1,46 @@
+package tech.ailef.jpromptmanager.ratelimit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+	
+	@Test
+	void startsFull() {
+		TokenBucket bucket = new TokenBucket(60, 0);
+		
+		assertEquals(0, bucket.reserve(60, 0));
+	}
+	
+	@Test
+	void queuesReservationsBeyondCapacity() {
+		TokenBucket bucket = new TokenBucket(60, 0);
+		bucket.reserve(60, 0);
+		
+		// One token per second: each reservation waits for the debt of the previous ones
+		assertEquals(SECOND, bucket.reserve(1, 0));
+		assertEquals(2 * SECOND, bucket.reserve(1, 0));
+		assertEquals(SECOND, bucket.reserve(0, SECOND));
+	}
+	
+	@Test
+	void refillsContinuously() {
+		TokenBucket bucket = new TokenBucket(60, 0);
+		bucket.reserve(60, 0);
+		
+		assertEquals(0, bucket.reserve(3, 3 * SECOND));
+		assertEquals(SECOND / 2, bucket.reserve(1, 3 * SECOND + SECOND / 2));
+	}
+	
+	@Test
+	void refillsUpToCapacity() {
+		TokenBucket bucket = new TokenBucket(60, 0);
+		
+		assertEquals(0, bucket.reserve(0, TimeUnit.MINUTES.toNanos(10)));
+		assertEquals(SECOND, bucket.reserve(61, TimeUnit.MINUTES.toNanos(10)));
+	}
+}
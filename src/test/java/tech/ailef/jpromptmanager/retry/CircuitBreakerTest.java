@@ -0,0 +1,113 @@
+package tech.ailef.jpromptmanager.retry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import tech.ailef.jpromptmanager.retry.CircuitBreaker.State;
+
+class CircuitBreakerTest {
+	@Test
+	void opensWhenFailureRateExceedsThreshold() {
+		CircuitBreaker breaker = new CircuitBreaker(0.5, 4, 4, Duration.ofHours(1));
+		
+		breaker.onSuccess();
+		breaker.onFailure();
+		breaker.onSuccess();
+		assertEquals(State.CLOSED, breaker.getState());
+		
+		breaker.onFailure();
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+	}
+	
+	@Test
+	void waitsForMinimumRequests() {
+		CircuitBreaker breaker = new CircuitBreaker(0.5, 10, 3, Duration.ofHours(1));
+		
+		breaker.onFailure();
+		breaker.onFailure();
+		assertEquals(State.CLOSED, breaker.getState());
+		assertEquals(1.0, breaker.getFailureRate());
+		
+		breaker.onFailure();
+		assertEquals(State.OPEN, breaker.getState());
+	}
+	
+	@Test
+	void slidesWindowOverOldOutcomes() {
+		CircuitBreaker breaker = new CircuitBreaker(0.75, 4, 4, Duration.ofHours(1));
+		
+		breaker.onFailure();
+		breaker.onFailure();
+		breaker.onSuccess();
+		breaker.onSuccess();
+		assertEquals(0.5, breaker.getFailureRate());
+		
+		// Both failures leave the window
+		breaker.onSuccess();
+		breaker.onSuccess();
+		assertEquals(0.0, breaker.getFailureRate());
+		assertEquals(State.CLOSED, breaker.getState());
+	}
+	
+	@Test
+	void allowsSingleTrialAfterCooldown() {
+		CircuitBreaker breaker = new CircuitBreaker(1, 1, 1, Duration.ZERO);
+		breaker.onFailure();
+		assertEquals(State.OPEN, breaker.getState());
+		
+		assertTrue(breaker.tryAcquire());
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+		
+		breaker.onSuccess();
+		assertEquals(State.CLOSED, breaker.getState());
+		assertEquals(0.0, breaker.getFailureRate());
+		assertTrue(breaker.tryAcquire());
+	}
+	
+	@Test
+	void refusesRequestsDuringCooldown() {
+		CircuitBreaker breaker = new CircuitBreaker(1, 1, 1, Duration.ofHours(1));
+		breaker.onFailure();
+		
+		assertFalse(breaker.tryAcquire());
+		assertEquals(State.OPEN, breaker.getState());
+	}
+	
+	@Test
+	void trialFailureReopensCircuit() throws InterruptedException {
+		CircuitBreaker breaker = new CircuitBreaker(1, 1, 1, Duration.ofMillis(20));
+		breaker.onFailure();
+		
+		Thread.sleep(30);
+		assertTrue(breaker.tryAcquire());
+		breaker.onFailure();
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+	}
+	
+	@Test
+	void cancelledTrialReleasesSlot() {
+		CircuitBreaker breaker = new CircuitBreaker(1, 1, 1, Duration.ZERO);
+		breaker.onFailure();
+		
+		assertTrue(breaker.tryAcquire());
+		breaker.onCancelled();
+		assertTrue(breaker.tryAcquire());
+		assertEquals(State.HALF_OPEN, breaker.getState());
+	}
+	
+	@Test
+	void rejectsInvalidSettings() {
+		assertThrows(IllegalArgumentException.class, () -> new CircuitBreaker(0, 10, 5, Duration.ZERO));
+		assertThrows(IllegalArgumentException.class, () -> new CircuitBreaker(1.5, 10, 5, Duration.ZERO));
+		assertThrows(IllegalArgumentException.class, () -> new CircuitBreaker(0.5, 0, 5, Duration.ZERO));
+	}
+}
@@ -0,0 +1,175 @@
+package tech.ailef.jpromptmanager.retry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+import tech.ailef.jpromptmanager.exceptions.LLMRequestException;
+
+class RetryPolicyTest {
+	private static final Function<Exception, RuntimeException> TRANSLATOR =
+			e -> e instanceof RuntimeException ? (RuntimeException)e : new RuntimeException(e);
+	
+	private final RetryPolicy fast = new RetryPolicy()
+			.withBackoff(Duration.ofMillis(1), Duration.ofMillis(4))
+			.withDeadline(Duration.ofSeconds(10));
+	
+	private static LLMRequestException failure(int statusCode) {
+		return new LLMRequestException("HTTP " + statusCode, statusCode, null, null);
+	}
+	
+	private static Duration parse(Map<String, String> headers) {
+		return RetryPolicy.parseRetryAfter(headers::get);
+	}
+	
+	@Test
+	void retriesTransientFailuresUntilSuccess() {
+		AtomicInteger attempts = new AtomicInteger();
+		List<Integer> retries = new ArrayList<>();
+		
+		String result = fast.execute(() -> {
+			if (attempts.incrementAndGet() < 3)
+				throw failure(503);
+			return "ok";
+		}, TRANSLATOR, retries::add);
+		
+		assertEquals("ok", result);
+		assertEquals(3, attempts.get());
+		assertEquals(List.of(1, 2), retries);
+	}
+	
+	@Test
+	void stopsAfterMaxRetries() {
+		AtomicInteger attempts = new AtomicInteger();
+		
+		LLMRequestException e = assertThrows(LLMRequestException.class, () -> fast.withMaxRetries(2).execute(() -> {
+			attempts.incrementAndGet();
+			throw failure(429);
+		}, TRANSLATOR));
+		
+		assertEquals(3, attempts.get());
+		assertEquals(2, e.getRetries());
+	}
+	
+	@Test
+	void doesntRetryPermanentFailures() {
+		AtomicInteger attempts = new AtomicInteger();
+		
+		LLMRequestException e = assertThrows(LLMRequestException.class, () -> fast.execute(() -> {
+			attempts.incrementAndGet();
+			throw failure(400);
+		}, TRANSLATOR));
+		
+		assertEquals(1, attempts.get());
+		assertEquals(0, e.getRetries());
+	}
+	
+	@Test
+	void classifiesFailures() {
+		RetryPolicy policy = new RetryPolicy();
+		
+		assertTrue(policy.isRetryable(failure(500)));
+		assertFalse(policy.isRetryable(failure(401)));
+		assertTrue(policy.isRetryable(new RuntimeException(new IOException("connection reset"))));
+		assertTrue(policy.isRetryable(new LLMRequestException("timeout", LLMRequestException.NO_STATUS, null, new IOException())));
+		assertFalse(policy.isRetryable(new IllegalStateException()));
+		assertTrue(policy.withRetryableStatusCodes(Set.of(401)).isRetryable(failure(401)));
+	}
+	
+	@Test
+	void backoffStaysWithinMaxDelay() {
+		RetryPolicy policy = new RetryPolicy()
+				.withMaxRetries(5)
+				.withBackoff(Duration.ofMillis(5), Duration.ofMillis(20));
+		AtomicInteger attempts = new AtomicInteger();
+		
+		long start = System.nanoTime();
+		assertThrows(LLMRequestException.class, () -> policy.execute(() -> {
+			attempts.incrementAndGet();
+			throw failure(503);
+		}, TRANSLATOR));
+		
+		// At most 5 + 10 + 20 + 20 + 20 ms of delays, plus scheduling slack
+		assertEquals(6, attempts.get());
+		assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 2000);
+	}
+	
+	@Test
+	void usesRetryAfterInsteadOfBackoff() {
+		RetryPolicy policy = new RetryPolicy().withBackoff(Duration.ofMinutes(1), Duration.ofMinutes(1));
+		AtomicInteger attempts = new AtomicInteger();
+		
+		long start = System.nanoTime();
+		String result = policy.execute(() -> {
+			if (attempts.incrementAndGet() == 1)
+				throw new LLMRequestException("rate limited", 429, Duration.ofMillis(50), null);
+			return "ok";
+		}, TRANSLATOR);
+		
+		long elapsedMillis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+		assertEquals("ok", result);
+		assertTrue(elapsedMillis >= 50 && elapsedMillis < 5000, elapsedMillis + "ms");
+	}
+	
+	@Test
+	void doesntRetryPastDeadline() {
+		RetryPolicy policy = new RetryPolicy().withDeadline(Duration.ofMillis(100));
+		AtomicInteger attempts = new AtomicInteger();
+		LLMRequestException failure = new LLMRequestException("rate limited", 429, Duration.ofSeconds(10), null);
+		
+		assertSame(failure, assertThrows(LLMRequestException.class, () -> policy.execute(() -> {
+			attempts.incrementAndGet();
+			throw failure;
+		}, TRANSLATOR)));
+		assertEquals(1, attempts.get());
+	}
+	
+	@Test
+	void retriesAsynchronously() throws Exception {
+		AtomicInteger attempts = new AtomicInteger();
+		
+		CompletableFuture<String> result = fast.executeAsync(() -> attempts.incrementAndGet() < 3
+				? CompletableFuture.failedFuture(failure(502))
+				: CompletableFuture.completedFuture("ok"), TRANSLATOR, retry -> {});
+		assertEquals("ok", result.get());
+		assertEquals(3, attempts.get());
+		
+		CompletableFuture<String> failed = fast.executeAsync(() -> CompletableFuture.failedFuture(failure(404)), TRANSLATOR, retry -> {});
+		ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+		assertEquals(404, ((LLMRequestException)e.getCause()).getStatusCode());
+	}
+	
+	@Test
+	void parsesRetryAfterHeaders() {
+		assertEquals(Duration.ofMillis(1500), parse(Map.of("retry-after-ms", "1500", "Retry-After", "3")));
+		assertEquals(Duration.ofSeconds(3), parse(Map.of("retry-after-ms", "soon", "Retry-After", "3")));
+		assertEquals(Duration.ZERO, parse(Map.of("Retry-After", "Wed, 21 Oct 2015 07:28:00 GMT")));
+		assertEquals(Duration.ofMillis(360_000), parse(Map.of("x-ratelimit-reset-requests", "6m0s", "x-ratelimit-reset-tokens", "20ms")));
+		assertEquals(Duration.ofMillis(1500), parse(Map.of("x-ratelimit-reset-tokens", "1.5s")));
+		assertNull(parse(Map.of("x-ratelimit-reset-tokens", "6 minutes")));
+		assertNull(parse(Map.of()));
+		
+		String future = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(10));
+		Duration delay = parse(Map.of("Retry-After", future));
+		assertTrue(delay.compareTo(Duration.ofMinutes(9)) > 0 && delay.compareTo(Duration.ofMinutes(10)) <= 0, delay.toString());
+	}
+}